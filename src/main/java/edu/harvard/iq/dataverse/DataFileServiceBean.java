@@ -12,15 +12,19 @@ import edu.harvard.iq.dataverse.util.FileUtil;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
@@ -287,6 +291,29 @@ public class DataFileServiceBean implements java.io.Serializable {
                 .getResultList();
     }
     
+    /**
+     * Finds which of the files are in at least one published (released)
+     * version of their dataset, with one query on the (indexed) file metadata
+     * table - instead of loading all the versions of every single file.
+     *
+     * @param dataFileIds ids of the files to check
+     * @return the ids, among {@code dataFileIds}, of the published files
+     */
+    public Set<Long> findIdsInReleasedVersions(Collection<Long> dataFileIds) {
+        Set<Long> released = new HashSet<>();
+        if (dataFileIds == null || dataFileIds.isEmpty()) {
+            return released;
+        }
+        List<Object> result = em.createNativeQuery("SELECT DISTINCT fm.datafile_id FROM filemetadata fm, datasetversion dv"
+                + " WHERE dv.id = fm.datasetversion_id AND dv.versionstate = 'RELEASED'"
+                + " AND fm.datafile_id IN (" + dataFileIds.stream().map(String::valueOf).collect(Collectors.joining(",")) + ")")
+                .getResultList();
+        for (Object id : result) {
+            released.add(((Number) id).longValue());
+        }
+        return released;
+    }
+
     public List<Long> findDataFileIdsByDatasetVersionIdLabelSearchTerm(Long datasetVersionId, String searchTerm, String userSuppliedSortField, String userSuppliedSortOrder){
         FileSortFieldAndOrder sortFieldAndOrder = new FileSortFieldAndOrder(userSuppliedSortField, userSuppliedSortOrder);
         
@@ -319,7 +346,29 @@ public class DataFileServiceBean implements java.io.Serializable {
                 .setFirstResult(firstResult)
                 .getResultList();
     }
-    
+
+    /**
+     * A page of the file metadatas of a version, with their files and the
+     * parts of the files that are listed in the JSON of the files pre-fetched
+     * (for the whole page at once, rather than file by file).
+     * The metadatas are sorted by the id after the sort field, so that the
+     * pages neither overlap nor skip any.
+     */
+    public List<FileMetadata> findFileMetadataPageByDatasetVersionId(Long datasetVersionId, FileSortFieldAndOrder sortFieldAndOrder, int firstResult, int maxResults) {
+        return em.createQuery("select o from FileMetadata o where o.datasetVersion.id = :datasetVersionId order by o."
+                        + sortFieldAndOrder.getSortField() + " " + sortFieldAndOrder.getSortOrder() + ", o.id", FileMetadata.class)
+                .setParameter("datasetVersionId", datasetVersionId)
+                .setHint("eclipselink.left-join-fetch", "o.dataFile")
+                .setHint("eclipselink.left-join-fetch", "o.dataFile.embargo")
+                .setHint("eclipselink.batch.type", "IN")
+                .setHint("eclipselink.batch", "o.fileCategories")
+                .setHint("eclipselink.batch", "o.dataFile.dataTables")
+                .setHint("eclipselink.batch", "o.dataFile.dataFileTags")
+                .setFirstResult(firstResult)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
     public Long findCountByDatasetVersionId(Long datasetVersionId){
         return (Long) em.createNativeQuery("select count(*)  from FileMetadata fmd "
                 + " where fmd.datasetVersion_id = " + datasetVersionId
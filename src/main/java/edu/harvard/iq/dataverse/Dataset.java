@@ -45,6 +45,7 @@ import edu.harvard.iq.dataverse.util.SystemConfig;
 @NamedQueries({
     // Dataset.findById should only be used if you're going to iterate over files (otherwise, lazy loading in DatasetService.find() is better).
     // If you are going to iterate over files, preferably call the DatasetService.findDeep() method i.s.o. using this query directly.
+    // (or DatasetService.findForIndexing(), when indexing the dataset)
     @NamedQuery(name = "Dataset.findById", 
                 query = "SELECT o FROM Dataset o LEFT JOIN FETCH o.files WHERE o.id=:id"),
     @NamedQuery(name = "Dataset.findIdStale",
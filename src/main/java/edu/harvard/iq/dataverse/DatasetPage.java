@@ -715,9 +715,29 @@ public class DatasetPage implements java.io.Serializable {
             retList = md.stream().filter(x -> searchResultsIdSet.contains(x.getDataFile().getId())).collect(Collectors.toList());
         }
         sortFileMetadatas(retList);
+        prefetchDownloadPermissions(retList);
         return retList;
     }
 
+    /**
+     * Looks up the permissions on all the restricted (or embargoed) files
+     * listed at once, rather than one at a time when the page checks whether
+     * each one can be downloaded (see {@link FileDownloadHelper#canDownloadFile(FileMetadata)});
+     * the permissions are cached for the rest of the request.
+     */
+    private void prefetchDownloadPermissions(List<FileMetadata> fileMetadatas) {
+        List<DvObject> files = new ArrayList<>();
+        for (FileMetadata fmd : fileMetadatas) {
+            DataFile file = fmd.getDataFile();
+            if (file.getId() != null && (fmd.isRestricted() || file.isRestricted() || FileUtil.isActivelyEmbargoed(fmd))) {
+                files.add(file);
+            }
+        }
+        if (!files.isEmpty()) {
+            permissionService.permissionsFor(dvRequestService.getDataverseRequest(), files);
+        }
+    }
+
     private void sortFileMetadatas(final List<FileMetadata> fileList) {
         
         final DataFileComparator dfc = new DataFileComparator();
@@ -1505,6 +1525,9 @@ public class DatasetPage implements java.io.Serializable {
         this.deaccessionForwardURLFor = deaccessionForwardURLFor;
     }
     private DatasetVersionDifference datasetVersionDifference;
+    // The differences between published versions compared in this view, so
+    // that comparing them again does not work them out again:
+    private final Map<String, DatasetVersionDifference> versionDifferences = new HashMap<>();
 
     public String getDeaccessionReasonText() {
         return deaccessionReasonText;
@@ -4340,7 +4363,15 @@ public class DatasetPage implements java.io.Serializable {
         if (originalVersion == null) {
             setDatasetVersionDifference(newVersion.getDefaultVersionDifference());
         } else {
-            setDatasetVersionDifference(new DatasetVersionDifference(newVersion, originalVersion));
+            String key = DatasetVersionDifference.getCacheKey(newVersion, originalVersion);
+            DatasetVersionDifference difference = key == null ? null : versionDifferences.get(key);
+            if (difference == null) {
+                difference = new DatasetVersionDifference(newVersion, originalVersion);
+                if (key != null) {
+                    versionDifferences.put(key, difference);
+                }
+            }
+            setDatasetVersionDifference(difference);
         }
     }
 
@@ -139,6 +139,34 @@ public class DatasetServiceBean implements java.io.Serializable {
             .getSingleResult();
     }
 
+    /**
+     * Retrieve a dataset with only the parts of its files that indexing uses
+     * (the file metadatas and their categories, the data tables, the tags and
+     * the embargo). Unlike findDeep(), this does not join in the guestbook
+     * responses, access requests, role assignments etc. of the files, whose
+     * number grows with the use of the dataset, and which would multiply the
+     * rows of the query. The to-many relations are read with one extra query
+     * each (for all the files at once) rather than joined, so that the
+     * number of rows read stays proportional to the number of files.
+     * @return a dataset with the files pre-fetched for indexing, or null if
+     * not found
+     */
+    public Dataset findForIndexing(Object pk) {
+        try {
+            return em.createNamedQuery("Dataset.findById", Dataset.class)
+                .setParameter("id", pk)
+                .setHint("eclipselink.left-join-fetch", "o.files.embargo")
+                .setHint("eclipselink.batch.type", "IN")
+                .setHint("eclipselink.batch", "o.files.fileMetadatas")
+                .setHint("eclipselink.batch", "o.files.fileMetadatas.fileCategories")
+                .setHint("eclipselink.batch", "o.files.dataTables")
+                .setHint("eclipselink.batch", "o.files.dataFileTags")
+                .getSingleResult();
+        } catch (NoResultException nre) {
+            return null;
+        }
+    }
+
     public List<Dataset> findByOwnerId(Long ownerId) {
         return findByOwnerId(ownerId, false);
     }
@@ -261,6 +289,10 @@ public class DatasetServiceBean implements java.io.Serializable {
         return typedQuery.getResultList();
     }
 
+    public List<Long> findAllOrSubsetOrderByFilesOwned(boolean skipIndexed) {
+        return findAllOrSubsetOrderByFilesOwned(1, 0, skipIndexed);
+    }
+
         /**
      * For docs, see the equivalent method on the DataverseServiceBean.
      * @param numPartitions
@@ -269,19 +301,20 @@ public class DatasetServiceBean implements java.io.Serializable {
      * @return a list of datasets
      * @see DataverseServiceBean#findAllOrSubset(long, long, boolean)
      */
-    public List<Long> findAllOrSubsetOrderByFilesOwned(boolean skipIndexed) {
+    public List<Long> findAllOrSubsetOrderByFilesOwned(long numPartitions, long partitionId, boolean skipIndexed) {
         /*
         Disregards deleted or replaced files when determining 'size' of dataset.
         Could possibly make more efficient by getting file metadata counts
         of latest published/draft version.
-        Also disregards partitioning which is no longer supported.
         SEK - 11/09/2021
         */
 
         String skipClause = skipIndexed ? "AND o.indexTime is null " : "";
+        String partitionClause = numPartitions > 1 ? "AND MOD(o.id, " + numPartitions + ") = " + partitionId + " " : "";
         Query query = em.createNativeQuery(" Select distinct(o.id), count(f.id) as numFiles FROM dvobject o " +
             "left join dvobject f on f.owner_id = o.id  where o.dtype = 'Dataset' "
                 + skipClause
+                + partitionClause
                 + " group by o.id "
                 + "ORDER BY count(f.id) asc, o.id");
 
@@ -489,6 +522,19 @@ public class DatasetServiceBean implements java.io.Serializable {
         em.merge(datasetLock);
     }
 
+    /**
+     * Updates the info message of a lock, without merging the lock (e.g. to
+     * report the progress of the command holding it, while the lock is
+     * managed by the transaction of that command).
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void updateDatasetLockInfo(Long lockId, String info) {
+        em.createQuery("UPDATE DatasetLock l SET l.info = :info WHERE l.id = :id")
+                .setParameter("info", info)
+                .setParameter("id", lockId)
+                .executeUpdate();
+    }
+
     /*
      * Lists all dataset locks, optionally filtered by lock type or user, or both
      * @param lockType
@@ -206,6 +206,15 @@ public class DatasetVersion implements Serializable {
     
     @Transient 
     private JsonObject archivalStatus;
+
+    // The ids of the files in this version (see containsDataFile()), and the
+    // list of file metadatas they were collected from:
+    @Transient
+    private Set<Long> dataFileIds;
+    @Transient
+    private List<FileMetadata> dataFileIdsSource;
+    @Transient
+    private int dataFileIdsSourceSize;
     
     public Long getId() {
         return this.id;
@@ -303,6 +312,46 @@ public class DatasetVersion implements Serializable {
 
     public void setFileMetadatas(List<FileMetadata> fileMetadatas) {
         this.fileMetadatas = fileMetadatas;
+        this.dataFileIds = null;
+    }
+
+    /**
+     * Tells whether the file is in this version - without going through all
+     * the file metadatas of the version every time, which would make checking
+     * all the files of a version take quadratic time: the ids of the files are
+     * collected into a set on the first call, and collected again if the list
+     * of file metadatas has been replaced or has grown or shrunk since.
+     *
+     * @param dataFile the file
+     * @return {@code true} iff one of the file metadatas of this version is
+     * that of {@code dataFile}.
+     */
+    public boolean containsDataFile(DataFile dataFile) {
+        if (fileMetadatas == null || dataFile == null) {
+            return false;
+        }
+        if (dataFile.getId() == null) {
+            // a new file; not in the set of ids
+            for (FileMetadata fmd : fileMetadatas) {
+                if (dataFile.equals(fmd.getDataFile())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        Set<Long> ids = dataFileIds;
+        if (ids == null || dataFileIdsSource != fileMetadatas || dataFileIdsSourceSize != fileMetadatas.size()) {
+            ids = new HashSet<>();
+            for (FileMetadata fmd : fileMetadatas) {
+                if (fmd.getDataFile() != null && fmd.getDataFile().getId() != null) {
+                    ids.add(fmd.getDataFile().getId());
+                }
+            }
+            dataFileIdsSource = fileMetadatas;
+            dataFileIdsSourceSize = fileMetadatas.size();
+            dataFileIds = ids;
+        }
+        return ids.contains(dataFile.getId());
     }
     
     public TermsOfUseAndAccess getTermsOfUseAndAccess() {
@@ -15,9 +15,12 @@ import org.apache.commons.lang3.StringUtils;
 import edu.harvard.iq.dataverse.util.BundleUtil;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
 
 /**
  *
@@ -52,26 +55,52 @@ public final class DatasetVersionDifference {
         this.differenceSummaryGroups = differenceSummaryGroups;
     }
 
+    /**
+     * @return the key under which the differences between the two versions
+     * can be remembered, and reused, by a view (see
+     * DatasetPage.updateVersionDifferences); or null, if either of them is a
+     * draft. (The versions are identified by their ids and last update times,
+     * so that the differences are worked out again should a published
+     * version be updated in place.)
+     *
+     * The differences are not remembered any more widely than that, as they
+     * hold on to the entities of the versions they compare.
+     */
+    static String getCacheKey(DatasetVersion newVersion, DatasetVersion originalVersion) {
+        if (newVersion.getId() == null || originalVersion.getId() == null || newVersion.isDraft() || originalVersion.isDraft()) {
+            return null;
+        }
+        return newVersion.getId() + ":" + getTime(newVersion.getLastUpdateTime()) + "|" + originalVersion.getId() + ":" + getTime(originalVersion.getLastUpdateTime());
+    }
+
+    private static long getTime(Date date) {
+        return date == null ? 0 : date.getTime();
+    }
+
     public DatasetVersionDifference(DatasetVersion newVersion, DatasetVersion originalVersion) {
         setOriginalVersion(originalVersion);
         setNewVersion(newVersion);
         //Compare Data
+        // (the fields, and the files, of the two versions are matched up by
+        // map lookups, rather than by going through the one version for each
+        // field or file of the other)
+        Map<DatasetFieldType, DatasetField> newFieldsByType = new HashMap<>();
+        for (DatasetField dsfn : newVersion.getDatasetFields()) {
+            newFieldsByType.putIfAbsent(dsfn.getDatasetFieldType(), dsfn);
+        }
+        Set<DatasetFieldType> originalFieldTypes = new HashSet<>();
         for (DatasetField dsfo : originalVersion.getDatasetFields()) {
-            boolean deleted = true;
-            for (DatasetField dsfn : newVersion.getDatasetFields()) {
-                if (dsfo.getDatasetFieldType().equals(dsfn.getDatasetFieldType())) {
-                    deleted = false;
-                    if (dsfo.getDatasetFieldType().isPrimitive()) {
-                        if (!dsfo.getDatasetFieldType().getFieldType().equals("email")) {
-                            compareValues(dsfo, dsfn, false);
-                        }
-                    } else {
-                        compareValues(dsfo, dsfn, true);
+            originalFieldTypes.add(dsfo.getDatasetFieldType());
+            DatasetField dsfn = newFieldsByType.get(dsfo.getDatasetFieldType());
+            if (dsfn != null) {
+                if (dsfo.getDatasetFieldType().isPrimitive()) {
+                    if (!dsfo.getDatasetFieldType().getFieldType().equals("email")) {
+                        compareValues(dsfo, dsfn, false);
                     }
-                    break; //if found go to next dataset field
+                } else {
+                    compareValues(dsfo, dsfn, true);
                 }
-            }
-            if (deleted && !dsfo.isEmpty()) {
+            } else if (!dsfo.isEmpty()) {
                 if (dsfo.getDatasetFieldType().isPrimitive()) {
                     if (dsfo.getDatasetFieldType().isControlledVocabulary()) {
                         updateBlockSummary(dsfo, 0, dsfo.getControlledVocabularyValues().size(), 0);
@@ -85,15 +114,7 @@ public final class DatasetVersionDifference {
             }
         }
         for (DatasetField dsfn : newVersion.getDatasetFields()) {
-            boolean added = true;
-            for (DatasetField dsfo : originalVersion.getDatasetFields()) {
-                if (dsfo.getDatasetFieldType().equals(dsfn.getDatasetFieldType())) {
-                    added = false;
-                    break;
-                }
-            }
-
-            if (added && !dsfn.isEmpty()) {
+            if (!originalFieldTypes.contains(dsfn.getDatasetFieldType()) && !dsfn.isEmpty()) {
                 if (dsfn.getDatasetFieldType().isPrimitive()){
                    if (dsfn.getDatasetFieldType().isControlledVocabulary()) {
                        updateBlockSummary(dsfn, dsfn.getControlledVocabularyValues().size(), 0, 0);
@@ -107,50 +128,41 @@ public final class DatasetVersionDifference {
             }
         }
         
-        // TODO: ? 
-        // It looks like we are going through the filemetadatas in both versions, 
-        // *sequentially* (i.e. at the cost of O(N*M)), to select the lists of 
-        // changed, deleted and added files between the 2 versions... But why 
-        // are we doing it, if we are doing virtually the same thing inside 
-        // the initDatasetFilesDifferenceList(), below - but in a more efficient 
-        // way (sorting both lists, then goint through them in parallel, at the 
-        // cost of (N+M) max.? 
-        // -- 4.6 Nov. 2016
-        
+        // The files are matched up by the ids of their DataFiles; the files
+        // that have no id yet (i.e. that were just added to the new version)
+        // match no file of the original version.
+        Map<Long, FileMetadata> newFilesByDataFileId = new HashMap<>();
+        for (FileMetadata fmdn : newVersion.getFileMetadatas()) {
+            if (fmdn.getDataFile().getId() != null) {
+                newFilesByDataFileId.putIfAbsent(fmdn.getDataFile().getId(), fmdn);
+            }
+        }
+        Set<Long> originalDataFileIds = new HashSet<>();
         for (FileMetadata fmdo : originalVersion.getFileMetadatas()) {
-            boolean deleted = true;
-            for (FileMetadata fmdn : newVersion.getFileMetadatas()) {
-                if (fmdo.getDataFile().equals(fmdn.getDataFile())) {
-                    deleted = false;
-                    if (!compareFileMetadatas(fmdo, fmdn)) {
-                        changedFileMetadata.add(fmdo);
-                        changedFileMetadata.add(fmdn);
-                    }
-                    if (!variableMetadataUtil.compareVariableMetadata(fmdo,fmdn) || !compareVarGroup(fmdo, fmdn)) {
-                        changedVariableMetadata.add(fmdo);
-                        changedVariableMetadata.add(fmdn);
-                    }
-                    break;
+            Long dataFileId = fmdo.getDataFile().getId();
+            originalDataFileIds.add(dataFileId);
+            FileMetadata fmdn = dataFileId == null ? null : newFilesByDataFileId.get(dataFileId);
+            if (fmdn != null) {
+                if (!compareFileMetadatas(fmdo, fmdn)) {
+                    changedFileMetadata.add(fmdo);
+                    changedFileMetadata.add(fmdn);
                 }
-            }
-            if (deleted) {
+                if (!variableMetadataUtil.compareVariableMetadata(fmdo,fmdn) || !compareVarGroup(fmdo, fmdn)) {
+                    changedVariableMetadata.add(fmdo);
+                    changedVariableMetadata.add(fmdn);
+                }
+            } else {
                 removedFiles.add(fmdo);
             }
         }
         for (FileMetadata fmdn : newVersion.getFileMetadatas()) {
-            boolean added = true;
-            for (FileMetadata fmdo : originalVersion.getFileMetadatas()) {
-                if (fmdo.getDataFile().equals(fmdn.getDataFile())) {
-                    added = false;
-                    break;
-                }
-            }
-            if (added) {
+            if (fmdn.getDataFile().getId() == null || !originalDataFileIds.contains(fmdn.getDataFile().getId())) {
                 addedFiles.add(fmdn);
             }
         }        
         getReplacedFiles();
-        initDatasetFilesDifferencesList();
+        // (the file by file differences are only worked out when asked for;
+        // see getDatasetFilesDiffList())
 
         //Sort within blocks by datasetfieldtype dispaly order then....
         //sort via metadatablock order - citation first...
@@ -177,33 +189,29 @@ public final class DatasetVersionDifference {
         if (addedFiles.isEmpty() || removedFiles.isEmpty()) {
             return;
         }
-        List<FileMetadata> addedToReplaced = new ArrayList<>();
-        List<FileMetadata> removedToReplaced = new ArrayList<>();
+        Map<Long, List<FileMetadata>> removedByDataFileId = new HashMap<>();
+        for (FileMetadata removed : removedFiles) {
+            removedByDataFileId.computeIfAbsent(removed.getDataFile().getId(), id -> new ArrayList<>()).add(removed);
+        }
+        Set<FileMetadata> addedToReplaced = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<FileMetadata> removedToReplaced = Collections.newSetFromMap(new IdentityHashMap<>());
         for (FileMetadata added : addedFiles) {
-            DataFile addedDF = added.getDataFile();
-            Long replacedId = addedDF.getPreviousDataFileId();
-            if (added.getDataFile().getPreviousDataFileId() != null){
-            }
-            for (FileMetadata removed : removedFiles) {
-                DataFile test = removed.getDataFile();
-                if (test.getId().equals(replacedId)) {                  
-                    addedToReplaced.add(added);
-                    removedToReplaced.add(removed);
-                    FileMetadata[] replacedArray = new FileMetadata[2];
-                    replacedArray[0] = removed;
-                    replacedArray[1] = added;
-                    replacedFiles.add(replacedArray);
-                }
+            Long replacedId = added.getDataFile().getPreviousDataFileId();
+            if (replacedId == null) {
+                continue;
+            }
+            for (FileMetadata removed : removedByDataFileId.getOrDefault(replacedId, Collections.emptyList())) {
+                addedToReplaced.add(added);
+                removedToReplaced.add(removed);
+                FileMetadata[] replacedArray = new FileMetadata[2];
+                replacedArray[0] = removed;
+                replacedArray[1] = added;
+                replacedFiles.add(replacedArray);
             }
         }
-        if(addedToReplaced.isEmpty()){
-        } else{
-            addedToReplaced.stream().forEach((delete) -> {
-                addedFiles.remove(delete);
-            });
-            removedToReplaced.stream().forEach((delete) -> {
-                removedFiles.remove(delete);
-            });
+        if (!addedToReplaced.isEmpty()) {
+            addedFiles.removeIf(addedToReplaced::contains);
+            removedFiles.removeIf(removedToReplaced::contains);
         }
     }
        
@@ -699,6 +707,9 @@ public final class DatasetVersionDifference {
     }
     
     public List<datasetReplaceFileItem> getDatasetFilesReplacementList() {
+        if (datasetFilesReplacementList == null) {
+            initDatasetFilesDifferencesList();
+        }
         return datasetFilesReplacementList;
     }
 
@@ -779,9 +790,12 @@ public final class DatasetVersionDifference {
         this.changedTermsAccess = changedTermsAccess;
     }
 
-    private void initDatasetFilesDifferencesList() {
-        datasetFilesDiffList = new ArrayList<>();
-        datasetFilesReplacementList = new ArrayList <>();
+    private synchronized void initDatasetFilesDifferencesList() {
+        if (datasetFilesDiffList != null && datasetFilesReplacementList != null) {
+            return;
+        }
+        List<datasetFileDifferenceItem> datasetFilesDiffList = new ArrayList<>();
+        List<datasetReplaceFileItem> datasetFilesReplacementList = new ArrayList <>();
         
         // Study Files themselves are version-less;
         // In other words, 2 different versions can have different sets of
@@ -813,12 +827,14 @@ public final class DatasetVersionDifference {
         List<FileMetadata> fileMetadatasOriginal = new ArrayList<>(originalVersion.getFileMetadatas());
         
         if (!replacedFiles.isEmpty()) {
+            Set<FileMetadata> replacedNew = Collections.newSetFromMap(new IdentityHashMap<>());
+            Set<FileMetadata> replacedOriginal = Collections.newSetFromMap(new IdentityHashMap<>());
             
             replacedFiles.stream().map((replacedPair) -> {
                 FileMetadata replacedFile = replacedPair[0];
                 FileMetadata newFile = replacedPair[1];
-                fileMetadatasNew.remove(newFile);
-                fileMetadatasOriginal.remove(replacedFile);
+                replacedNew.add(newFile);
+                replacedOriginal.add(replacedFile);
                 datasetFileDifferenceItem fdi = selectFileMetadataDiffs(replacedFile, newFile);
                 datasetReplaceFileItem fdr = new datasetReplaceFileItem();
                 String diffLabel = BundleUtil.getStringFromBundle("file.dataFilesTab.versions.replaced");
@@ -836,7 +852,8 @@ public final class DatasetVersionDifference {
             }).forEach((fdr) -> {
                 datasetFilesReplacementList.add(fdr);
             });
-
+            fileMetadatasNew.removeIf(replacedNew::contains);
+            fileMetadatasOriginal.removeIf(replacedOriginal::contains);
         }
 
         Collections.sort(fileMetadatasOriginal, (FileMetadata l1, FileMetadata l2) -> {
@@ -950,6 +967,12 @@ public final class DatasetVersionDifference {
 
             j++;
         }
+        if (this.datasetFilesDiffList == null) {
+            this.datasetFilesDiffList = datasetFilesDiffList;
+        }
+        if (this.datasetFilesReplacementList == null) {
+            this.datasetFilesReplacementList = datasetFilesReplacementList;
+        }
     }
 
     private boolean fileMetadataIsDifferent(FileMetadata fm1, FileMetadata fm2) {
@@ -1707,6 +1730,9 @@ public final class DatasetVersionDifference {
     }
 
     public List<datasetFileDifferenceItem> getDatasetFilesDiffList() {
+        if (datasetFilesDiffList == null) {
+            initDatasetFilesDifferencesList();
+        }
         return datasetFilesDiffList;
     }
 
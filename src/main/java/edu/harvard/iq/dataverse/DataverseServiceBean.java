@@ -99,6 +99,8 @@ public class DataverseServiceBean implements java.io.Serializable {
        
         dataverse.setModificationTime(new Timestamp(new Date().getTime()));
         Dataverse savedDataverse = em.merge(dataverse);
+        // (the permission root, or the owner, may have changed)
+        permissionService.permissionsChanged();
         return savedDataverse;
     }
     
@@ -179,6 +181,22 @@ public class DataverseServiceBean implements java.io.Serializable {
         
     }
 
+    /**
+     * Same as {@link #findDataverseIdsForIndexing(boolean)}, but only returns 
+     * the ids that fall into the specified partition, so that the work can be
+     * split between several app nodes.
+     */
+    public List<Long> findDataverseIdsForIndexing(long numPartitions, long partitionId, boolean skipIndexed) {
+        if (numPartitions <= 1) {
+            return findDataverseIdsForIndexing(skipIndexed);
+        }
+        String skipClause = skipIndexed ? "AND o.indexTime IS null " : "";
+        return em.createQuery("SELECT o.id FROM Dataverse o WHERE MOD(o.id, :numPartitions) = :partitionId " + skipClause + "ORDER BY o.id", Long.class)
+                .setParameter("numPartitions", numPartitions)
+                .setParameter("partitionId", partitionId)
+                .getResultList();
+    }
+
     public List<Dataverse> findByCreatorId(Long creatorId) {
         return em.createNamedQuery("Dataverse.findByCreatorId").setParameter("creatorId", creatorId).getResultList();
     }
@@ -5,6 +5,7 @@ import edu.harvard.iq.dataverse.pidproviders.PidUtil;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -223,6 +224,35 @@ public class DvObjectServiceBean implements java.io.Serializable {
         return savedDvObject;
     }
 
+    /**
+     * Records that the Solr documents of the objects have been sent to Solr
+     * (see SolrIndexWriteBuffer#trackWrites), in a transaction of its own, as
+     * this is called on the callback thread of the buffer.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public int updateContentIndexTimeInNewTransaction(Collection<Long> dvObjectIds) {
+        return updateIndexTime("indexTime", dvObjectIds);
+    }
+
+    /**
+     * Same as {@link #updateContentIndexTimeInNewTransaction(Collection)}, for
+     * the permission documents.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public int updatePermissionIndexTimeInNewTransaction(Collection<Long> dvObjectIds) {
+        return updateIndexTime("permissionIndexTime", dvObjectIds);
+    }
+
+    private int updateIndexTime(String field, Collection<Long> dvObjectIds) {
+        if (dvObjectIds.isEmpty()) {
+            return 0;
+        }
+        return em.createQuery("UPDATE DvObject o SET o." + field + " = :indexTime WHERE o.id IN :ids")
+                .setParameter("indexTime", new Timestamp(new Date().getTime()))
+                .setParameter("ids", dvObjectIds)
+                .executeUpdate();
+    }
+
     @TransactionAttribute(REQUIRES_NEW)
     public int clearAllIndexTimes() {
         Query clearIndexTimes = em.createQuery("UPDATE DvObject o SET o.indexTime = NULL, o.permissionIndexTime = NULL");
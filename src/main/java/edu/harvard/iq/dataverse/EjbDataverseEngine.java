@@ -11,6 +11,7 @@ import edu.harvard.iq.dataverse.authorization.groups.impl.explicit.ExplicitGroup
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.confirmemail.ConfirmEmailServiceBean;
 import edu.harvard.iq.dataverse.datacapturemodule.DataCaptureModuleServiceBean;
+import edu.harvard.iq.dataverse.dataaccess.DataFileFixityServiceBean;
 import edu.harvard.iq.dataverse.engine.command.Command;
 import edu.harvard.iq.dataverse.engine.command.CommandContext;
 import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
@@ -18,6 +19,7 @@ import edu.harvard.iq.dataverse.engine.command.exception.CommandException;
 import edu.harvard.iq.dataverse.engine.command.exception.PermissionException;
 import edu.harvard.iq.dataverse.ingest.IngestServiceBean;
 import edu.harvard.iq.dataverse.pidproviders.FakePidProviderServiceBean;
+import edu.harvard.iq.dataverse.pidproviders.FilePidRegistrationServiceBean;
 import edu.harvard.iq.dataverse.pidproviders.PermaLinkPidProviderServiceBean;
 import edu.harvard.iq.dataverse.privateurl.PrivateUrlServiceBean;
 import edu.harvard.iq.dataverse.search.IndexBatchServiceBean;
@@ -176,6 +178,12 @@ public class EjbDataverseEngine {
     @EJB
     ActionLogServiceBean logSvc;
     
+    @EJB
+    FilePidRegistrationServiceBean filePidRegistrationService;
+    
+    @EJB
+    DataFileFixityServiceBean dataFileFixityService;
+    
     @EJB
     WorkflowServiceBean workflowService;
     
@@ -603,6 +611,16 @@ public class EjbDataverseEngine {
                 public ActionLogServiceBean actionLog() {
                     return logSvc;
                 }
+                
+                @Override
+                public FilePidRegistrationServiceBean filePidRegistration() {
+                    return filePidRegistrationService;
+                }
+
+                @Override
+                public DataFileFixityServiceBean dataFileFixity() {
+                    return dataFileFixityService;
+                }
 
                 @Override
                 public void beginCommandSequence() {
@@ -134,27 +134,59 @@ public class GuestbookResponseServiceBean {
      */
     private static final String SEPARATOR = ",";
     private static final String NEWLINE = "\n";
+    private static final String CSV_HEADER = "Guestbook, Dataset, Dataset PID, Date, Type, File Name, File Id, File PID, User Name, Email, Institution, Position, Custom Questions\n";
+    // How many responses are read (and written out) at a time:
+    private static final int STREAMING_PAGE_SIZE = 10000;
+
     public void streamResponsesByDataverseIdAndGuestbookId(OutputStream out, Long dataverseId, Long guestbookId) throws IOException {
         
-        // Before we do anything else, create a map of all the custom question responses
-        // available for this dataverse (or, this individual guestbook within the
-        // dataverse; see the comment below, how it's saving us a metric f-ton
-        // of queries now) -- L.A. 
+        // The responses are read one page at a time - most recent first, each 
+        // page picking up below the last response of the previous one - along 
+        // with the custom question answers for the range of responses in the 
+        // page (rather than all of them up front; see the comment below, how 
+        // it's saving us a metric f-ton of queries). So the memory used stays 
+        // the same, however many responses there are - there may be millions 
+        // of them. -- L.A. 
         
-        Map<Integer, Object> customQandAs = mapCustomQuestionAnswersAsStrings(dataverseId, guestbookId);
         Map<Integer, String> datasetTitles = mapDatasetTitles(dataverseId);
-                
-        List<Object[]> guestbookResults = getGuestbookResults( dataverseId,  guestbookId );
+        
+        long start = System.currentTimeMillis();
+        long count = 0;
         // the CSV header:
-        out.write("Guestbook, Dataset, Dataset PID, Date, Type, File Name, File Id, File PID, User Name, Email, Institution, Position, Custom Questions\n".getBytes());
-        for (Object[] result : guestbookResults) {
-            StringBuilder sb = convertGuestbookResponsesToCSV(customQandAs, datasetTitles, result);
-            out.write(sb.toString().getBytes());
+        out.write(CSV_HEADER.getBytes());
+        Integer belowResponseId = null;
+        while (true) {
+            List<Object[]> guestbookResults = getGuestbookResults(dataverseId, guestbookId, belowResponseId, STREAMING_PAGE_SIZE);
+            if (guestbookResults.isEmpty()) {
+                break;
+            }
+            Integer firstResponseId = (Integer) guestbookResults.get(0)[0];
+            Integer lastResponseId = (Integer) guestbookResults.get(guestbookResults.size() - 1)[0];
+            Map<Integer, Object> customQandAs = selectCustomQuestionAnswers(dataverseId, guestbookId, true, firstResponseId, lastResponseId);
+            for (Object[] result : guestbookResults) {
+                StringBuilder sb = convertGuestbookResponsesToCSV(customQandAs, datasetTitles, result);
+                out.write(sb.toString().getBytes());
+            }
             out.flush();
+            
+            count += guestbookResults.size();
+            logger.fine("Streamed " + count + " guestbook responses of dataverse " + dataverseId + " so far");
+            if (guestbookResults.size() < STREAMING_PAGE_SIZE) {
+                break;
+            }
+            belowResponseId = lastResponseId;
         }
+        logger.fine("Streamed " + count + " guestbook responses of dataverse " + dataverseId 
+                + (guestbookId != null ? ", guestbook " + guestbookId : "") + " in " + (System.currentTimeMillis() - start) + " ms");
     }
     
-    public List<Object[]> getGuestbookResults(Long dataverseId, Long guestbookId ){
+    /**
+     * @param belowResponseId if not null, only the responses with lower ids
+     * are returned
+     * @param limit the most responses returned
+     * @return the responses, most recent first
+     */
+    private List<Object[]> getGuestbookResults(Long dataverseId, Long guestbookId, Integer belowResponseId, int limit) {
         
         String queryString = BASE_QUERY_STRING_FOR_DOWNLOAD_AS_CSV
                 + " and  o.owner_id = " 
@@ -164,7 +196,14 @@ public class GuestbookResponseServiceBean {
             queryString+= (" and r.guestbook_id = " + guestbookId.toString());
         }
         
-        queryString += " ORDER by r.id DESC;";
+        if (belowResponseId != null) {
+            queryString += (" and r.id < " + belowResponseId);
+        }
+        
+        queryString += " ORDER by r.id DESC";
+        queryString += (" limit " + limit);
+        
+        queryString += ";";
         logger.fine("stream responses query: " + queryString);
         
         return  em.createNativeQuery(queryString).getResultList();
@@ -350,7 +389,7 @@ public class GuestbookResponseServiceBean {
     }
     
     /*
-       The 3 methods below are for caching all the custom question responses for this
+       The 2 methods below are for caching all the custom question responses for this
        guestbook and/or dataverse.
        The results are saved in maps, and later re-combined with the individual 
        "normal" guestbook responses, retrieved from GuestbookResponse table. -- L.A. 
@@ -359,10 +398,6 @@ public class GuestbookResponseServiceBean {
         return selectCustomQuestionAnswers(dataverseId, guestbookId, false, firstResponse, lastResponse);
     }
     
-    public Map<Integer, Object> mapCustomQuestionAnswersAsStrings(Long dataverseId, Long guestbookId) {
-        return selectCustomQuestionAnswers(dataverseId, guestbookId, true, null, null);
-    }
-    
     private Map<Integer, Object> selectCustomQuestionAnswers(Long dataverseId, Long guestbookId, boolean asString, Integer lastResponse, Integer firstResponse) {
         Map<Integer, Object> ret = new HashMap<>();
 
@@ -0,0 +1,227 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.authorization.RoleAssignee;
+import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.Lock;
+import javax.ejb.Singleton;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import static javax.ejb.LockType.READ;
+
+/**
+ * Remembers the permissions that role assignees get from their roles
+ * (directly, or through the groups they are in) on {@link DvObject}s, so that
+ * {@link PermissionServiceBean} does not have to look up the groups and the
+ * role assignments again every time the same permissions are checked - which
+ * a page may do hundreds of times (once per file, per button...).
+ *
+ * The permissions are remembered for the rest of the request (in the
+ * {@link DataverseRequest} itself) and, on this server, for
+ * {@code dataverse.permissions.cache.ttl} seconds. Any change to the role
+ * assignments, the roles, the groups or the permission roots drops all the
+ * cached permissions at once; the changes made on another server of a cluster
+ * are seen once the cached permissions have expired.
+ *
+ * Only the permissions coming from role assignments are cached; the ones
+ * that follow from the state of the object (e.g. the download permission on
+ * the public files) are always checked again.
+ */
+@Singleton
+@Lock(READ)
+public class PermissionCache {
+
+    private static final Logger logger = Logger.getLogger(PermissionCache.class.getCanonicalName());
+
+    // The shared cache is emptied when it gets this big:
+    private static final int MAX_ENTRIES = 100000;
+
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    private long ttlMillis;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Incremented on every change, so that the permissions cached by the
+    // requests in progress are not used any more either:
+    private final AtomicLong generation = new AtomicLong();
+
+    private static class Entry {
+        final Set<Permission> permissions;
+        final long generation;
+        final long expires;
+
+        Entry(Set<Permission> permissions, long generation, long expires) {
+            this.permissions = permissions;
+            this.generation = generation;
+            this.expires = expires;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        ttlMillis = 1000 * Math.max(0, JvmSettings.PERMISSIONS_CACHE_TTL.lookupOptional(Long.class).orElse(30L));
+    }
+
+    /**
+     * @param req the request; its user, and the groups they are in
+     * (including the IP groups of the request), get the permissions.
+     * @param dvo the object the permissions are on
+     * @param lookup looks up the permissions, if they are not cached
+     * @return the permissions {@code req} gets from roles on {@code dvo}
+     */
+    public Set<Permission> get(DataverseRequest req, DvObject dvo, Supplier<Set<Permission>> lookup) {
+        if (dvo.getId() == null) {
+            return lookup.get();
+        }
+        long currentGeneration = generation.get();
+        Set<Permission> permissions = findCached(req, dvo, currentGeneration);
+        if (permissions == null) {
+            permissions = copyOf(lookup.get());
+            store(req, dvo, currentGeneration, permissions);
+        }
+        return EnumSet.copyOf(permissions);
+    }
+
+    /**
+     * Same as {@link #get(DataverseRequest, DvObject, Supplier)}, for many
+     * objects at once.
+     *
+     * @param lookup looks up the permissions on the objects that are not
+     * cached, all at once
+     * @return the permissions {@code req} gets from roles on each of the
+     * {@code dvos}
+     */
+    public Map<DvObject, Set<Permission>> getAll(DataverseRequest req, Collection<? extends DvObject> dvos,
+            Function<List<DvObject>, Map<DvObject, Set<Permission>>> lookup) {
+        long currentGeneration = generation.get();
+        Map<DvObject, Set<Permission>> result = new HashMap<>();
+        List<DvObject> missing = new ArrayList<>();
+        for (DvObject dvo : dvos) {
+            Set<Permission> permissions = dvo.getId() == null ? null : findCached(req, dvo, currentGeneration);
+            if (permissions == null) {
+                missing.add(dvo);
+            } else {
+                result.put(dvo, EnumSet.copyOf(permissions));
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<DvObject, Set<Permission>> found = lookup.apply(missing);
+            for (DvObject dvo : missing) {
+                Set<Permission> permissions = copyOf(found.getOrDefault(dvo, Collections.emptySet()));
+                if (dvo.getId() != null) {
+                    store(req, dvo, currentGeneration, permissions);
+                }
+                result.put(dvo, EnumSet.copyOf(permissions));
+            }
+        }
+        return result;
+    }
+
+    private Set<Permission> findCached(DataverseRequest req, DvObject dvo, long currentGeneration) {
+        Set<Permission> permissions = req.getPermissionCache().get(currentGeneration + "|" + dvo.getId());
+        if (permissions == null) {
+            Entry entry = entries.get(sharedKey(req, dvo));
+            if (entry != null && entry.generation == currentGeneration && entry.expires > System.currentTimeMillis()) {
+                permissions = entry.permissions;
+                req.getPermissionCache().put(currentGeneration + "|" + dvo.getId(), permissions);
+            }
+        }
+        return permissions;
+    }
+
+    private void store(DataverseRequest req, DvObject dvo, long currentGeneration, Set<Permission> permissions) {
+        req.getPermissionCache().put(currentGeneration + "|" + dvo.getId(), permissions);
+        put(sharedKey(req, dvo), currentGeneration, permissions);
+    }
+
+    private static String sharedKey(DataverseRequest req, DvObject dvo) {
+        return req.getUser().getIdentifier() + "@" + req.getSourceAddress() + "|" + dvo.getId();
+    }
+
+    /**
+     * @param ra the role assignee; the groups they are in get the permissions
+     * too, but not the request-level groups (see
+     * {@link #get(DataverseRequest, DvObject, Supplier)}).
+     * @param dvo the object the permissions are on
+     * @param lookup looks up the permissions, if they are not cached
+     * @return the permissions {@code ra} gets from roles on {@code dvo}
+     */
+    public Set<Permission> get(RoleAssignee ra, DvObject dvo, Supplier<Set<Permission>> lookup) {
+        if (dvo.getId() == null) {
+            return lookup.get();
+        }
+        return EnumSet.copyOf(get(ra.getIdentifier() + "|" + dvo.getId(), generation.get(), lookup));
+    }
+
+    private Set<Permission> get(String key, long currentGeneration, Supplier<Set<Permission>> lookup) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.generation == currentGeneration && entry.expires > System.currentTimeMillis()) {
+            return entry.permissions;
+        }
+        Set<Permission> permissions = copyOf(lookup.get());
+        put(key, currentGeneration, permissions);
+        return permissions;
+    }
+
+    private void put(String key, long currentGeneration, Set<Permission> permissions) {
+        if (ttlMillis > 0) {
+            if (entries.size() >= MAX_ENTRIES) {
+                logger.fine("permission cache full; emptying it");
+                entries.clear();
+            }
+            entries.put(key, new Entry(permissions, currentGeneration, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    private static Set<Permission> copyOf(Set<Permission> permissions) {
+        Set<Permission> copy = EnumSet.noneOf(Permission.class);
+        copy.addAll(permissions);
+        return copy;
+    }
+
+    /**
+     * Drops all the cached permissions. To be called whenever the role
+     * assignments, the roles, the groups (or their members) or the permission
+     * roots change, in the same transaction as the change. The permissions are
+     * dropped again once the transaction is over, in case they got cached (as
+     * they were before the change was committed) in the meantime.
+     */
+    public void permissionsChanged() {
+        invalidate();
+        if (transactionRegistry != null && transactionRegistry.getTransactionKey() != null) {
+            transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    invalidate();
+                }
+            });
+        }
+    }
+
+    private void invalidate() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+}
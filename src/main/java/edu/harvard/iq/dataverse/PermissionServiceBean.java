@@ -34,7 +34,9 @@ import edu.harvard.iq.dataverse.util.BundleUtil;
 import edu.harvard.iq.dataverse.workflow.PendingWorkflowInvocation;
 import edu.harvard.iq.dataverse.workflow.WorkflowServiceBean;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -57,6 +59,9 @@ public class PermissionServiceBean {
 
     private static final Logger logger = Logger.getLogger(PermissionServiceBean.class.getName());
 
+    // The most objects whose role assignments are fetched in one query:
+    private static final int BULK_QUERY_SIZE = 5000;
+
     private static final Set<Permission> PERMISSIONS_FOR_AUTHENTICATED_USERS_ONLY
             = EnumSet.copyOf(Arrays.asList(Permission.values()).stream()
                     .filter(Permission::requiresAuthenticatedUser)
@@ -89,6 +94,9 @@ public class PermissionServiceBean {
     @EJB
     GroupServiceBean groupService;
 
+    @EJB
+    PermissionCache permissionCache;
+
     @Inject
     DataverseSession session;
 
@@ -260,41 +268,16 @@ public class PermissionServiceBean {
             }
         }
               
-        // Actually look at permissions
-        Set<DvObject> parents = getPermissionAncestors(dvo);
-        Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req));
-        ras.add(user);
-        List<RoleAssignment> parentsAsignments = roleService.directRoleAssignments(ras, parents);
-        
-        for (RoleAssignment asmnt : parentsAsignments) {
-            required.removeAll(asmnt.getRole().permissions());
-        }
-        if (required.isEmpty()) {
-            // All permissions are met by role assignments on the request
-            return children;
-        }
-        
-        // Looking at each child at a time now.
-        // 1. Map childs to permissions
-        List<RoleAssignment> childrenAssignments = roleService.directRoleAssignments(ras, 
-                includeReleased ? children.stream().filter( child ->
-                    (!child.isReleased())).collect( toList()) : children);
-        
-        Map<DvObject, Set<Permission>> roleMap = new HashMap<>();
-        childrenAssignments.forEach( assignment -> {
-            DvObject definitionPoint = assignment.getDefinitionPoint();
-            if (!roleMap.containsKey(definitionPoint)){
-                roleMap.put(definitionPoint, assignment.getRole().permissions());
-            } else {
-                roleMap.get(definitionPoint).addAll(assignment.getRole().permissions());
-            }
-        });
-        
-        // 2. Filter by permission map created at (1).
+        // Actually look at permissions - of all the children (but the
+        // released ones, if these are included anyway) in one go:
+        List<DvObject> toCheck = includeReleased
+                ? children.stream().filter(child -> !child.isReleased()).collect(toList())
+                : children;
+        Map<DvObject, Set<Permission>> permissions = permissionsFor(req, toCheck);
+
         return children.stream().filter( child -> 
                 ((includeReleased && child.isReleased()) 
-                        || ((roleMap.containsKey(child)) &&
-                            (roleMap.get(child).containsAll(required.stream().filter(perm -> perm.appliesTo(child.getClass())).collect(Collectors.toSet())))))
+                        || permissions.get(child).containsAll(required.stream().filter(perm -> perm.appliesTo(child.getClass())).collect(Collectors.toSet())))
         ).collect( toList() );
         
     }
@@ -323,10 +306,8 @@ public class PermissionServiceBean {
                 return false;
             }
         }
-        
-        Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req, dvo));
-        ras.add(user);
-        return hasGroupPermissionsFor(ras, dvo, required);
+
+        return rolePermissionsFor(req, dvo).containsAll(required);
     }
 
     public boolean hasPermissionsFor(RoleAssignee ra, DvObject dvo, Set<Permission> required) {
@@ -346,17 +327,8 @@ public class PermissionServiceBean {
         if (required.isEmpty()) {
             return true;
         }
-        
-        Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(ra, dvo));
-        ras.add(ra);
-        return hasGroupPermissionsFor(ras, dvo, required);
-    }
-    
-    private boolean hasGroupPermissionsFor(Set<RoleAssignee> ras, DvObject dvo, Set<Permission> required) {
-        for (RoleAssignment asmnt : assignmentsFor(ras, dvo)) {
-            required.removeAll(asmnt.getRole().permissions());
-        }
-        return required.isEmpty();
+
+        return rolePermissionsFor(ra, dvo).containsAll(required);
     }
 
     /**
@@ -375,9 +347,7 @@ public class PermissionServiceBean {
         Set<Permission> permissions = getInferredPermissions(dvo);
 
         // Add permissions gained from ras
-        Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req, dvo));
-        ras.add(req.getUser());
-        addGroupPermissionsFor(ras, dvo, permissions);
+        permissions.addAll(rolePermissionsFor(req, dvo));
 
         if (!req.getUser().isAuthenticated()) {
             permissions.removeAll(PERMISSIONS_FOR_AUTHENTICATED_USERS_ONLY);
@@ -401,9 +371,7 @@ public class PermissionServiceBean {
 
         Set<Permission> permissions = getInferredPermissions(dvo);
 
-        Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(ra, dvo));
-        ras.add(ra);
-        addGroupPermissionsFor(ras, dvo, permissions);
+        permissions.addAll(rolePermissionsFor(ra, dvo));
 
         if ((ra instanceof User) && (!((User) ra).isAuthenticated())) {
             permissions.removeAll(PERMISSIONS_FOR_AUTHENTICATED_USERS_ONLY);
@@ -411,10 +379,132 @@ public class PermissionServiceBean {
         return permissions;
     }
     
-    private void addGroupPermissionsFor(Set<RoleAssignee> ras, DvObject dvo, Set<Permission> permissions) {
+    /**
+     * Finds all the permissions the {@link User} in {@code req} has over each
+     * of the {@code dvos} - as {@link #permissionsFor(DataverseRequest, DvObject)}
+     * would, but with one lookup of the groups per dataverse the objects are
+     * in, and one query for the role assignments on all the objects and their
+     * ancestors; instead of one of each per object. Meant for the pages and
+     * the APIs that list many objects (search results, the files of a
+     * dataset...). The results are cached for the rest of the request, so the
+     * permission checks made on the same objects afterwards are free.
+     *
+     * @param req
+     * @param dvos
+     * @return Permissions of {@code req.getUser()} over each of the {@code dvos}.
+     */
+    public Map<DvObject, Set<Permission>> permissionsFor(DataverseRequest req, Collection<? extends DvObject> dvos) {
+        Map<DvObject, Set<Permission>> permissions = new HashMap<>();
+        if (req.getUser().isSuperuser()) {
+            dvos.forEach(dvo -> permissions.put(dvo, EnumSet.allOf(Permission.class)));
+            return permissions;
+        }
+
+        permissions.putAll(permissionCache.getAll(req, dvos, missing -> rolePermissionsFor(req, missing)));
+        for (Map.Entry<DvObject, Set<Permission>> entry : permissions.entrySet()) {
+            entry.getValue().addAll(getInferredPermissions(entry.getKey()));
+            if (!req.getUser().isAuthenticated()) {
+                entry.getValue().removeAll(PERMISSIONS_FOR_AUTHENTICATED_USERS_ONLY);
+            }
+        }
+        return permissions;
+    }
+
+    /**
+     * The bulk version of {@link #rolePermissionsFor(DataverseRequest, DvObject)},
+     * uncached.
+     */
+    private Map<DvObject, Set<Permission>> rolePermissionsFor(DataverseRequest req, List<DvObject> dvos) {
+        // The groups only depend on the dataverse the objects are in (the
+        // explicit groups are defined in dataverses, and apply to everything
+        // under them), so they are looked up once per dataverse:
+        Map<DvObject, Set<String>> assigneesByDataverse = new HashMap<>();
+        Map<DvObject, Set<DvObject>> ancestorsByObject = new HashMap<>();
+        Set<RoleAssignee> allAssignees = new HashSet<>();
+        Set<DvObject> allAncestors = new HashSet<>();
+        for (DvObject dvo : dvos) {
+            DvObject dataverse = groupContext(dvo);
+            if (!assigneesByDataverse.containsKey(dataverse)) {
+                Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req, dataverse));
+                ras.add(req.getUser());
+                allAssignees.addAll(ras);
+                assigneesByDataverse.put(dataverse, ras.stream().map(RoleAssignee::getIdentifier).collect(Collectors.toSet()));
+            }
+            Set<DvObject> ancestors = getPermissionAncestors(dvo);
+            ancestorsByObject.put(dvo, ancestors);
+            allAncestors.addAll(ancestors);
+        }
+
+        Map<Long, List<RoleAssignment>> assignmentsByDefinitionPoint = new HashMap<>();
+        List<DvObject> ancestorList = new ArrayList<>(allAncestors);
+        // (keeping the number of query parameters well below the driver's limit)
+        for (int i = 0; i < ancestorList.size(); i += BULK_QUERY_SIZE) {
+            List<DvObject> batch = ancestorList.subList(i, Math.min(i + BULK_QUERY_SIZE, ancestorList.size()));
+            for (RoleAssignment asmnt : roleService.directRoleAssignments(allAssignees, batch)) {
+                assignmentsByDefinitionPoint.computeIfAbsent(asmnt.getDefinitionPoint().getId(), id -> new ArrayList<>()).add(asmnt);
+            }
+        }
+
+        Map<DvObject, Set<Permission>> permissions = new HashMap<>();
+        for (DvObject dvo : dvos) {
+            Set<String> assignees = assigneesByDataverse.get(groupContext(dvo));
+            Set<Permission> dvoPermissions = EnumSet.noneOf(Permission.class);
+            for (DvObject ancestor : ancestorsByObject.get(dvo)) {
+                for (RoleAssignment asmnt : assignmentsByDefinitionPoint.getOrDefault(ancestor.getId(), Collections.emptyList())) {
+                    if (assignees.contains(asmnt.getAssigneeIdentifier())) {
+                        dvoPermissions.addAll(asmnt.getRole().permissions());
+                    }
+                }
+            }
+            permissions.put(dvo, dvoPermissions);
+        }
+        return permissions;
+    }
+
+    // The dataverse dvo is in (or dvo itself, if it is a dataverse)
+    private static DvObject groupContext(DvObject dvo) {
+        while (dvo.getOwner() != null && !(dvo instanceof Dataverse)) {
+            dvo = dvo.getOwner();
+        }
+        return dvo;
+    }
+
+    /**
+     * The permissions {@code req} gets from the roles assigned to its user and
+     * to the groups the request is part of, on {@code dvo} and its ancestors.
+     * Cached, see {@link PermissionCache}.
+     */
+    private Set<Permission> rolePermissionsFor(DataverseRequest req, DvObject dvo) {
+        return permissionCache.get(req, dvo, () -> {
+            Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req, dvo));
+            ras.add(req.getUser());
+            return rolePermissionsFor(ras, dvo);
+        });
+    }
+
+    private Set<Permission> rolePermissionsFor(RoleAssignee ra, DvObject dvo) {
+        return permissionCache.get(ra, dvo, () -> {
+            Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(ra, dvo));
+            ras.add(ra);
+            return rolePermissionsFor(ras, dvo);
+        });
+    }
+
+    private Set<Permission> rolePermissionsFor(Set<RoleAssignee> ras, DvObject dvo) {
+        Set<Permission> permissions = EnumSet.noneOf(Permission.class);
         for (RoleAssignment asmnt : assignmentsFor(ras, dvo)) {
             permissions.addAll(asmnt.getRole().permissions());
         }
+        return permissions;
+    }
+
+    /**
+     * Drops the cached permissions; to be called whenever the role
+     * assignments, the groups or the permission roots change.
+     * @see PermissionCache#permissionsChanged()
+     */
+    public void permissionsChanged() {
+        permissionCache.permissionsChanged();
     }
 
 
@@ -448,15 +538,8 @@ public class PermissionServiceBean {
             DataFile df = (DataFile) dvo;
 
             if (!df.isRestricted()) {
-                if (df.getOwner().getReleasedVersion() != null) {
-                    if (df.getOwner().getReleasedVersion().getFileMetadatas() != null) {
-                        for (FileMetadata fm : df.getOwner().getReleasedVersion().getFileMetadatas()) {
-                            if (df.equals(fm.getDataFile())) {
-                                return true;
-                            }
-                        }
-                    }
-                }
+                DatasetVersion releasedVersion = df.getOwner().getReleasedVersion();
+                return releasedVersion != null && releasedVersion.containsDataFile(df);
             }
         }
         return false;
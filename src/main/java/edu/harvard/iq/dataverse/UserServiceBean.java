@@ -28,6 +28,10 @@ import org.ocpsoft.common.util.Strings;
 public class UserServiceBean {
 
     private static final Logger logger = Logger.getLogger(UserServiceBean.class.getCanonicalName());
+
+    // The last API use time of a user is not updated more often than this:
+    private static final long LAST_API_USE_TIME_PRECISION_MILLIS = 60 * 1000;
+
     public static final List<String> acceptableSortKeys = Arrays.asList(
       "id", "useridentifier", "lastname", "firstname", "email", "affiliation",
       "superuser", "position", "createdtime", "lastlogintime", "lastapiusetime",
@@ -533,7 +537,13 @@ public class UserServiceBean {
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public AuthenticatedUser updateLastApiUseTime(AuthenticatedUser user) {
         //assumes that AuthenticatedUser user already exists
-        user.setLastApiUseTime(new Timestamp(new Date().getTime()));
+        long now = new Date().getTime();
+        // A script making many calls in a row would otherwise update the
+        // user on every single one of them:
+        if (user.getLastApiUseTime() != null && now - user.getLastApiUseTime().getTime() < LAST_API_USE_TIME_PRECISION_MILLIS) {
+            return user;
+        }
+        user.setLastApiUseTime(new Timestamp(now));
         return save(user);
     }
 }
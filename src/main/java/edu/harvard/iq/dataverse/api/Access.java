@@ -65,11 +65,13 @@ import edu.harvard.iq.dataverse.engine.command.impl.UpdateDatasetVersionCommand;
 import edu.harvard.iq.dataverse.export.DDIExportServiceBean;
 import edu.harvard.iq.dataverse.makedatacount.MakeDataCountLoggingServiceBean;
 import edu.harvard.iq.dataverse.makedatacount.MakeDataCountLoggingServiceBean.MakeDataCountEntry;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.BundleUtil;
 import edu.harvard.iq.dataverse.util.FileUtil;
 import edu.harvard.iq.dataverse.util.StringUtil;
 import edu.harvard.iq.dataverse.util.SystemConfig;
+import edu.harvard.iq.dataverse.util.WorkerPools;
 import edu.harvard.iq.dataverse.util.json.NullSafeJsonBuilder;
 
 import java.util.logging.Logger;
@@ -87,6 +89,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.logging.Level;
 import javax.inject.Inject;
 import javax.json.Json;
@@ -154,6 +157,8 @@ import edu.harvard.iq.dataverse.api.exceptions.AuthorizationRequiredException;
 public class Access extends AbstractApiBean {
     private static final Logger logger = Logger.getLogger(Access.class.getCanonicalName());
         
+    @EJB
+    WorkerPools workerPools;
     @EJB
     DataFileServiceBean dataFileService;
     @EJB 
@@ -840,126 +845,139 @@ public class Access extends AbstractApiBean {
                 String fileIdParams[] = fileIds.split(",");
                 DataFileZipper zipper = null; 
                 String fileManifest = "";
-                long sizeTotal = 0L;
                 
-                if (fileIdParams != null && fileIdParams.length > 0) {
-                    logger.fine(fileIdParams.length + " tokens;");
-                    for (int i = 0; i < fileIdParams.length; i++) {
-                        logger.fine("token: " + fileIdParams[i]);
-                        Long fileId = null;
-                        try {
-                            fileId = Long.parseLong(fileIdParams[i]);
-                        } catch (NumberFormatException nfe) {
-                            fileId = null;
-                        }
-                        if (fileId != null) {
-                            logger.fine("attempting to look up file id " + fileId);
-                            DataFile file = dataFileService.find(fileId);
-                            if (file != null) {
-                                if (isAccessAuthorized(user, file)) {
-
-                                    logger.fine("adding datafile (id=" + file.getId() + ") to the download list of the ZippedDownloadInstance.");
-                                    //downloadInstance.addDataFile(file);
-                                    if (donotwriteGBResponse != true && file.isReleased()){
-                                        GuestbookResponse  gbr = guestbookResponseService.initAPIGuestbookResponse(file.getOwner(), file, session, apiTokenUser);
-                                        guestbookResponseService.save(gbr);
-                                        MakeDataCountEntry entry = new MakeDataCountEntry(uriInfo, headers, dvRequestService, file);                                        
-                                        mdcLogService.logEntry(entry);
-                                    }
+                try {
+                    if (fileIdParams != null && fileIdParams.length > 0) {
+                        logger.fine(fileIdParams.length + " tokens;");
+                        Set<Long> publishedFileIds = findPublishedFileIds(fileIdParams);
+                        for (int i = 0; i < fileIdParams.length; i++) {
+                            logger.fine("token: " + fileIdParams[i]);
+                            Long fileId = null;
+                            try {
+                                fileId = Long.parseLong(fileIdParams[i]);
+                            } catch (NumberFormatException nfe) {
+                                fileId = null;
+                            }
+                            if (fileId != null) {
+                                logger.fine("attempting to look up file id " + fileId);
+                                DataFile file = dataFileService.find(fileId);
+                                if (file != null) {
+                                    if (isAccessAuthorized(user, file, publishedFileIds.contains(file.getId()))) {
+
+                                        logger.fine("adding datafile (id=" + file.getId() + ") to the download list of the ZippedDownloadInstance.");
+                                        //downloadInstance.addDataFile(file);
+                                        if (donotwriteGBResponse != true && file.isReleased()){
+                                            GuestbookResponse  gbr = guestbookResponseService.initAPIGuestbookResponse(file.getOwner(), file, session, apiTokenUser);
+                                            guestbookResponseService.save(gbr);
+                                            MakeDataCountEntry entry = new MakeDataCountEntry(uriInfo, headers, dvRequestService, file);                                        
+                                            mdcLogService.logEntry(entry);
+                                        }
                                     
-                                    if (zipper == null) {
-                                        // This is the first file we can serve - so we now know that we are going to be able 
-                                        // to produce some output.
-                                        zipper = new DataFileZipper(os);
-                                        zipper.setFileManifest(fileManifest);
-                                        response.setHeader("Content-disposition", "attachment; filename=\"dataverse_files.zip\"");
-                                        response.setHeader("Content-Type", "application/zip; name=\"dataverse_files.zip\"");
-                                    }
+                                        if (zipper == null) {
+                                            // This is the first file we can serve - so we now know that we are going to be able 
+                                            // to produce some output.
+                                            int prefetchCount = JvmSettings.FILES_ZIP_DOWNLOAD_PREFETCH.lookupOptional(Integer.class).orElse(4);
+                                            zipper = new DataFileZipper(os, workerPools.get(WorkerPools.Pool.ZIP_DOWNLOAD), prefetchCount);
+                                            zipper.setFileManifest(fileManifest);
+                                            response.setHeader("Content-disposition", "attachment; filename=\"dataverse_files.zip\"");
+                                            response.setHeader("Content-Type", "application/zip; name=\"dataverse_files.zip\"");
+                                        }
                                     
-                                    long size = 0L;
-                                    // is the original format requested, and is this a tabular datafile, with a preserved original?
-                                    if (getOriginal 
-                                            && file.isTabularData() 
-                                            && !StringUtil.isEmpty(file.getDataTable().getOriginalFileFormat())) {
-                                        //This size check is probably fairly inefficient as we have to get all the AccessObjects
-                                        //We do this again inside the zipper. I don't think there is a better solution
-                                        //without doing a large deal of rewriting or architecture redo.
-                                        //The previous size checks for non-original download is still quick.
-                                        //-MAD 4.9.2
-                                        // OK, here's the better solution: we now store the size of the original file in 
-                                        // the database (in DataTable), so we get it for free. 
-                                        // However, there may still be legacy datatables for which the size is not saved. 
-                                        // so the "inefficient" code is kept, below, as a fallback solution. 
-                                        // -- L.A., 4.10
+                                        long size = 0L;
+                                        // is the original format requested, and is this a tabular datafile, with a preserved original?
+                                        if (getOriginal 
+                                                && file.isTabularData() 
+                                                && !StringUtil.isEmpty(file.getDataTable().getOriginalFileFormat())) {
+                                            //This size check is probably fairly inefficient as we have to get all the AccessObjects
+                                            //We do this again inside the zipper. I don't think there is a better solution
+                                            //without doing a large deal of rewriting or architecture redo.
+                                            //The previous size checks for non-original download is still quick.
+                                            //-MAD 4.9.2
+                                            // OK, here's the better solution: we now store the size of the original file in 
+                                            // the database (in DataTable), so we get it for free. 
+                                            // However, there may still be legacy datatables for which the size is not saved. 
+                                            // so the "inefficient" code is kept, below, as a fallback solution. 
+                                            // -- L.A., 4.10
                                         
-                                        if (file.getDataTable().getOriginalFileSize() != null) {
-                                            size = file.getDataTable().getOriginalFileSize();
+                                            if (file.getDataTable().getOriginalFileSize() != null) {
+                                                size = file.getDataTable().getOriginalFileSize();
+                                            } else {
+                                                DataAccessRequest daReq = new DataAccessRequest();
+                                                StorageIO<DataFile> storageIO = DataAccess.getStorageIO(file, daReq);
+                                                storageIO.open();
+                                                size = storageIO.getAuxObjectSize(FileUtil.SAVED_ORIGINAL_FILENAME_EXTENSION);
+
+                                                // save it permanently: 
+                                                file.getDataTable().setOriginalFileSize(size);
+                                                fileService.saveDataTable(file.getDataTable());
+                                            }
+                                            if (size == 0L){
+                                                throw new IOException("Invalid file size or accessObject when checking limits of zip file");
+                                            }
                                         } else {
-                                            DataAccessRequest daReq = new DataAccessRequest();
-                                            StorageIO<DataFile> storageIO = DataAccess.getStorageIO(file, daReq);
-                                            storageIO.open();
-                                            size = storageIO.getAuxObjectSize(FileUtil.SAVED_ORIGINAL_FILENAME_EXTENSION);
-
-                                            // save it permanently: 
-                                            file.getDataTable().setOriginalFileSize(size);
-                                            fileService.saveDataTable(file.getDataTable());
-                                        }
-                                        if (size == 0L){
-                                            throw new IOException("Invalid file size or accessObject when checking limits of zip file");
+                                            size = file.getFilesize();
                                         }
-                                    } else {
-                                        size = file.getFilesize();
-                                    }
-                                    if (sizeTotal + size < zipDownloadSizeLimit) {
-                                        sizeTotal += zipper.addFileToZipStream(file, getOriginal);
-                                    } else {
-                                        String fileName = file.getFileMetadata().getLabel();
-                                        String mimeType = file.getContentType();
+                                        // (the bytes actually written so far, plus the sizes
+                                        // above for the files queued but not written yet)
+                                        if (zipper.getSizeTotal() + size < zipDownloadSizeLimit) {
+                                            // (written as soon as the files queued before it are)
+                                            zipper.queueFileForZipStream(file, getOriginal, size);
+                                        } else {
+                                            String fileName = file.getFileMetadata().getLabel();
+                                            String mimeType = file.getContentType();
                                         
-                                        zipper.addToManifest(fileName + " (" + mimeType + ") " + " skipped because the total size of the download bundle exceeded the limit of " + zipDownloadSizeLimit + " bytes.\r\n");
-                                    }
-                                } else { 
-                                    boolean embargoed = FileUtil.isActivelyEmbargoed(file);
-                                    if (file.isRestricted() || embargoed) {
-                                        if (zipper == null) {
-                                            fileManifest = fileManifest + file.getFileMetadata().getLabel() + " IS "
-                                                    + (embargoed ? "EMBARGOED" : "RESTRICTED")
-                                                    + " AND CANNOT BE DOWNLOADED\r\n";
+                                            zipper.addToManifest(fileName + " (" + mimeType + ") " + " skipped because the total size of the download bundle exceeded the limit of " + zipDownloadSizeLimit + " bytes.\r\n");
+                                        }
+                                    } else { 
+                                        boolean embargoed = FileUtil.isActivelyEmbargoed(file);
+                                        if (file.isRestricted() || embargoed) {
+                                            if (zipper == null) {
+                                                fileManifest = fileManifest + file.getFileMetadata().getLabel() + " IS "
+                                                        + (embargoed ? "EMBARGOED" : "RESTRICTED")
+                                                        + " AND CANNOT BE DOWNLOADED\r\n";
+                                            } else {
+                                                zipper.addToManifest(file.getFileMetadata().getLabel() + " IS "
+                                                        + (embargoed ? "EMBARGOED" : "RESTRICTED")
+                                                        + " AND CANNOT BE DOWNLOADED\r\n");
+                                            }
                                         } else {
-                                            zipper.addToManifest(file.getFileMetadata().getLabel() + " IS "
-                                                    + (embargoed ? "EMBARGOED" : "RESTRICTED")
-                                                    + " AND CANNOT BE DOWNLOADED\r\n");
+                                            fileId = null;
                                         }
-                                    } else {
-                                        fileId = null;
                                     }
-                                }
                             
-                            } if (null == fileId) {
-                                // As of now this errors out.
-                                // This is bad because the user ends up with a broken zip and manifest
-                                // This is good in that the zip ends early so the user does not wait for the results
-                                String errorMessage = "Datafile " + fileId + ": no such object available";
-                                throw new NotFoundException(errorMessage);
+                                } if (null == fileId) {
+                                    // As of now this errors out.
+                                    // This is bad because the user ends up with a broken zip and manifest
+                                    // This is good in that the zip ends early so the user does not wait for the results
+                                    String errorMessage = "Datafile " + fileId + ": no such object available";
+                                    throw new NotFoundException(errorMessage);
+                                }
                             }
                         }
+                    } else {
+                        throw new BadRequestException();
                     }
-                } else {
-                    throw new BadRequestException();
-                }
 
-                if (zipper == null) {
-                    // If the DataFileZipper object is still NULL, it means that 
-                    // there were file ids supplied - but none of the corresponding 
-                    // files were accessible for this user. 
-                    // In which casew we don't bother generating any output, and 
-                    // just give them a 403:
-                    throw new ForbiddenException();
-                }
+                    if (zipper == null) {
+                        // If the DataFileZipper object is still NULL, it means that 
+                        // there were file ids supplied - but none of the corresponding 
+                        // files were accessible for this user. 
+                        // In which casew we don't bother generating any output, and 
+                        // just give them a 403:
+                        throw new ForbiddenException();
+                    }
 
-                // This will add the generated File Manifest to the zipped output, 
-                // then flush and close the stream:
-                zipper.finalizeZipStream();
+                    // This will add the generated File Manifest to the zipped output, 
+                    // then flush and close the stream:
+                    zipper.finalizeZipStream();
+                } finally {
+                    // Closes any file read ahead but not written, if the
+                    // download has failed (does nothing once the zip stream
+                    // has been finalized):
+                    if (zipper != null) {
+                        zipper.cancelQueuedFiles();
+                    }
+                }
                 
                 //os.flush();
                 //os.close();
@@ -1696,11 +1714,6 @@ public class Access extends AbstractApiBean {
         
         boolean published = false; 
         
-        //True if there's an embargo that hasn't yet expired
-        //In this state, we block access as though the file is restricted (even if it is not restricted)
-        boolean embargoed = FileUtil.isActivelyEmbargoed(df);
-        
-        
         /*
         SEK 7/26/2018 for 3661 relying on the version state of the dataset versions
             to which this file is attached check to see if at least one is  RELEASED
@@ -1712,6 +1725,35 @@ public class Access extends AbstractApiBean {
             }
         }
 
+        return isAccessAuthorized(requestUser, df, published);
+    }
+
+    /**
+     * Looks up, in one go, which of the requested files (in a zipped
+     * download) are in a released version, for
+     * {@link #isAccessAuthorized(User, DataFile, boolean)}.
+     */
+    private Set<Long> findPublishedFileIds(String[] fileIdParams) {
+        List<Long> fileIds = new ArrayList<>();
+        for (String fileIdParam : fileIdParams) {
+            try {
+                fileIds.add(Long.parseLong(fileIdParam));
+            } catch (NumberFormatException nfe) {
+                // skipped, here and in the download loop
+            }
+        }
+        return dataFileService.findIdsInReleasedVersions(fileIds);
+    }
+
+    /**
+     * @param published whether the file is in at least one released version
+     * of its dataset.
+     */
+    private boolean isAccessAuthorized(User requestUser, DataFile df, boolean published) {
+        //True if there's an embargo that hasn't yet expired
+        //In this state, we block access as though the file is restricted (even if it is not restricted)
+        boolean embargoed = FileUtil.isActivelyEmbargoed(df);
+
         // TODO: (IMPORTANT!)
         // Business logic like this should NOT be maintained in individual 
         // application fragments. 
@@ -1889,6 +1931,7 @@ public class Access extends AbstractApiBean {
         if (fileIdParams == null || fileIdParams.length == 0) {
             throw new BadRequestException();
         }
+        Set<Long> publishedFileIds = findPublishedFileIds(fileIdParams);
         
         for (int i = 0; i < fileIdParams.length; i++) {
             Long fileId = null;
@@ -1902,7 +1945,7 @@ public class Access extends AbstractApiBean {
                 DataFile file = dataFileService.find(fileId);
                 if (file != null) {
                     validFileCount++;
-                    if (isAccessAuthorized(user, file)) {
+                    if (isAccessAuthorized(user, file, publishedFileIds.contains(file.getId()))) {
                         logger.fine("adding datafile (id=" + file.getId() + ") to the download list of the ZippedDownloadInstance.");
                         if (donotwriteGBResponse != true && file.isReleased()) {
                             GuestbookResponse gbr = guestbookResponseService.initAPIGuestbookResponse(file.getOwner(), file, session, apiTokenUser);
@@ -15,6 +15,7 @@ import edu.harvard.iq.dataverse.DataverseServiceBean;
 import edu.harvard.iq.dataverse.DataverseSession;
 import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.api.auth.AuthRequired;
+import edu.harvard.iq.dataverse.metrics.MetricsRollupServiceBean;
 import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.validation.EMailValidator;
 import edu.harvard.iq.dataverse.EjbDataverseEngine;
@@ -44,6 +45,8 @@ import edu.harvard.iq.dataverse.confirmemail.ConfirmEmailException;
 import edu.harvard.iq.dataverse.confirmemail.ConfirmEmailInitResponse;
 import edu.harvard.iq.dataverse.dataaccess.DataAccess;
 import edu.harvard.iq.dataverse.dataaccess.DataAccessOption;
+import edu.harvard.iq.dataverse.dataaccess.DataFileFixityServiceBean;
+import edu.harvard.iq.dataverse.dataaccess.DataFileValidation;
 import edu.harvard.iq.dataverse.dataaccess.StorageIO;
 import edu.harvard.iq.dataverse.engine.command.impl.AbstractSubmitToArchiveCommand;
 import edu.harvard.iq.dataverse.engine.command.impl.PublishDataverseCommand;
@@ -117,6 +120,7 @@ import static edu.harvard.iq.dataverse.util.json.JsonPrinter.toJsonArray;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.sql.Timestamp;
 import javax.inject.Inject;
 import javax.json.JsonArray;
 import javax.persistence.Query;
@@ -171,6 +175,10 @@ public class Admin extends AbstractApiBean {
         BannerMessageServiceBean bannerMessageService;
         @EJB
         TemplateServiceBean templateService;
+        @EJB
+        MetricsRollupServiceBean metricsRollupService;
+        @EJB
+        DataFileFixityServiceBean dataFileFixityService;
 
 	// Make the session available
 	@Inject
@@ -217,6 +225,15 @@ public class Admin extends AbstractApiBean {
 		return ok("Setting " + name + " deleted.");
 	}
 
+	/**
+	 * Hit/miss counters etc. of the in-memory settings cache on this node.
+	 */
+	@Path("settings-cache")
+	@GET
+	public Response getSettingsCacheStatistics() {
+		return ok(settingsSvc.getCacheStatistics());
+	}
+
 	@Path("settings/{name}/lang/{lang}")
 	@DELETE
 	public Response deleteSetting(@PathParam("name") String name, @PathParam("lang") String lang) {
@@ -1224,13 +1241,19 @@ public class Admin extends AbstractApiBean {
                     output.add("storageIdentifier", dataFile.getStorageIdentifier());
 
                     
+                    String errorMessage = null;
                     try {
                         FileUtil.validateDataFileChecksum(dataFile);
                         success = true;
                     } catch (IOException ex) {
+                        errorMessage = ex.getMessage();
                         output.add("status", "invalid");
                         output.add("errorMessage", ex.getMessage());
                     }
+                    // recorded, so that publishing the dataset may skip the file
+                    // (see dataverse.files.validation.max-age):
+                    dataFileFixityService.recordResults(List.of(new DataFileValidation.Result(dataFile, errorMessage)),
+                            new Timestamp(new Date().getTime()));
                     
                     if (success) {
                         output.add("status", "valid");
@@ -2079,6 +2102,18 @@ public class Admin extends AbstractApiBean {
         return ok("metric cache " + name + " cleared.");
     }
 
+    @GET
+    @Path("/metricsRollups")
+    public Response getMetricsRollupsStatus() {
+        return ok(metricsRollupService.getStatus());
+    }
+
+    @POST
+    @Path("/metricsRollups/update")
+    public Response updateMetricsRollups(@QueryParam("rebuild") boolean rebuild) {
+        return ok(metricsRollupService.updateRollups(rebuild));
+    }
+
     @GET
 	@AuthRequired
     @Path("/dataverse/{alias}/addRoleAssignmentsToChildren")
@@ -89,6 +89,7 @@ import edu.harvard.iq.dataverse.settings.SettingsServiceBean.Key;
 import edu.harvard.iq.dataverse.util.ArchiverUtil;
 import edu.harvard.iq.dataverse.util.BundleUtil;
 import edu.harvard.iq.dataverse.util.EjbUtil;
+import edu.harvard.iq.dataverse.util.FileSortFieldAndOrder;
 import edu.harvard.iq.dataverse.util.FileUtil;
 import edu.harvard.iq.dataverse.util.MarkupChecker;
 import edu.harvard.iq.dataverse.util.SystemConfig;
@@ -98,8 +99,10 @@ import edu.harvard.iq.dataverse.util.json.JsonLDTerm;
 import edu.harvard.iq.dataverse.util.json.JsonParseException;
 import edu.harvard.iq.dataverse.util.json.JsonPrinter;
 import edu.harvard.iq.dataverse.util.SignpostingResources;
+import edu.harvard.iq.dataverse.util.json.JsonArrayStreamingOutput;
 import edu.harvard.iq.dataverse.util.json.JsonUtil;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
+import edu.harvard.iq.dataverse.search.SortBy;
 
 import static edu.harvard.iq.dataverse.util.json.JsonPrinter.*;
 import static edu.harvard.iq.dataverse.util.json.NullSafeJsonBuilder.jsonObjectBuilder;
@@ -168,6 +171,16 @@ public class Datasets extends AbstractApiBean {
 
     private static final Logger logger = Logger.getLogger(Datasets.class.getCanonicalName());
     private static final Pattern dataFilePattern = Pattern.compile("^[0-9a-f]{11}-[0-9a-f]{12}\\.?.*");
+
+    // The files of a version are listed this many at a time:
+    private static final int VERSION_FILES_PAGE_SIZE = 1000;
+    private static final Map<String, String> VERSION_FILES_SORT_FIELDS = new LinkedHashMap<>();
+    static {
+        VERSION_FILES_SORT_FIELDS.put("name", FileSortFieldAndOrder.label);
+        VERSION_FILES_SORT_FIELDS.put("date", FileSortFieldAndOrder.createDate);
+        VERSION_FILES_SORT_FIELDS.put("size", FileSortFieldAndOrder.size);
+        VERSION_FILES_SORT_FIELDS.put("type", FileSortFieldAndOrder.type);
+    }
     
     @Inject DataverseSession session;
 
@@ -493,9 +506,35 @@ public class Datasets extends AbstractApiBean {
     @GET
     @AuthRequired
     @Path("{id}/versions/{versionId}/files")
-    public Response getVersionFiles(@Context ContainerRequestContext crc, @PathParam("id") String datasetId, @PathParam("versionId") String versionId, @Context UriInfo uriInfo, @Context HttpHeaders headers) {
-        return response( req -> ok( jsonFileMetadatas(
-                         getDatasetVersionOrDie(req, versionId, findDatasetOrDie(datasetId), uriInfo, headers).getFileMetadatas())), getRequestUser(crc));
+    public Response getVersionFiles(@Context ContainerRequestContext crc, @PathParam("id") String datasetId, @PathParam("versionId") String versionId,
+            @QueryParam("limit") Integer limit, @QueryParam("offset") Integer offset, @QueryParam("sort") String sort, @QueryParam("order") String order,
+            @Context UriInfo uriInfo, @Context HttpHeaders headers) {
+        return response( req -> {
+            if ((limit != null && limit < 0) || (offset != null && offset < 0)) {
+                return badRequest("limit and offset must not be negative");
+            }
+            String sortField = sort == null ? FileSortFieldAndOrder.label : VERSION_FILES_SORT_FIELDS.get(sort);
+            if (sortField == null) {
+                return badRequest("Invalid sort: " + sort + ". Valid values are: " + String.join(", ", VERSION_FILES_SORT_FIELDS.keySet()));
+            }
+            if (order != null && !SortBy.allowedOrderStrings().contains(order)) {
+                return badRequest("Invalid order: " + order + ". Valid values are: " + String.join(", ", SortBy.allowedOrderStrings()));
+            }
+            DatasetVersion dsv = getDatasetVersionOrDie(req, versionId, findDatasetOrDie(datasetId), uriInfo, headers);
+            if (dsv.getId() == null) {
+                return ok(jsonFileMetadatas(dsv.getFileMetadatas()));
+            }
+            // The files are read, and written out, a page at a time - after
+            // this method has returned, each page in a transaction of its own
+            // (so the listing of a draft being edited may be inconsistent):
+            Long dsvId = dsv.getId();
+            FileSortFieldAndOrder sortFieldAndOrder = new FileSortFieldAndOrder(sortField, order);
+            Map<String, Object> fields = Collections.singletonMap("totalCount", fileService.findCountByDatasetVersionId(dsvId));
+            StreamingOutput output = new JsonArrayStreamingOutput<FileMetadata>(
+                    (first, max) -> fileService.findFileMetadataPageByDatasetVersionId(dsvId, sortFieldAndOrder, first, max),
+                    fmd -> json(fmd), VERSION_FILES_PAGE_SIZE, offset == null ? 0 : offset, limit, fields);
+            return Response.ok(output, MediaType.APPLICATION_JSON).build();
+        }, getRequestUser(crc));
     }
     
     @GET
@@ -38,9 +38,11 @@ import java.io.FileInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.inject.Inject;
@@ -69,6 +71,10 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
 
     private static final Logger logger = Logger.getLogger(DownloadInstanceWriter.class.getCanonicalName());
 
+    // The most ranges (once the overlapping ones are merged) served in one
+    // response; each one may take a request of its own to the storage:
+    private static final int MAX_RANGES = 100;
+
     @Override
     public boolean isWriteable(Class<?> clazz, Type type, Annotation[] annotation, MediaType mediaType) {
         return clazz == DownloadInstance.class;
@@ -343,8 +349,13 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
 
                                     try {
                                         File tempSubsetFile = File.createTempFile("tempSubsetFile", ".tmp");
-                                        TabularSubsetGenerator tabularSubsetGenerator = new TabularSubsetGenerator();
-                                        tabularSubsetGenerator.subsetFile(storageIO.getInputStream(), tempSubsetFile.getAbsolutePath(), variablePositionIndex, dataFile.getDataTable().getCaseQuantity(), "\t");
+                                        // Use the column-oriented copy of the file, if available, 
+                                        // to read only the requested columns; otherwise, fall back 
+                                        // to scanning the entire tab file:
+                                        if (!subsetFromColumnStore(storageIO, variablePositionIndex, dataFile, tempSubsetFile)) {
+                                            TabularSubsetGenerator tabularSubsetGenerator = new TabularSubsetGenerator();
+                                            tabularSubsetGenerator.subsetFile(storageIO.getInputStream(), tempSubsetFile.getAbsolutePath(), variablePositionIndex, dataFile.getDataTable().getCaseQuantity(), "\t");
+                                        }
 
                                         if (tempSubsetFile.exists()) {
                                             FileInputStream subsetStream = new FileInputStream(tempSubsetFile);
@@ -404,7 +415,20 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
 
                 } 
 
-                try (InputStream instream = storageIO.getInputStream()) {
+                // User may have requested a range (or several) of bytes.
+                // Ranges are only supported when the size of the content 
+                // stream is known (i.e., it's not a dynamically generated 
+                // stream). Only the bytes requested are read then - with 
+                // native ranged reads, on the storage drivers that support 
+                // them - rather than the stream of the whole file: 
+                String rangeHeader = null;
+                HttpHeaders headers = di.getRequestHttpHeaders();
+                if (headers != null) {
+                    rangeHeader = headers.getHeaderString("Range");
+                }
+                boolean rangeRequest = rangeHeader != null && getContentSize(storageIO) > 0;
+
+                try (InputStream instream = rangeRequest ? InputStream.nullInputStream() : storageIO.getInputStream()) {
                     if (instream != null) {
                         // headers:
 
@@ -420,22 +444,9 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                         httpHeaders.add("Content-Type", mimeType + "; name=\"" + finalFileName + "\"");
 
                         long contentSize;
-                        
-                        // User may have requested a rangeHeader of bytes.
-                        // Ranges are only supported when the size of the content 
-                        // stream is known (i.e., it's not a dynamically generated 
-                        // stream. 
                         List<Range> ranges = new ArrayList<>();
-                        String rangeHeader = null;
-                        HttpHeaders headers = di.getRequestHttpHeaders();
-                        if (headers != null) {
-                            rangeHeader = headers.getHeaderString("Range");
-                        }
-                        long offset = 0;
-                        long leftToRead = -1L; 
-                        // Moving the "left to read" var. here; - since we may need 
-                        // to start counting our rangeHeader bytes outside the main .write()
-                        // loop, if it's a tabular file with a header. 
+                        List<String> partHeaders = new ArrayList<>();
+                        String boundary = null;
                         
                         if ((contentSize = getContentSize(storageIO)) > 0) {
                             try {
@@ -445,20 +456,29 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                                 throw new ClientErrorException("Error due to Range header: " + ex.getLocalizedMessage(), Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE);
                             }
                             
+                            httpHeaders.add("Accept-Ranges", "bytes");
                             if (ranges.isEmpty()) {
                                 logger.fine("Content size (retrieved from the AccessObject): " + contentSize);
                                 httpHeaders.add("Content-Length", contentSize);
-                            } else  {
-                                // For now we only support a single rangeHeader.
-                                long rangeContentSize = ranges.get(0).getLength();
-                                logger.fine("Content size (Range header in use): " + rangeContentSize);
-                                httpHeaders.add("Content-Length", rangeContentSize);
-                                
-                                offset = ranges.get(0).getStart();
-                                leftToRead = rangeContentSize;
-                                httpHeaders.add("Accept-Ranges", "bytes");
-                                httpHeaders.add("Content-Range", "bytes "+offset+"-"+(offset+rangeContentSize-1)+"/"+contentSize);
-
+                            } else if (ranges.size() == 1) {
+                                Range range = ranges.get(0);
+                                logger.fine("Content size (Range header in use): " + range.getLength());
+                                httpHeaders.add("Content-Length", range.getLength());
+                                httpHeaders.add("Content-Range", "bytes " + range.getStart() + "-" + range.getEnd() + "/" + contentSize);
+                            } else {
+                                // Multiple ranges are sent as a "multipart/byteranges"
+                                // body (RFC 7233, Appendix A), each range in a part
+                                // of its own: 
+                                boundary = UUID.randomUUID().toString().replace("-", "");
+                                long multipartSize = getMultipartEnd(boundary).length();
+                                for (Range range : ranges) {
+                                    String partHeader = getPartHeader(boundary, mimeType, range, contentSize);
+                                    partHeaders.add(partHeader);
+                                    multipartSize += partHeader.length() + range.getLength();
+                                }
+                                logger.fine("Content size (" + ranges.size() + " ranges in the Range header): " + multipartSize);
+                                httpHeaders.putSingle("Content-Type", "multipart/byteranges; boundary=" + boundary);
+                                httpHeaders.add("Content-Length", multipartSize);
                             }
                         } else {
                             // Content size unknown, must be a dynamically
@@ -475,88 +495,29 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                         int bufsize;
                         byte[] bffr = new byte[4 * 8192];
 
-                        // Before writing out any bytes from the input stream, write
-                        // any extra content, such as the variable header for the 
-                        // subsettable files: 
-                        if (storageIO.getVarHeader() != null) {
-                            logger.fine("storageIO.getVarHeader().getBytes().length: " + storageIO.getVarHeader().getBytes().length);
-                            if (storageIO.getVarHeader().getBytes().length > 0) {
-                                // If a rangeHeader is not being requested, let's call that the normal case.
-                                // Write the entire line of variable headers. Later, the rest of the file
-                                // will be written.
-                                if (ranges.isEmpty()) {
-                                    logger.fine("writing the entire variable header");
-                                    outstream.write(storageIO.getVarHeader().getBytes());
-                                } else {
-                                    // Range requested. Since the output stream of a 
-                                    // tabular file is made up of the varHeader and the body of 
-                                    // the physical file, we should assume that the requested 
-                                    // rangeHeader may span any portion of the combined stream.
-                                    // Thus we may or may not have to write the header, or a 
-                                    // portion thereof. 
-                                    int headerLength = storageIO.getVarHeader().getBytes().length;
-                                    if (offset >= headerLength) {
-                                        // We can skip the entire header. 
-                                        // All we need to do is adjust the byte offset 
-                                        // in the physical file; the number of bytes
-                                        // left to write stays unchanged, since we haven't
-                                        // written anything.
-                                        logger.fine("Skipping the variable header completely.");
-                                        offset -= headerLength;
-                                    } else {
-                                        // We need to write some portion of the header; 
-                                        // Once we are done, we may or may not still have 
-                                        // some bytes left to write from the main physical file.
-                                        if (offset + leftToRead <= headerLength) {
-                                            // This is a more straightforward case - we just need to 
-                                            // write a portion of the header, and then we are done!
-                                            logger.fine("Writing this many bytes of the variable header line: " + leftToRead);
-                                            outstream.write(Arrays.copyOfRange(storageIO.getVarHeader().getBytes(), (int)offset, (int)offset + (int)leftToRead));
-                                            // set "left to read" to zero, indicating that we are done:
-                                            leftToRead = 0; 
-                                        } else {
-                                            // write the requested portion of the header:
-                                            logger.fine("Writing this many bytes of the variable header line: " + (headerLength - offset));
-                                            outstream.write(Arrays.copyOfRange(storageIO.getVarHeader().getBytes(), (int)offset, headerLength));
-                                            // and adjust the file offset and remaining number of bytes accordingly: 
-                                            leftToRead -= (headerLength - offset);
-                                            offset = 0;
-                                        }
-                                        
-                                    }
-                                }
-                            }
-                        }
-
-                        // Dynamic streams, etc. Normal operation. No leftToRead.
+                        // Dynamic streams, etc. Normal operation. 
                         if (ranges.isEmpty()) {
+                            // Before writing out any bytes from the input stream, write
+                            // any extra content, such as the variable header for the 
+                            // subsettable files: 
+                            if (storageIO.getVarHeader() != null && storageIO.getVarHeader().getBytes().length > 0) {
+                                logger.fine("writing the entire variable header");
+                                outstream.write(storageIO.getVarHeader().getBytes());
+                            }
                             logger.fine("Normal, non-range request of file id " + dataFile.getId());
                             while ((bufsize = instream.read(bffr)) != -1) {
                                 outstream.write(bffr, 0, bufsize);
                             }
-                        } else if (leftToRead > 0) {
-                            // This is a rangeHeader request, and we still have bytes to read 
-                            // (for a tabular file, we may have already written enough
-                            // bytes from the variable header!)
-                            storageIO.setOffset(offset);
-                            // Thinking about it, we could just do instream.skip(offset) 
-                            // here... But I would like to have this offset functionality 
-                            // in StorageIO, for any future cases where we may not 
-                            // be able to do that on the stream directly (?) -- L.A.
+                        } else if (ranges.size() == 1) {
                             logger.fine("Range request of file id " + dataFile.getId());
-                            // Read a rangeHeader of bytes instead of the whole file. We'll count down as we write.
-                            // For now we only support a single rangeHeader.
-                            while ((bufsize = instream.read(bffr)) != -1) {
-                                if ((leftToRead -= bufsize) > 0) {
-                                    // Just do a normal write. Potentially lots to go. Don't break.
-                                    outstream.write(bffr, 0, bufsize);
-                                } else {
-                                    // Get those last bytes or bytes equal to bufsize. Last one. Then break.
-                                    outstream.write(bffr, 0, (int) leftToRead + bufsize);
-                                    break;
-                                }
+                            writeRange(storageIO, ranges.get(0), outstream, bffr);
+                        } else {
+                            logger.fine("Multiple range request (" + ranges.size() + " ranges) of file id " + dataFile.getId());
+                            for (int i = 0; i < ranges.size(); i++) {
+                                outstream.write(partHeaders.get(i).getBytes(StandardCharsets.US_ASCII));
+                                writeRange(storageIO, ranges.get(i), outstream, bffr);
                             }
-
+                            outstream.write(getMultipartEnd(boundary).getBytes(StandardCharsets.US_ASCII));
                         }
 
                         logger.fine("di conversion param: " + di.getConversionParam() + ", value: " + di.getConversionParamValue());
@@ -580,6 +541,11 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                         outstream.close();
                         return;
                     }
+                } finally {
+                    if (rangeRequest) {
+                        // (the stream of the whole file may have been opened to read the ranges from)
+                        storageIO.closeInputStream();
+                    }
                 }
             }
         }
@@ -588,6 +554,19 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
 
     }
 
+    private boolean subsetFromColumnStore(StorageIO<DataFile> storageIO, List<Integer> variablePositionIndex, DataFile dataFile, File tempSubsetFile) {
+        try {
+            return TabularColumnStore.subsetFile(storageIO,
+                    variablePositionIndex,
+                    dataFile.getDataTable().getVarQuantity().intValue(),
+                    dataFile.getDataTable().getCaseQuantity(),
+                    tempSubsetFile);
+        } catch (IOException ioex) {
+            logger.warning("Failed to subset datafile " + dataFile.getId() + " using the column store: " + ioex.getMessage());
+            return false;
+        }
+    }
+
     private boolean isAuxiliaryObjectCached(StorageIO storageIO, String auxiliaryTag) {
         try {
             return storageIO.isAuxObjectCached(auxiliaryTag);
@@ -697,9 +676,57 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
         return -1;
     }
 
+    /**
+     * Writes a range of the content: of the variable header (of a tabular 
+     * file), followed by the file itself.
+     */
+    private void writeRange(StorageIO<?> storageIO, Range range, OutputStream outstream, byte[] bffr) throws IOException {
+        long offset = range.getStart();
+        long leftToRead = range.getLength();
+        // Since the output stream of a tabular file is made up of the 
+        // varHeader and the body of the physical file, the range may span 
+        // any portion of the combined stream; we may or may not have to 
+        // write the header, or a portion thereof: 
+        byte[] varHeader = storageIO.getVarHeader() != null ? storageIO.getVarHeader().getBytes() : new byte[0];
+        if (offset < varHeader.length) {
+            int headerBytes = (int) Math.min(leftToRead, varHeader.length - offset);
+            logger.fine("Writing this many bytes of the variable header line: " + headerBytes);
+            outstream.write(varHeader, (int) offset, headerBytes);
+            leftToRead -= headerBytes;
+            offset = 0;
+        } else {
+            offset -= varHeader.length;
+        }
+        if (leftToRead > 0) {
+            try (InputStream rangeStream = storageIO.getInputStream(offset, leftToRead)) {
+                int bufsize;
+                while (leftToRead > 0 && (bufsize = rangeStream.read(bffr, 0, (int) Math.min(bffr.length, leftToRead))) != -1) {
+                    outstream.write(bffr, 0, bufsize);
+                    leftToRead -= bufsize;
+                }
+            }
+            if (leftToRead > 0) {
+                throw new IOException("Unexpected end of the file, " + leftToRead + " bytes short of the end of the range");
+            }
+        }
+    }
+
+    private static String getPartHeader(String boundary, String mimeType, Range range, long contentSize) {
+        return "\r\n--" + boundary + "\r\n"
+                + "Content-Type: " + (mimeType != null ? mimeType : MediaType.APPLICATION_OCTET_STREAM) + "\r\n"
+                + "Content-Range: bytes " + range.getStart() + "-" + range.getEnd() + "/" + contentSize + "\r\n"
+                + "\r\n";
+    }
+
+    private static String getMultipartEnd(String boundary) {
+        return "\r\n--" + boundary + "--\r\n";
+    }
+
     /**
      * @param range "bytes 0-10" for example. Found in the "Range" HTTP header.
      * @param fileSize File size in bytes.
+     * @return the ranges requested, sorted, with the overlapping ones merged
+     * and the ones beyond the end of the file left out.
      * @throws RunTimeException on any problems processing the Range header.
      */
     public List<Range> getRanges(String range, long fileSize) {
@@ -710,28 +737,27 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
         if (range != null) {
             logger.fine("Range header supplied: " + range);
 
-            // Technically this regex supports multiple ranges.
-            // Below we have a check to enforce a single range.
-            if (!range.matches("^bytes=\\d*-\\d*(,\\d*-\\d*)*$")) {
+            if (!range.matches("^bytes=\\s*\\d*-\\d*(\\s*,\\s*\\d*-\\d*)*\\s*$")) {
                 throw new RuntimeException("The format is bytes=<range-start>-<range-end> where start and end are optional.");
             }
 
             // The 6 is to remove "bytes="
             String[] parts = range.substring(6).split(",");
-            if (parts.length > 1) {
-                // Only allow a single range.
-                throw new RuntimeException("Only one range is allowed.");
-            }
-            // This loop is here in case we ever want to support multiple ranges.
             for (String part : parts) {
+                part = part.trim();
 
                 long start = getRangeStart(part);
                 long end = getRangeEnd(part);
 
-                if (start == -1) {
-                    // start does not exist. Base start off of how many bytes from end.
-                    start = fileSize - end;
-                    end = fileSize - 1;
+                if (start == -1 && end == -1) {
+                    throw new RuntimeException("Either the start or the end of a range must be specified.");
+                } else if (start == -1) {
+                    // start does not exist. Base start off of how many bytes from end
+                    // (the whole file, if it is shorter than that).
+                    start = Math.max(0, fileSize - end);
+                    end = (end == 0) ? -1 : fileSize - 1;
+                } else if (end != -1 && start > end) {
+                    throw new RuntimeException("Start is larger than end.");
                 } else if (end == -1 || end > fileSize - 1) {
                     // Set end when it doesn't exist.
                     // Also, automatically set end to size of file if end is beyond
@@ -740,17 +766,52 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                 }
 
                 if (start > end) {
-                    throw new RuntimeException("Start is larger than end or size of file.");
+                    // Not satisfiable (starts beyond the end of the file); 
+                    // the other ranges may still be.
+                    logger.fine("Ignoring range " + part + ", beyond the size of the file (" + fileSize + ")");
+                    continue;
                 }
 
                 ranges.add(new Range(start, end));
+            }
 
+            if (ranges.isEmpty()) {
+                throw new RuntimeException("Start is larger than end or size of file.");
+            }
+
+            ranges = coalesceRanges(ranges);
+            if (ranges.size() > MAX_RANGES) {
+                throw new RuntimeException("No more than " + MAX_RANGES + " (non-overlapping) ranges are allowed.");
             }
         }
 
         return ranges;
     }
 
+    /**
+     * @return the ranges sorted, with the ones that overlap (or are adjacent)
+     * merged; so that the ranges of the file can be read in order, without 
+     * going back.
+     */
+    static List<Range> coalesceRanges(List<Range> ranges) {
+        List<Range> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(Range::getStart));
+        List<Range> coalesced = new ArrayList<>();
+        Range current = null;
+        for (Range range : sorted) {
+            if (current != null && range.getStart() <= current.getEnd() + 1) {
+                current = new Range(current.getStart(), Math.max(current.getEnd(), range.getEnd()));
+            } else {
+                if (current != null) {
+                    coalesced.add(current);
+                }
+                current = range;
+            }
+        }
+        coalesced.add(current);
+        return coalesced;
+    }
+
     /**
      * @return Return a positive long or -1 if start does not exist.
      */
@@ -27,6 +27,7 @@ import edu.harvard.iq.dataverse.batch.util.LoggingUtil;
 import edu.harvard.iq.dataverse.search.DvObjectSolrDoc;
 import edu.harvard.iq.dataverse.search.FacetCategory;
 import edu.harvard.iq.dataverse.search.FileView;
+import edu.harvard.iq.dataverse.search.IndexBatchProgress;
 import edu.harvard.iq.dataverse.search.IndexBatchServiceBean;
 import edu.harvard.iq.dataverse.search.IndexResponse;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
@@ -162,6 +163,13 @@ public class Index extends AbstractApiBean {
                 return ok(preview);
             }
 
+            // claimed here, before the asynchronous call, so that two requests
+            // made at the same time cannot both start a reindex:
+            IndexBatchProgress progress = indexBatchService.claimReindex(numPartitions, partitionIdToProcess, skipIndexed);
+            if (progress == null) {
+                return error(Status.CONFLICT, "A reindex is already running on this server. Check its progress with /api/admin/index/progress");
+            }
+
             JsonObjectBuilder response = Json.createObjectBuilder();
             response.add("availablePartitionIds", availablePartitionIdsBuilder);
             response.add("args", args);
@@ -169,7 +177,14 @@ public class Index extends AbstractApiBean {
              * @todo How can we expose the String returned from "index all" via
              * the API?
              */
-            Future<JsonObjectBuilder> indexAllFuture = indexBatchService.indexAllOrSubset(numPartitions, partitionIdToProcess, skipIndexed, previewOnly);
+            Future<JsonObjectBuilder> indexAllFuture = null;
+            try {
+                indexAllFuture = indexBatchService.indexAllOrSubset(progress);
+            } finally {
+                if (indexAllFuture == null) {
+                    indexBatchService.releaseReindex(progress);
+                }
+            }
             JsonObject workloadPreview = preview.build().getJsonObject("previewOfPartitionWorkload");
             int dataverseCount = workloadPreview.getInt("dataverseCount");
             int datasetCount = workloadPreview.getInt("datasetCount");
@@ -387,6 +402,22 @@ public class Index extends AbstractApiBean {
             return ok("Index Status Batch Job initiated, check log for job status.");
         }
     }
+    /**
+     * Reports the progress of the full (or partitioned) reindex running on
+     * this server, or of the last one that has finished.
+     * @return the number of dataverses and datasets done and failed, the
+     * indexing rate and the estimated time remaining
+     */
+    @GET
+    @Path("progress")
+    public Response indexProgress() {
+        IndexBatchProgress progress = indexBatchService.getReindexProgress();
+        if (progress == null) {
+            return error(Status.NOT_FOUND, "No reindex has been started on this server.");
+        }
+        return ok(progress.toJson());
+    }
+
      /**
      * Deletes "orphan" Solr documents (that don't match anything in the database).
      * @param sync - optional parameter, if set, then run the command 
@@ -6,6 +6,7 @@ import edu.harvard.iq.dataverse.makedatacount.DatasetExternalCitations;
 import edu.harvard.iq.dataverse.makedatacount.DatasetExternalCitationsServiceBean;
 import edu.harvard.iq.dataverse.makedatacount.DatasetMetrics;
 import edu.harvard.iq.dataverse.makedatacount.DatasetMetricsServiceBean;
+import edu.harvard.iq.dataverse.makedatacount.MakeDataCountLogWriter;
 import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 
@@ -25,6 +26,7 @@ import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -48,6 +50,8 @@ public class MakeDataCountApi extends AbstractApiBean {
     DatasetServiceBean datasetService;
     @EJB
     SystemConfig systemConfig;
+    @EJB
+    MakeDataCountLogWriter logWriter;
 
     /**
      * TODO: For each dataset, send the following:
@@ -79,6 +83,17 @@ public class MakeDataCountApi extends AbstractApiBean {
         return ok(msg);
     }
 
+    /**
+     * How the writing of the usage log entries is going: the entries
+     * written, dropped (because the buffer was full, or writing them failed)
+     * and still buffered, and the most ever buffered at once.
+     */
+    @GET
+    @Path("logWriter")
+    public Response getLogWriterStatus() {
+        return ok(logWriter.getStatus());
+    }
+
     @POST
     @Path("{id}/addUsageMetricsFromSushiReport")
     public Response addUsageMetricsFromSushiReport(@PathParam("id") String id, @QueryParam("reportOnDisk") String reportOnDisk) {
@@ -2,8 +2,8 @@ package edu.harvard.iq.dataverse.api;
 
 import edu.harvard.iq.dataverse.DatasetVersion;
 import edu.harvard.iq.dataverse.Dataverse;
-import edu.harvard.iq.dataverse.Metric;
 import edu.harvard.iq.dataverse.makedatacount.MakeDataCountUtil;
+import edu.harvard.iq.dataverse.metrics.MetricsServiceBean.CacheExpiry;
 import edu.harvard.iq.dataverse.metrics.MetricsUtil;
 import edu.harvard.iq.dataverse.util.FileUtil;
 
@@ -14,6 +14,7 @@ import java.util.logging.Logger;
 
 import javax.json.JsonArray;
 import javax.json.JsonObject;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.GET;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.Path;
@@ -63,13 +64,7 @@ public class Metrics extends AbstractApiBean {
             return error(BAD_REQUEST, ia.getLocalizedMessage());
         }
         String metricName = "dataverses";
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-
-            jsonArray = metricsSvc.getDataversesTimeSeries(uriInfo, d);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.ALL_TIME, metricName, null, null, d, () -> metricsSvc.getDataversesTimeSeries(uriInfo, d).toString()));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -91,13 +86,10 @@ public class Metrics extends AbstractApiBean {
         String metricName = "dataversesToMonth";
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-
-        if (null == jsonObj) { // run query and save
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.getCachedOrCompute(CacheExpiry.MONTHLY, metricName, sanitizedyyyymm, null, d, () -> {
             Long count = metricsSvc.dataversesToMonth(sanitizedyyyymm, d);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonObj.toString()));
-        }
+            return MetricsUtil.countToJson(count).build().toString();
+        }));
 
         return ok(jsonObj);
 
@@ -119,13 +111,10 @@ public class Metrics extends AbstractApiBean {
         if (days < 1) {
             return error(BAD_REQUEST, "Invalid parameter for number of days.");
         }
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheDayBased(metricName, String.valueOf(days), null, d));
-
-        if (null == jsonObj) { // run query and save
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.getCachedOrCompute(CacheExpiry.DAY_BASED, metricName, String.valueOf(days), null, d, () -> {
             Long count = metricsSvc.dataversesPastDays(days, d);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, String.valueOf(days), null, d, jsonObj.toString()));
-        }
+            return MetricsUtil.countToJson(count).build().toString();
+        }));
 
         return ok(jsonObj);
 
@@ -145,12 +134,7 @@ public class Metrics extends AbstractApiBean {
 
         String metricName = "dataversesByCategory";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-            jsonArray = MetricsUtil.dataversesByCategoryToJson(metricsSvc.dataversesByCategory(d)).build();
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.ALL_TIME, metricName, null, null, d, () -> MetricsUtil.dataversesByCategoryToJson(metricsSvc.dataversesByCategory(d)).build().toString()));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -172,12 +156,7 @@ public class Metrics extends AbstractApiBean {
 
         String metricName = "dataversesBySubject";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-            jsonArray = MetricsUtil.dataversesBySubjectToJson(metricsSvc.dataversesBySubject(d)).build();
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.ALL_TIME, metricName, null, null, d, () -> MetricsUtil.dataversesBySubjectToJson(metricsSvc.dataversesBySubject(d)).build().toString()));
 
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
@@ -206,13 +185,7 @@ public class Metrics extends AbstractApiBean {
             return error(BAD_REQUEST, ia.getLocalizedMessage());
         }
         String metricName = "datasets";
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-
-            jsonArray = metricsSvc.getDatasetsTimeSeries(uriInfo, dataLocation, d);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.ALL_TIME, metricName, null, null, d, () -> metricsSvc.getDatasetsTimeSeries(uriInfo, dataLocation, d).toString()));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -235,13 +208,10 @@ public class Metrics extends AbstractApiBean {
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
         String validDataLocation = MetricsUtil.validateDataLocationStringType(dataLocation);
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, validDataLocation, d));
-
-        if (null == jsonObj) { // run query and save
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.getCachedOrCompute(CacheExpiry.MONTHLY, metricName, sanitizedyyyymm, validDataLocation, d, () -> {
             Long count = metricsSvc.datasetsToMonth(sanitizedyyyymm, validDataLocation, d);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, validDataLocation, d, jsonObj.toString()));
-        }
+            return MetricsUtil.countToJson(count).build().toString();
+        }));
 
         return ok(jsonObj);
 
@@ -264,13 +234,10 @@ public class Metrics extends AbstractApiBean {
             return error(BAD_REQUEST, "Invalid parameter for number of days.");
         }
         String validDataLocation = MetricsUtil.validateDataLocationStringType(dataLocation);
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheDayBased(metricName, String.valueOf(days), validDataLocation, d));
-
-        if (null == jsonObj) { // run query and save
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.getCachedOrCompute(CacheExpiry.DAY_BASED, metricName, String.valueOf(days), validDataLocation, d, () -> {
             Long count = metricsSvc.datasetsPastDays(days, validDataLocation, d);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, String.valueOf(days), validDataLocation, d, jsonObj.toString()));
-        }
+            return MetricsUtil.countToJson(count).build().toString();
+        }));
 
         return ok(jsonObj);
 
@@ -299,12 +266,7 @@ public class Metrics extends AbstractApiBean {
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
         String validDataLocation = MetricsUtil.validateDataLocationStringType(dataLocation);
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, validDataLocation, d));
-
-        if (null == jsonArray) { // run query and save
-            jsonArray = MetricsUtil.datasetsBySubjectToJson(metricsSvc.datasetsBySubjectToMonth(sanitizedyyyymm, validDataLocation, d)).build();
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, validDataLocation, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.MONTHLY, metricName, sanitizedyyyymm, validDataLocation, d, () -> MetricsUtil.datasetsBySubjectToJson(metricsSvc.datasetsBySubjectToMonth(sanitizedyyyymm, validDataLocation, d)).build().toString()));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -331,13 +293,7 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "files";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-
-            jsonArray = metricsSvc.filesTimeSeries(d);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.ALL_TIME, metricName, null, null, d, () -> metricsSvc.filesTimeSeries(d).toString()));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -360,15 +316,13 @@ public class Metrics extends AbstractApiBean {
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
         logger.fine("yyyymm: " + sanitizedyyyymm);
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-        logger.fine("Returned");
-        if (null == jsonObj) { // run query and save
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.getCachedOrCompute(CacheExpiry.MONTHLY, metricName, sanitizedyyyymm, null, d, () -> {
             logger.fine("Getting filesToMonth : " + sanitizedyyyymm + " dvId=" + ((d==null) ? "not sent" : d.getId()));
             Long count = metricsSvc.filesToMonth(sanitizedyyyymm, d);
             logger.fine("count = " + count);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonObj.toString()));
-        }
+            return MetricsUtil.countToJson(count).build().toString();
+        }));
+        logger.fine("Returned");
 
         return ok(jsonObj);
     }
@@ -390,13 +344,10 @@ public class Metrics extends AbstractApiBean {
             return error(BAD_REQUEST, "Invalid parameter for number of days.");
         }
 
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheDayBased(metricName, String.valueOf(days), null, d));
-
-        if (null == jsonObj) { // run query and save
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.getCachedOrCompute(CacheExpiry.DAY_BASED, metricName, String.valueOf(days), null, d, () -> {
             Long count = metricsSvc.filesPastDays(days, d);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, String.valueOf(days), null, d, jsonObj.toString()));
-        }
+            return MetricsUtil.countToJson(count).build().toString();
+        }));
 
         return ok(jsonObj);
 
@@ -414,13 +365,10 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "filesByTypeMonthly";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.ALL_TIME, metricName, null, null, d, () -> {
             // Only handling published right now
-            jsonArray = metricsSvc.filesByTypeTimeSeries(d, true);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+            return metricsSvc.filesByTypeTimeSeries(d, true).toString();
+        }));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -441,12 +389,7 @@ public class Metrics extends AbstractApiBean {
 
         String metricName = "filesByType";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
-            jsonArray = metricsSvc.filesByType(d);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.ALL_TIME, metricName, null, null, d, () -> metricsSvc.filesByType(d).toString()));
 
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
@@ -475,13 +418,10 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "downloads";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.ALL_TIME, metricName, null, null, d, () -> {
             // Only handling published right now
-            jsonArray = metricsSvc.downloadsTimeSeries(d);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+            return metricsSvc.downloadsTimeSeries(d).toString();
+        }));
 
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
@@ -504,18 +444,15 @@ public class Metrics extends AbstractApiBean {
         String metricName = "downloadsToMonth";
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-
-        if (null == jsonObj) { // run query and save
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.getCachedOrCompute(CacheExpiry.MONTHLY, metricName, sanitizedyyyymm, null, d, () -> {
             Long count;
             try {
                 count = metricsSvc.downloadsToMonth(sanitizedyyyymm, d);
             } catch (ParseException e) {
-                return error(BAD_REQUEST, "Unable to parse supplied date: " + e.getLocalizedMessage());
+                throw new BadRequestException("Unable to parse supplied date: " + e.getLocalizedMessage());
             }
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonObj.toString()));
-        }
+            return MetricsUtil.countToJson(count).build().toString();
+        }));
 
         return ok(jsonObj);
     }
@@ -536,13 +473,10 @@ public class Metrics extends AbstractApiBean {
         if (days < 1) {
             return error(BAD_REQUEST, "Invalid parameter for number of days.");
         }
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheDayBased(metricName, String.valueOf(days), null, d));
-
-        if (null == jsonObj) { // run query and save
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.getCachedOrCompute(CacheExpiry.DAY_BASED, metricName, String.valueOf(days), null, d, () -> {
             Long count = metricsSvc.downloadsPastDays(days, d);
-            jsonObj = MetricsUtil.countToJson(count).build();
-            metricsSvc.save(new Metric(metricName, String.valueOf(days), null, d, jsonObj.toString()));
-        }
+            return MetricsUtil.countToJson(count).build().toString();
+        }));
 
         return ok(jsonObj);
     }
@@ -558,7 +492,7 @@ public class Metrics extends AbstractApiBean {
     @Produces("text/csv, application/json")
     public Response getMakeDataCountMetricTimeSeries(@Context Request req, @Context UriInfo uriInfo, @PathParam("metric") String metricSupplied, @QueryParam("country") String country, @QueryParam("parentAlias") String parentAlias) {
         Dataverse d = findDataverseOrDieIfNotFound(parentAlias);
-        MakeDataCountUtil.MetricType metricType = null;
+        MakeDataCountUtil.MetricType metricType;
         try {
             errorIfUnrecongizedQueryParamPassed(uriInfo, new String[] { "parentAlias", "country" });
         } catch (IllegalArgumentException ia) {
@@ -571,13 +505,10 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "MDC-" + metricType.toString() + ((country == null) ? "" : "-" + country);
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.ALL_TIME, metricName, null, null, d, () -> {
             // Only handling published right now
-            jsonArray = metricsSvc.mdcMetricTimeSeries(metricType, country, d);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+            return metricsSvc.mdcMetricTimeSeries(metricType, country, d).toString();
+        }));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -589,7 +520,7 @@ public class Metrics extends AbstractApiBean {
     @Path("makeDataCount/{metric}/toMonth/{yyyymm}")
     public Response getMakeDataCountMetricToMonth(@Context UriInfo uriInfo, @PathParam("metric") String metricSupplied, @PathParam("yyyymm") String yyyymm, @QueryParam("country") String country, @QueryParam("parentAlias") String parentAlias) {
         Dataverse d = findDataverseOrDieIfNotFound(parentAlias);
-        MakeDataCountUtil.MetricType metricType = null;
+        MakeDataCountUtil.MetricType metricType;
         try {
             errorIfUnrecongizedQueryParamPassed(uriInfo, new String[] { "parentAlias", "country" });
         } catch (IllegalArgumentException ia) {
@@ -600,26 +531,15 @@ public class Metrics extends AbstractApiBean {
         } catch (IllegalArgumentException ex) {
             return error(Response.Status.BAD_REQUEST, ex.getMessage());
         }
-        if (country != null) {
-            country = country.toLowerCase();
-
-            if (!MakeDataCountUtil.isValidCountryCode(country)) {
-                return error(Response.Status.BAD_REQUEST, "Country must be one of the ISO 1366 Country Codes");
-            }
+        String countryCode = (country == null) ? null : country.toLowerCase();
+        if (countryCode != null && !MakeDataCountUtil.isValidCountryCode(countryCode)) {
+            return error(Response.Status.BAD_REQUEST, "Country must be one of the ISO 1366 Country Codes");
         }
-        String metricName = "MDC-" + metricType.toString() + ((country == null) ? "" : "-" + country);
+        String metricName = "MDC-" + metricType.toString() + ((countryCode == null) ? "" : "-" + countryCode);
 
-        String sanitizedyyyymm = null;
-        if (yyyymm != null) {
-            sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
-        }
+        String sanitizedyyyymm = (yyyymm == null) ? null : MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
 
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-
-        if (null == jsonObj) { // run query and save
-            jsonObj = metricsSvc.getMDCDatasetMetrics(metricType, sanitizedyyyymm, country, d);
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonObj.toString()));
-        }
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.getCachedOrCompute(CacheExpiry.MONTHLY, metricName, sanitizedyyyymm, null, d, () -> metricsSvc.getMDCDatasetMetrics(metricType, sanitizedyyyymm, countryCode, d).toString()));
 
         return ok(jsonObj);
     }
@@ -646,12 +566,7 @@ public class Metrics extends AbstractApiBean {
         String metricName = "fileDownloads";
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
-        JsonArray jsonArr = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-
-        if (null == jsonArr) { // run query and save
-            jsonArr = metricsSvc.fileDownloads(sanitizedyyyymm, d, false);
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonArr.toString()));
-        }
+        JsonArray jsonArr = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.MONTHLY, metricName, sanitizedyyyymm, null, d, () -> metricsSvc.fileDownloads(sanitizedyyyymm, d, false).toString()));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArr);
@@ -671,13 +586,10 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "fileDownloads";
 
-        JsonArray jsonArr = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArr) { // run query and save
+        JsonArray jsonArr = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.ALL_TIME, metricName, null, null, d, () -> {
             // Only handling published right now
-            jsonArr = metricsSvc.fileDownloadsTimeSeries(d, false);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArr.toString()));
-        }
+            return metricsSvc.fileDownloadsTimeSeries(d, false).toString();
+        }));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArr);
@@ -704,13 +616,10 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "uniqueDownloads";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.ALL_TIME, metricName, null, null, d, () -> {
             // Only handling published right now
-            jsonArray = metricsSvc.uniqueDownloadsTimeSeries(d);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+            return metricsSvc.uniqueDownloadsTimeSeries(d).toString();
+        }));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -733,12 +642,7 @@ public class Metrics extends AbstractApiBean {
         String metricName = "uniqueDownloads";
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-
-        if (null == jsonArray) { // run query and save
-            jsonArray = metricsSvc.uniqueDatasetDownloads(sanitizedyyyymm, d);
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonArray.toString()));
-        }
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.MONTHLY, metricName, sanitizedyyyymm, null, d, () -> metricsSvc.uniqueDatasetDownloads(sanitizedyyyymm, d).toString()));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -768,12 +672,7 @@ public class Metrics extends AbstractApiBean {
         String metricName = "uniquefileDownloads";
 
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
-        JsonArray jsonArr = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-
-        if (null == jsonArr) { // run query and save
-            jsonArr = metricsSvc.fileDownloads(sanitizedyyyymm, d, true);
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonArr.toString()));
-        }
+        JsonArray jsonArr = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.MONTHLY, metricName, sanitizedyyyymm, null, d, () -> metricsSvc.fileDownloads(sanitizedyyyymm, d, true).toString()));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArr);
@@ -793,13 +692,10 @@ public class Metrics extends AbstractApiBean {
         }
         String metricName = "uniquefileDownloads";
 
-        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.returnUnexpiredCacheAllTime(metricName, null, d));
-
-        if (null == jsonArray) { // run query and save
+        JsonArray jsonArray = MetricsUtil.stringToJsonArray(metricsSvc.getCachedOrCompute(CacheExpiry.ALL_TIME, metricName, null, null, d, () -> {
             // Only handling published right now
-            jsonArray = metricsSvc.fileDownloadsTimeSeries(d, true);
-            metricsSvc.save(new Metric(metricName, null, null, d, jsonArray.toString()));
-        }
+            return metricsSvc.fileDownloadsTimeSeries(d, true).toString();
+        }));
         MediaType requestedType = getVariant(req, MediaType.valueOf(FileUtil.MIME_TYPE_CSV), MediaType.APPLICATION_JSON_TYPE);
         if ((requestedType != null) && (requestedType.equals(MediaType.APPLICATION_JSON_TYPE))) {
             return ok(jsonArray);
@@ -828,11 +724,7 @@ public class Metrics extends AbstractApiBean {
         String metricName = "tree";
         String sanitizedyyyymm = MetricsUtil.sanitizeYearMonthUserInput(yyyymm);
 
-        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.returnUnexpiredCacheMonthly(metricName, sanitizedyyyymm, null, d));
-        if (null == jsonObj) { // run query and save
-            jsonObj = metricsSvc.getDataverseTree(d, sanitizedyyyymm, DatasetVersion.VersionState.RELEASED);
-            metricsSvc.save(new Metric(metricName, sanitizedyyyymm, null, d, jsonObj.toString()));
-        }
+        JsonObject jsonObj = MetricsUtil.stringToJsonObject(metricsSvc.getCachedOrCompute(CacheExpiry.MONTHLY, metricName, sanitizedyyyymm, null, d, () -> metricsSvc.getDataverseTree(d, sanitizedyyyymm, DatasetVersion.VersionState.RELEASED).toString()));
         return ok(jsonObj);
     }
 
@@ -0,0 +1,120 @@
+package edu.harvard.iq.dataverse.authorization;
+
+import edu.harvard.iq.dataverse.authorization.users.ApiToken;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.Lock;
+import javax.ejb.Singleton;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import static javax.ejb.LockType.READ;
+
+/**
+ * Remembers which user an API token belongs to, and until when the token is
+ * valid, so that {@link AuthenticationServiceBean#lookupUser(String)} does
+ * not have to look the token up in the database on every API call made with
+ * it.
+ *
+ * Only the id of the user is cached - the user itself is always read again,
+ * so that a deactivated user, or one that is no longer a superuser, is seen
+ * as such right away. The tokens are remembered for
+ * {@code dataverse.api.token-cache.ttl} seconds at most, and never beyond
+ * their expiration time. Removing or regenerating a token on this server
+ * drops it from the cache; on the other servers of a cluster, the removed
+ * token keeps working until it has expired from their caches.
+ */
+@Singleton
+@Lock(READ)
+public class ApiTokenCache {
+
+    private static final Logger logger = Logger.getLogger(ApiTokenCache.class.getCanonicalName());
+
+    // The cache is emptied when it gets this big:
+    private static final int MAX_ENTRIES = 10000;
+
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    private long ttlMillis;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public static class Entry {
+        private final Long userId;
+        private final long expires;
+
+        Entry(Long userId, long expires) {
+            this.userId = userId;
+            this.expires = expires;
+        }
+
+        public Long getUserId() {
+            return userId;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        ttlMillis = 1000 * Math.max(0, JvmSettings.API_TOKEN_CACHE_TTL.lookupOptional(Long.class).orElse(60L));
+    }
+
+    /**
+     * @return the cached token, or null if it is not cached (any longer)
+     */
+    public Entry get(String tokenString) {
+        Entry entry = entries.get(tokenString);
+        if (entry != null && entry.expires <= System.currentTimeMillis()) {
+            entries.remove(tokenString, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Remembers a valid (enabled, not expired) token.
+     */
+    public void put(ApiToken token) {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        long expires = System.currentTimeMillis() + ttlMillis;
+        if (token.getExpireTime() != null) {
+            expires = Math.min(expires, token.getExpireTime().getTime());
+        }
+        if (entries.size() >= MAX_ENTRIES) {
+            logger.fine("API token cache full; emptying it");
+            entries.clear();
+        }
+        entries.put(token.getTokenString(), new Entry(token.getAuthenticatedUser().getId(), expires));
+    }
+
+    /**
+     * Drops the token from the cache. To be called whenever a token is
+     * removed, disabled or changed, in the same transaction; the token is
+     * dropped again once the transaction is over, in case it got cached (as it
+     * was before the change was committed) in the meantime.
+     */
+    public void invalidate(String tokenString) {
+        if (tokenString == null) {
+            return;
+        }
+        entries.remove(tokenString);
+        if (transactionRegistry != null && transactionRegistry.getTransactionKey() != null) {
+            transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    entries.remove(tokenString);
+                }
+            });
+        }
+    }
+}
@@ -108,6 +108,9 @@ public class AuthenticationServiceBean {
 
     @EJB
     PasswordValidatorServiceBean passwordValidatorService;
+
+    @EJB
+    ApiTokenCache apiTokenCache;
     
     @EJB
     DvObjectServiceBean dvObjSvc;
@@ -176,6 +179,7 @@ public class AuthenticationServiceBean {
         if (user!=null) {
             ApiToken apiToken = findApiTokenByUser(user);
             if (apiToken != null) {
+                apiTokenCache.invalidate(apiToken.getTokenString());
                 em.remove(apiToken);
             }
         }
@@ -207,6 +211,7 @@ public class AuthenticationServiceBean {
         if (user != null) {
             ApiToken apiToken = findApiTokenByUser(user);
             if (apiToken != null) {
+                apiTokenCache.invalidate(apiToken.getTokenString());
                 em.remove(apiToken);
             }
             // @todo: this should be handed down to the service instead of doing it here.
@@ -390,8 +395,10 @@ public class AuthenticationServiceBean {
                 } else {
                     Timestamp time = token.getExpireTime();
                     if (time.before(newestToken.getExpireTime())) {
+                        apiTokenCache.invalidate(token.getTokenString());
                         em.remove(token);
                     } else {
+                        apiTokenCache.invalidate(newestToken.getTokenString());
                         em.remove(newestToken);
                         newestToken = token;
                     }
@@ -427,7 +434,29 @@ public class AuthenticationServiceBean {
         return apiToken;
     }
 
+    /**
+     * Finds the user an API token belongs to; the (valid) tokens are cached,
+     * see {@link ApiTokenCache}.
+     * @param apiToken the token string
+     * @return the user, or null if the token is not valid, or the user is
+     * deactivated.
+     */
     public AuthenticatedUser lookupUser( String apiToken ) {
+        ApiTokenCache.Entry cached = apiTokenCache.get(apiToken);
+        if ( cached != null ) {
+            AuthenticatedUser user = em.find(AuthenticatedUser.class, cached.getUserId());
+            if ( user == null ) {
+                apiTokenCache.invalidate(apiToken);
+                return null;
+            }
+            if (!user.isDeactivated()) {
+                return user;
+            } else {
+                logger.info("attempted access with token from deactivated user: " + apiToken);
+                return null;
+            }
+        }
+        
         ApiToken tkn = findApiToken(apiToken);
         if ( tkn == null ) return null;
         
@@ -442,6 +471,7 @@ public class AuthenticationServiceBean {
         
         AuthenticatedUser user = tkn.getAuthenticatedUser();
         if (!user.isDeactivated()) {
+            apiTokenCache.put(tkn);
             return user;
         } else {
             logger.info("attempted access with token from deactivated user: " + apiToken);
@@ -551,6 +581,7 @@ public class AuthenticationServiceBean {
     }
     
     public ApiToken save( ApiToken aToken ) {
+        apiTokenCache.invalidate(aToken.getTokenString());
         if ( aToken.getId() == null ) {
             em.persist(aToken);
             return aToken;
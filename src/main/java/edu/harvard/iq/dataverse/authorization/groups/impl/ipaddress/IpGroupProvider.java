@@ -76,7 +76,9 @@ public class IpGroupProvider implements GroupProvider<IpGroup> {
     }
     
     private Set<IpGroup> updateProvider( Set<IpGroup> groups ) {
-        groups.forEach( g -> g.setGroupProvider(this) );
+        // (the groups kept in memory by the IpGroupRangeCache have theirs
+        // already, and are shared by all the requests, so are left alone)
+        groups.stream().filter( g -> g.getGroupProvider() == null ).forEach( g -> g.setGroupProvider(this) );
         return groups;
     }
     
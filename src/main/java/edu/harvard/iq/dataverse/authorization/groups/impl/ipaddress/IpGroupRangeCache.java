@@ -0,0 +1,123 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
+
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import static javax.ejb.LockType.READ;
+
+/**
+ * Keeps all the IP groups, and an index of their address ranges, in memory;
+ * so that finding the IP groups of a request - which is done for nearly
+ * every page and API call - does not query the database.
+ *
+ * The groups are reloaded after any change made on this server, and every
+ * {@code dataverse.ip-groups.refresh-interval} seconds, to pick up the
+ * changes made on the other servers of a cluster. The cached groups are
+ * detached, shared by all the requests, and must not be modified; they are
+ * given their {@link IpGroupProvider} as they are loaded.
+ */
+@Singleton
+@Lock(READ)
+public class IpGroupRangeCache {
+
+    private static final Logger logger = Logger.getLogger(IpGroupRangeCache.class.getCanonicalName());
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    EntityManager em;
+
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    @EJB
+    IpGroupsServiceBean ipGroupsService;
+
+    private long refreshIntervalMillis;
+
+    private volatile IpGroupRangeIndex index;
+    private volatile long loadTime;
+
+    @PostConstruct
+    public void init() {
+        refreshIntervalMillis = 1000 * Math.max(0, JvmSettings.IP_GROUPS_REFRESH_INTERVAL.lookupOptional(Long.class).orElse(60L));
+    }
+
+    /**
+     * @return false if the groups are not to be kept in memory
+     * ({@code dataverse.ip-groups.refresh-interval} is 0).
+     */
+    public boolean isEnabled() {
+        return refreshIntervalMillis > 0;
+    }
+
+    /**
+     * @return the IP groups one of whose ranges contains {@code address}
+     */
+    public Set<IpGroup> findGroupsContaining(IpAddress address) {
+        IpGroupRangeIndex current = index;
+        if (current == null || System.currentTimeMillis() - loadTime > refreshIntervalMillis) {
+            current = load();
+        }
+        return current.findGroupsContaining(address);
+    }
+
+    private synchronized IpGroupRangeIndex load() {
+        // (another thread may have just loaded them)
+        if (index != null && System.currentTimeMillis() - loadTime <= refreshIntervalMillis) {
+            return index;
+        }
+        long start = System.currentTimeMillis();
+        List<IpGroup> groups = em.createNamedQuery("IpGroup.findAll", IpGroup.class).getResultList();
+        IpGroupProvider provider = new IpGroupProvider(ipGroupsService);
+        for (IpGroup group : groups) {
+            // loads the (lazy) ranges, before the groups get detached:
+            group.getIpv4Ranges().size();
+            group.getIpv6Ranges().size();
+            em.detach(group);
+            group.setGroupProvider(provider);
+        }
+        IpGroupRangeIndex loaded = new IpGroupRangeIndex(groups);
+        index = loaded;
+        loadTime = start;
+        logger.fine("loaded " + groups.size() + " IP groups, with " + loaded.size() + " ranges, in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return loaded;
+    }
+
+    /**
+     * Makes the groups get reloaded on the next lookup. To be called whenever
+     * an IP group is changed, in the same transaction; the groups are dropped
+     * again once the transaction is over, in case they were reloaded (as they
+     * were before the change was committed) in the meantime.
+     */
+    public void groupsChanged() {
+        invalidate();
+        if (transactionRegistry != null && transactionRegistry.getTransactionKey() != null) {
+            transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    invalidate();
+                }
+            });
+        }
+    }
+
+    private synchronized void invalidate() {
+        index = null;
+    }
+}
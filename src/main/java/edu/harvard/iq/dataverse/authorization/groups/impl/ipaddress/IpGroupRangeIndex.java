@@ -0,0 +1,124 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
+
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Address;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Address;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddressRange;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An in-memory index of the address ranges of the IP groups, to find the
+ * groups an address is in without querying the database.
+ *
+ * The ranges are kept sorted by their bottom address, along with the highest
+ * top address of all the ranges up to each one; so the ranges containing an
+ * address are found by a binary search for the last range starting at or
+ * before it, followed by a walk back that stops as soon as no earlier range
+ * reaches the address. Immutable; rebuilt whenever the groups change.
+ */
+class IpGroupRangeIndex {
+
+    private final Ranges ipv4Ranges = new Ranges();
+    private final Ranges ipv6Ranges = new Ranges();
+
+    private static class Range {
+        final BigInteger bottom;
+        final BigInteger top;
+        final IpGroup group;
+
+        Range(BigInteger bottom, BigInteger top, IpGroup group) {
+            this.bottom = bottom;
+            this.top = top;
+            this.group = group;
+        }
+    }
+
+    private static class Ranges {
+        private final List<Range> ranges = new ArrayList<>();
+        // maxTops[i] is the highest top of ranges 0..i
+        private BigInteger[] maxTops;
+
+        void add(Range range) {
+            ranges.add(range);
+        }
+
+        void sort() {
+            ranges.sort(Comparator.comparing(r -> r.bottom));
+            maxTops = new BigInteger[ranges.size()];
+            BigInteger maxTop = null;
+            for (int i = 0; i < ranges.size(); i++) {
+                BigInteger top = ranges.get(i).top;
+                maxTop = (maxTop == null || top.compareTo(maxTop) > 0) ? top : maxTop;
+                maxTops[i] = maxTop;
+            }
+        }
+
+        Set<IpGroup> findGroupsContaining(BigInteger address) {
+            // the last range with bottom <= address:
+            int low = 0;
+            int high = ranges.size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (ranges.get(mid).bottom.compareTo(address) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            Set<IpGroup> groups = new HashSet<>();
+            for (int i = high; i >= 0 && maxTops[i].compareTo(address) >= 0; i--) {
+                if (ranges.get(i).top.compareTo(address) >= 0) {
+                    groups.add(ranges.get(i).group);
+                }
+            }
+            return groups;
+        }
+    }
+
+    IpGroupRangeIndex(Collection<IpGroup> groups) {
+        for (IpGroup group : groups) {
+            for (IpAddressRange range : group.getRanges()) {
+                Range indexed = new Range(toBigInteger(range.getBottom()), toBigInteger(range.getTop()), group);
+                (range.getBottom() instanceof IPv4Address ? ipv4Ranges : ipv6Ranges).add(indexed);
+            }
+        }
+        ipv4Ranges.sort();
+        ipv6Ranges.sort();
+    }
+
+    /**
+     * @return the groups one of whose ranges contains {@code address}
+     * @throws IllegalArgumentException if the type of the address is unknown
+     */
+    Set<IpGroup> findGroupsContaining(IpAddress address) {
+        if (address instanceof IPv4Address) {
+            return ipv4Ranges.findGroupsContaining(toBigInteger(address));
+        } else if (address instanceof IPv6Address) {
+            return ipv6Ranges.findGroupsContaining(toBigInteger(address));
+        } else {
+            throw new IllegalArgumentException("Unknown IpAddress type: " + address.getClass() + " (for IpAddress:" + address + ")");
+        }
+    }
+
+    int size() {
+        return ipv4Ranges.ranges.size() + ipv6Ranges.ranges.size();
+    }
+
+    static BigInteger toBigInteger(IpAddress address) {
+        if (address instanceof IPv4Address) {
+            return ((IPv4Address) address).toBigInteger();
+        }
+        IPv6Address ip6 = (IPv6Address) address;
+        BigInteger value = BigInteger.ZERO;
+        for (int i = 0; i < 8; i++) {
+            value = value.shiftLeft(16).add(BigInteger.valueOf(ip6.get(i) & 0xffff));
+        }
+        return value;
+    }
+}
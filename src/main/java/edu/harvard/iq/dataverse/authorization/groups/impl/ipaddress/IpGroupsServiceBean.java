@@ -1,5 +1,6 @@
 package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
 
+import edu.harvard.iq.dataverse.PermissionCache;
 import edu.harvard.iq.dataverse.RoleAssigneeServiceBean;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogServiceBean;
@@ -36,6 +37,12 @@ public class IpGroupsServiceBean {
 	
     @EJB
     RoleAssigneeServiceBean roleAssigneeSvc;
+
+    @EJB
+    PermissionCache permissionCache;
+
+    @EJB
+    IpGroupRangeCache rangeCache;
     
     /**
      * Stores (inserts/updates) the passed IP group.
@@ -50,6 +57,8 @@ public class IpGroupsServiceBean {
             alr.setInfo( grp.getDisplayName() );
         }
         alr.setInfo( alr.getInfo() + "// " + grp.getRanges() );
+        permissionCache.permissionsChanged();
+        rangeCache.groupsChanged();
         
         if ( grp.getId() == null ) {
             if ( grp.getPersistedGroupAlias() != null ) {
@@ -97,7 +106,16 @@ public class IpGroupsServiceBean {
         return em.createNamedQuery("IpGroup.findAll", IpGroup.class).getResultList();
     }
     
+    /**
+     * Finds the groups {@code ipa} is in; in memory, unless the groups are
+     * not kept there (see {@link IpGroupRangeCache}).
+     * @param ipa the address
+     * @return the groups one of whose ranges contains {@code ipa}
+     */
     public Set<IpGroup> findAllIncludingIp( IpAddress ipa ) {
+        if ( rangeCache.isEnabled() ) {
+            return rangeCache.findGroupsContaining(ipa);
+        }
         if ( ipa instanceof IPv4Address ) {
             IPv4Address ip4 = (IPv4Address) ipa;
             List<IpGroup> groupList = em.createNamedQuery("IPv4Range.findGroupsContainingAddressAsLong", IpGroup.class)
@@ -131,6 +149,8 @@ public class IpGroupsServiceBean {
         alr.setInfo( grp.getIdentifier() );
         if ( roleAssigneeSvc.getAssignmentsFor(grp.getIdentifier()).isEmpty() ) {
             em.remove( grp );
+            permissionCache.permissionsChanged();
+            rangeCache.groupsChanged();
             actionLogSvc.log(alr);
             
         } else {
@@ -0,0 +1,103 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.WorkerPools;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.ejb.EJB;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import static javax.ejb.TransactionAttributeType.REQUIRES_NEW;
+
+/**
+ * Validates the checksums of the physical files of a dataset (see
+ * {@link DataFileValidation}), and keeps the outcome of the last validation
+ * of each file, in the {@code datafilefixity} table, so that the files
+ * validated recently can be skipped, under the
+ * {@code dataverse.files.validation.max-age} setting.
+ */
+@Stateless
+public class DataFileFixityServiceBean {
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    private EntityManager em;
+
+    @EJB
+    WorkerPools workerPools;
+
+    /**
+     * A validation of files, reading as many files at once from each storage
+     * driver as its {@code dataverse.files.<id>.validation-threads} setting
+     * allows.
+     */
+    public DataFileValidation newValidation() {
+        return new DataFileValidation(workerPools.get(WorkerPools.Pool.FILE_VALIDATION), driverId ->
+                workerPools.capToPool(WorkerPools.Pool.FILE_VALIDATION,
+                        JvmSettings.FILES_STORE_VALIDATION_THREADS.lookupOptional(Integer.class, driverId).orElse(4),
+                        JvmSettings.FILES_STORE_VALIDATION_THREADS.insert(driverId)));
+    }
+
+    /**
+     * @return the files of the list that need validating: all of them, unless
+     * the {@code dataverse.files.validation.max-age} setting is set, in which
+     * case the files that have been found valid within that many hours, and
+     * whose checksum has not changed since, are left out
+     */
+    public List<DataFile> findFilesToValidate(Long datasetId, List<DataFile> files) {
+        long maxAgeHours = JvmSettings.FILES_VALIDATION_MAX_AGE.lookupOptional(Long.class).orElse(0L);
+        if (maxAgeHours <= 0) {
+            return files;
+        }
+        Timestamp validSince = new Timestamp(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(maxAgeHours));
+        List<Object[]> rows = em.createNativeQuery("SELECT f.datafile_id, f.checksumtype, f.checksumvalue"
+                + " FROM datafilefixity f JOIN dvobject o ON o.id = f.datafile_id"
+                + " WHERE o.owner_id = ?1 AND f.valid AND f.validationtime >= ?2")
+                .setParameter(1, datasetId)
+                .setParameter(2, validSince)
+                .getResultList();
+        Map<Long, Object[]> recentlyValidated = new HashMap<>();
+        for (Object[] row : rows) {
+            recentlyValidated.put(((Number) row[0]).longValue(), row);
+        }
+
+        List<DataFile> toValidate = new ArrayList<>();
+        for (DataFile dataFile : files) {
+            Object[] row = recentlyValidated.get(dataFile.getId());
+            if (row == null || dataFile.getChecksumType() == null
+                    || !dataFile.getChecksumType().toString().equals(row[1])
+                    || !String.valueOf(dataFile.getChecksumValue()).equals(row[2])) {
+                toValidate.add(dataFile);
+            }
+        }
+        return toValidate;
+    }
+
+    /**
+     * Records the outcome of the validation of the files, in a transaction of
+     * its own, so that the record outlives a failure of the publication.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void recordResults(List<DataFileValidation.Result> results, Timestamp validationTime) {
+        for (DataFileValidation.Result result : results) {
+            DataFile dataFile = result.getDataFile();
+            em.createNativeQuery("INSERT INTO datafilefixity (datafile_id, checksumtype, checksumvalue, valid, validationtime)"
+                    + " VALUES (?1, ?2, ?3, ?4, ?5) ON CONFLICT (datafile_id) DO UPDATE SET"
+                    + " checksumtype = EXCLUDED.checksumtype, checksumvalue = EXCLUDED.checksumvalue,"
+                    + " valid = EXCLUDED.valid, validationtime = EXCLUDED.validationtime")
+                    .setParameter(1, dataFile.getId())
+                    .setParameter(2, dataFile.getChecksumType() == null ? null : dataFile.getChecksumType().toString())
+                    .setParameter(3, dataFile.getChecksumValue())
+                    .setParameter(4, result.isValid())
+                    .setParameter(5, validationTime)
+                    .executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.util.FileUtil;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.function.ToIntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Validates the checksums of the physical files of a dataset (see
+ * {@link FileUtil#validateDataFileChecksum(DataFile)}), several files at a
+ * time.
+ *
+ * The files are read at most {@code threads} at a time from each storage
+ * driver, so that, e.g., an S3 store can be read by more threads than a local
+ * disk. Once a file has failed validation, no more files are read; the ones
+ * being read are waited for.
+ *
+ * The outcome of each validation is handed to a {@link Listener}, in batches,
+ * on the thread that called {@link #validate(List, Listener)} - so that, e.g.,
+ * it can be recorded in the database.
+ */
+public class DataFileValidation {
+
+    private static final Logger logger = Logger.getLogger(DataFileValidation.class.getCanonicalName());
+
+    // The outcomes are handed to the listener this many at a time:
+    static final int LISTENER_BATCH_SIZE = 100;
+
+    public interface Validator {
+        /**
+         * @throws IOException if the file could not be read, or its checksum
+         * does not match
+         */
+        void validate(DataFile dataFile) throws IOException;
+    }
+
+    public interface Listener {
+        /**
+         * @param results the outcome of the files just validated
+         * @param validated the number of files validated so far
+         * @param total the number of files to validate
+         */
+        void validated(List<Result> results, int validated, int total);
+    }
+
+    public static class Result {
+        private final DataFile dataFile;
+        private final String error;
+
+        public Result(DataFile dataFile, String error) {
+            this.dataFile = dataFile;
+            this.error = error;
+        }
+
+        public DataFile getDataFile() {
+            return dataFile;
+        }
+
+        public boolean isValid() {
+            return error == null;
+        }
+
+        /**
+         * @return why the file is not valid; or null, if it is
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final ToIntFunction<String> threadsForDriver;
+    private final Validator validator;
+
+    /**
+     * @param executor reads the files
+     * @param threadsForDriver the most files read at once from the storage
+     * driver with the given id
+     */
+    public DataFileValidation(ExecutorService executor, ToIntFunction<String> threadsForDriver) {
+        this(executor, threadsForDriver, FileUtil::validateDataFileChecksum);
+    }
+
+    DataFileValidation(ExecutorService executor, ToIntFunction<String> threadsForDriver, Validator validator) {
+        this.executor = executor;
+        this.threadsForDriver = threadsForDriver;
+        this.validator = validator;
+    }
+
+    /**
+     * @return true if all the files are valid
+     */
+    public boolean validate(List<DataFile> files, Listener listener) throws InterruptedException {
+        Map<String, Iterator<DataFile>> toSubmit = new LinkedHashMap<>();
+        Map<String, List<DataFile>> filesByDriver = new LinkedHashMap<>();
+        for (DataFile dataFile : files) {
+            // Everything the validation reads from the database is loaded
+            // here, rather than by the threads reading the files:
+            dataFile.getOwner();
+            dataFile.isTabularData();
+            dataFile.getIngestReport();
+            filesByDriver.computeIfAbsent(getDriverId(dataFile), driverId -> new ArrayList<>()).add(dataFile);
+        }
+        filesByDriver.forEach((driverId, driverFiles) -> toSubmit.put(driverId, driverFiles.iterator()));
+
+        CompletionService<Result> completionService = new ExecutorCompletionService<>(executor);
+        int totalRunning = 0;
+        for (Map.Entry<String, Iterator<DataFile>> entry : toSubmit.entrySet()) {
+            int threads = Math.max(1, threadsForDriver.applyAsInt(entry.getKey()));
+            int submitted = 0;
+            while (submitted < threads && entry.getValue().hasNext()) {
+                submit(completionService, entry.getValue().next());
+                submitted++;
+            }
+            totalRunning += submitted;
+        }
+
+        int validated = 0;
+        boolean failed = false;
+        List<Result> batch = new ArrayList<>();
+        while (totalRunning > 0) {
+            Result result;
+            try {
+                result = completionService.take().get();
+            } catch (ExecutionException e) {
+                // (not expected, as the tasks catch what the validator throws)
+                throw new IllegalStateException("Failed to validate a file", e.getCause());
+            }
+            String driverId = getDriverId(result.getDataFile());
+            totalRunning--;
+            validated++;
+            batch.add(result);
+            if (!result.isValid()) {
+                failed = true;
+            }
+
+            // a file read from a driver makes room for the next one from it:
+            Iterator<DataFile> driverFiles = toSubmit.get(driverId);
+            if (!failed && driverFiles.hasNext()) {
+                submit(completionService, driverFiles.next());
+                totalRunning++;
+            }
+            if (batch.size() >= LISTENER_BATCH_SIZE || totalRunning == 0) {
+                listener.validated(batch, validated, files.size());
+                batch = new ArrayList<>();
+            }
+        }
+        return !failed;
+    }
+
+    private void submit(CompletionService<Result> completionService, DataFile dataFile) {
+        completionService.submit(() -> {
+            try {
+                validator.validate(dataFile);
+                return new Result(dataFile, null);
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.FINE, "Validation of file " + dataFile.getId() + " failed", e);
+                return new Result(dataFile, e.getMessage() == null ? e.toString() : e.getMessage());
+            }
+        });
+    }
+
+    private static String getDriverId(DataFile dataFile) {
+        String storageIdentifier = dataFile.getStorageIdentifier();
+        return storageIdentifier == null ? "" : DataAccess.getStorageDriverFromIdentifier(storageIdentifier);
+    }
+}
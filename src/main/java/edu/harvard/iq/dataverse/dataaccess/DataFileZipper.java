@@ -24,17 +24,40 @@ import java.io.IOException;
 
 
 import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 
 /**
+ * Files can either be added one at a time, each one read and written before
+ * the next one is opened ({@link #addFileToZipStream(DataFile, boolean)}); or
+ * queued ({@link #queueFileForZipStream(DataFile, boolean)}), in which case,
+ * given an executor, the next few files are opened and their first bytes
+ * read in the background while the current one is being written - so that
+ * the latencies of opening the files on a remote storage (one GET per file,
+ * on S3) add up a lot less. A queued file that the executor has not got to
+ * by the time it is to be written is opened by the calling thread itself.
+ * The buffers of the files read ahead are sized to the files, and taken out
+ * of an amount of memory shared by all the downloads; once it is used up, the
+ * files are opened ahead, but not read.
+ * Files of types that are already compressed are not compressed again.
  *
  * @author Leonid Andreev
  */
@@ -43,6 +66,33 @@ public class DataFileZipper {
     private static final Logger logger = Logger.getLogger(DataFileZipper.class.getCanonicalName());
     private static final String MANIFEST_FILE_NAME = "MANIFEST.TXT";
     
+    // How much of each queued file is read ahead, at most:
+    private static final int PREFETCH_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_READ_AHEAD_MEMORY_MB = 256;
+    
+    // Types of files that are (mostly) compressed already:
+    private static final Set<String> COMPRESSED_TYPES = new HashSet<>(Arrays.asList(
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2",
+            "application/x-xz", "application/zstd", "application/x-7z-compressed", "application/x-rar-compressed",
+            "application/vnd.rar", "application/x-hdf5", "application/x-hdf", "application/zipped-shapefile",
+            "image/jpeg", "image/png", "image/gif", "image/webp", "audio/mpeg", "audio/ogg", "audio/aac"));
+    private static final String[] COMPRESSED_TYPE_PREFIXES = {
+        "video/", "application/vnd.openxmlformats-officedocument.", "application/vnd.oasis.opendocument."};
+    
+    private final ExecutorService executor;
+    private final int prefetchCount;
+    // The memory the files may be read ahead into, in KB:
+    private final Semaphore readAheadMemory;
+    private final Deque<QueuedFile> queue = new ArrayDeque<>();
+    
+    private long startTime = 0L;
+    private int entryCount = 0;
+    private int uncompressedEntryCount = 0;
+    private long bytesWritten = 0L;
+    // The expected sizes of the files queued, but not written yet:
+    private long queuedSize = 0L;
+    
     private OutputStream outputStream = null; 
     private ZipOutputStream zipOutputStream = null;
     
@@ -54,13 +104,30 @@ public class DataFileZipper {
     private Set<String> zippedFolders = null; 
 
     public DataFileZipper() {
+        executor = null;
+        prefetchCount = 0;
+        readAheadMemory = null;
         fileNameList = new ArrayList<>();
         zippedFilesList = new ArrayList<>(); 
         zippedFolders = new HashSet<>();
     }
     
     public DataFileZipper(OutputStream outputStream) {
+        this(outputStream, null, 0);
+    }
+    
+    /**
+     * @param executor opens, and starts reading, the queued files in the
+     * background; may be null.
+     * @param prefetchCount how many of the queued files may be read ahead at
+     * the same time; with 0 (or no executor), the queued files are read and
+     * written one at a time.
+     */
+    public DataFileZipper(OutputStream outputStream, ExecutorService executor, int prefetchCount) {
         this.outputStream = outputStream;
+        this.executor = prefetchCount > 0 ? executor : null;
+        this.prefetchCount = prefetchCount;
+        this.readAheadMemory = this.executor != null ? SharedReadAheadMemory.KB : null;
         fileNameList = new ArrayList<>();
         zippedFilesList = new ArrayList<>();
         zippedFolders = new HashSet<>();
@@ -97,112 +164,415 @@ public class DataFileZipper {
         if (zipOutputStream == null) {
             openZipStream();
         }
-
-        boolean createManifest = fileManifest != null;
+        writeNextQueuedFiles(0);
+        StorageIO<DataFile> accessObject = DataAccess.getStorageIO(dataFile, new DataAccessRequest());
+        if (accessObject == null) {
+            return 0L;
+        }
+        return writeEntry(dataFile, open(accessObject, getOriginal, 0, null));
+    }
+    
+    /**
+     * Adds the file to the zip stream - right away, or once the files queued
+     * before it have been written. The file is read ahead in the background
+     * if the zipper was given an executor. The files still queued are written
+     * by {@link #finalizeZipStream()}.
+     *
+     * @param expectedSize the size the file is expected to have, counted by
+     * {@link #getSizeTotal()} until it is actually written.
+     */
+    public void queueFileForZipStream(DataFile dataFile, boolean getOriginal, long expectedSize) throws IOException {
+        if (zipOutputStream == null) {
+            openZipStream();
+        }
+        if (executor == null) {
+            addFileToZipStream(dataFile, getOriginal);
+            return;
+        }
+        StorageIO<DataFile> accessObject = DataAccess.getStorageIO(dataFile, new DataAccessRequest());
+        if (accessObject == null) {
+            return;
+        }
+        // The lazy relationships the StorageIO may need are loaded here, in
+        // the request thread, rather than in the background:
+        dataFile.getFileMetadata();
+        if (dataFile.getDataTable() != null) {
+            dataFile.getDataTable().getDataVariables().size();
+        }
+        QueuedFile queued = new QueuedFile(dataFile, expectedSize);
+        queued.opened = new FutureTask<>(() -> queued.ready(open(accessObject, getOriginal, PREFETCH_BUFFER_SIZE, readAheadMemory)));
+        queue.add(queued);
+        queuedSize += expectedSize;
+        try {
+            executor.execute(queued.opened);
+        } catch (RejectedExecutionException ex) {
+            // (it will be opened by writeQueuedFiles)
+            logger.fine("Could not read ahead file " + dataFile.getId() + ": " + ex.getMessage());
+        }
+        writeNextQueuedFiles(prefetchCount);
+    }
+    
+    /**
+     * @return the bytes written to the zip stream so far (the uncompressed
+     * sizes of the files, with the variable headers of the tabular ones),
+     * plus the expected sizes of the files queued but not written yet.
+     */
+    public long getSizeTotal() {
+        return bytesWritten + queuedSize;
+    }
+    
+    // Writes the queued files, until at most maxQueued remain in the queue:
+    private void writeNextQueuedFiles(int maxQueued) throws IOException {
+        try {
+            writeQueuedFiles(maxQueued);
+        } catch (IOException | RuntimeException ex) {
+            // (the download is going to fail)
+            cancelQueuedFiles();
+            throw ex;
+        }
+    }
+    
+    private void writeQueuedFiles(int maxQueued) throws IOException {
+        while (queue.size() > maxQueued) {
+            QueuedFile next = queue.peek();
+            OpenedFile opened;
+            try {
+                // If the file has not started being opened in the background
+                // yet (the pool is busy with other downloads), it is opened
+                // here, rather than waiting for a thread of the pool; if it
+                // has, this does nothing, and the background task is waited for:
+                next.opened.run();
+                opened = next.opened.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading " + next.dataFile.getId(), ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException("Failed to read " + next.dataFile.getId(), ex.getCause());
+            } finally {
+                queue.remove();
+                queuedSize -= next.expectedSize;
+            }
+            writeEntry(next.dataFile, opened);
+        }
+    }
+    
+    /**
+     * Closes the files that were queued, and possibly read ahead, but will
+     * not be written (because the download has failed). Does nothing once
+     * the zip stream has been finalized.
+     *
+     * Does not wait for the files still being opened: these are closed by
+     * the background task itself, once it has opened them.
+     */
+    public void cancelQueuedFiles() {
+        for (QueuedFile queued : queue) {
+            queued.cancel();
+        }
+        queue.clear();
+        queuedSize = 0L;
+    }
+    
+    private static class QueuedFile {
+        final DataFile dataFile;
+        final long expectedSize;
+        FutureTask<OpenedFile> opened;
         
-        DataAccessRequest daReq = new DataAccessRequest();
-        StorageIO<DataFile> accessObject = DataAccess.getStorageIO(dataFile, daReq);
-
-        if (accessObject != null) {
-            Boolean gotOriginal = false;
-            if(getOriginal) {
-                StoredOriginalFile sof = new StoredOriginalFile();
-                StorageIO<DataFile> tempAccessObject = sof.retreive(accessObject);
-                if(null != tempAccessObject) { //If there is an original, use it
-                    gotOriginal = true;
-                    accessObject = tempAccessObject; 
-                } 
+        // Guarded by this:
+        private boolean cancelled = false;
+        private OpenedFile ready = null;
+        
+        QueuedFile(DataFile dataFile, long expectedSize) {
+            this.dataFile = dataFile;
+            this.expectedSize = expectedSize;
+        }
+        
+        // Called by the background task, once the file is open. (Not relying
+        // on interrupting the task, which a read from S3 may not notice.)
+        synchronized OpenedFile ready(OpenedFile opened) {
+            if (cancelled) {
+                opened.close(dataFile);
+            } else {
+                ready = opened;
             }
-            if(!gotOriginal) { //if we didn't get this from sof.retreive we have to open it
-                accessObject.open();
+            return opened;
+        }
+        
+        synchronized void cancel() {
+            cancelled = true;
+            opened.cancel(false);
+            if (ready != null) {
+                ready.close(dataFile);
+                ready = null;
             }
-
-            long byteSize = 0;
-
-            String fileName = accessObject.getFileName();
-            String mimeType = accessObject.getMimeType();
-            if (mimeType == null || mimeType.equals("")) {
-                mimeType = "application/octet-stream";
+        }
+    }
+    
+    static class OpenedFile {
+        final StorageIO<DataFile> accessObject;
+        // The first bytes read:
+        final byte[] buffer;
+        final int buffered;
+        // The rest of the file, or null if it has been read entirely:
+        final InputStream remainder;
+        final boolean failed;
+        // The read-ahead memory taken by the buffer, in KB:
+        private final Semaphore memory;
+        private int reserved;
+        
+        OpenedFile(StorageIO<DataFile> accessObject, byte[] buffer, int buffered, InputStream remainder, boolean failed) {
+            this(accessObject, buffer, buffered, remainder, failed, null, 0);
+        }
+        
+        OpenedFile(StorageIO<DataFile> accessObject, byte[] buffer, int buffered, InputStream remainder, boolean failed, Semaphore memory, int reserved) {
+            this.accessObject = accessObject;
+            this.buffer = buffer;
+            this.buffered = buffered;
+            this.remainder = remainder;
+            this.failed = failed;
+            this.memory = memory;
+            this.reserved = reserved;
+        }
+        
+        synchronized void close(DataFile dataFile) {
+            if (reserved > 0) {
+                memory.release(reserved);
+                reserved = 0;
             }
-
-            //if (sizeTotal + fileSize < sizeLimit) {
-            Boolean Success = true;
-
-            InputStream instream = accessObject.getInputStream();
-            if (instream == null) {
-                if (createManifest) {
-                    addToManifest(fileName
-                            + " (" + mimeType
-                            + ") COULD NOT be downloaded because an I/O error has occured. \r\n");
+            if (remainder != null) {
+                try {
+                    remainder.close();
+                } catch (IOException ex) {
+                    logger.fine("failed to close queued file " + dataFile.getId() + ": " + ex.getMessage());
                 }
-
-                Success = false;
-            } else {
-                // If any of the files have non-empty DirectoryLabels we'll 
-                // use them to re-create the folders in the Zipped bundle:
-                String folderName = dataFile.getFileMetadata().getDirectoryLabel(); 
-                if (folderName != null) {
-                    // If any of the saved folder names start with with slashes,
-                    // we want to remove them: 
-                    // (i.e., ///foo/bar will become foo/bar)
-                    while (folderName.startsWith("/")) {
-                        folderName = folderName.substring(1);
-                    }
-                    if (!"".equals(folderName)) {
-                        if (!zippedFolders.contains(folderName)) {
-                            ZipEntry d = new ZipEntry(folderName + "/");
-                            zipOutputStream.putNextEntry(d);
-                            zipOutputStream.closeEntry();
-                            zippedFolders.add(folderName);
-                        }
-                        fileName = folderName + "/" + fileName;
+            }
+        }
+    }
+    
+    /**
+     * Opens the file (or its saved original), and reads up to
+     * {@code readAhead} bytes of it, into memory taken from
+     * {@code readAheadMemory}.
+     */
+    private static OpenedFile open(StorageIO<DataFile> accessObject, boolean getOriginal, int readAhead, Semaphore readAheadMemory) throws IOException {
+        Boolean gotOriginal = false;
+        if(getOriginal) {
+            StorageIO<DataFile> tempAccessObject = StoredOriginalFile.retreive(accessObject);
+            if(null != tempAccessObject) { //If there is an original, use it
+                gotOriginal = true;
+                accessObject = tempAccessObject; 
+            } 
+        }
+        if(!gotOriginal) { //if we didn't get this from sof.retreive we have to open it
+            accessObject.open();
+        }
+        
+        InputStream instream = accessObject.getInputStream();
+        if (instream == null) {
+            return new OpenedFile(accessObject, null, 0, null, true);
+        }
+        if (readAhead == 0 || readAheadMemory == null) {
+            return new OpenedFile(accessObject, new byte[0], 0, instream, false);
+        }
+        try {
+            return readAhead(accessObject, instream, accessObject.getSize(), readAhead, readAheadMemory);
+        } catch (IOException | RuntimeException ex) {
+            instream.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Reads up to {@code readAhead} bytes of the stream. The buffer starts at
+     * the size of the file, if known (one byte more, to see the end of the
+     * file without growing it), and grows as needed otherwise. The memory it
+     * takes is reserved from {@code memory}, in KB; when there is not enough
+     * left, reading ahead stops there, and the rest of the file is left to
+     * be read when it is written.
+     */
+    static OpenedFile readAhead(StorageIO<DataFile> accessObject, InputStream instream, long knownSize, int readAhead, Semaphore memory) throws IOException {
+        int length = (int) Math.min(readAhead, knownSize > 0 ? knownSize + 1 : COPY_BUFFER_SIZE);
+        int reserved = toKB(length);
+        if (!memory.tryAcquire(reserved)) {
+            return new OpenedFile(accessObject, new byte[0], 0, instream, false);
+        }
+        byte[] buffer = new byte[length];
+        int buffered = 0;
+        try {
+            while (buffered < readAhead) {
+                if (buffered == buffer.length) {
+                    int grown = (int) Math.min(readAhead, 2L * buffer.length);
+                    int more = toKB(grown) - reserved;
+                    if (!memory.tryAcquire(more)) {
+                        break;
                     }
+                    reserved += more;
+                    buffer = Arrays.copyOf(buffer, grown);
                 }
-                
-                String zipEntryName = checkZipEntryName(fileName);
-                
-                ZipEntry e = new ZipEntry(zipEntryName);
-                logger.fine("created new zip entry for " + zipEntryName);
-
-                zipOutputStream.putNextEntry(e);
-
-                // before writing out any bytes from the input stream, flush
-                // any extra content, such as the variable header for the 
-                // subsettable files:
-                String varHeaderLine = accessObject.getVarHeader();
-                if (varHeaderLine != null) {
-                    zipOutputStream.write(varHeaderLine.getBytes());
-                    byteSize += (varHeaderLine.getBytes().length);
+                int i = instream.read(buffer, buffered, buffer.length - buffered);
+                if (i < 0) {
+                    // it has been read entirely:
+                    instream.close();
+                    return new OpenedFile(accessObject, buffer, buffered, null, false, memory, reserved);
                 }
+                if (i == 0) {
+                    break;
+                }
+                buffered += i;
+            }
+        } catch (IOException | RuntimeException ex) {
+            memory.release(reserved);
+            throw ex;
+        }
+        return new OpenedFile(accessObject, buffer, buffered, instream, false, memory, reserved);
+    }
+    
+    private static int toKB(int bytes) {
+        return (bytes + 1023) / 1024;
+    }
+    
+    // The read-ahead memory shared by all the downloads, in KB (set up when
+    // the first bundle is read ahead):
+    private static class SharedReadAheadMemory {
+        static final Semaphore KB = new Semaphore((int) Math.min(Integer.MAX_VALUE,
+                1024L * Math.max(0, JvmSettings.FILES_ZIP_DOWNLOAD_READ_AHEAD_MEMORY.lookupOptional(Integer.class).orElse(DEFAULT_READ_AHEAD_MEMORY_MB))));
+    }
+    
+    private long writeEntry(DataFile dataFile, OpenedFile opened) throws IOException {
+        boolean createManifest = fileManifest != null;
+        if (startTime == 0L) {
+            startTime = System.currentTimeMillis();
+        }
+        
+        StorageIO<DataFile> accessObject = opened.accessObject;
+        long byteSize = 0;
 
-                byte[] data = new byte[8192];
+        String fileName = accessObject.getFileName();
+        String mimeType = accessObject.getMimeType();
+        if (mimeType == null || mimeType.equals("")) {
+            mimeType = "application/octet-stream";
+        }
 
+        if (opened.failed) {
+            if (createManifest) {
+                addToManifest(fileName
+                        + " (" + mimeType
+                        + ") COULD NOT be downloaded because an I/O error has occured. \r\n");
+            }
+            return 0L;
+        }
+        
+        // If any of the files have non-empty DirectoryLabels we'll 
+        // use them to re-create the folders in the Zipped bundle:
+        String folderName = dataFile.getFileMetadata().getDirectoryLabel(); 
+        if (folderName != null) {
+            // If any of the saved folder names start with with slashes,
+            // we want to remove them: 
+            // (i.e., ///foo/bar will become foo/bar)
+            while (folderName.startsWith("/")) {
+                folderName = folderName.substring(1);
+            }
+            if (!"".equals(folderName)) {
+                if (!zippedFolders.contains(folderName)) {
+                    ZipEntry d = new ZipEntry(folderName + "/");
+                    zipOutputStream.putNextEntry(d);
+                    zipOutputStream.closeEntry();
+                    zippedFolders.add(folderName);
+                }
+                fileName = folderName + "/" + fileName;
+            }
+        }
+        
+        String zipEntryName = checkZipEntryName(fileName);
+        
+        ZipEntry e = new ZipEntry(zipEntryName);
+        logger.fine("created new zip entry for " + zipEntryName);
+        
+        // before writing out any bytes from the input stream, flush
+        // any extra content, such as the variable header for the 
+        // subsettable files:
+        String varHeaderLine = accessObject.getVarHeader();
+        byte[] varHeader = varHeaderLine == null ? new byte[0] : varHeaderLine.getBytes();
+        
+        boolean compressed = isCompressedType(mimeType);
+        if (compressed && opened.remainder == null) {
+            // Read entirely, so it can be stored as is:
+            CRC32 crc = new CRC32();
+            crc.update(varHeader);
+            crc.update(opened.buffer, 0, opened.buffered);
+            e.setMethod(ZipEntry.STORED);
+            e.setSize(varHeader.length + opened.buffered);
+            e.setCompressedSize(varHeader.length + opened.buffered);
+            e.setCrc(crc.getValue());
+        } else if (compressed) {
+            zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+        }
+        
+        try {
+            zipOutputStream.putNextEntry(e);
+            
+            zipOutputStream.write(varHeader);
+            byteSize += varHeader.length;
+            
+            zipOutputStream.write(opened.buffer, 0, opened.buffered);
+            byteSize += opened.buffered;
+            
+            if (opened.remainder != null) {
+                byte[] data = new byte[COPY_BUFFER_SIZE];
+                
                 int i = 0;
-                while ((i = instream.read(data)) > 0) {
+                while ((i = opened.remainder.read(data)) > 0) {
                     zipOutputStream.write(data, 0, i);
                     logger.fine("wrote " + i + " bytes;");
-
+                    
                     byteSize += i;
-                    zipOutputStream.flush();
-                }
-                instream.close();
-                zipOutputStream.closeEntry();
-                logger.fine("closed zip entry for " + zipEntryName);
-
-                if (createManifest) {
-                    addToManifest(zipEntryName + " (" + mimeType + ") " + byteSize + " bytes.\r\n");
-                }
-
-                if (byteSize > 0) {
-                    zippedFilesList.add(dataFile.getId());
                 }
             }
-            //} else if (createManifest) {
-            //    addToManifest(fileName + " (" + mimeType + ") " + " skipped because the total size of the download bundle exceeded the limit of " + sizeLimit + " bytes.\r\n");
-            //}
-            return byteSize;
+            zipOutputStream.closeEntry();
+            zipOutputStream.flush();
+        } finally {
+            opened.close(dataFile);
+            if (compressed) {
+                zipOutputStream.setLevel(Deflater.DEFAULT_COMPRESSION);
+            }
+        }
+        logger.fine("closed zip entry for " + zipEntryName);
+        
+        entryCount++;
+        uncompressedEntryCount += compressed ? 1 : 0;
+        bytesWritten += byteSize;
+        
+        if (createManifest) {
+            addToManifest(zipEntryName + " (" + mimeType + ") " + byteSize + " bytes.\r\n");
+        }
+        
+        if (byteSize > 0) {
+            zippedFilesList.add(dataFile.getId());
         }
-        return 0L;
+        return byteSize;
+    }
+    
+    /**
+     * @return true for the types of files that are not worth compressing
+     * (again).
+     */
+    static boolean isCompressedType(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        // (ignoring any parameters)
+        String type = mimeType.split(";")[0].trim().toLowerCase();
+        if (COMPRESSED_TYPES.contains(type)) {
+            return true;
+        }
+        for (String prefix : COMPRESSED_TYPE_PREFIXES) {
+            if (type.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
     }
     
     public void finalizeZipStream() throws IOException {
@@ -211,6 +581,7 @@ public class DataFileZipper {
         if (zipOutputStream == null) {
             openZipStream();
         }
+        writeNextQueuedFiles(0);
         
         if (createManifest) {
             String manifestEntry = MANIFEST_FILE_NAME; 
@@ -227,6 +598,13 @@ public class DataFileZipper {
 
         zipOutputStream.flush();
         zipOutputStream.close();
+        
+        if (entryCount > 0) {
+            long elapsed = Math.max(1L, System.currentTimeMillis() - startTime);
+            logger.info("Zipped " + entryCount + " files (" + uncompressedEntryCount + " not compressed again), "
+                    + bytesWritten + " bytes, in " + elapsed + " ms ("
+                    + (bytesWritten / 1024 * 1000 / elapsed / 1024) + " MB/s, " + prefetchCount + " files read ahead)");
+        }
     }
     
     public void addToManifest(String manifestEntry) {
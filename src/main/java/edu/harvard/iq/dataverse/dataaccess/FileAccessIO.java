@@ -47,9 +47,13 @@ import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import java.io.FileNotFoundException;
 import java.nio.channels.Channel;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.DirectoryStream;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import org.apache.commons.io.input.BoundedInputStream;
 
 
 public class FileAccessIO<T extends DvObject> extends StorageIO<T> {
@@ -654,6 +658,16 @@ public class FileAccessIO<T extends DvObject> extends StorageIO<T> {
         }
         return in;
     }
+
+    @Override
+    public InputStream getAuxFileAsInputStream(String auxItemTag, long offset, long length) throws IOException {
+        if (!this.isAuxObjectCached(auxItemTag)) {
+            return null;
+        }
+        FileChannel auxChannel = FileChannel.open(getAuxObjectAsPath(auxItemTag), StandardOpenOption.READ);
+        auxChannel.position(offset);
+        return new BoundedInputStream(Channels.newInputStream(auxChannel), length);
+    }
     private String stripDriverId(String storageIdentifier) {
         int separatorIndex = storageIdentifier.indexOf(DataAccess.SEPARATOR);
         if(separatorIndex>0) {
@@ -399,6 +399,11 @@ public class RemoteOverlayAccessIO<T extends DvObject> extends StorageIO<T> {
         return baseStore.getAuxFileAsInputStream(auxItemTag);
     }
 
+    @Override
+    public InputStream getAuxFileAsInputStream(String auxItemTag, long offset, long length) throws IOException {
+        return baseStore.getAuxFileAsInputStream(auxItemTag, offset, length);
+    }
+
     @Override
     public boolean downloadRedirectEnabled() {
         String optionValue = System.getProperty("dataverse.files." + this.driverId + ".download-redirect");
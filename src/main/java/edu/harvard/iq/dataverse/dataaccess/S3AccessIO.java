@@ -42,6 +42,7 @@ import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import edu.harvard.iq.dataverse.util.FileUtil;
 import opennlp.tools.util.StringUtil;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -302,6 +303,19 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
 
         return super.getInputStream();
     }
+
+    @Override
+    public InputStream getInputStream(long offset, long length) throws IOException {
+        if (length < 1) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        try {
+            // a native ranged GET - only the bytes requested are transferred:
+            return s3.getObject(new GetObjectRequest(bucketName, key).withRange(offset, offset + length - 1)).getObjectContent();
+        } catch (SdkClientException sce) {
+            throw new IOException("Cannot get S3 object " + key + " (" + sce.getMessage() + ")");
+        }
+    }
     
     @Override
     public Channel getChannel() throws IOException {
@@ -788,6 +802,25 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         }
     }
 
+    @Override
+    public InputStream getAuxFileAsInputStream(String auxItemTag, long offset, long length) throws IOException {
+        if (length < 1) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        String destinationKey = getDestinationKey(auxItemTag);
+        try {
+            // a native ranged GET - only the bytes requested are transferred:
+            S3Object s3object = s3.getObject(new GetObjectRequest(bucketName, destinationKey).withRange(offset, offset + length - 1));
+            if (s3object != null) {
+                return s3object.getObjectContent();
+            }
+            return null;
+        } catch (AmazonClientException ase) {
+            logger.fine("Caught an AmazonClientException in S3AccessIO.getAuxFileAsInputStream() (object not cached?):    " + ase.getMessage());
+            return null;
+        }
+    }
+
     // Rename this getAuxiliaryKey(), maybe? 
     String getDestinationKey(String auxItemTag) throws IOException {
         if (isDirectAccess() || dvObject instanceof DataFile) {
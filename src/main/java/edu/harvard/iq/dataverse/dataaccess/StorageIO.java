@@ -43,6 +43,9 @@ import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
 
 /**
  *
@@ -187,6 +190,27 @@ public abstract class StorageIO<T extends DvObject> {
     
     public abstract void deleteAllAuxObjects() throws IOException;
 
+    /**
+     * Returns an InputStream for a byte range of an auxiliary object; or null, 
+     * if the object does not exist. This default implementation simply skips 
+     * the bytes preceding the range; drivers that support native ranged reads 
+     * override it. 
+     * 
+     * @param auxItemTag String representing this Auxiliary type ("extension")
+     * @param offset the position of the first byte of the range
+     * @param length the number of bytes in the range
+     * @return the InputStream for the range
+     * @throws IOException if anything goes wrong.
+     */
+    public InputStream getAuxFileAsInputStream(String auxItemTag, long offset, long length) throws IOException {
+        InputStream auxStream = getAuxFileAsInputStream(auxItemTag);
+        if (auxStream == null) {
+            return null;
+        }
+        IOUtils.skipFully(auxStream, offset);
+        return new BoundedInputStream(auxStream, length);
+    }
+
     private DataAccessRequest req;
     private InputStream in = null;
     private OutputStream out; 
@@ -202,6 +226,12 @@ public abstract class StorageIO<T extends DvObject> {
      * start of the file).
      */
     private long offset;
+
+    /**
+     * Where in the file the InputStream is, when reading ranges of it with 
+     * {@link #getInputStream(long, long)}.
+     */
+    private long position;
     
     private String mimeType;
     private String fileName;
@@ -292,6 +322,35 @@ public abstract class StorageIO<T extends DvObject> {
     public InputStream getInputStream() throws IOException {
         return in;
     }
+
+    /**
+     * Returns an InputStream for a byte range of the main file. This default
+     * implementation reads the range from the stream of the whole file (see
+     * {@link #getInputStream()}), skipping the bytes preceding it; so the 
+     * ranges must be asked for in order, without overlaps, and each one read 
+     * completely before the next one. Drivers that support native ranged 
+     * reads override it; closing the returned stream does not close the 
+     * stream of the whole file.
+     * 
+     * @param offset the position of the first byte of the range
+     * @param length the number of bytes in the range
+     * @return the InputStream for the range
+     * @throws IOException if anything goes wrong.
+     */
+    public InputStream getInputStream(long offset, long length) throws IOException {
+        InputStream inputStream = getInputStream();
+        if (inputStream == null) {
+            throw new IOException("Could not read a range of the InputStream because it is null");
+        }
+        if (offset < position) {
+            throw new IOException("Range starting at " + offset + " requested, but the InputStream is already at " + position);
+        }
+        IOUtils.skipFully(inputStream, offset - position);
+        position = offset + length;
+        BoundedInputStream rangeStream = new BoundedInputStream(inputStream, length);
+        rangeStream.setPropagateClose(false);
+        return rangeStream;
+    }
     
     public OutputStream getOutputStream() throws IOException {
         return out; 
@@ -413,6 +472,7 @@ public abstract class StorageIO<T extends DvObject> {
             inputStream.skip(offset);
             // The skip has already been done. Why not record it.
             this.offset = offset;
+            this.position = offset;
         } else {
             throw new IOException("Could not skip into InputStream because it is null");
         }
@@ -5,6 +5,7 @@ import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import edu.harvard.iq.dataverse.util.StringUtil;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -31,6 +32,8 @@ import javax.crypto.spec.SecretKeySpec;
 import org.javaswift.joss.client.factory.AccountFactory;
 import static org.javaswift.joss.client.factory.AuthenticationMethod.BASIC;
 import static org.javaswift.joss.client.factory.AuthenticationMethod.KEYSTONE_V3;
+import org.javaswift.joss.headers.object.range.MidPartRange;
+import org.javaswift.joss.instructions.DownloadInstructions;
 import org.javaswift.joss.model.Account;
 import org.javaswift.joss.model.Container;
 import org.javaswift.joss.model.StoredObject;
@@ -720,6 +723,19 @@ public class SwiftAccessIO<T extends DvObject> extends StorageIO<T> {
 
     }
     
+    @Override
+    public InputStream getInputStream(long offset, long length) throws IOException {
+        if (length < 1) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        if (swiftFileObject == null) {
+            swiftFileObject = initializeSwiftFileObject(false);
+        }
+        // a native ranged GET - only the bytes requested are transferred:
+        DownloadInstructions instructions = new DownloadInstructions().setRange(new MidPartRange(offset, offset + length - 1));
+        return swiftFileObject.downloadObjectAsInputStream(instructions);
+    }
+
     private InputStream openSwiftFileAsInputStream() throws IOException {
         swiftFileObject = initializeSwiftFileObject(false);
         this.setSize(swiftFileObject.getContentLength());
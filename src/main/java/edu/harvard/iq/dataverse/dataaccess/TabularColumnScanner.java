@@ -0,0 +1,451 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Extracts multiple columns from an ingested tab-delimited data file in a
+ * single pass through the file, as opposed to the static
+ * {@code TabularSubsetGenerator.subsetXxxVector()} methods, that have to read
+ * the entire file once for every column extracted.
+ *
+ * Numeric values are kept in primitive arrays, with the missing values
+ * recorded in a separate bitmap, so a column of N values costs roughly
+ * 8*N bytes, instead of the 16-24*N bytes of a boxed vector.
+ *
+ * The columns requested are split into groups that fit into the configured
+ * memory budget, and the file is read once per group; so for all but the
+ * largest files the whole file is only read once. Once a group has been
+ * read, the columns are handed over to the supplied {@link ColumnConsumer}
+ * one at a time, in the order of their column numbers.
+ */
+public class TabularColumnScanner {
+
+    private static final Logger logger = Logger.getLogger(TabularColumnScanner.class.getCanonicalName());
+
+    public static final int COLUMN_TYPE_STRING = 1;
+    public static final int COLUMN_TYPE_LONG = 2;
+    public static final int COLUMN_TYPE_DOUBLE = 3;
+    public static final int COLUMN_TYPE_FLOAT = 4;
+
+    private static final int READ_BUFFER_SIZE = 65536;
+
+    // Estimated fixed cost of storing one String value, in bytes (object
+    // header, hash, array reference, etc.), on top of the characters.
+    private static final int STRING_VALUE_OVERHEAD = 56;
+
+    private final File tabFile;
+    private final int varCount;
+    private final int caseCount;
+
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+    private final TreeMap<Integer, Integer> columnTypes = new TreeMap<>();
+
+    private final char[] readBuffer = new char[READ_BUFFER_SIZE];
+    private int readPosition;
+    private int readLimit;
+
+    private int passCount = 0;
+
+    public TabularColumnScanner(File tabFile, int varCount, int caseCount) {
+        this.tabFile = tabFile;
+        this.varCount = varCount;
+        this.caseCount = caseCount;
+    }
+
+    /**
+     * Adds a column to the list of the columns to be extracted.
+     *
+     * @param column the 0-based column number
+     * @param columnType one of the COLUMN_TYPE_ constants, defining how the
+     * values in the column are going to be parsed
+     */
+    public void addColumn(int column, int columnType) {
+        if (column < 0 || column >= varCount) {
+            throw new IllegalArgumentException("Invalid column number: " + column + " (" + varCount + " columns in the file)");
+        }
+        if (columnType < COLUMN_TYPE_STRING || columnType > COLUMN_TYPE_FLOAT) {
+            throw new IllegalArgumentException("Invalid column type: " + columnType);
+        }
+        columnTypes.put(column, columnType);
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the (approximate) maximum number of bytes the extracted columns
+     * may occupy at any given time. Defaults to 1/4 of the maximum heap size.
+     *
+     * @param memoryBudget the memory budget, in bytes
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return the number of times the file was read by the last call to
+     * {@link #scan(ColumnConsumer)}
+     */
+    public int getPassCount() {
+        return passCount;
+    }
+
+    /**
+     * Reads the requested columns and passes them to the consumer, one
+     * column at a time.
+     *
+     * @param consumer the consumer of the extracted columns
+     * @throws IOException if the file cannot be read, or if the number of
+     * rows or columns in it does not match the expected counts.
+     */
+    public void scan(ColumnConsumer consumer) throws IOException {
+        passCount = 0;
+
+        for (int[] group : planColumnGroups()) {
+            ColumnVector[] vectors = readColumnGroup(group);
+            passCount++;
+
+            for (int i = 0; i < vectors.length; i++) {
+                consumer.consume(group[i], vectors[i]);
+                // release the column as soon as it's been processed:
+                vectors[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Splits the requested columns into groups, each small enough to fit
+     * into the memory budget. Every group will contain at least one column,
+     * no matter how large.
+     */
+    List<int[]> planColumnGroups() {
+        List<int[]> groups = new ArrayList<>();
+        List<Integer> currentGroup = new ArrayList<>();
+        long currentGroupSize = 0;
+
+        for (Integer column : columnTypes.keySet()) {
+            long columnSize = estimateColumnSize(columnTypes.get(column));
+            if (!currentGroup.isEmpty() && currentGroupSize + columnSize > memoryBudget) {
+                groups.add(toIntArray(currentGroup));
+                currentGroup.clear();
+                currentGroupSize = 0;
+            }
+            currentGroup.add(column);
+            currentGroupSize += columnSize;
+        }
+
+        if (!currentGroup.isEmpty()) {
+            groups.add(toIntArray(currentGroup));
+        }
+
+        logger.fine("Extracting " + columnTypes.size() + " columns in " + groups.size() + " pass(es) through the file");
+        return groups;
+    }
+
+    private long estimateColumnSize(int columnType) {
+        if (columnType == COLUMN_TYPE_STRING) {
+            // We have no way of knowing how long the values in this specific
+            // column are, so we use the average width of a column in the file:
+            long averageWidth = 0;
+            if (caseCount > 0 && varCount > 0) {
+                averageWidth = tabFile.length() / ((long) caseCount * varCount);
+            }
+            return (long) caseCount * (STRING_VALUE_OVERHEAD + 2 * averageWidth);
+        }
+        // a primitive 8-byte value, plus a bit in the missing values bitmap:
+        return (long) caseCount * 8 + caseCount / 8 + 1;
+    }
+
+    private ColumnVector[] readColumnGroup(int[] columns) throws IOException {
+        ColumnVector[] vectors = new ColumnVector[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            vectors[i] = new ColumnVector(columnTypes.get(columns[i]), caseCount);
+        }
+
+        readColumns(new FileInputStream(tabFile), columns, vectors);
+
+        return vectors;
+    }
+
+    /**
+     * Reads a single column from a tab-delimited stream into the supplied
+     * vector (which may be backed by the caller's own buffers). The stream
+     * is closed once the column has been read.
+     */
+    static void readColumn(InputStream in, int column, int caseCount, ColumnVector vector) throws IOException {
+        TabularColumnScanner scanner = new TabularColumnScanner(null, column + 1, caseCount);
+        scanner.readColumns(in, new int[]{column}, new ColumnVector[]{vector});
+    }
+
+    private void readColumns(InputStream in, int[] columns, ColumnVector[] vectors) throws IOException {
+        readPosition = 0;
+        readLimit = 0;
+
+        try (Reader reader = new InputStreamReader(in)) {
+            StringBuilder line = new StringBuilder();
+
+            for (int caseIndex = 0; caseIndex < caseCount; caseIndex++) {
+                if (!readLine(reader, line)) {
+                    throw new IOException("Tab file has fewer rows than the stored number of cases (" + caseCount + ")!");
+                }
+
+                int fieldStart = 0;
+                int fieldNumber = 0;
+
+                for (int i = 0; i < columns.length; i++) {
+                    // skip to the beginning of the next requested column:
+                    while (fieldNumber < columns[i]) {
+                        int tab = line.indexOf("\t", fieldStart);
+                        if (tab < 0) {
+                            throw new IOException("Row " + caseIndex + " of the tab file has fewer than " + (columns[i] + 1) + " columns!");
+                        }
+                        fieldStart = tab + 1;
+                        fieldNumber++;
+                    }
+
+                    int fieldEnd = line.indexOf("\t", fieldStart);
+                    if (fieldEnd < 0) {
+                        fieldEnd = line.length();
+                    }
+
+                    vectors[i].parseValue(caseIndex, line.substring(fieldStart, fieldEnd));
+                }
+            }
+
+            int tailIndex = caseCount;
+            while (readLine(reader, line)) {
+                if (line.length() > 0) {
+                    throw new IOException("Tab file has more nonempty rows than the stored number of cases (" + caseCount + ")! current index: " + tailIndex + ", line: " + line);
+                }
+                tailIndex++;
+            }
+        }
+    }
+
+    /**
+     * Reads the next line (terminated by a new line character - and not by
+     * a carriage return, since those are always escaped in tab files) into
+     * the supplied buffer.
+     *
+     * @return false if the end of the file has been reached, and there are
+     * no more lines to read
+     */
+    private boolean readLine(Reader reader, StringBuilder line) throws IOException {
+        line.setLength(0);
+
+        while (true) {
+            if (readPosition >= readLimit) {
+                readLimit = reader.read(readBuffer, 0, readBuffer.length);
+                readPosition = 0;
+                if (readLimit <= 0) {
+                    readLimit = 0;
+                    return line.length() > 0;
+                }
+            }
+
+            int start = readPosition;
+            while (readPosition < readLimit && readBuffer[readPosition] != '\n') {
+                readPosition++;
+            }
+            line.append(readBuffer, start, readPosition - start);
+
+            if (readPosition < readLimit) {
+                // skip the new line character:
+                readPosition++;
+                return true;
+            }
+        }
+    }
+
+    private static int[] toIntArray(List<Integer> list) {
+        int[] ret = new int[list.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = list.get(i);
+        }
+        return ret;
+    }
+
+    /**
+     * Receives the extracted columns.
+     */
+    public interface ColumnConsumer {
+
+        void consume(int column, ColumnVector vector) throws IOException;
+    }
+
+    /**
+     * A single extracted column. Depending on the type, the values are stored
+     * either in a primitive double[] (for COLUMN_TYPE_DOUBLE and
+     * COLUMN_TYPE_FLOAT), a primitive long[] (COLUMN_TYPE_LONG), or a
+     * String[] (COLUMN_TYPE_STRING). For the numeric types, the missing
+     * values are marked in a separate bitmap.
+     */
+    public static class ColumnVector {
+
+        private final int columnType;
+        private final int size;
+
+        private double[] doubleValues;
+        private long[] longValues;
+        private String[] stringValues;
+        private final BitSet missingValues;
+
+        ColumnVector(int columnType, int size) {
+            this.columnType = columnType;
+            this.size = size;
+            this.missingValues = new BitSet(size);
+
+            if (columnType == COLUMN_TYPE_STRING) {
+                stringValues = new String[size];
+            } else if (columnType == COLUMN_TYPE_LONG) {
+                longValues = new long[size];
+            } else {
+                doubleValues = new double[size];
+            }
+        }
+
+        /*
+         * Wraps the buffers supplied by the caller, instead of allocating new
+         * ones; the buffers may be larger than the vector. The missing
+         * values bitmap is cleared.
+         */
+        ColumnVector(int columnType, int size, double[] doubleValues, long[] longValues, BitSet missingValues) {
+            this.columnType = columnType;
+            this.size = size;
+            this.doubleValues = doubleValues;
+            this.longValues = longValues;
+            this.missingValues = missingValues;
+            missingValues.clear();
+        }
+
+        /*
+         * The parsing rules below are the same as in the corresponding
+         * TabularSubsetGenerator.subsetXxxVector() methods.
+         */
+        void parseValue(int index, String value) {
+            if (columnType == COLUMN_TYPE_STRING) {
+                if ("".equals(value)) {
+                    // An empty string is a string missing value!
+                    // An empty string in quotes is an empty string!
+                    missingValues.set(index);
+                } else {
+                    stringValues[index] = TabularSubsetGenerator.unescapeStringValue(value);
+                }
+            } else if (columnType == COLUMN_TYPE_LONG) {
+                try {
+                    longValues[index] = Long.parseLong(value);
+                } catch (NumberFormatException ex) {
+                    missingValues.set(index); // assume missing value
+                }
+            } else {
+                if ("inf".equalsIgnoreCase(value) || "+inf".equalsIgnoreCase(value)) {
+                    doubleValues[index] = Double.POSITIVE_INFINITY;
+                } else if ("-inf".equalsIgnoreCase(value)) {
+                    doubleValues[index] = Double.NEGATIVE_INFINITY;
+                } else if ("".equals(value)) {
+                    missingValues.set(index);
+                } else {
+                    try {
+                        if (columnType == COLUMN_TYPE_FLOAT) {
+                            // parsed as a float first, so that the value is
+                            // the same as the one produced by subsetFloatVector():
+                            doubleValues[index] = Float.parseFloat(value);
+                        } else {
+                            doubleValues[index] = Double.parseDouble(value);
+                        }
+                    } catch (NumberFormatException ex) {
+                        missingValues.set(index); // missing value
+                    }
+                }
+            }
+        }
+
+        public int getColumnType() {
+            return columnType;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isMissing(int index) {
+            return missingValues.get(index);
+        }
+
+        public BitSet getMissingValues() {
+            return missingValues;
+        }
+
+        /**
+         * @return the values of a COLUMN_TYPE_DOUBLE or COLUMN_TYPE_FLOAT
+         * column; the entries for the missing values are 0.0.
+         */
+        public double[] getDoubleValues() {
+            return doubleValues;
+        }
+
+        /**
+         * @return the values of a COLUMN_TYPE_LONG column; the entries for
+         * the missing values are 0.
+         */
+        public long[] getLongValues() {
+            return longValues;
+        }
+
+        /**
+         * @return the values of a COLUMN_TYPE_STRING column; missing values
+         * are null.
+         */
+        public String[] getStringValues() {
+            return stringValues;
+        }
+
+        /*
+         * The boxed representations below are only needed for the UNF
+         * calculations (the UNF library only works with object arrays).
+         * They are created for one column at a time, and should be
+         * discarded as soon as the UNF has been calculated.
+         */
+        public Double[] toDoubleArray() {
+            Double[] ret = new Double[size];
+            for (int i = 0; i < size; i++) {
+                if (!missingValues.get(i)) {
+                    ret[i] = columnType == COLUMN_TYPE_LONG ? (double) longValues[i] : doubleValues[i];
+                }
+            }
+            return ret;
+        }
+
+        public Float[] toFloatArray() {
+            Float[] ret = new Float[size];
+            for (int i = 0; i < size; i++) {
+                if (!missingValues.get(i)) {
+                    ret[i] = columnType == COLUMN_TYPE_LONG ? (float) longValues[i] : (float) doubleValues[i];
+                }
+            }
+            return ret;
+        }
+
+        public Long[] toLongArray() {
+            Long[] ret = new Long[size];
+            for (int i = 0; i < size; i++) {
+                if (!missingValues.get(i)) {
+                    ret[i] = columnType == COLUMN_TYPE_LONG ? longValues[i] : (long) doubleValues[i];
+                }
+            }
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,546 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A column-oriented copy of an ingested tab-delimited file, saved as an
+ * auxiliary object of the DataFile (with the {@link #AUX_TAG} tag). It allows
+ * a subset of variables to be extracted by reading only the bytes of the
+ * requested columns - using ranged reads on the storage drivers that
+ * support them - instead of scanning the entire tab file.
+ *
+ * The format is as follows (all numbers are big-endian):
+ * <pre>
+ *   int  magic number ("DVC1")
+ *   int  number of columns
+ *   long number of rows
+ *   for every column:
+ *     byte encoding (text, long or double)
+ *     long offset of the column block, from the beginning of the file
+ *     long length of the column block
+ *   column blocks
+ * </pre>
+ * A text block contains the values exactly as they appear in the tab file,
+ * each terminated by a new line. A long or double block contains one 8 byte
+ * value per row. The fixed-width encodings are only used for the columns
+ * where every value can be restored to exactly the same string as in the
+ * tab file; so the subsets produced are byte-for-byte the same as those
+ * produced by {@link TabularSubsetGenerator#subsetFile}.
+ */
+public class TabularColumnStore {
+
+    private static final Logger logger = Logger.getLogger(TabularColumnStore.class.getCanonicalName());
+
+    public static final String AUX_TAG = "columns";
+
+    private static final int MAGIC = 0x44564331; // "DVC1"
+
+    static final byte ENCODING_TEXT = 0;
+    static final byte ENCODING_LONG = 1;
+    static final byte ENCODING_DOUBLE = 2;
+
+    private static final long MISSING_LONG = Long.MIN_VALUE;
+    // A NaN with a non-standard payload, so that it can be told apart from
+    // a "real" NaN value (Double.parseDouble("NaN") always produces the
+    // canonical one):
+    private static final long MISSING_DOUBLE_BITS = 0x7ff80000000dead1L;
+
+    private static final int READ_BUFFER_SIZE = 65536;
+
+    // The maximum number of bytes of column data buffered in memory when
+    // extracting a subset:
+    private static final long MAX_BUFFERED_BYTES = 64 * 1024 * 1024;
+    // The maximum number of columns read concurrently, when the requested
+    // columns are too large to be buffered (on S3, every one of these is an
+    // open connection):
+    private static final int MAX_OPEN_COLUMN_STREAMS = 32;
+
+    private TabularColumnStore() {
+    }
+
+    static int headerSize(int varCount) {
+        return 16 + 17 * varCount;
+    }
+
+    /**
+     * Generates the column store for a tab-delimited file, in a temp file.
+     * The tab file is read once; the values of the columns are buffered in
+     * memory, up to 1/4 of the maximum heap size (the same budget as the
+     * {@link TabularColumnScanner} used earlier in the ingest), and appended
+     * to a spill file whenever the buffers outgrow it.
+     *
+     * @param tabFile the tab-delimited data file
+     * @param varCount the number of columns in the file
+     * @param caseCount the number of rows in the file
+     * @return the temp file containing the column store
+     * @throws IOException if the tab file cannot be read, or does not
+     * contain the expected number of rows and columns
+     */
+    public static File generate(File tabFile, int varCount, long caseCount) throws IOException {
+        return generate(tabFile, varCount, caseCount, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    static File generate(File tabFile, int varCount, long caseCount, long memoryBudget) throws IOException {
+        File storeFile = File.createTempFile("tempColumnStore", ".tmp");
+        File spillFile = File.createTempFile("tempColumnStore", ".spill");
+
+        try {
+            ColumnBuffer[] columns;
+            try (OutputStream spill = new BufferedOutputStream(new FileOutputStream(spillFile), READ_BUFFER_SIZE)) {
+                columns = readColumns(tabFile, varCount, caseCount, memoryBudget, spill);
+            }
+
+            byte[] encodings = new byte[varCount];
+            long[] offsets = new long[varCount];
+            long[] lengths = new long[varCount];
+
+            try (RandomAccessFile spilled = new RandomAccessFile(spillFile, "r")) {
+                long position = headerSize(varCount);
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(storeFile), READ_BUFFER_SIZE)) {
+                    out.write(new byte[headerSize(varCount)]);
+                    for (int i = 0; i < varCount; i++) {
+                        encodings[i] = columns[i].getEncoding();
+                        offsets[i] = position;
+                        lengths[i] = columns[i].writeBlock(spilled, caseCount, out);
+                        position += lengths[i];
+                        columns[i] = null;
+                    }
+                }
+            }
+
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream(headerSize(varCount));
+            DataOutputStream header = new DataOutputStream(headerBytes);
+            header.writeInt(MAGIC);
+            header.writeInt(varCount);
+            header.writeLong(caseCount);
+            for (int i = 0; i < varCount; i++) {
+                header.writeByte(encodings[i]);
+                header.writeLong(offsets[i]);
+                header.writeLong(lengths[i]);
+            }
+            header.flush();
+            try (RandomAccessFile out = new RandomAccessFile(storeFile, "rw")) {
+                out.write(headerBytes.toByteArray());
+            }
+        } catch (IOException ioex) {
+            storeFile.delete();
+            throw ioex;
+        } finally {
+            spillFile.delete();
+        }
+
+        return storeFile;
+    }
+
+    /*
+     * Reads the raw values of all the columns from the tab file. Rows are
+     * separated by new lines, the same way as in the other methods reading
+     * tab files (TabularSubsetGenerator.subsetFile(), etc.); any lines after
+     * the expected number of rows must be empty. Whenever the values
+     * buffered add up to more than the memory budget, they are all appended
+     * to the spill file.
+     */
+    private static ColumnBuffer[] readColumns(File tabFile, int varCount, long caseCount, long memoryBudget, OutputStream spill) throws IOException {
+        ColumnBuffer[] columns = new ColumnBuffer[varCount];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ColumnBuffer();
+        }
+
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        long caseIndex = 0;
+        int column = 0;
+        long lineLength = 0;
+        long buffered = 0;
+        long spillPosition = 0;
+
+        try (InputStream in = new FileInputStream(tabFile)) {
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) > 0) {
+                for (int i = 0; i < bytesRead; i++) {
+                    byte b = buffer[i];
+
+                    if (caseIndex >= caseCount) {
+                        if (b != '\n') {
+                            throw new IOException("Tab file has more nonempty rows than the stored number of cases (" + caseCount + ")!");
+                        }
+                        continue;
+                    }
+
+                    if (b == '\t' || b == '\n') {
+                        if (column < varCount) {
+                            buffered += columns[column].addValue(field);
+                        }
+                        field.reset();
+
+                        if (b == '\t') {
+                            column++;
+                            lineLength++;
+                        } else {
+                            if (column < varCount - 1) {
+                                throw new IOException("Row " + caseIndex + " of the tab file has fewer than " + varCount + " columns!");
+                            }
+                            caseIndex++;
+                            column = 0;
+                            lineLength = 0;
+
+                            if (buffered > memoryBudget) {
+                                for (ColumnBuffer columnBuffer : columns) {
+                                    spillPosition += columnBuffer.spill(spill, spillPosition);
+                                }
+                                buffered = 0;
+                            }
+                        }
+                    } else {
+                        if (column < varCount) {
+                            field.write(b);
+                        }
+                        lineLength++;
+                    }
+                }
+            }
+        }
+
+        if (lineLength > 0) {
+            // the last line is not terminated by a new line:
+            if (column < varCount - 1) {
+                throw new IOException("Row " + caseIndex + " of the tab file has fewer than " + varCount + " columns!");
+            }
+            if (column < varCount) {
+                columns[column].addValue(field);
+            }
+            caseIndex++;
+        }
+
+        if (caseIndex < caseCount) {
+            throw new IOException("Tab file has fewer rows (" + caseIndex + ") than the stored number of cases (" + caseCount + ")!");
+        }
+
+        return columns;
+    }
+
+    /**
+     * Extracts a subset of columns into a tab-delimited file, using the
+     * column store of the DataFile; the output is the same as that of
+     * {@link TabularSubsetGenerator#subsetFile}.
+     *
+     * @param storageIO the (open) StorageIO of the tabular DataFile
+     * @param columns the columns requested, in the order requested
+     * @param varCount the number of columns in the file
+     * @param caseCount the number of rows in the file
+     * @param outfile the output file
+     * @return false if no usable column store is available for this file,
+     * or if the subset requested is too large to be extracted this way;
+     * in which case the caller should fall back to subsetting the tab file.
+     * @throws IOException if the column store cannot be read.
+     */
+    public static boolean subsetFile(StorageIO<DataFile> storageIO, List<Integer> columns, int varCount, long caseCount, File outfile) throws IOException {
+        if (columns == null || columns.isEmpty() || !storageIO.isAuxObjectCached(AUX_TAG)) {
+            return false;
+        }
+
+        int headerSize = headerSize(varCount);
+        byte[] encodings = new byte[varCount];
+        long[] offsets = new long[varCount];
+        long[] lengths = new long[varCount];
+
+        try (InputStream headerStream = storageIO.getAuxFileAsInputStream(AUX_TAG, 0, headerSize)) {
+            if (headerStream == null) {
+                return false;
+            }
+            DataInputStream header = new DataInputStream(new BufferedInputStream(headerStream));
+            if (header.readInt() != MAGIC || header.readInt() != varCount || header.readLong() != caseCount) {
+                logger.warning("Column store of datafile " + storageIO.getDvObject().getId() + " does not match the tab file; ignoring.");
+                return false;
+            }
+            for (int i = 0; i < varCount; i++) {
+                encodings[i] = header.readByte();
+                offsets[i] = header.readLong();
+                lengths[i] = header.readLong();
+            }
+        }
+
+        // The distinct columns requested (the same column may be requested
+        // more than once), in the order they appear in the output:
+        Map<Integer, ColumnReader> readers = new LinkedHashMap<>();
+        long totalLength = 0;
+        for (Integer column : columns) {
+            if (column < 0 || column >= varCount) {
+                throw new IOException("Column " + column + " is out of bounds.");
+            }
+            if (!readers.containsKey(column)) {
+                readers.put(column, null);
+                totalLength += lengths[column];
+            }
+        }
+
+        boolean buffered = totalLength <= MAX_BUFFERED_BYTES;
+        if (!buffered && readers.size() > MAX_OPEN_COLUMN_STREAMS) {
+            logger.fine("Too many large columns requested (" + readers.size() + "); not using the column store.");
+            return false;
+        }
+
+        try {
+            for (Integer column : new ArrayList<>(readers.keySet())) {
+                InputStream columnStream = storageIO.getAuxFileAsInputStream(AUX_TAG, offsets[column], lengths[column]);
+                if (columnStream == null) {
+                    throw new IOException("Failed to read column " + column + " from the column store.");
+                }
+                if (buffered) {
+                    // read the whole column, and close the stream right away:
+                    try (InputStream in = columnStream) {
+                        columnStream = new ByteArrayInputStream(in.readAllBytes());
+                    }
+                } else {
+                    columnStream = new BufferedInputStream(columnStream, READ_BUFFER_SIZE);
+                }
+                readers.put(column, new ColumnReader(encodings[column], columnStream));
+            }
+
+            Map<Integer, byte[]> rowValues = new LinkedHashMap<>();
+
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outfile))) {
+                for (long caseIndex = 0; caseIndex < caseCount; caseIndex++) {
+                    for (Map.Entry<Integer, ColumnReader> reader : readers.entrySet()) {
+                        rowValues.put(reader.getKey(), reader.getValue().readValue());
+                    }
+                    for (int i = 0; i < columns.size(); i++) {
+                        if (i > 0) {
+                            out.write('\t');
+                        }
+                        out.write(rowValues.get(columns.get(i)));
+                    }
+                    out.write('\n');
+                }
+            }
+        } finally {
+            for (ColumnReader reader : readers.values()) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /*
+     * The raw values of one column, accumulated while reading the tab file -
+     * partly in memory, partly in chunks of the spill file; along with the
+     * information on whether the values can be stored in a fixed-width
+     * numeric encoding.
+     */
+    private static class ColumnBuffer {
+
+        private final ByteArrayOutputStream values = new ByteArrayOutputStream();
+        // the offsets and lengths of the chunks of the spill file holding
+        // the earlier values of the column:
+        private final List<long[]> spilledChunks = new ArrayList<>();
+        private boolean longEncodable = true;
+        private boolean doubleEncodable = true;
+
+        /*
+         * @return the number of bytes added to the buffer
+         */
+        int addValue(ByteArrayOutputStream field) throws IOException {
+            if (longEncodable || doubleEncodable) {
+                String value = field.toString(StandardCharsets.UTF_8);
+                if (!value.isEmpty()) {
+                    if (longEncodable) {
+                        try {
+                            long longValue = Long.parseLong(value);
+                            longEncodable = longValue != MISSING_LONG && Long.toString(longValue).equals(value);
+                        } catch (NumberFormatException nfe) {
+                            longEncodable = false;
+                        }
+                    }
+                    if (doubleEncodable) {
+                        try {
+                            doubleEncodable = Double.toString(Double.parseDouble(value)).equals(value);
+                        } catch (NumberFormatException nfe) {
+                            doubleEncodable = false;
+                        }
+                    }
+                }
+            }
+
+            field.writeTo(values);
+            values.write('\n');
+            return field.size() + 1;
+        }
+
+        /*
+         * Appends the values buffered in memory to the spill file.
+         *
+         * @return the number of bytes written
+         */
+        int spill(OutputStream spill, long spillPosition) throws IOException {
+            int size = values.size();
+            if (size > 0) {
+                values.writeTo(spill);
+                spilledChunks.add(new long[]{spillPosition, size});
+                values.reset();
+            }
+            return size;
+        }
+
+        byte getEncoding() {
+            if (longEncodable) {
+                return ENCODING_LONG;
+            } else if (doubleEncodable) {
+                return ENCODING_DOUBLE;
+            }
+            return ENCODING_TEXT;
+        }
+
+        /*
+         * Writes the column block - the spilled values, followed by the ones
+         * still in memory - in the encoding of the column.
+         *
+         * @return the length of the block
+         */
+        long writeBlock(RandomAccessFile spilled, long caseCount, OutputStream out) throws IOException {
+            if (!longEncodable && !doubleEncodable) {
+                long length = 0;
+                byte[] buffer = new byte[READ_BUFFER_SIZE];
+                for (long[] chunk : spilledChunks) {
+                    spilled.seek(chunk[0]);
+                    for (long remaining = chunk[1]; remaining > 0;) {
+                        int bytesRead = (int) Math.min(buffer.length, remaining);
+                        spilled.readFully(buffer, 0, bytesRead);
+                        out.write(buffer, 0, bytesRead);
+                        remaining -= bytesRead;
+                    }
+                    length += chunk[1];
+                }
+                values.writeTo(out);
+                return length + values.size();
+            }
+
+            ColumnReader text = new ColumnReader(ENCODING_TEXT, new SequenceInputStream(
+                    new BufferedInputStream(new SpilledChunksInputStream(spilled, spilledChunks), READ_BUFFER_SIZE),
+                    new ByteArrayInputStream(values.toByteArray())));
+            DataOutputStream encoded = new DataOutputStream(out);
+            for (long caseIndex = 0; caseIndex < caseCount; caseIndex++) {
+                String value = new String(text.readValue(), StandardCharsets.UTF_8);
+                if (longEncodable) {
+                    encoded.writeLong(value.isEmpty() ? MISSING_LONG : Long.parseLong(value));
+                } else {
+                    encoded.writeLong(value.isEmpty() ? MISSING_DOUBLE_BITS : Double.doubleToLongBits(Double.parseDouble(value)));
+                }
+            }
+            encoded.flush();
+            return 8 * caseCount;
+        }
+    }
+
+    /*
+     * Reads the chunks of the spill file holding the values of a column, one
+     * after another. (Does not close the spill file.)
+     */
+    private static class SpilledChunksInputStream extends InputStream {
+
+        private final RandomAccessFile spilled;
+        private final Iterator<long[]> chunks;
+        private long position;
+        private long remaining = 0;
+
+        SpilledChunksInputStream(RandomAccessFile spilled, List<long[]> chunks) {
+            this.spilled = spilled;
+            this.chunks = chunks.iterator();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (remaining == 0) {
+                if (!chunks.hasNext()) {
+                    return -1;
+                }
+                long[] chunk = chunks.next();
+                position = chunk[0];
+                remaining = chunk[1];
+            }
+            spilled.seek(position);
+            int bytesRead = spilled.read(b, off, (int) Math.min(len, remaining));
+            if (bytesRead < 0) {
+                throw new IOException("Unexpected end of the spill file.");
+            }
+            position += bytesRead;
+            remaining -= bytesRead;
+            return bytesRead;
+        }
+    }
+
+    /*
+     * Restores the values of a column, as they appear in the tab file.
+     */
+    private static class ColumnReader {
+
+        private final byte encoding;
+        private final InputStream in;
+        private final DataInputStream dataIn;
+        private final ByteArrayOutputStream value = new ByteArrayOutputStream();
+
+        ColumnReader(byte encoding, InputStream in) {
+            this.encoding = encoding;
+            this.in = in;
+            this.dataIn = new DataInputStream(in);
+        }
+
+        byte[] readValue() throws IOException {
+            if (encoding == ENCODING_LONG) {
+                long longValue = dataIn.readLong();
+                return longValue == MISSING_LONG ? new byte[0] : Long.toString(longValue).getBytes(StandardCharsets.UTF_8);
+            } else if (encoding == ENCODING_DOUBLE) {
+                long bits = dataIn.readLong();
+                return bits == MISSING_DOUBLE_BITS ? new byte[0] : Double.toString(Double.longBitsToDouble(bits)).getBytes(StandardCharsets.UTF_8);
+            }
+
+            value.reset();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new IOException("Unexpected end of a column in the column store.");
+                }
+                value.write(b);
+            }
+            return value.toByteArray();
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException ioex) {
+                // don't care.
+            }
+        }
+    }
+}
@@ -34,6 +34,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
@@ -564,42 +565,7 @@ public class TabularSubsetGenerator implements SubsetGenerator {
                         // An empty string in quotes is an empty string!
                         retVector[caseIndex] = null;
                     } else {
-                        // Strip the outer quotes:
-                        line[column] = line[column].replaceFirst("^\\\"", "");
-                        line[column] = line[column].replaceFirst("\\\"$", "");
-
-                        // We need to restore the special characters that
-                        // are stored in tab files escaped - quotes, new lines
-                        // and tabs. Before we do that however, we need to
-                        // take care of any escaped backslashes stored in
-                        // the tab file. I.e., "foo\t" should be transformed
-                        // to "foo<TAB>"; but "foo\\t" should be transformed
-                        // to "foo\t". This way new lines and tabs that were
-                        // already escaped in the original data are not
-                        // going to be transformed to unescaped tab and
-                        // new line characters!
-                        String[] splitTokens = line[column].split(Matcher.quoteReplacement("\\\\"), -2);
-
-                        // (note that it's important to use the 2-argument version
-                        // of String.split(), and set the limit argument to a
-                        // negative value; otherwise any trailing backslashes
-                        // are lost.)
-                        for (int i = 0; i < splitTokens.length; i++) {
-                            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\\""), "\"");
-                            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\t"), "\t");
-                            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\n"), "\n");
-                            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\r"), "\r");
-                        }
-                        // TODO:
-                        // Make (some of?) the above optional; for ex., we
-                        // do need to restore the newlines when calculating UNFs;
-                        // But if we are subsetting these vectors in order to
-                        // create a new tab-delimited file, they will
-                        // actually break things! -- L.A. Jul. 28 2014
-
-                        line[column] = StringUtils.join(splitTokens, '\\');
-
-                        retVector[caseIndex] = line[column];
+                        retVector[caseIndex] = unescapeStringValue(line[column]);
                     }
 
                 } else {
@@ -621,6 +587,88 @@ public class TabularSubsetGenerator implements SubsetGenerator {
 
     }
 
+    /*
+     * Primitive-typed versions of the subsetXxxVector() methods above: the 
+     * values are stored in a primitive array, with the missing values marked 
+     * in a separate bitmap, instead of being returned as a vector of boxed 
+     * objects with nulls for the missing values. This cuts the memory 
+     * footprint of a numeric vector by a factor of 3 or more. 
+     * The caller may supply a buffer to be reused; if the buffer is null, or 
+     * shorter than numCases, a new one is allocated. The buffer actually used 
+     * is returned; only its first numCases entries are meaningful. The values
+     * in the positions marked as missing are undefined. 
+     */
+    
+    public static double[] subsetDoubleVector(InputStream in, int column, int numCases, double[] buffer, BitSet missingValues) throws IOException {
+        double[] values = (buffer != null && buffer.length >= numCases) ? buffer : new double[numCases];
+        TabularColumnScanner.readColumn(in, column, numCases, 
+                new TabularColumnScanner.ColumnVector(TabularColumnScanner.COLUMN_TYPE_DOUBLE, numCases, values, null, missingValues));
+        return values;
+    }
+    
+    /*
+     * The values are parsed as floats (same as in subsetFloatVector() above), 
+     * but are returned as doubles. 
+     */
+    public static double[] subsetFloatVector(InputStream in, int column, int numCases, double[] buffer, BitSet missingValues) throws IOException {
+        double[] values = (buffer != null && buffer.length >= numCases) ? buffer : new double[numCases];
+        TabularColumnScanner.readColumn(in, column, numCases, 
+                new TabularColumnScanner.ColumnVector(TabularColumnScanner.COLUMN_TYPE_FLOAT, numCases, values, null, missingValues));
+        return values;
+    }
+    
+    public static long[] subsetLongVector(InputStream in, int column, int numCases, long[] buffer, BitSet missingValues) throws IOException {
+        long[] values = (buffer != null && buffer.length >= numCases) ? buffer : new long[numCases];
+        TabularColumnScanner.readColumn(in, column, numCases, 
+                new TabularColumnScanner.ColumnVector(TabularColumnScanner.COLUMN_TYPE_LONG, numCases, null, values, missingValues));
+        return values;
+    }
+
+    /**
+     * Restores a non-missing character value, as stored in a tab-delimited
+     * file, to its original form: strips the outer quotes and un-escapes the
+     * special characters (quotes, tabs and new lines).
+     *
+     * @param value the raw (non-empty) column entry, as found in the tab file
+     * @return the un-escaped string value
+     */
+    public static String unescapeStringValue(String value) {
+        // Strip the outer quotes:
+        value = value.replaceFirst("^\\\"", "");
+        value = value.replaceFirst("\\\"$", "");
+
+        // We need to restore the special characters that
+        // are stored in tab files escaped - quotes, new lines
+        // and tabs. Before we do that however, we need to
+        // take care of any escaped backslashes stored in
+        // the tab file. I.e., "foo\t" should be transformed
+        // to "foo<TAB>"; but "foo\\t" should be transformed
+        // to "foo\t". This way new lines and tabs that were
+        // already escaped in the original data are not
+        // going to be transformed to unescaped tab and
+        // new line characters!
+        String[] splitTokens = value.split(Matcher.quoteReplacement("\\\\"), -2);
+
+        // (note that it's important to use the 2-argument version
+        // of String.split(), and set the limit argument to a
+        // negative value; otherwise any trailing backslashes
+        // are lost.)
+        for (int i = 0; i < splitTokens.length; i++) {
+            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\\""), "\"");
+            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\t"), "\t");
+            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\n"), "\n");
+            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\r"), "\r");
+        }
+        // TODO:
+        // Make (some of?) the above optional; for ex., we
+        // do need to restore the newlines when calculating UNFs;
+        // But if we are subsetting these vectors in order to
+        // create a new tab-delimited file, they will
+        // actually break things! -- L.A. Jul. 28 2014
+
+        return StringUtils.join(splitTokens, '\\');
+    }
+
     /*
      * Straightforward method for subsetting a tab-delimited data file, extracting
      * all the columns representing continuous variables and returning them as 
@@ -3,6 +3,8 @@ package edu.harvard.iq.dataverse.datavariable;
 import edu.harvard.iq.dataverse.FileMetadata;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 public class VariableMetadataUtil {
 
@@ -10,26 +12,21 @@ public class VariableMetadataUtil {
         Collection<VariableMetadata> vmlo = fmdo.getVariableMetadatas();
         Collection<VariableMetadata> vmln = fmdn.getVariableMetadatas();
 
-        int count = 0;
         if (vmlo.size() != vmln.size()) {
             return false;
-        } else {
-            for (VariableMetadata vmo : vmlo) {
-                for (VariableMetadata vmn : vmln) {
-                    if (vmo.getDataVariable().getId().equals(vmn.getDataVariable().getId())) {
-                        count++;
-                        if (!compareVarMetadata(vmo, vmn)) {
-                            return false;
-                        }
-                    }
-                }
-            }
         }
-        if (count == vmlo.size()) {
-            return true;
-        } else {
-            return false;
+        // (matched up by the ids of their variables)
+        Map<Long, VariableMetadata> vmnByVariableId = new HashMap<>();
+        for (VariableMetadata vmn : vmln) {
+            vmnByVariableId.put(vmn.getDataVariable().getId(), vmn);
+        }
+        for (VariableMetadata vmo : vmlo) {
+            VariableMetadata vmn = vmnByVariableId.get(vmo.getDataVariable().getId());
+            if (vmn == null || !compareVarMetadata(vmo, vmn)) {
+                return false;
+            }
         }
+        return true;
 
     }
 
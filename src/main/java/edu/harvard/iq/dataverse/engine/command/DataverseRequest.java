@@ -2,12 +2,16 @@ package edu.harvard.iq.dataverse.engine.command;
 
 import edu.harvard.iq.dataverse.api.AbstractApiBean;
 import edu.harvard.iq.dataverse.api.batchjob.FileRecordJobResource;
+import edu.harvard.iq.dataverse.authorization.Permission;
 import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.authorization.users.User;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,6 +30,8 @@ public class DataverseRequest {
     private final IpAddress sourceAddress;
     private final String invocationId;
     private final HttpServletRequest httpServletRequest;
+    // The permissions looked up for this request so far, see PermissionCache:
+    private final Map<String, Set<Permission>> permissionCache = new ConcurrentHashMap<>();
     
     private final static String undefined = "0.0.0.0";
     
@@ -196,6 +202,10 @@ public class DataverseRequest {
     public HttpServletRequest getHttpServletRequest() {
         return httpServletRequest;
     }
+
+    public Map<String, Set<Permission>> getPermissionCache() {
+        return permissionCache;
+    }
     
     public String getSystemMetadataBlockKeyFor(String blockName) {
         String key = null;
@@ -13,12 +13,16 @@ import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.UserNotification;
 import edu.harvard.iq.dataverse.authorization.Permission;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.dataaccess.DataFileFixityServiceBean;
+import edu.harvard.iq.dataverse.dataaccess.DataFileValidation;
 import edu.harvard.iq.dataverse.dataset.DatasetUtil;
 import edu.harvard.iq.dataverse.engine.command.CommandContext;
 import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
 import edu.harvard.iq.dataverse.engine.command.RequiredPermissions;
 import edu.harvard.iq.dataverse.engine.command.exception.CommandException;
 import edu.harvard.iq.dataverse.export.ExportService;
+import edu.harvard.iq.dataverse.pidproviders.FilePidRegistrationServiceBean;
+import edu.harvard.iq.dataverse.pidproviders.FilePidRegistrationServiceBean.RegisteredFile;
 import edu.harvard.iq.dataverse.privateurl.PrivateUrl;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.BundleUtil;
@@ -27,12 +31,12 @@ import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import edu.harvard.iq.dataverse.GlobalIdServiceBean;
 import edu.harvard.iq.dataverse.batch.util.LoggingUtil;
 import edu.harvard.iq.dataverse.engine.command.Command;
-import edu.harvard.iq.dataverse.util.FileUtil;
 import java.util.ArrayList;
 import java.util.concurrent.Future;
 import org.apache.solr.client.solrj.SolrServerException;
@@ -315,20 +319,42 @@ public class FinalizeDatasetPublicationCommand extends AbstractPublishDatasetCom
 
             long datasetSize = DatasetUtil.getDownloadSizeNumeric(dataset.getLatestVersion(), false);
             if (maxDatasetSize == -1 || datasetSize < maxDatasetSize) {
+                List<DataFile> sizedFiles = new ArrayList<>();
                 for (DataFile dataFile : dataset.getFiles()) {
-                    // TODO: Should we validate all the files in the dataset, or only
-                    // the files that haven't been published previously?
-                    // (the decision was made to validate all the files on every
-                    // major release; we can revisit the decision if there's any
-                    // indication that this makes publishing take significantly longer.
                     if (maxFileSize == -1 || dataFile.getFilesize() < maxFileSize) {
-                        FileUtil.validateDataFileChecksum(dataFile);
+                        sizedFiles.add(dataFile);
                     }
                     else {
                         String message = "Checksum Validation skipped for this datafile: " + dataFile.getId() + ", because of the size of the datafile limit (set to " + maxFileSize + " ); ";
                         logger.info(message);
                     }
                 }
+                // The files found valid recently (see dataverse.files.validation.max-age),
+                // whose checksum has not changed since, are not read again:
+                DataFileFixityServiceBean fixity = ctxt.dataFileFixity();
+                List<DataFile> toValidate = fixity.findFilesToValidate(dataset.getId(), sizedFiles);
+                if (toValidate.size() < sizedFiles.size()) {
+                    logger.info("Checksum Validation skipped for " + (sizedFiles.size() - toValidate.size())
+                            + " datafiles of dataset " + dataset.getId() + ", validated recently");
+                }
+
+                DatasetLock lock = dataset.getLockFor(DatasetLock.Reason.finalizePublication);
+                Long lockId = lock == null ? null : lock.getId();
+                List<String> errors = new ArrayList<>();
+                boolean valid = fixity.newValidation().validate(toValidate, (results, validated, total) -> {
+                    fixity.recordResults(results, new Timestamp(new Date().getTime()));
+                    for (DataFileValidation.Result result : results) {
+                        if (!result.isValid()) {
+                            errors.add(result.getError());
+                        }
+                    }
+                    if (lockId != null) {
+                        ctxt.datasets().updateDatasetLockInfo(lockId, "Validating files: " + validated + " of " + total + " done");
+                    }
+                });
+                if (!valid) {
+                    throw new IOException(String.join("; ", errors));
+                }
             }
             else {
                 String message = "Checksum Validation skipped for this dataset: " + dataset.getId() + ", because of the size of the dataset limit (set to " + maxDatasetSize + " ); ";
@@ -381,15 +407,8 @@ public class FinalizeDatasetPublicationCommand extends AbstractPublishDatasetCom
                         && isFilePIDsEnabled
                         && dataset.getLatestVersion().getMinorVersionNumber() != null
                         && dataset.getLatestVersion().getMinorVersionNumber().equals((long) 0)) {
-                    //A false return value indicates a failure in calling the service
-                    for (DataFile df : dataset.getFiles()) {
-                        logger.log(Level.FINE, "registering global id for file {0}", df.getId());
-                        //A false return value indicates a failure in calling the service
-                        if (!idServiceBean.publicizeIdentifier(df)) {
-                            throw new Exception();
-                        }
-                        df.setGlobalIdCreateTime(getTimestamp());
-                        df.setIdentifierRegistered(true);
+                    if (!publicizeFileIdentifiers(dataset, idServiceBean, ctxt)) {
+                        throw new Exception();
                     }
                 }
                 if (!idServiceBean.publicizeIdentifier(dataset)) {
@@ -397,6 +416,7 @@ public class FinalizeDatasetPublicationCommand extends AbstractPublishDatasetCom
                 }
                 dataset.setGlobalIdCreateTime(new Date()); // TODO these two methods should be in the responsibility of the idServiceBean.
                 dataset.setIdentifierRegistered(true);
+                ctxt.filePidRegistration().clearRegisteredFiles(dataset.getId());
             } catch (Throwable e) {
                 logger.warning("Failed to register the identifier "+dataset.getGlobalId().asString()+", or to register a file in the dataset; notifying the user(s), unlocking the dataset");
                 
@@ -409,6 +429,62 @@ public class FinalizeDatasetPublicationCommand extends AbstractPublishDatasetCom
         }
     }
     
+    /**
+     * Registers the PIDs of the files, several at a time (see
+     * {@link FilePidRegistration}). The files registered are recorded as
+     * such as they get registered, and the files recorded by an earlier
+     * attempt to publish the dataset, that failed, are not registered again.
+     * The progress is shown in the info of the finalizePublication lock.
+     *
+     * @return false if the PID of a file could not be registered
+     */
+    private boolean publicizeFileIdentifiers(Dataset dataset, GlobalIdServiceBean idServiceBean, CommandContext ctxt) throws InterruptedException {
+        FilePidRegistrationServiceBean registrations = ctxt.filePidRegistration();
+        Map<Long, RegisteredFile> registeredFiles = registrations.findRegisteredFiles(dataset.getId());
+        List<DataFile> toRegister = new ArrayList<>();
+        for (DataFile df : dataset.getFiles()) {
+            RegisteredFile registered = registeredFiles.get(df.getId());
+            if (registered != null && (df.getIdentifier() == null || df.getIdentifier().equals(registered.getIdentifier()))) {
+                df.setProtocol(registered.getProtocol());
+                df.setAuthority(registered.getAuthority());
+                df.setIdentifier(registered.getIdentifier());
+                df.setGlobalIdCreateTime(registered.getRegistrationTime());
+                df.setIdentifierRegistered(true);
+                continue;
+            }
+            // The identifiers are generated here, one at a time, as a new one
+            // may depend on the ones assigned before it (see
+            // AbstractGlobalIdServiceBean.generateDataFileIdentifier())
+            if (df.getIdentifier() == null || df.getIdentifier().isEmpty()) {
+                idServiceBean.generateIdentifier(df);
+            }
+            toRegister.add(df);
+        }
+        if (toRegister.isEmpty()) {
+            return true;
+        }
+        if (!registeredFiles.isEmpty()) {
+            logger.info("Resuming the registration of the file PIDs of dataset " + dataset.getId() + "; "
+                    + (dataset.getFiles().size() - toRegister.size()) + " files were registered earlier");
+        }
+
+        DatasetLock lock = dataset.getLockFor(DatasetLock.Reason.finalizePublication);
+        Long lockId = lock == null ? null : lock.getId();
+        int alreadyRegistered = dataset.getFiles().size() - toRegister.size();
+        return registrations.newRegistration(idServiceBean).register(toRegister, (files, registered, total) -> {
+            Timestamp registrationTime = getTimestamp();
+            for (DataFile df : files) {
+                df.setGlobalIdCreateTime(registrationTime);
+                df.setIdentifierRegistered(true);
+            }
+            registrations.recordRegisteredFiles(dataset.getId(), files, registrationTime);
+            if (lockId != null) {
+                ctxt.datasets().updateDatasetLockInfo(lockId, "Registering file PIDs: "
+                        + (alreadyRegistered + registered) + " of " + dataset.getFiles().size() + " done");
+            }
+        });
+    }
+
     private void updateFiles(Timestamp updateTime, CommandContext ctxt) throws CommandException {
         for (DataFile dataFile : getDataset().getFiles()) {
             if (dataFile.getPublicationDate() == null) {
@@ -14,6 +14,7 @@ import edu.harvard.iq.dataverse.authorization.Permission;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.dataaccess.DataAccess;
 import edu.harvard.iq.dataverse.dataaccess.StorageIO;
+import edu.harvard.iq.dataverse.dataaccess.TabularColumnStore;
 import edu.harvard.iq.dataverse.engine.command.AbstractVoidCommand;
 import edu.harvard.iq.dataverse.engine.command.CommandContext;
 import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
@@ -101,6 +102,15 @@ public class UningestFileCommand extends AbstractVoidCommand  {
             throw new CommandException(errorMessage, this);
         } 
         
+        // The column-oriented copy of the tabular file is no longer needed: 
+        try {
+            if (dataAccess.isAuxObjectCached(TabularColumnStore.AUX_TAG)) {
+                dataAccess.deleteAuxObject(TabularColumnStore.AUX_TAG);
+            }
+        } catch (IOException ioex) {
+            logger.warning("Failed to delete the column store aux file for " + uningest.getStorageIdentifier() + " (" + ioex.getMessage() + ")");
+        }
+        
         // OK, we have successfully reverted the backup - now let's change 
         // all the attribute of the file that are stored in the database: 
         
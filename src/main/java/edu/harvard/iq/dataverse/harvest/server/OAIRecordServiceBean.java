@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -284,59 +285,84 @@ public class OAIRecordServiceBean implements java.io.Serializable {
     }
 
     public List<OAIRecord> findOaiRecordsBySetName(String setName) {
-        return findOaiRecordsBySetName(setName, null, null);
-    }    
-    
-    public List<OAIRecord> findOaiRecordsBySetName(String setName, Instant from, Instant until) {
-        return findOaiRecordsBySetName(setName, from, until, false);
+        String queryString = "SELECT object(h) from OAIRecord h where h.setName = :setName order by h.globalId";
+        logger.fine("Query: "+queryString);
+
+        TypedQuery<OAIRecord> query = em.createQuery(queryString, OAIRecord.class);
+        query.setParameter("setName", setName == null ? "" : setName);
+
+        try {
+            return query.getResultList();      
+        } catch (Exception ex) {
+            logger.fine("Caught exception; returning null.");
+            return null;
+        }
     }
     
-    public List<OAIRecord> findOaiRecordsNotInThisSet(String setName, Instant from, Instant until) {
-        return findOaiRecordsBySetName(setName, from, until, true);
+    public long countOaiRecordsBySetName(String setName, Instant from, Instant until) {
+        TypedQuery<Long> query = em.createQuery("SELECT count(h) from OAIRecord h where h.setName = :setName"
+                + timeRangeClause(from, until), Long.class);
+        setSetAndTimeRangeParameters(query, setName, from, until);
+        return query.getSingleResult();
     }
-    
-    public List<OAIRecord> findOaiRecordsBySetName(String setName, Instant from, Instant until, boolean excludeSet) {
-                
-        if (setName == null) {
-            setName = "";
-        }
-        
-        String queryString = "SELECT object(h) from OAIRecord h where h.id is not null";
-        if (excludeSet) {
-            queryString += " and h.setName is not null and h.setName != '' and h.setName != :setName";
-        } else {
-            queryString += " and h.setName = :setName";
+
+    /**
+     * Looks up one page of the records in the set, in the order of their
+     * global ids. If afterGlobalId is supplied, the page starts with the
+     * first record following that id (a "keyset" lookup, that costs the
+     * same regardless of how deep into the set the page is); otherwise it
+     * starts at the given offset.
+     */
+    public List<OAIRecord> findOaiRecordsPageBySetName(String setName, Instant from, Instant until, String afterGlobalId, int offset, int maxResults) {
+        String queryString = "SELECT object(h) from OAIRecord h where h.setName = :setName"
+                + timeRangeClause(from, until);
+        if (afterGlobalId != null) {
+            queryString += " and h.globalId > :afterGlobalId";
         }
-        
-        queryString += from != null ? " and h.lastUpdateTime >= :from" : "";
-        queryString += until != null ? " and h.lastUpdateTime<=:until" : "";
         queryString += " order by h.globalId";
+        logger.fine("Query: " + queryString);
 
-        logger.fine("Query: "+queryString);
-        
         TypedQuery<OAIRecord> query = em.createQuery(queryString, OAIRecord.class);
-        if (setName != null) { 
-            query.setParameter("setName",setName); 
+        setSetAndTimeRangeParameters(query, setName, from, until);
+        if (afterGlobalId != null) {
+            query.setParameter("afterGlobalId", afterGlobalId);
+        } else if (offset > 0) {
+            query.setFirstResult(offset);
         }
-        // TODO: review and phase out the use of java.util.Date throughout this service.
-        
-        if (from != null) { 
-            query.setParameter("from",Date.from(from),TemporalType.TIMESTAMP); 
+        return query.setMaxResults(maxResults).getResultList();
+    }
+
+    /**
+     * Finds the records for the given global ids in all the sets other than
+     * the one specified, in the order of their global ids.
+     */
+    public List<OAIRecord> findOaiRecordsInOtherSets(String setName, Collection<String> globalIds) {
+        if (globalIds == null || globalIds.isEmpty()) {
+            return Collections.emptyList();
         }
-        
-        if (until != null) { 
-            Date untilDate = Date.from(until);
-            query.setParameter("until",untilDate,TemporalType.TIMESTAMP); 
+        return em.createQuery("SELECT object(h) from OAIRecord h where h.globalId in :globalIds"
+                + " and h.setName is not null and h.setName != '' and h.setName != :setName"
+                + " order by h.globalId", OAIRecord.class)
+                .setParameter("globalIds", globalIds)
+                .setParameter("setName", setName == null ? "" : setName)
+                .getResultList();
+    }
+
+    private String timeRangeClause(Instant from, Instant until) {
+        return (from != null ? " and h.lastUpdateTime >= :from" : "")
+                + (until != null ? " and h.lastUpdateTime <= :until" : "");
+    }
+
+    private void setSetAndTimeRangeParameters(TypedQuery<?> query, String setName, Instant from, Instant until) {
+        query.setParameter("setName", setName == null ? "" : setName);
+        if (from != null) {
+            query.setParameter("from", Date.from(from), TemporalType.TIMESTAMP);
         }
-                
-        try {
-            return query.getResultList();      
-        } catch (Exception ex) {
-            logger.fine("Caught exception; returning null.");
-            return null;
+        if (until != null) {
+            query.setParameter("until", Date.from(until), TemporalType.TIMESTAMP);
         }
     }
-    
+
     // This method is to only get the records NOT marked as "deleted":
     public List<OAIRecord> findActiveOaiRecordsBySetName(String setName) {
         
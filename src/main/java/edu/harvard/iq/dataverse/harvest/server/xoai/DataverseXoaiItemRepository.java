@@ -13,6 +13,7 @@ import edu.harvard.iq.dataverse.export.ExportService;
 import io.gdcc.spi.export.ExportException;
 import edu.harvard.iq.dataverse.harvest.server.OAIRecord;
 import edu.harvard.iq.dataverse.harvest.server.OAIRecordServiceBean;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.util.StringUtil;
 import io.gdcc.xoai.dataprovider.exceptions.handler.HandlerException;
 import io.gdcc.xoai.dataprovider.exceptions.handler.NoMetadataFormatsException;
@@ -20,11 +21,14 @@ import io.gdcc.xoai.dataprovider.repository.ResultsPage;
 import io.gdcc.xoai.model.oaipmh.ResumptionToken;
 import io.gdcc.xoai.model.oaipmh.results.record.Metadata;
 import io.gdcc.xoai.xml.EchoElement;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.time.Instant;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -41,11 +45,15 @@ public class DataverseXoaiItemRepository implements ItemRepository {
     private final OAIRecordServiceBean recordService;
     private final DatasetServiceBean datasetService;
     private final String serverUrl; 
+    private final ListPositions listPositions = new ListPositions();
+    private final DataverseXoaiMetadataCache metadataCache;
 
     public DataverseXoaiItemRepository (OAIRecordServiceBean recordService, DatasetServiceBean datasetService, String serverUrl) {
         this.recordService = recordService;
         this.datasetService = datasetService;
         this.serverUrl = serverUrl; 
+        this.metadataCache = new DataverseXoaiMetadataCache(
+                JvmSettings.OAI_SERVER_METADATA_CACHE_SIZE.lookupOptional(Long.class).orElse(64L * 1024 * 1024));
     }
     
     @Override
@@ -124,56 +132,74 @@ public class DataverseXoaiItemRepository implements ItemRepository {
         Instant from = resumptionToken.getFrom();
         Instant until = resumptionToken.getUntil();
         
-        boolean hasMore = false; 
+        // If we served the previous page of this list, we know the last 
+        // identifier on it, and can ask the database for the records that
+        // follow it, instead of counting off the offset from the beginning
+        // of the set (which gets slower with every page):
+        String listKey = listKey(setSpec, from, until);
+        ListPosition position = offset > 0 ? listPositions.get(listKey, offset) : null;
         
         logger.fine("calling " + (fullItems ? "getItems" : "getItemIdentifiers")
                 + "; offset=" + offset
                 + ", length=" + maxResponseLength
                 + ", setSpec=" + setSpec
                 + ", from=" + from
-                + ", until=" + until);
+                + ", until=" + until
+                + ", after=" + (position == null ? null : position.lastGlobalId));
 
-        List<OAIRecord> oaiRecords = recordService.findOaiRecordsBySetName(setSpec, from, until);
+        long total = position != null ? position.total : recordService.countOaiRecordsBySetName(setSpec, from, until);
         
         List<DataverseXoaiItem> xoaiItems = new ArrayList<>();
+        
+        if (total == 0) {
+            return new ResultsPage(resumptionToken, false, xoaiItems, 0);
+        }
 
-        if (oaiRecords != null && !oaiRecords.isEmpty()) {
-            logger.fine("total " + oaiRecords.size() + " records returned");
-            
-            for (int i = offset; i < offset + maxResponseLength && i < oaiRecords.size(); i++) {
-                OAIRecord record = oaiRecords.get(i);
-                DataverseXoaiItem xoaiItem = new DataverseXoaiItem(record);
-                
-                if (fullItems) {
-                    // If we are cooking "full" Items (for the ListRecords verb),
-                    // add the metadata to the item object (if not a deleted
-                    // record, if available, etc.):
-                    xoaiItem = addMetadata(xoaiItem, metadataFormat);
-                }
-                
-                xoaiItems.add(xoaiItem);
+        // Looking up one extra record, to find out if there are more to come:
+        List<OAIRecord> oaiRecords = recordService.findOaiRecordsPageBySetName(setSpec, from, until, 
+                position == null ? null : position.lastGlobalId, offset, maxResponseLength + 1);
+        
+        boolean hasMore = oaiRecords.size() > maxResponseLength;
+        
+        for (int i = 0; i < maxResponseLength && i < oaiRecords.size(); i++) {
+            OAIRecord record = oaiRecords.get(i);
+            DataverseXoaiItem xoaiItem = new DataverseXoaiItem(record);
+
+            if (fullItems) {
+                // If we are cooking "full" Items (for the ListRecords verb),
+                // add the metadata to the item object (if not a deleted
+                // record, if available, etc.):
+                xoaiItem = addMetadata(xoaiItem, metadataFormat);
             }
-            
-            // Run a second pass, looking for records in this set that occur
-            // in *other* sets. Then we'll add these multiple sets to the 
-            // formatted output in the header:
-            addExtraSets(xoaiItems, setSpec, from, until);
-            
-            hasMore = offset + maxResponseLength < oaiRecords.size();
-            
-            ResultsPage<DataverseXoaiItem> result = new ResultsPage(resumptionToken, hasMore, xoaiItems, oaiRecords.size());
-            logger.fine("returning result with " + xoaiItems.size() + " items.");
-            return result;
+
+            xoaiItems.add(xoaiItem);
+        }
+
+        // Run a second pass, looking for records on this page that occur
+        // in *other* sets. Then we'll add these multiple sets to the 
+        // formatted output in the header:
+        addExtraSets(xoaiItems, setSpec);
+        
+        if (hasMore && !xoaiItems.isEmpty()) {
+            listPositions.put(listKey, offset + xoaiItems.size(), 
+                    new ListPosition(xoaiItems.get(xoaiItems.size() - 1).getIdentifier(), total));
         }
 
-        return new ResultsPage(resumptionToken, false, xoaiItems, 0);
+        ResultsPage<DataverseXoaiItem> result = new ResultsPage(resumptionToken, hasMore, xoaiItems, total);
+        logger.fine("returning result with " + xoaiItems.size() + " items; metadata cache: "
+                + metadataCache.getCount() + " records, " + metadataCache.getSize() + " bytes, "
+                + metadataCache.getHits() + " hits, " + metadataCache.getMisses() + " misses.");
+        return result;
     }
     
-    private void addExtraSets(Object xoaiItemsList, String setSpec, Instant from, Instant until) {
+    private void addExtraSets(List<DataverseXoaiItem> xoaiItems, String setSpec) {
         
-        List<DataverseXoaiItem> xoaiItems = (List<DataverseXoaiItem>)xoaiItemsList;
+        List<String> globalIds = new ArrayList<>();
+        for (DataverseXoaiItem xoaiItem : xoaiItems) {
+            globalIds.add(xoaiItem.getIdentifier());
+        }
         
-        List<OAIRecord> oaiRecords = recordService.findOaiRecordsNotInThisSet(setSpec, from, until);
+        List<OAIRecord> oaiRecords = recordService.findOaiRecordsInOtherSets(setSpec, globalIds);
         
         if (oaiRecords == null || oaiRecords.isEmpty()) {
             return;
@@ -200,6 +226,55 @@ public class DataverseXoaiItemRepository implements ItemRepository {
         }
     }
     
+    private static String listKey(String setSpec, Instant from, Instant until) {
+        return setSpec + "|" + from + "|" + until;
+    }
+    
+    /**
+     * Where the previous page of a list ended: the identifier of its last 
+     * record, plus the total size of the list, counted when the first page 
+     * was requested (so that it does not need to be recounted on every page).
+     */
+    static class ListPosition {
+        final String lastGlobalId;
+        final long total;
+        
+        ListPosition(String lastGlobalId, long total) {
+            this.lastGlobalId = lastGlobalId;
+            this.total = total;
+        }
+    }
+    
+    /**
+     * The positions at which the recently served pages ended, keyed by the 
+     * list (set and time range) and the offset of the next page - i.e., the 
+     * offset encoded in the resumption token we have handed out with the 
+     * page. The resumption token format is owned by the XOAI library, so 
+     * this is how we get from the offset in the token back to a keyset 
+     * position. The least recently used positions are dropped once there 
+     * are more than MAX_LIST_POSITIONS of them; a token that is no longer
+     * remembered (or was issued by another node) is served by an offset 
+     * query instead.
+     */
+    static class ListPositions {
+        private static final int MAX_LIST_POSITIONS = 1000;
+        
+        private final Map<String, ListPosition> positions = new LinkedHashMap<String, ListPosition>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ListPosition> eldest) {
+                return size() > MAX_LIST_POSITIONS;
+            }
+        };
+        
+        synchronized ListPosition get(String listKey, int offset) {
+            return positions.get(listKey + "|" + offset);
+        }
+        
+        synchronized void put(String listKey, int offset, ListPosition position) {
+            positions.put(listKey + "|" + offset, position);
+        }
+    }
+    
     private DataverseXoaiItem addMetadata(DataverseXoaiItem xoaiItem, MetadataFormat metadataFormat) {
         // This may be a "deleted" record - i.e., a oaiRecord kept in 
         // the OAI set for a dataset that's no longer in this Dataverse. 
@@ -252,10 +327,21 @@ public class DataverseXoaiItemRepository implements ItemRepository {
                     .withAttribute("directApiCall", customDataverseJsonApiUri(dataset.getGlobalId().asString()));
             
         } else {
-            InputStream pregeneratedMetadataStream;
-            pregeneratedMetadataStream = ExportService.getInstance().getExport(dataset, metadataPrefix);
+            // The pre-generated metadata records are served as they are 
+            // stored (XOAI echoes them into the response without parsing);
+            // so we can keep the recently served ones in memory and skip 
+            // the storage read for them:
+            String cacheKey = DataverseXoaiMetadataCache.key(dataset.getId(), metadataPrefix, dataset.getLastExportTime());
+            byte[] pregeneratedMetadata = metadataCache.get(cacheKey);
+            
+            if (pregeneratedMetadata == null) {
+                try (InputStream pregeneratedMetadataStream = ExportService.getInstance().getExport(dataset, metadataPrefix)) {
+                    pregeneratedMetadata = pregeneratedMetadataStream.readAllBytes();
+                }
+                metadataCache.put(cacheKey, pregeneratedMetadata);
+            }
 
-            metadata = Metadata.copyFromStream(pregeneratedMetadataStream);
+            metadata = Metadata.copyFromStream(new ByteArrayInputStream(pregeneratedMetadata));
         }
         return metadata;
     }
@@ -0,0 +1,120 @@
+package edu.harvard.iq.dataverse.harvest.server.xoai;
+
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the recently served pre-generated ("exported") metadata records in
+ * memory, so that the OAI server does not have to read them from the
+ * dataset storage (one remote GET per record, on S3) every time a harvesting
+ * client asks for them.
+ *
+ * The records are keyed by the dataset id, the metadata format and the time
+ * of the last export of the dataset; so a re-export, which updates that time,
+ * makes the old cached copy unreachable. The least recently served records
+ * are dropped once the total size of the cached ones exceeds the limit. The
+ * records cached on a previous day are not served either, so that the DDI
+ * exports get refreshed by the ExportService once an embargo has expired.
+ */
+class DataverseXoaiMetadataCache {
+
+    // No single record may take more than this fraction of the whole cache:
+    private static final int MAX_ENTRY_FRACTION = 10;
+
+    private final long maxSize;
+    private final Supplier<LocalDate> today;
+
+    // Guarded by this:
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static class Entry {
+        final byte[] content;
+        final LocalDate cachedOn;
+
+        Entry(byte[] content, LocalDate cachedOn) {
+            this.content = content;
+            this.cachedOn = cachedOn;
+        }
+    }
+
+    /**
+     * @param maxSize total size, in bytes, of the records to keep; 0 turns
+     * the cache off.
+     */
+    DataverseXoaiMetadataCache(long maxSize) {
+        this(maxSize, LocalDate::now);
+    }
+
+    DataverseXoaiMetadataCache(long maxSize, Supplier<LocalDate> today) {
+        this.maxSize = Math.max(0, maxSize);
+        this.today = today;
+    }
+
+    static String key(Long datasetId, String metadataFormat, Date lastExportTime) {
+        return datasetId + ":" + metadataFormat + ":" + (lastExportTime == null ? "" : lastExportTime.getTime());
+    }
+
+    /**
+     * @return the cached record, or null if it is not cached (any longer)
+     */
+    synchronized byte[] get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.cachedOn.equals(today.get())) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.content;
+    }
+
+    synchronized void put(String key, byte[] content) {
+        if (content.length > maxSize / MAX_ENTRY_FRACTION) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new Entry(content, today.get()));
+        size += content.length;
+
+        Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+        while (size > maxSize && leastRecentlyUsed.hasNext()) {
+            size -= leastRecentlyUsed.next().content.length;
+            leastRecentlyUsed.remove();
+        }
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    synchronized int getCount() {
+        return entries.size();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            size -= removed.content.length;
+        }
+    }
+}
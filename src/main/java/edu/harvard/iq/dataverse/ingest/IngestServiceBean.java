@@ -47,7 +47,8 @@ import edu.harvard.iq.dataverse.dataaccess.DataAccessOption;
 import edu.harvard.iq.dataverse.dataaccess.StorageIO;
 import edu.harvard.iq.dataverse.dataaccess.ImageThumbConverter;
 import edu.harvard.iq.dataverse.dataaccess.S3AccessIO;
-import edu.harvard.iq.dataverse.dataaccess.TabularSubsetGenerator;
+import edu.harvard.iq.dataverse.dataaccess.TabularColumnScanner;
+import edu.harvard.iq.dataverse.dataaccess.TabularColumnStore;
 import edu.harvard.iq.dataverse.datavariable.SummaryStatistic;
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import edu.harvard.iq.dataverse.ingest.metadataextraction.FileMetadataExtractor;
@@ -600,112 +601,76 @@ public class IngestServiceBean {
         return sb.toString();
     }
 
+    /**
+     * Calculates the summary statistics and the UNFs of all the variables in 
+     * the ingested file. 
+     * All the columns are extracted from the generated tab file in a single 
+     * pass (or, for very large files, in as few passes as the available 
+     * memory permits), instead of re-reading the entire file for every 
+     * variable. 
+     */
     public void produceSummaryStatistics(DataFile dataFile, File generatedTabularFile) throws IOException {
         /*
         logger.info("Skipping summary statistics and UNF.");
          */
-        produceDiscreteNumericSummaryStatistics(dataFile, generatedTabularFile); 
-        produceContinuousSummaryStatistics(dataFile, generatedTabularFile);
-        produceCharacterSummaryStatistics(dataFile, generatedTabularFile);
-        
-        recalculateDataFileUNF(dataFile);
-        recalculateDatasetVersionUNF(dataFile.getFileMetadata().getDatasetVersion());
-    }
-    
-    public void produceContinuousSummaryStatistics(DataFile dataFile, File generatedTabularFile) throws IOException {
+        List<DataVariable> vars = dataFile.getDataTable().getDataVariables();
+        TabularColumnScanner scanner = new TabularColumnScanner(generatedTabularFile,
+                dataFile.getDataTable().getVarQuantity().intValue(),
+                dataFile.getDataTable().getCaseQuantity().intValue());
 
-        /* 
-        // quick, but memory-inefficient way:
-        // - this method just loads the entire file-worth of continuous vectors 
-        // into a Double[][] matrix. 
-        //Double[][] variableVectors = subsetContinuousVectors(dataFile);
-        //calculateContinuousSummaryStatistics(dataFile, variableVectors);
-        
-        // A more sophisticated way: this subsets one column at a time, using 
-        // the new optimized subsetting that does not have to read any extra 
-        // bytes from the file to extract the column:
-        
-        TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
-        */
-        
         for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isIntervalContinuous()) {
-                logger.fine("subsetting continuous vector");
+            DataVariable var = vars.get(i);
+            if (var.isIntervalDiscrete() && var.isTypeNumeric()) {
+                scanner.addColumn(i, TabularColumnScanner.COLUMN_TYPE_LONG);
+            } else if (var.isIntervalContinuous()) {
+                if ("float".equals(var.getFormat())) {
+                    scanner.addColumn(i, TabularColumnScanner.COLUMN_TYPE_FLOAT);
+                } else {
+                    scanner.addColumn(i, TabularColumnScanner.COLUMN_TYPE_DOUBLE);
+                }
+            } else if (var.isTypeCharacter()) {
+                scanner.addColumn(i, TabularColumnScanner.COLUMN_TYPE_STRING);
+            }
+        }
 
-                if ("float".equals(dataFile.getDataTable().getDataVariables().get(i).getFormat())) {
-                    Float[] variableVector = TabularSubsetGenerator.subsetFloatVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
-                    logger.fine("Calculating summary statistics on a Float vector;");
-                    calculateContinuousSummaryStatistics(dataFile, i, variableVector);
+        scanner.scan((column, vector) -> {
+            switch (vector.getColumnType()) {
+                case TabularColumnScanner.COLUMN_TYPE_LONG:
+                    // We are discussing calculating the same summary stats for 
+                    // all numerics (the same kind of sumstats that we've been calculating
+                    // for numeric continuous type)  -- L.A. Jul. 2014
+                    logger.fine("Calculating summary statistics on a discrete numeric vector;");
+                    assignContinuousSummaryStatistics(vars.get(column), SumStatCalculator.calculateSummaryStatistics(vector.getLongValues(), vector.getMissingValues()));
                     // calculate the UNF while we are at it:
+                    logger.fine("Calculating UNF on a Long vector");
+                    calculateUNF(dataFile, column, vector.toLongArray());
+                    break;
+                case TabularColumnScanner.COLUMN_TYPE_FLOAT:
+                    logger.fine("Calculating summary statistics on a Float vector;");
+                    assignContinuousSummaryStatistics(vars.get(column), SumStatCalculator.calculateSummaryStatistics(vector.getDoubleValues(), vector.getMissingValues()));
                     logger.fine("Calculating UNF on a Float vector;");
-                    calculateUNF(dataFile, i, variableVector);
-                    variableVector = null; 
-                } else {
-                    Double[] variableVector = TabularSubsetGenerator.subsetDoubleVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
+                    calculateUNF(dataFile, column, vector.toFloatArray());
+                    break;
+                case TabularColumnScanner.COLUMN_TYPE_DOUBLE:
                     logger.fine("Calculating summary statistics on a Double vector;");
-                    calculateContinuousSummaryStatistics(dataFile, i, variableVector);
-                    // calculate the UNF while we are at it:
+                    assignContinuousSummaryStatistics(vars.get(column), SumStatCalculator.calculateSummaryStatistics(vector.getDoubleValues(), vector.getMissingValues()));
                     logger.fine("Calculating UNF on a Double vector;");
-                    calculateUNF(dataFile, i, variableVector);
-                    variableVector = null; 
-                }
-                logger.fine("Done! (continuous);");
-            }
-        }
-    }
-    
-    public void produceDiscreteNumericSummaryStatistics(DataFile dataFile, File generatedTabularFile) throws IOException {
-        
-        //TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
-        
-        for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isIntervalDiscrete()
-                    && dataFile.getDataTable().getDataVariables().get(i).isTypeNumeric()) {
-                logger.fine("subsetting discrete-numeric vector");
-
-                Long[] variableVector = TabularSubsetGenerator.subsetLongVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
-                // We are discussing calculating the same summary stats for 
-                // all numerics (the same kind of sumstats that we've been calculating
-                // for numeric continuous type)  -- L.A. Jul. 2014
-                calculateContinuousSummaryStatistics(dataFile, i, variableVector);
-                // calculate the UNF while we are at it:
-                logger.fine("Calculating UNF on a Long vector");
-                calculateUNF(dataFile, i, variableVector);
-                logger.fine("Done! (discrete numeric)");
-                variableVector = null; 
+                    calculateUNF(dataFile, column, vector.toDoubleArray());
+                    break;
+                default:
+                    /* 
+                        At this point it's still not clear what kinds of summary stats we
+                        want for character types; so for now we are only calculating 
+                        the UNFs. -- L.A. Jul. 2014 
+                    */
+                    logger.fine("Calculating UNF on a String vector");
+                    calculateUNF(dataFile, column, vector.getStringValues());
             }
-        }
-    }
-    
-    public void produceCharacterSummaryStatistics(DataFile dataFile, File generatedTabularFile) throws IOException {
+        });
+        logger.fine("Done! (summary statistics calculated in " + scanner.getPassCount() + " pass(es) through the tab file)");
 
-        /* 
-            At this point it's still not clear what kinds of summary stats we
-            want for character types. Though we are pretty confident we don't 
-            want to keep doing what we used to do in the past, i.e. simply 
-            store the total counts for all the unique values; even if it's a 
-            very long vector, and *every* value in it is unique. (As a result 
-            of this, our Categorical Variable Value table is the single 
-            largest in the production database. With no evidence whatsoever, 
-            that this information is at all useful. 
-                -- L.A. Jul. 2014 
-        
-        TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
-        */
-        
-        for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isTypeCharacter()) {
-
-                logger.fine("subsetting character vector");
-                String[] variableVector = TabularSubsetGenerator.subsetStringVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
-                //calculateCharacterSummaryStatistics(dataFile, i, variableVector);
-                // calculate the UNF while we are at it:
-                logger.fine("Calculating UNF on a String vector");
-                calculateUNF(dataFile, i, variableVector);
-                logger.fine("Done! (character)");
-                variableVector = null; 
-            }
-        }
+        recalculateDataFileUNF(dataFile);
+        recalculateDatasetVersionUNF(dataFile.getFileMetadata().getDatasetVersion());
     }
 
     public static void produceFrequencyStatistics(DataFile dataFile, File generatedTabularFile) throws IOException {
@@ -717,40 +682,43 @@ public class IngestServiceBean {
 
     public static void produceFrequencies( File generatedTabularFile, List<DataVariable> vars) throws IOException {
 
+        if (vars.isEmpty()) {
+            return;
+        }
+
+        int caseQuantity = vars.get(0).getDataTable().getCaseQuantity().intValue();
+        TabularColumnScanner scanner = new TabularColumnScanner(generatedTabularFile, vars.size(), caseQuantity);
+
         for (int i = 0; i < vars.size(); i++) {
+            if (vars.get(i).getCategories().size() > 0) {
+                if (vars.get(i).isTypeNumeric()) {
+                    scanner.addColumn(i, TabularColumnScanner.COLUMN_TYPE_FLOAT);
+                } else {
+                    scanner.addColumn(i, TabularColumnScanner.COLUMN_TYPE_STRING);
+                }
+            }
+        }
 
-            Collection<VariableCategory> cats = vars.get(i).getCategories();
-            int caseQuantity = vars.get(i).getDataTable().getCaseQuantity().intValue();
-            boolean isNumeric = vars.get(i).isTypeNumeric();
-            Object[] variableVector = null;
-            if (cats.size() > 0) {
+        scanner.scan((column, vector) -> {
+            boolean isNumeric = vector.getColumnType() == TabularColumnScanner.COLUMN_TYPE_FLOAT;
+            Object[] variableVector = isNumeric ? vector.toFloatArray() : vector.getStringValues();
+
+            Hashtable<Object, Double> freq = calculateFrequency(variableVector);
+            for (VariableCategory cat : vars.get(column).getCategories()) {
+                Object catValue;
                 if (isNumeric) {
-                    variableVector = TabularSubsetGenerator.subsetFloatVector(new FileInputStream(generatedTabularFile), i, caseQuantity);
-                }
-                else {
-                    variableVector = TabularSubsetGenerator.subsetStringVector(new FileInputStream(generatedTabularFile), i, caseQuantity);
+                    catValue = new Float(cat.getValue());
+                } else {
+                    catValue = cat.getValue();
                 }
-                if (variableVector != null) {
-                    Hashtable<Object, Double> freq = calculateFrequency(variableVector);
-                    for (VariableCategory cat : cats) {
-                        Object catValue;
-                        if (isNumeric) {
-                            catValue = new Float(cat.getValue());
-                        } else {
-                            catValue = cat.getValue();
-                        }
-                        Double numberFreq = freq.get(catValue);
-                        if (numberFreq != null) {
-                            cat.setFrequency(numberFreq);
-                        } else {
-                            cat.setFrequency(0D);
-                        }
-                    }
+                Double numberFreq = freq.get(catValue);
+                if (numberFreq != null) {
+                    cat.setFrequency(numberFreq);
                 } else {
-                    logger.fine("variableVector is null for variable " + vars.get(i).getName());
+                    cat.setFrequency(0D);
                 }
             }
-        }
+        });
     }
 
     public static Hashtable<Object, Double> calculateFrequency( Object[] variableVector) {
@@ -1054,6 +1022,10 @@ public class IngestServiceBean {
                     dataAccess.savePath(Paths.get(tabFile.getAbsolutePath()));
                     // Reset the file size: 
                     dataFile.setFilesize(dataAccess.getSize());
+
+                    // Save the column-oriented copy of the tab file, used to 
+                    // extract variable subsets without reading the entire file: 
+                    saveTabularColumnStore(dataAccess, dataFile, tabFile);
                     
                     dataFile = fileService.save(dataFile);
                     logger.fine("saved data file after updating the size");
@@ -1087,6 +1059,30 @@ public class IngestServiceBean {
         return ingestSuccessful;
     }
 
+    private void saveTabularColumnStore(StorageIO<DataFile> dataAccess, DataFile dataFile, File tabFile) {
+        int varQuantity = dataFile.getDataTable().getVarQuantity().intValue();
+        // (no point in subsetting a file with a single variable)
+        if (varQuantity < 2 || !JvmSettings.INGEST_COLUMN_STORE.lookupOptional(Boolean.class).orElse(true)) {
+            return;
+        }
+
+        File columnStoreFile = null;
+        try {
+            columnStoreFile = TabularColumnStore.generate(tabFile, varQuantity, dataFile.getDataTable().getCaseQuantity());
+            try (InputStream columnStoreStream = new FileInputStream(columnStoreFile)) {
+                dataAccess.saveInputStreamAsAux(columnStoreStream, TabularColumnStore.AUX_TAG, columnStoreFile.length());
+            }
+            logger.fine("Saved the column store as an aux file " + TabularColumnStore.AUX_TAG);
+        } catch (IOException iox) {
+            // Not fatal - the subsets will be extracted from the tab file itself. 
+            logger.warning("Failed to save the column store for the tabular file! " + iox.getMessage());
+        } finally {
+            if (columnStoreFile != null) {
+                columnStoreFile.delete();
+            }
+        }
+    }
+
     private BufferedInputStream openFile(DataFile dataFile) throws IOException {
         BufferedInputStream inputStream;
         StorageIO<DataFile> storageIO = dataFile.getStorageIO();
@@ -1781,11 +1777,6 @@ public class IngestServiceBean {
         return contVarFields;
     }
     
-    private void calculateContinuousSummaryStatistics(DataFile dataFile, int varnum, Number[] dataVector) throws IOException {
-        double[] sumStats = SumStatCalculator.calculateSummaryStatistics(dataVector);
-        assignContinuousSummaryStatistics(dataFile.getDataTable().getDataVariables().get(varnum), sumStats);
-    }
-    
     private void assignContinuousSummaryStatistics(DataVariable variable, double[] sumStats) throws IOException {
         if (sumStats == null || sumStats.length != variableService.summaryStatisticTypes.length) {
             throw new IOException ("Wrong number of summary statistics types calculated! ("+sumStats.length+")");
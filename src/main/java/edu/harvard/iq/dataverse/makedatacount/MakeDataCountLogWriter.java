@@ -0,0 +1,237 @@
+package edu.harvard.iq.dataverse.makedatacount;
+
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.Lock;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+import static edu.harvard.iq.dataverse.makedatacount.MakeDataCountUtil.LOG_HEADER;
+import static javax.ejb.LockType.READ;
+
+/**
+ * Writes the Make Data Count log entries (views and downloads) to the daily
+ * {@code counter_yyyy-MM-dd.log} files, off the request threads.
+ *
+ * The entries are put in a bounded in-memory buffer, and written out by a
+ * single task every {@code dataverse.mdc.log-buffer.flush-interval}
+ * milliseconds, which keeps the log file of the day open (and moves on to
+ * the next one at midnight). Logging an entry never waits: when the buffer
+ * is full - i.e. the file system cannot keep up - the entry is dropped, and
+ * counted as such; so are the entries of a batch that fails to be written.
+ * Entries still in the buffer when the server is shut down are written out;
+ * the ones buffered at a crash are lost. The counts are reported by
+ * {@link #getStatus()} (see the admin/makeDataCount/logWriter API).
+ *
+ * Setting {@code dataverse.mdc.log-buffer.size} to 0 turns the buffering off:
+ * every entry is then written out right away, on the request thread, as
+ * earlier versions did.
+ */
+@Singleton
+@Lock(READ)
+public class MakeDataCountLogWriter {
+
+    private static final Logger logger = Logger.getLogger(MakeDataCountLogWriter.class.getCanonicalName());
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    private int bufferSize;
+    private long flushInterval;
+
+    private BlockingQueue<LogEntry> buffer;
+    private ScheduledFuture<?> flushTask;
+
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    // The most entries the buffer has held at once:
+    private final AtomicLong highWaterMark = new AtomicLong();
+
+    private final Object writeLock = new Object();
+    // Guarded by writeLock:
+    private String openLogDir;
+    private String openFileName;
+    private Path openPath;
+    private Writer openWriter;
+
+    private static class LogEntry {
+        final String logDir;
+        final String fileName;
+        final String line;
+
+        LogEntry(String logDir, String fileName, String line) {
+            this.logDir = logDir;
+            this.fileName = fileName;
+            this.line = line;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        bufferSize = Math.max(0, JvmSettings.MDC_LOG_BUFFER_SIZE.lookupOptional(Integer.class).orElse(10000));
+        flushInterval = Math.max(1, JvmSettings.MDC_LOG_BUFFER_FLUSH_INTERVAL.lookupOptional(Long.class).orElse(1000L));
+        if (bufferSize > 0) {
+            buffer = new ArrayBlockingQueue<>(bufferSize);
+            if (scheduler != null) {
+                flushTask = scheduler.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        flush();
+        synchronized (writeLock) {
+            closeLogFile();
+        }
+    }
+
+    /**
+     * Logs an entry, in the log file of the day, in {@code logDir}.
+     */
+    public void log(String logDir, String line) {
+        LogEntry entry = new LogEntry(logDir, getLogFileName(new Date()), line);
+        if (buffer == null) {
+            synchronized (writeLock) {
+                write(Collections.singletonList(entry));
+            }
+            return;
+        }
+        if (!buffer.offer(entry)) {
+            long dropped = droppedCount.incrementAndGet();
+            if (dropped == 1 || dropped % 1000 == 0) {
+                logger.warning("Make Data Count log buffer full; " + dropped + " entries dropped so far");
+            }
+            return;
+        }
+        int pending = buffer.size();
+        if (pending > highWaterMark.get()) {
+            highWaterMark.accumulateAndGet(pending, Math::max);
+        }
+    }
+
+    /**
+     * Writes out the entries in the buffer.
+     */
+    public void flush() {
+        if (buffer == null) {
+            return;
+        }
+        synchronized (writeLock) {
+            List<LogEntry> entries = new ArrayList<>();
+            buffer.drainTo(entries);
+            if (!entries.isEmpty()) {
+                write(entries);
+            }
+        }
+    }
+
+    // Guarded by writeLock:
+    private void write(List<LogEntry> entries) {
+        try {
+            for (LogEntry entry : entries) {
+                openLogFile(entry.logDir, entry.fileName).write(entry.line);
+            }
+            openWriter.flush();
+            writtenCount.addAndGet(entries.size());
+        } catch (Exception e) {
+            // (some of the entries may have made it to the file, but there
+            // is no telling which)
+            long dropped = droppedCount.addAndGet(entries.size());
+            logger.log(Level.SEVERE, "Error saving " + entries.size() + " Make Data Count log entries (" + dropped
+                    + " entries dropped so far): " + e.getMessage());
+            closeLogFile();
+        }
+    }
+
+    // Guarded by writeLock. The file system is only looked at when the file
+    // rolls over (to the one of the next day), not for every entry:
+    private Writer openLogFile(String logDir, String fileName) throws IOException {
+        if (openWriter != null && fileName.equals(openFileName) && logDir.equals(openLogDir)) {
+            return openWriter;
+        }
+        closeLogFile();
+        Path path = Paths.get(logDir, fileName);
+        Files.createDirectories(path.getParent());
+        boolean isNew = !Files.exists(path);
+        openWriter = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        openPath = path;
+        openLogDir = logDir;
+        openFileName = fileName;
+        if (isNew) {
+            openWriter.write(LOG_HEADER);
+        }
+        return openWriter;
+    }
+
+    // Guarded by writeLock:
+    private void closeLogFile() {
+        if (openWriter != null) {
+            try {
+                openWriter.close();
+            } catch (IOException e) {
+                logger.warning("Error closing Make Data Count log file " + openPath + ": " + e.getMessage());
+            }
+            openWriter = null;
+            openPath = null;
+            openLogDir = null;
+            openFileName = null;
+        }
+    }
+
+    public static String getLogFileName(Date date) {
+        return "counter_" + new SimpleDateFormat("yyyy-MM-dd").format(date) + ".log";
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getPendingCount() {
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    public long getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    public JsonObjectBuilder getStatus() {
+        return Json.createObjectBuilder()
+                .add("bufferSize", bufferSize)
+                .add("flushInterval", flushInterval)
+                .add("written", getWrittenCount())
+                .add("dropped", getDroppedCount())
+                .add("pending", getPendingCount())
+                .add("highWaterMark", getHighWaterMark());
+    }
+}
@@ -9,8 +9,6 @@ import edu.harvard.iq.dataverse.DataFile;
 import edu.harvard.iq.dataverse.Dataset;
 import edu.harvard.iq.dataverse.DatasetVersion;
 import edu.harvard.iq.dataverse.DataverseRequestServiceBean;
-import edu.harvard.iq.dataverse.batch.util.LoggingUtil;
-import static edu.harvard.iq.dataverse.makedatacount.MakeDataCountUtil.LOG_HEADER;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
@@ -37,14 +35,21 @@ public class MakeDataCountLoggingServiceBean {
     @EJB
     SystemConfig systemConfig;
 
+    @EJB
+    MakeDataCountLogWriter logWriter;
+
+    /**
+     * Queues the entry for the log file of the day; see
+     * {@link MakeDataCountLogWriter}.
+     */
     public void logEntry(MakeDataCountEntry entry) {
         if(systemConfig.getMDCLogPath() != null) {
-            LoggingUtil.saveLogFileAppendWithHeader(entry.toString(), systemConfig.getMDCLogPath(), getLogFileName() , LOG_HEADER);
+            logWriter.log(systemConfig.getMDCLogPath(), entry.toString());
         }
     }
     
     public String getLogFileName() {
-        return "counter_"+new SimpleDateFormat("yyyy-MM-dd").format(new Timestamp(new Date().getTime()))+".log";
+        return MakeDataCountLogWriter.getLogFileName(new Date());
     }
     
     public static class MakeDataCountEntry {
@@ -0,0 +1,326 @@
+package edu.harvard.iq.dataverse.metrics;
+
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Stateless;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+
+/**
+ * Maintains the rollup tables - pre-aggregated counts - that the downloads,
+ * files-by-type, and the dataverses, datasets and files (published to a
+ * month) metrics are computed from, instead of aggregating the whole
+ * guestbookresponse, datafile, datasetversion and filemetadata tables on
+ * every metrics request.
+ *
+ * The rollups are updated incrementally, every 15 minutes (on the timer
+ * server): only the guestbook responses added since the last update are
+ * added to the download counts; only the datasets modified since the last
+ * update, or whose files have changed since (as recorded in the
+ * metricsfiletypeschanged table, by triggers on datafile), have their file
+ * type counts recomputed; and only the datasets whose released versions
+ * have changed, and the dataverses whose publication date has (as recorded
+ * in the metricspublicationschanged table, by triggers on datasetversion,
+ * filemetadata and dvobject), have their publications recomputed. Until a
+ * rollup has been built for the first time, the metrics are computed the
+ * old way.
+ *
+ * As ids are handed out before the transactions inserting them commit, a
+ * guestbook response may show up after some with a higher id have been
+ * counted. So the downloads "watermark" (the id up to which all the
+ * responses have been counted) is kept {@link #OVERLAP_MILLIS} behind the
+ * responses counted; the ones counted above it are remembered (in the
+ * metricsdownloadscounted table), so as not to count them twice. The
+ * guestbook responses deleted (along with a destroyed file or dataset, for
+ * example) are recorded by a trigger, in the metricsdownloadsdeleted table,
+ * and taken off the counts by the next update.
+ *
+ * The rollups can also be rebuilt from scratch, via the admin API.
+ */
+@Stateless
+public class MetricsRollupServiceBean {
+
+    private static final Logger logger = Logger.getLogger(MetricsRollupServiceBean.class.getCanonicalName());
+
+    public static final String DOWNLOADS_ROLLUP = "downloads";
+    public static final String FILE_TYPES_ROLLUP = "filetypes";
+    public static final String PUBLICATIONS_ROLLUP = "publications";
+
+    // Changes made this long before an update are looked at again by the
+    // next one, in case they were committed after it had started (that is,
+    // this is assumed to be longer than any transaction lasts):
+    private static final long OVERLAP_MILLIS = 5 * 60 * 1000;
+
+    // The datasets whose files (or released versions) have changed are
+    // recomputed this many at a time:
+    private static final int CHANGED_DATASETS_BATCH_SIZE = 1000;
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    private EntityManager em;
+    @EJB
+    SystemConfig systemConfig;
+
+    @Schedule(hour = "*", minute = "*/15", persistent = false)
+    public void updateRollupsTimer() {
+        if (systemConfig.isTimerServer()) {
+            updateRollups(false);
+        }
+    }
+
+    /**
+     * @param rebuild if true, the rollups are emptied and rebuilt from
+     * scratch, rather than brought up to date incrementally.
+     */
+    public JsonObjectBuilder updateRollups(boolean rebuild) {
+        // The download counts are added up, so two updates must never run
+        // at the same time (the lock is released at the end of the transaction):
+        Boolean locked = (Boolean) em.createNativeQuery("SELECT pg_try_advisory_xact_lock(hashtext('metricsrollup'))").getSingleResult();
+        if (!Boolean.TRUE.equals(locked)) {
+            logger.info("Metrics rollups are already being updated; skipping.");
+            return Json.createObjectBuilder().add("skipped", true).add("rollups", getStatus());
+        }
+        if (rebuild) {
+            em.createNativeQuery("DELETE FROM metricsdownloadsrollup").executeUpdate();
+            em.createNativeQuery("DELETE FROM metricsdownloadscounted").executeUpdate();
+            em.createNativeQuery("DELETE FROM metricsdownloadsdeleted").executeUpdate();
+            em.createNativeQuery("DELETE FROM metricsfiletypesrollup").executeUpdate();
+            em.createNativeQuery("DELETE FROM metricsfiletypeschanged").executeUpdate();
+            em.createNativeQuery("DELETE FROM metricspublicationsrollup").executeUpdate();
+            em.createNativeQuery("DELETE FROM metricspublicationschanged").executeUpdate();
+            em.createNativeQuery("DELETE FROM metricsrollupwatermark").executeUpdate();
+        }
+        long start = System.currentTimeMillis();
+        int downloads = updateDownloadsRollup();
+        int datasets = updateFileTypesRollup();
+        int published = updatePublicationsRollup();
+        logger.info("Metrics rollups updated in " + (System.currentTimeMillis() - start) + " ms: " + downloads
+                + " download rows updated, " + datasets + " modified datasets, " + published + " republished datasets and dataverses.");
+        return Json.createObjectBuilder()
+                .add("downloadRowsUpdated", downloads)
+                .add("modifiedDatasets", datasets)
+                .add("republishedObjects", published)
+                .add("rollups", getStatus());
+    }
+
+    private int updateDownloadsRollup() {
+        Object[] watermark = findWatermark(DOWNLOADS_ROLLUP);
+        long lastId = watermark == null || watermark[0] == null ? 0 : ((Number) watermark[0]).longValue();
+
+        // The responses deleted since the last update are taken off the
+        // counts - if they had been counted: i.e., if they are below the
+        // watermark, or recorded as counted above it. (Only the rows taken
+        // off metricsdownloadsdeleted here are processed; the ones committed
+        // meanwhile are left to the next update.)
+        int removed = em.createNativeQuery("WITH deleted AS (\n"
+                + "    DELETE FROM metricsdownloadsdeleted RETURNING guestbookresponse_id, month, dataset_id),\n"
+                + "counted AS (\n"
+                + "    SELECT d.month, d.dataset_id, count(*) AS count FROM deleted d\n"
+                + "    WHERE d.guestbookresponse_id <= ?1 OR EXISTS (SELECT 1 FROM metricsdownloadscounted c WHERE c.guestbookresponse_id = d.guestbookresponse_id)\n"
+                + "    GROUP BY d.month, d.dataset_id)\n"
+                + "UPDATE metricsdownloadsrollup r SET count = r.count - counted.count FROM counted\n"
+                + "WHERE r.month = counted.month AND r.dataset_id = counted.dataset_id")
+                .setParameter(1, lastId)
+                .executeUpdate();
+        // (including the ones of the datasets that have been destroyed
+        // before their responses could be recorded as deleted)
+        removed += em.createNativeQuery("DELETE FROM metricsdownloadsrollup r"
+                + " WHERE r.count <= 0 OR NOT EXISTS (SELECT 1 FROM dvobject WHERE id = r.dataset_id)")
+                .executeUpdate();
+        logger.fine("updated " + removed + " download rollup rows with deleted guestbook responses");
+
+        // The responses above the watermark that have not been counted yet
+        // are recorded as counted, and counted, in one statement - so both
+        // see the same responses, however many are being committed meanwhile:
+        int added = em.createNativeQuery("WITH newlycounted AS (\n"
+                + "    INSERT INTO metricsdownloadscounted (guestbookresponse_id, countedtime)\n"
+                + "    SELECT g.id, CAST(now() AS TIMESTAMP) FROM guestbookresponse g\n"
+                + "    WHERE g.id > ?1 AND NOT EXISTS (SELECT 1 FROM metricsdownloadscounted c WHERE c.guestbookresponse_id = g.id)\n"
+                + "    RETURNING guestbookresponse_id)\n"
+                + "INSERT INTO metricsdownloadsrollup (month, dataset_id, count)\n"
+                + "SELECT COALESCE(to_char(g.responsetime, 'YYYY-MM'), ''), g.dataset_id, count(g.id)\n"
+                + "FROM guestbookresponse g JOIN newlycounted n ON n.guestbookresponse_id = g.id\n"
+                + "GROUP BY COALESCE(to_char(g.responsetime, 'YYYY-MM'), ''), g.dataset_id\n"
+                + "ON CONFLICT (month, dataset_id) DO UPDATE SET count = metricsdownloadsrollup.count + EXCLUDED.count")
+                .setParameter(1, lastId)
+                .executeUpdate();
+        logger.fine("updated " + added + " download rollup rows with guestbook responses above " + lastId);
+
+        // Any response with a lower id than one counted more than
+        // OVERLAP_MILLIS ago has been committed (and counted) by now:
+        Number settledId = (Number) em.createNativeQuery("SELECT max(guestbookresponse_id) FROM metricsdownloadscounted"
+                + " WHERE countedtime < CAST(now() AS TIMESTAMP) - ?1 * INTERVAL '1 millisecond'")
+                .setParameter(1, OVERLAP_MILLIS)
+                .getSingleResult();
+        if (settledId != null && settledId.longValue() > lastId) {
+            lastId = settledId.longValue();
+            em.createNativeQuery("DELETE FROM metricsdownloadscounted WHERE guestbookresponse_id <= ?1")
+                    .setParameter(1, lastId)
+                    .executeUpdate();
+        }
+        saveWatermark(DOWNLOADS_ROLLUP, lastId, null);
+        return added + removed;
+    }
+
+    private int updateFileTypesRollup() {
+        Object[] watermark = findWatermark(FILE_TYPES_ROLLUP);
+        Timestamp modifiedSince = watermark == null || watermark[1] == null ? new Timestamp(0) : (Timestamp) watermark[1];
+        Timestamp now = (Timestamp) em.createNativeQuery("SELECT CAST(now() AS TIMESTAMP)").getSingleResult();
+
+        String modifiedDatasets = "SELECT id FROM dvobject WHERE dtype = 'Dataset' AND modificationtime > ?1";
+
+        int datasets = ((Number) em.createNativeQuery("SELECT count(*) FROM (" + modifiedDatasets + ") AS modified")
+                .setParameter(1, modifiedSince).getSingleResult()).intValue();
+        if (datasets > 0) {
+            recomputeFileTypes(modifiedDatasets, modifiedSince);
+        }
+
+        // The datasets whose files have changed without the dataset being
+        // modified (on ingest, for instance), as recorded by the triggers on
+        // the datafile table. (Only the rows taken off here are processed;
+        // the ones committed meanwhile are left to the next update.)
+        List<Object> changed = em.createNativeQuery("DELETE FROM metricsfiletypeschanged RETURNING dataset_id").getResultList();
+        for (int i = 0; i < changed.size(); i += CHANGED_DATASETS_BATCH_SIZE) {
+            String changedDatasets = changed.subList(i, Math.min(i + CHANGED_DATASETS_BATCH_SIZE, changed.size())).stream()
+                    .map(id -> String.valueOf(((Number) id).longValue()))
+                    .collect(Collectors.joining(","));
+            recomputeFileTypes(changedDatasets, null);
+        }
+        datasets += changed.size();
+
+        // The datasets that have been deleted since:
+        em.createNativeQuery("DELETE FROM metricsfiletypesrollup r WHERE NOT EXISTS (SELECT 1 FROM dvobject WHERE id = r.dataset_id)")
+                .executeUpdate();
+
+        saveWatermark(FILE_TYPES_ROLLUP, null, new Timestamp(now.getTime() - OVERLAP_MILLIS));
+        return datasets;
+    }
+
+    // Recomputes the file type counts of the datasets with the given ids (a
+    // list of ids, or a query, with at most one parameter):
+    private void recomputeFileTypes(String datasetIds, Object parameter) {
+        Query delete = em.createNativeQuery("DELETE FROM metricsfiletypesrollup WHERE dataset_id IN (" + datasetIds + ")");
+        Query insert = em.createNativeQuery("INSERT INTO metricsfiletypesrollup (dataset_id, contenttype, count, size)\n"
+                + "SELECT ob.owner_id, df.contenttype, count(df.id), coalesce(sum(df.filesize), 0)\n"
+                + "FROM datafile df JOIN dvobject ob ON ob.id = df.id\n"
+                + "WHERE ob.owner_id IN (" + datasetIds + ")\n"
+                + "GROUP BY ob.owner_id, df.contenttype");
+        if (parameter != null) {
+            delete.setParameter(1, parameter);
+            insert.setParameter(1, parameter);
+        }
+        delete.executeUpdate();
+        insert.executeUpdate();
+    }
+
+    private int updatePublicationsRollup() {
+        boolean built = findWatermark(PUBLICATIONS_ROLLUP) != null;
+
+        // The datasets and dataverses changed since the last update, as
+        // recorded by the triggers on datasetversion, filemetadata and
+        // dvobject. (Only the rows taken off here are processed; the ones
+        // committed meanwhile are left to the next update.)
+        List<Object> changed = em.createNativeQuery("DELETE FROM metricspublicationschanged RETURNING dvobject_id").getResultList();
+        int republished;
+        if (!built) {
+            // (all of them, the first time)
+            recomputePublications("SELECT id FROM dvobject WHERE dtype IN ('Dataset', 'Dataverse')");
+            republished = ((Number) em.createNativeQuery("SELECT count(DISTINCT dvobject_id) FROM metricspublicationsrollup")
+                    .getSingleResult()).intValue();
+        } else {
+            for (int i = 0; i < changed.size(); i += CHANGED_DATASETS_BATCH_SIZE) {
+                String changedObjects = changed.subList(i, Math.min(i + CHANGED_DATASETS_BATCH_SIZE, changed.size())).stream()
+                        .map(id -> String.valueOf(((Number) id).longValue()))
+                        .collect(Collectors.joining(","));
+                recomputePublications(changedObjects);
+            }
+            republished = changed.size();
+        }
+
+        // The datasets and dataverses that have been deleted since:
+        em.createNativeQuery("DELETE FROM metricspublicationsrollup r WHERE NOT EXISTS (SELECT 1 FROM dvobject WHERE id = r.dvobject_id)")
+                .executeUpdate();
+
+        saveWatermark(PUBLICATIONS_ROLLUP, null, null);
+        return republished;
+    }
+
+    // Recomputes the publications of the datasets and dataverses with the
+    // given ids (a list of ids, or a query):
+    private void recomputePublications(String dvObjectIds) {
+        em.createNativeQuery("DELETE FROM metricspublicationsrollup WHERE dvobject_id IN (" + dvObjectIds + ")").executeUpdate();
+        // The latest version released in each month (by version number, as
+        // the metrics computed from datasetversion do), and the files of all
+        // the versions released that month:
+        em.createNativeQuery("INSERT INTO metricspublicationsrollup (dvobject_id, month, dtype, harvested, datasetversion_id, files, versionfiles)\n"
+                + "SELECT DISTINCT ON (v.dataset_id, v.month) v.dataset_id, v.month, 'Dataset', v.harvested, v.id, v.files,\n"
+                + "    sum(v.files) OVER (PARTITION BY v.dataset_id, v.month)\n"
+                + "FROM (\n"
+                + "    SELECT dv.id, dv.dataset_id, dv.versionnumber, dv.minorversionnumber,\n"
+                // (the harvested datasets do not all have a release time)
+                + "        to_char(CASE WHEN ds.harvestingclient_id IS NULL THEN COALESCE(dv.releasetime, dv.createtime) ELSE dv.createtime END, 'YYYY-MM') AS month,\n"
+                + "        ds.harvestingclient_id IS NOT NULL AS harvested,\n"
+                + "        (SELECT count(*) FROM filemetadata fm WHERE fm.datasetversion_id = dv.id) AS files\n"
+                + "    FROM datasetversion dv JOIN dataset ds ON ds.id = dv.dataset_id\n"
+                + "    WHERE dv.versionstate = 'RELEASED' AND dv.dataset_id IN (" + dvObjectIds + ")) AS v\n"
+                + "ORDER BY v.dataset_id, v.month, v.versionnumber DESC NULLS LAST, v.minorversionnumber DESC NULLS LAST")
+                .executeUpdate();
+        em.createNativeQuery("INSERT INTO metricspublicationsrollup (dvobject_id, month, dtype, harvested, datasetversion_id, files, versionfiles)\n"
+                + "SELECT id, to_char(publicationdate, 'YYYY-MM'), 'Dataverse', false, NULL, 0, 0 FROM dvobject\n"
+                + "WHERE dtype = 'Dataverse' AND publicationdate IS NOT NULL AND id IN (" + dvObjectIds + ")")
+                .executeUpdate();
+    }
+
+    /**
+     * @return true once the named rollup has been built (and can be used
+     * in place of the aggregation queries on the source tables).
+     */
+    public boolean isRollupAvailable(String name) {
+        return findWatermark(name) != null;
+    }
+
+    public JsonObjectBuilder getStatus() {
+        JsonObjectBuilder status = Json.createObjectBuilder();
+        for (String name : new String[] { DOWNLOADS_ROLLUP, FILE_TYPES_ROLLUP, PUBLICATIONS_ROLLUP }) {
+            Object[] watermark = findWatermark(name);
+            JsonObjectBuilder rollup = Json.createObjectBuilder().add("available", watermark != null);
+            if (watermark != null) {
+                if (watermark[0] != null) {
+                    rollup.add("lastId", ((Number) watermark[0]).longValue());
+                }
+                if (watermark[1] != null) {
+                    rollup.add("modifiedSince", ((Timestamp) watermark[1]).toInstant().toString());
+                }
+                rollup.add("updateTime", ((Timestamp) watermark[2]).toInstant().toString());
+            }
+            status.add(name, rollup);
+        }
+        return status;
+    }
+
+    // lastid, lasttime, updatetime - or null if the rollup has never been built
+    private Object[] findWatermark(String name) {
+        List<Object[]> result = em.createNativeQuery("SELECT lastid, lasttime, updatetime FROM metricsrollupwatermark WHERE name = ?1")
+                .setParameter(1, name)
+                .getResultList();
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    private void saveWatermark(String name, Long lastId, Timestamp lastTime) {
+        em.createNativeQuery("INSERT INTO metricsrollupwatermark (name, lastid, lasttime, updatetime) VALUES (?1, ?2, ?3, ?4)\n"
+                + "ON CONFLICT (name) DO UPDATE SET lastid = EXCLUDED.lastid, lasttime = EXCLUDED.lasttime, updatetime = EXCLUDED.updatetime")
+                .setParameter(1, name)
+                .setParameter(2, lastId)
+                .setParameter(3, lastTime)
+                .setParameter(4, new Timestamp(new Date().getTime()))
+                .executeUpdate();
+    }
+}
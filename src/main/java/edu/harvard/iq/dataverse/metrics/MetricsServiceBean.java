@@ -7,7 +7,9 @@ import edu.harvard.iq.dataverse.makedatacount.DatasetMetrics;
 import edu.harvard.iq.dataverse.makedatacount.MakeDataCountUtil.MetricType;
 
 import static edu.harvard.iq.dataverse.metrics.MetricsUtil.*;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.util.SystemConfig;
+import edu.harvard.iq.dataverse.util.WorkerPools;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.sql.Timestamp;
@@ -21,10 +23,20 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
@@ -48,18 +60,37 @@ public class MetricsServiceBean implements Serializable {
     private EntityManager em;
     @EJB
     SystemConfig systemConfig;
+    @EJB
+    MetricsRollupServiceBean rollupService;
+    @Resource
+    SessionContext sessionContext;
+    @EJB
+    WorkerPools workerPools;
+
+    // The metrics being computed on this server right now, by cache key:
+    private static final ConcurrentHashMap<String, CompletableFuture<String>> metricsInProgress = new ConcurrentHashMap<>();
 
     /** Dataverses */
 
     
     public JsonArray getDataversesTimeSeries(UriInfo uriInfo, Dataverse d) {
-        Query query = em.createNativeQuery(""
+        Query query;
+        if (isPublicationsRollupAvailable()) {
+            query = em.createNativeQuery(""
+                + "select month, count(dvobject_id)\n"
+                + "from metricspublicationsrollup\n"
+                + "where dtype = 'Dataverse'\n"
+                + ((d == null) ? "" : "and dvobject_id in (" + getCommaSeparatedIdStringForSubtree(d, "Dataverse") + ")\n")
+                + "group by month order by month;");
+        } else {
+            query = em.createNativeQuery(""
                 + "select distinct to_char(date_trunc('month', dvobject.publicationdate),'YYYY-MM') as month, count(date_trunc('month', dvobject.publicationdate))\n"
                 + "from dataverse\n"
                 + "join dvobject on dvobject.id = dataverse.id\n"
                 + "where dvobject.publicationdate is not null\n"
                 + ((d == null) ? "" : "and dvobject.id in (" + getCommaSeparatedIdStringForSubtree(d, "Dataverse") + ")\n")
                 + "group by  date_trunc('month', publicationdate);");
+        }
         logger.log(Level.FINE, "Metric query: {0}", query);
         List<Object[]> results = query.getResultList();
         return MetricsUtil.timeSeriesToJson(results);
@@ -70,14 +101,25 @@ public class MetricsServiceBean implements Serializable {
      * @param d
      */
     public long dataversesToMonth(String yyyymm, Dataverse d) {
-        Query query = em.createNativeQuery(""
+        Query query;
+        if (isPublicationsRollupAvailable()) {
+            query = em.createNativeQuery(""
+                + "select count(dvobject_id)\n"
+                + "from metricspublicationsrollup\n"
+                + "where dtype = 'Dataverse'\n"
+                + ((d == null) ? "" : "and dvobject_id in (select id from dvobject where owner_id in (" + getCommaSeparatedIdStringForSubtree(d, "Dataverse") + "))\n")
+                + "and month <= '" + yyyymm + "';"
+            );
+        } else {
+            query = em.createNativeQuery(""
                 + "select count(dvobject.id)\n"
                 + "from dataverse\n"
                 + "join dvobject on dvobject.id = dataverse.id\n"
                 + "where dvobject.publicationdate is not null\n"
                 + ((d == null) ? "" : "and dvobject.owner_id in (" + getCommaSeparatedIdStringForSubtree(d, "Dataverse") + ")\n")
                 + "and date_trunc('month', publicationdate) <=  to_date('" + yyyymm + "','YYYY-MM');"
-        );
+            );
+        }
         logger.log(Level.FINE, "Metric query: {0}", query);
 
         return (long) query.getSingleResult();
@@ -131,6 +173,22 @@ public class MetricsServiceBean implements Serializable {
 
     
     public JsonArray getDatasetsTimeSeries(UriInfo uriInfo, String dataLocation, Dataverse d) {
+        if (isPublicationsRollupAvailable()) {
+            // (the month each dataset was first released)
+            Query query = em.createNativeQuery(""
+                + "select month, count(dvobject_id)\n"
+                + "from (\n"
+                + "select min(month) as month, dvobject_id\n"
+                + "from metricspublicationsrollup\n"
+                + "where dtype = 'Dataset'\n"
+                + getHarvestedLine(dataLocation)
+                + ((d == null) ? "" : "and dvobject_id in (" + getCommaSeparatedIdStringForSubtree(d, "Dataset") + ")\n")
+                + "group by dvobject_id) as subq group by subq.month order by month;"
+            );
+            logger.log(Level.FINE, "Metric query: {0}", query);
+            List<Object[]> results = query.getResultList();
+            return MetricsUtil.timeSeriesToJson(results);
+        }
         Query query = em.createNativeQuery(                
                 "select distinct date, count(dataset_id)\n"
                 + "from (\n"
@@ -156,6 +214,18 @@ public class MetricsServiceBean implements Serializable {
      * @param d
      */
     public long datasetsToMonth(String yyyymm, String dataLocation, Dataverse d) {
+        if (isPublicationsRollupAvailable()) {
+            Query query = em.createNativeQuery(""
+                + "select count(distinct dvobject_id)\n"
+                + "from metricspublicationsrollup\n"
+                + "where dtype = 'Dataset'\n"
+                + getHarvestedLine(dataLocation)
+                + ((d == null) ? "" : "and dvobject_id in (" + getCommaSeparatedIdStringForSubtree(d, "Dataset") + ")\n")
+                + "and month <= '" + yyyymm + "';"
+            );
+            logger.log(Level.FINE, "Metric query: {0}", query);
+            return (long) query.getSingleResult();
+        }
         String dataLocationLine = "(date_trunc('month', releasetime) <=  to_date('" + yyyymm + "','YYYY-MM') and dataset.harvestingclient_id IS NULL)\n";
 
         if (!DATA_LOCATION_LOCAL.equals(dataLocation)) { // Default api state is DATA_LOCATION_LOCAL
@@ -203,6 +273,29 @@ public class MetricsServiceBean implements Serializable {
     }
 
     public List<Object[]> datasetsBySubjectToMonth(String yyyymm, String dataLocation, Dataverse d) {
+        if (isPublicationsRollupAvailable()) {
+            // The latest version of each dataset released by then:
+            Query query = em.createNativeQuery(""
+                + "WITH latest AS (\n"
+                + "    SELECT DISTINCT ON (dvobject_id) datasetversion_id FROM metricspublicationsrollup\n"
+                + "    WHERE dtype = 'Dataset'\n"
+                + "    " + getHarvestedLine(dataLocation)
+                + ((d == null) ? "" : "    AND dvobject_id in (" + getCommaSeparatedIdStringForSubtree(d, "Dataset") + ")\n")
+                + "    AND month <= '" + yyyymm + "'\n"
+                + "    ORDER BY dvobject_id, month DESC)\n"
+                + "SELECT strvalue, count(datasetfield.datasetversion_id)\n"
+                + "FROM datasetfield_controlledvocabularyvalue \n"
+                + "JOIN controlledvocabularyvalue ON controlledvocabularyvalue.id = datasetfield_controlledvocabularyvalue.controlledvocabularyvalues_id\n"
+                + "JOIN datasetfield ON datasetfield.id = datasetfield_controlledvocabularyvalue.datasetfield_id\n"
+                + "JOIN datasetfieldtype ON datasetfieldtype.id = controlledvocabularyvalue.datasetfieldtype_id\n"
+                + "JOIN latest ON latest.datasetversion_id = datasetfield.datasetversion_id\n"
+                + "WHERE datasetfieldtype.name = 'subject'\n"
+                + "GROUP BY strvalue\n"
+                + "ORDER BY count(datasetfield.datasetversion_id) desc;"
+            );
+            logger.log(Level.FINE, "Metric query: {0}", query);
+            return query.getResultList();
+        }
         // The SQL code below selects the local, non-harvested dataset versions:
         // A published local datasets may have more than one released version!
         // So that's why we have to jump through some extra hoops below
@@ -296,6 +389,19 @@ public class MetricsServiceBean implements Serializable {
      * @param d
      */
     public JsonArray filesTimeSeries(Dataverse d) {
+        if (isPublicationsRollupAvailable()) {
+            // (the files of each released version, in the month it was released)
+            Query query = em.createNativeQuery(""
+                + "select month, CAST(sum(versionfiles) AS BIGINT)\n"
+                + "from metricspublicationsrollup\n"
+                + "where dtype = 'Dataset' and not harvested\n"
+                + ((d == null) ? "" : "and dvobject_id in (" + getCommaSeparatedIdStringForSubtree(d, "Dataset") + ")\n")
+                + "group by month order by month;"
+            );
+            logger.log(Level.FINE, "Metric query: {0}", query);
+            List<Object[]> results = query.getResultList();
+            return MetricsUtil.timeSeriesToJson(results);
+        }
         Query query = em.createNativeQuery(
                 "select distinct date, count(id)\n"
                         + "from (\n"
@@ -318,6 +424,21 @@ public class MetricsServiceBean implements Serializable {
      * @param d
      */
     public long filesToMonth(String yyyymm, Dataverse d) {
+        if (isPublicationsRollupAvailable()) {
+            // (the files of the latest version of each dataset released by then)
+            Query query = em.createNativeQuery(""
+                + "select CAST(coalesce(sum(files), 0) AS BIGINT)\n"
+                + "from (\n"
+                + "select distinct on (dvobject_id) files\n"
+                + "from metricspublicationsrollup\n"
+                + "where dtype = 'Dataset' and not harvested\n"
+                + ((d == null) ? "" : "and dvobject_id in (" + getCommaSeparatedIdStringForSubtree(d, "Dataset") + ")\n")
+                + "and month <= '" + yyyymm + "'\n"
+                + "order by dvobject_id, month desc) as latest;"
+            );
+            logger.log(Level.FINE, "Metric query: {0}", query);
+            return (long) query.getSingleResult();
+        }
         Query query = em.createNativeQuery(""
                 + "select count(*)\n"
                 + "from filemetadata\n"
@@ -367,11 +488,19 @@ public class MetricsServiceBean implements Serializable {
     public JsonArray filesByType(Dataverse d) {
         // SELECT DISTINCT df.contenttype, sum(df.filesize) FROM datafile df, dvObject ob where ob.id = df.id and dob.owner_id< group by df.contenttype
         // ToDo - published only?
-        Query query = em.createNativeQuery("SELECT DISTINCT df.contenttype, count(df.id), coalesce(sum(df.filesize), 0) "
+        Query query;
+        if (rollupService.isRollupAvailable(MetricsRollupServiceBean.FILE_TYPES_ROLLUP)) {
+            query = em.createNativeQuery("SELECT contenttype, CAST(sum(count) AS BIGINT), coalesce(sum(size), 0) "
+                    + " FROM metricsfiletypesrollup"
+                    + ((d == null) ? "" : " where dataset_id in (" + getCommaSeparatedIdStringForSubtree(d, "Dataset") + ")\n")
+                    + " group by contenttype;");
+        } else {
+            query = em.createNativeQuery("SELECT DISTINCT df.contenttype, count(df.id), coalesce(sum(df.filesize), 0) "
                 + " FROM DataFile df, DvObject ob"
                 + " where ob.id = df.id "
                 + ((d == null) ? "" : "and ob.owner_id in (" + getCommaSeparatedIdStringForSubtree(d, "Dataset") + ")\n")
                 + "group by df.contenttype;");
+        }
         JsonArrayBuilder jab = Json.createArrayBuilder();
         try {
             List<Object[]> results = query.getResultList();
@@ -421,11 +550,20 @@ public class MetricsServiceBean implements Serializable {
 
         // Counts historic guestbook records without date as occurring in the month
         // prior to the first dated counts
-        Query query = em.createNativeQuery(""
+        Query query;
+        if (rollupService.isRollupAvailable(MetricsRollupServiceBean.DOWNLOADS_ROLLUP)) {
+            query = em.createNativeQuery(""
+                + "select COALESCE(NULLIF(month, ''),'" + earliest + "') as date, CAST(sum(count) AS BIGINT)\n"
+                + "from metricsdownloadsrollup\n"
+                + ((d == null) ? "" : "where dataset_id in (" + getCommaSeparatedIdStringForSubtree(d, "Dataset") + ")")
+                + " group by COALESCE(NULLIF(month, ''),'" + earliest + "') order by COALESCE(NULLIF(month, ''),'" + earliest + "');");
+        } else {
+            query = em.createNativeQuery(""
                 + "select  distinct COALESCE(to_char(responsetime, 'YYYY-MM'),'" + earliest + "') as date, count(id)\n"
                 + "from guestbookresponse\n"
                 + ((d == null) ? "" : "where dataset_id in (" + getCommaSeparatedIdStringForSubtree(d, "Dataset") + ")")
                 + " group by COALESCE(to_char(responsetime, 'YYYY-MM'),'" + earliest + "') order by  COALESCE(to_char(responsetime, 'YYYY-MM'),'" + earliest + "');");
+        }
 
         logger.log(Level.FINE, "Metric query: {0}", query);
         List<Object[]> results = query.getResultList();
@@ -452,6 +590,16 @@ public class MetricsServiceBean implements Serializable {
             Date dateQueried = yyyymmFormat.parse(yyyymm);
 
             if (!dateQueried.before(earliestDate)) {
+                if (rollupService.isRollupAvailable(MetricsRollupServiceBean.DOWNLOADS_ROLLUP)) {
+                    Query query = em.createNativeQuery(""
+                        + "select CAST(coalesce(sum(count), 0) AS BIGINT)\n"
+                        + "from metricsdownloadsrollup\n"
+                        + "where (month <= '" + yyyymm + "' or month = '')\n" // includes historic guestbook records without date
+                        + ((d==null) ? ";": "AND dataset_id in (" + getCommaSeparatedIdStringForSubtree(d, "Dataset") + ");")
+                    );
+                    logger.log(Level.FINE, "Metric query: {0}", query);
+                    return (long) query.getSingleResult();
+                }
                 Query query = em.createNativeQuery(""
                         + "select count(id)\n"
                         + "from guestbookresponse\n"
@@ -598,31 +746,124 @@ public class MetricsServiceBean implements Serializable {
 
     /** Helper functions for metric caching */
 
-    public String returnUnexpiredCacheDayBased(String metricName, String days, String dataLocation, Dataverse d) {
-        Metric queriedMetric = getMetric(metricName, dataLocation, days, d);
+    /**
+     * How a cached metric expires - see the doWeQueryAgain* methods below.
+     */
+    public enum CacheExpiry {
+        DAY_BASED, MONTHLY, ALL_TIME
+    }
+
+    /**
+     * Returns the cached value of the metric, computing (and caching) it
+     * first if it is not cached or has expired.
+     *
+     * Only one computation of a given metric runs at a time on this server:
+     * the requests that need the value while it is being computed wait for
+     * that computation (for at most {@code dataverse.metrics.cache.wait-timeout}
+     * seconds), instead of running the same query again. And if the
+     * cached value expired no longer than
+     * {@code dataverse.metrics.cache.max-staleness} minutes ago, it is
+     * returned right away, while a fresh one is computed in the background.
+     *
+     * @param computation produces the JSON value of the metric
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public String getCachedOrCompute(CacheExpiry expiry, String metricName, String dayString, String dataLocation, Dataverse d, Supplier<String> computation) {
+        Metric cached = getMetric(metricName, dataLocation, dayString, d);
+        if (cached != null && !doWeQueryAgain(expiry, cached)) {
+            return cached.getValueJson();
+        }
 
-        if (!doWeQueryAgainDayBased(queriedMetric)) {
-            return queriedMetric.getValueJson();
+        String key = metricName + "|" + dayString + "|" + dataLocation + "|" + (d == null ? "" : d.getId());
+        MetricsServiceBean self = sessionContext.getBusinessObject(MetricsServiceBean.class);
+
+        if (cached != null && isWithinMaxStaleness(expiry, cached)) {
+            CompletableFuture<String> refresh = new CompletableFuture<>();
+            if (metricsInProgress.putIfAbsent(key, refresh) == null) {
+                logger.fine("Serving stale metric " + key + " while refreshing it in the background");
+                workerPools.get(WorkerPools.Pool.METRICS_REFRESH).submit(() -> {
+                    try {
+                        compute(self, key, refresh, metricName, dayString, dataLocation, d, computation);
+                    } catch (RuntimeException ex) {
+                        logger.log(Level.WARNING, "Failed to refresh metric " + key, ex);
+                    }
+                });
+            }
+            return cached.getValueJson();
         }
-        return null;
-    }
 
-    public String returnUnexpiredCacheMonthly(String metricName, String yyyymm, String dataLocation, Dataverse d) {
-        Metric queriedMetric = getMetric(metricName, dataLocation, yyyymm, d);
+        CompletableFuture<String> ours = new CompletableFuture<>();
+        CompletableFuture<String> running = metricsInProgress.putIfAbsent(key, ours);
+        if (running == null) {
+            return compute(self, key, ours, metricName, dayString, dataLocation, d, computation);
+        }
+        logger.fine("Waiting for metric " + key + " being computed by another request");
+        long waitTimeout = JvmSettings.METRICS_CACHE_WAIT_TIMEOUT.lookupOptional(Long.class).orElse(300L);
+        try {
+            return running.get(waitTimeout, TimeUnit.SECONDS);
+        } catch (TimeoutException ex) {
+            // Only this request gives up: the computation is left running (and
+            // in metricsInProgress, so that no other request starts the same
+            // one) until it is done.
+            if (cached != null) {
+                logger.warning("Timed out after " + waitTimeout + " seconds waiting for metric " + key + "; serving the expired value");
+                return cached.getValueJson();
+            }
+            throw new IllegalStateException("Timed out after " + waitTimeout + " seconds waiting for metric " + key, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for metric " + key, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException("Failed to compute metric " + key, ex.getCause());
+        }
+    }
 
-        if (!doWeQueryAgainMonthly(queriedMetric)) {
-            return queriedMetric.getValueJson();
+    private String compute(MetricsServiceBean self, String key, CompletableFuture<String> result, String metricName, String dayString, String dataLocation, Dataverse d, Supplier<String> computation) {
+        try {
+            String value = computation.get();
+            self.save(new Metric(metricName, dayString, dataLocation, d, value));
+            result.complete(value);
+            return value;
+        } catch (RuntimeException ex) {
+            result.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            metricsInProgress.remove(key, result);
         }
-        return null;
     }
 
-    public String returnUnexpiredCacheAllTime(String metricName, String dataLocation, Dataverse d) {
-        Metric queriedMetric = getMetric(metricName, dataLocation, null, d); // MAD: not passing a date
+    private boolean doWeQueryAgain(CacheExpiry expiry, Metric queriedMetric) {
+        switch (expiry) {
+            case DAY_BASED:
+                return doWeQueryAgainDayBased(queriedMetric);
+            case MONTHLY:
+                return doWeQueryAgainMonthly(queriedMetric);
+            default:
+                return doWeQueryAgainAllTime(queriedMetric);
+        }
+    }
 
-        if (!doWeQueryAgainAllTime(queriedMetric)) {
-            return queriedMetric.getValueJson();
+    // Whether the (expired) metric expired recently enough to still be served
+    // while it is being recomputed
+    private boolean isWithinMaxStaleness(CacheExpiry expiry, Metric queriedMetric) {
+        long maxStaleness = JvmSettings.METRICS_CACHE_MAX_STALENESS.lookupOptional(Long.class).orElse(1440L);
+        if (maxStaleness <= 0) {
+            return false;
         }
-        return null;
+        LocalDateTime lastCalled = LocalDateTime.ofInstant(queriedMetric.getLastCalledDate().toInstant(), ZoneId.systemDefault());
+        LocalDateTime expiredAt;
+        if (expiry == CacheExpiry.DAY_BASED) {
+            expiredAt = lastCalled.toLocalDate().plusDays(1).atStartOfDay();
+        } else if (expiry == CacheExpiry.MONTHLY && !MetricsUtil.getCurrentMonth().equals(queriedMetric.getDateString())) {
+            // a past month, last queried while it was still in progress:
+            expiredAt = LocalDate.parse(queriedMetric.getDateString() + "-01").plusMonths(1).atStartOfDay();
+        } else {
+            expiredAt = lastCalled.plusMinutes(systemConfig.getMetricsCacheTimeoutMinutes());
+        }
+        return !LocalDateTime.now().isAfter(expiredAt.plusMinutes(maxStaleness));
     }
 
     // For day based metrics we check to see if the metric has been pulled today
@@ -744,6 +985,19 @@ public class MetricsServiceBean implements Serializable {
      * @param dtype - type of object to return 'Dataverse' or 'Dataset'
      * @return - list of objects of specified type included in the subtree (includes parent dataverse if dtype is 'Dataverse')
      */
+    private boolean isPublicationsRollupAvailable() {
+        return rollupService.isRollupAvailable(MetricsRollupServiceBean.PUBLICATIONS_ROLLUP);
+    }
+
+    // The rollup rows of the datasets of the given location (of all of them,
+    // if it has not been validated, as with the datasets time series):
+    private static String getHarvestedLine(String dataLocation) {
+        if (DATA_LOCATION_LOCAL.equals(dataLocation)) {
+            return "and not harvested\n";
+        }
+        return DATA_LOCATION_REMOTE.equals(dataLocation) ? "and harvested\n" : "";
+    }
+
     private String getCommaSeparatedIdStringForSubtree(Dataverse d, String dtype) {
         /* Currently limited to returning published items (non-null publicationdate)
          * To support queries of draft/other states, this method would have to be updated
@@ -0,0 +1,170 @@
+package edu.harvard.iq.dataverse.pidproviders;
+
+import com.google.common.util.concurrent.RateLimiter;
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.DatasetVersion;
+import edu.harvard.iq.dataverse.GlobalIdServiceBean;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Makes the PIDs of the files of a dataset public, several files at a time.
+ *
+ * At most {@code parallelism} registrations are under way at once, and, if
+ * a rate is given, no more than that many are started per second (for the
+ * PID provider's sake). A registration that fails is tried again, after 1
+ * second, then 2, 4..., up to {@code retries} times. Once a file has failed
+ * for good, no more registrations are started; the ones under way are
+ * waited for.
+ *
+ * The files registered are handed to a {@link Listener}, in batches, on the
+ * thread that called {@link #register(List, Listener)} - so that, e.g., they
+ * can be recorded in the database as they get registered.
+ *
+ * The metadata sent to the PID provider (the title, description and year of
+ * the file; the authors, contacts, producers and PID of its dataset) is
+ * loaded on that thread too, before any registration starts, so that the
+ * entities are only read - and not lazily loaded - by the threads running
+ * the registrations.
+ */
+public class FilePidRegistration {
+
+    private static final Logger logger = Logger.getLogger(FilePidRegistration.class.getCanonicalName());
+
+    // The registered files are handed to the listener this many at a time:
+    static final int LISTENER_BATCH_SIZE = 100;
+
+    public interface Listener {
+        /**
+         * @param files the files just registered
+         * @param registered the number of files registered so far
+         * @param total the number of files to register
+         */
+        void registered(List<DataFile> files, int registered, int total);
+    }
+
+    private final GlobalIdServiceBean idServiceBean;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final RateLimiter rateLimiter;
+    private final int retries;
+    private final long backoffMillis;
+
+    /**
+     * @param idServiceBean the PID provider
+     * @param executor runs the registrations
+     * @param parallelism the most registrations under way at once
+     * @param permitsPerSecond the most registrations started per second; or
+     * 0, for no limit
+     * @param retries how many times to try a failed registration again
+     * @param backoffMillis how long to wait before the first retry; doubled
+     * before each of the next ones
+     */
+    public FilePidRegistration(GlobalIdServiceBean idServiceBean, ExecutorService executor, int parallelism,
+            double permitsPerSecond, int retries, long backoffMillis) {
+        this.idServiceBean = idServiceBean;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.rateLimiter = permitsPerSecond > 0 ? RateLimiter.create(permitsPerSecond) : null;
+        this.retries = Math.max(0, retries);
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * @return true if all the files have been registered
+     */
+    public boolean register(List<DataFile> files, Listener listener) throws InterruptedException {
+        loadMetadata(files);
+        CompletionService<DataFile> completionService = new ExecutorCompletionService<>(executor);
+        Iterator<DataFile> toSubmit = files.iterator();
+        int running = 0;
+        int registered = 0;
+        boolean failed = false;
+        List<DataFile> batch = new ArrayList<>();
+
+        while (running < parallelism && toSubmit.hasNext()) {
+            submit(completionService, toSubmit.next());
+            running++;
+        }
+        while (running > 0) {
+            DataFile dataFile = null;
+            try {
+                dataFile = completionService.take().get();
+            } catch (ExecutionException e) {
+                logger.log(Level.WARNING, "Failed to register a file PID", e.getCause());
+            }
+            running--;
+            if (dataFile == null) {
+                failed = true;
+            } else {
+                batch.add(dataFile);
+                registered++;
+            }
+            if (!failed && toSubmit.hasNext()) {
+                submit(completionService, toSubmit.next());
+                running++;
+            }
+            if (!batch.isEmpty() && (batch.size() >= LISTENER_BATCH_SIZE || running == 0)) {
+                listener.registered(batch, registered, files.size());
+                batch = new ArrayList<>();
+            }
+        }
+        return !failed;
+    }
+
+    // Loads what the providers read to build the metadata of a file (see,
+    // e.g., AbstractGlobalIdServiceBean.getUpdateMetadata() and
+    // DOIDataCiteRegisterService.getMetadataFromDvObject()):
+    private static void loadMetadata(List<DataFile> files) {
+        Set<Dataset> datasets = new HashSet<>();
+        for (DataFile dataFile : files) {
+            // (the latest file metadata, with the label and description)
+            dataFile.getDescription();
+            Dataset dataset = dataFile.getOwner();
+            if (dataset != null && datasets.add(dataset)) {
+                dataset.getGlobalId();
+                DatasetVersion latestVersion = dataset.getLatestVersion();
+                latestVersion.getAuthorsStr();
+                latestVersion.getDatasetAuthors();
+                latestVersion.getDatasetContacts();
+                latestVersion.getDatasetProducers();
+            }
+        }
+    }
+
+    private void submit(CompletionService<DataFile> completionService, DataFile dataFile) {
+        completionService.submit(() -> registerWithRetries(dataFile) ? dataFile : null);
+    }
+
+    private boolean registerWithRetries(DataFile dataFile) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            if (rateLimiter != null) {
+                rateLimiter.acquire();
+            }
+            logger.log(Level.FINE, "registering global id for file {0}", dataFile.getId());
+            try {
+                //A false return value indicates a failure in calling the service
+                if (idServiceBean.publicizeIdentifier(dataFile)) {
+                    return true;
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to register the PID of file " + dataFile.getId(), e);
+            }
+            if (attempt >= retries) {
+                logger.warning("Giving up registering the PID of file " + dataFile.getId() + " after " + (attempt + 1) + " attempts");
+                return false;
+            }
+            Thread.sleep(backoffMillis << attempt);
+        }
+    }
+}
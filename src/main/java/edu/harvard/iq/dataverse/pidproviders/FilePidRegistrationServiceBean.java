@@ -0,0 +1,129 @@
+package edu.harvard.iq.dataverse.pidproviders;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.GlobalIdServiceBean;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.WorkerPools;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.ejb.EJB;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import static javax.ejb.TransactionAttributeType.REQUIRES_NEW;
+
+/**
+ * Registers the PIDs of the files of a dataset being published (see
+ * {@link FilePidRegistration}), and keeps track of the files registered, in
+ * the {@code filepidregistration} table, so that a publication that has
+ * failed part way through can pick up where it stopped.
+ */
+@Stateless
+public class FilePidRegistrationServiceBean {
+
+    // Before the first retry of a failed registration; doubled for each next one:
+    private static final long BACKOFF_MILLIS = 1000;
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    private EntityManager em;
+
+    @EJB
+    WorkerPools workerPools;
+
+    /**
+     * A registration of file PIDs with the given provider, set up with
+     * the {@code dataverse.pid.file-registration.*} settings.
+     */
+    public FilePidRegistration newRegistration(GlobalIdServiceBean idServiceBean) {
+        int threads = workerPools.capToPool(WorkerPools.Pool.PID_REGISTRATION,
+                JvmSettings.PID_FILE_REGISTRATION_THREADS.lookupOptional(Integer.class).orElse(4),
+                JvmSettings.PID_FILE_REGISTRATION_THREADS.getScopedKey());
+        int retries = JvmSettings.PID_FILE_REGISTRATION_RETRIES.lookupOptional(Integer.class).orElse(3);
+        String provider = idServiceBean.getProviderInformation().get(0).toLowerCase();
+        double rate = JvmSettings.PID_FILE_REGISTRATION_RATE_FOR.lookupOptional(Double.class, provider).orElse(0.0);
+        return new FilePidRegistration(idServiceBean, workerPools.get(WorkerPools.Pool.PID_REGISTRATION), threads, rate, retries, BACKOFF_MILLIS);
+    }
+
+    /**
+     * A file registered by an earlier, unfinished publication of its dataset.
+     */
+    public static class RegisteredFile {
+        private final String protocol;
+        private final String authority;
+        private final String identifier;
+        private final Timestamp registrationTime;
+
+        RegisteredFile(String protocol, String authority, String identifier, Timestamp registrationTime) {
+            this.protocol = protocol;
+            this.authority = authority;
+            this.identifier = identifier;
+            this.registrationTime = registrationTime;
+        }
+
+        public String getProtocol() {
+            return protocol;
+        }
+
+        public String getAuthority() {
+            return authority;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public Timestamp getRegistrationTime() {
+            return registrationTime;
+        }
+    }
+
+    /**
+     * @return the files of the dataset registered by earlier, unfinished
+     * publications, by file id
+     */
+    public Map<Long, RegisteredFile> findRegisteredFiles(Long datasetId) {
+        List<Object[]> rows = em.createNativeQuery("SELECT datafile_id, protocol, authority, identifier, registrationtime"
+                + " FROM filepidregistration WHERE dataset_id = ?1")
+                .setParameter(1, datasetId)
+                .getResultList();
+        Map<Long, RegisteredFile> registeredFiles = new HashMap<>();
+        for (Object[] row : rows) {
+            registeredFiles.put(((Number) row[0]).longValue(),
+                    new RegisteredFile((String) row[1], (String) row[2], (String) row[3], (Timestamp) row[4]));
+        }
+        return registeredFiles;
+    }
+
+    /**
+     * Records the files as registered, in a transaction of its own, so that
+     * the record outlives a failure of the publication.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void recordRegisteredFiles(Long datasetId, List<DataFile> files, Timestamp registrationTime) {
+        for (DataFile file : files) {
+            em.createNativeQuery("INSERT INTO filepidregistration (datafile_id, dataset_id, protocol, authority, identifier, registrationtime)"
+                    + " VALUES (?1, ?2, ?3, ?4, ?5, ?6) ON CONFLICT (datafile_id) DO NOTHING")
+                    .setParameter(1, file.getId())
+                    .setParameter(2, datasetId)
+                    .setParameter(3, file.getProtocol())
+                    .setParameter(4, file.getAuthority())
+                    .setParameter(5, file.getIdentifier())
+                    .setParameter(6, registrationTime)
+                    .executeUpdate();
+        }
+    }
+
+    /**
+     * Forgets the files registered; to be called once the publication of the
+     * dataset has been completed (in the same transaction).
+     */
+    public void clearRegisteredFiles(Long datasetId) {
+        em.createNativeQuery("DELETE FROM filepidregistration WHERE dataset_id = ?1")
+                .setParameter(1, datasetId)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,158 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Live progress of a full (or partitioned) reindex started via
+ * {@link IndexBatchServiceBean#indexAllOrSubset(long, long, boolean)}. The
+ * counters are updated concurrently by the indexing workers, and can be read
+ * at any time while the reindex is running, or after it has finished.
+ */
+public class IndexBatchProgress {
+
+    private final long numPartitions;
+    private final long partitionId;
+    private final boolean skipIndexed;
+    private final int numWorkers;
+    private final long startTime = System.currentTimeMillis();
+
+    private volatile long dataverseCount;
+    private volatile long datasetCount;
+    private final AtomicLong dataversesDone = new AtomicLong();
+    private final AtomicLong dataversesFailed = new AtomicLong();
+    private final AtomicLong datasetsDone = new AtomicLong();
+    private final AtomicLong datasetsFailed = new AtomicLong();
+
+    private volatile long endTime = -1;
+
+    public IndexBatchProgress(long numPartitions, long partitionId, boolean skipIndexed, int numWorkers) {
+        this.numPartitions = numPartitions;
+        this.partitionId = partitionId;
+        this.skipIndexed = skipIndexed;
+        this.numWorkers = numWorkers;
+    }
+
+    public long getNumPartitions() {
+        return numPartitions;
+    }
+
+    public long getPartitionId() {
+        return partitionId;
+    }
+
+    public boolean isSkipIndexed() {
+        return skipIndexed;
+    }
+
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+    public void setDataverseCount(long dataverseCount) {
+        this.dataverseCount = dataverseCount;
+    }
+
+    public void setDatasetCount(long datasetCount) {
+        this.datasetCount = datasetCount;
+    }
+
+    public long getDataverseCount() {
+        return dataverseCount;
+    }
+
+    public long getDatasetCount() {
+        return datasetCount;
+    }
+
+    public void dataverseIndexed(boolean success) {
+        dataversesDone.incrementAndGet();
+        if (!success) {
+            dataversesFailed.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of datasets processed so far, including this one
+     */
+    public long datasetIndexed(boolean success) {
+        if (!success) {
+            datasetsFailed.incrementAndGet();
+        }
+        return datasetsDone.incrementAndGet();
+    }
+
+    public long getDataversesDone() {
+        return dataversesDone.get();
+    }
+
+    public long getDataversesFailed() {
+        return dataversesFailed.get();
+    }
+
+    public long getDatasetsDone() {
+        return datasetsDone.get();
+    }
+
+    public long getDatasetsFailed() {
+        return datasetsFailed.get();
+    }
+
+    public void finish() {
+        if (endTime < 0) {
+            endTime = System.currentTimeMillis();
+        }
+    }
+
+    public boolean isFinished() {
+        return endTime > 0;
+    }
+
+    public long getElapsedMillis() {
+        return (isFinished() ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * @return datasets indexed per second since the start of the reindex
+     */
+    public double getRate() {
+        long elapsed = getElapsedMillis();
+        return elapsed > 0 ? getDatasetsDone() * 1000.0 / elapsed : 0.0;
+    }
+
+    /**
+     * @return estimated number of seconds until all the datasets are indexed,
+     * or -1 if it cannot be estimated yet
+     */
+    public long getEtaSeconds() {
+        if (isFinished()) {
+            return 0;
+        }
+        double rate = getRate();
+        if (rate <= 0) {
+            return -1;
+        }
+        return Math.round((datasetCount - getDatasetsDone()) / rate);
+    }
+
+    public JsonObjectBuilder toJson() {
+        return Json.createObjectBuilder()
+                .add("numPartitions", numPartitions)
+                .add("partitionId", partitionId)
+                .add("skipIndexed", skipIndexed)
+                .add("workers", numWorkers)
+                .add("status", isFinished() ? "finished" : "running")
+                .add("dataverses", Json.createObjectBuilder()
+                        .add("total", dataverseCount)
+                        .add("done", getDataversesDone())
+                        .add("failed", getDataversesFailed()))
+                .add("datasets", Json.createObjectBuilder()
+                        .add("total", datasetCount)
+                        .add("done", getDatasetsDone())
+                        .add("failed", getDatasetsFailed()))
+                .add("elapsedSeconds", getElapsedMillis() / 1000)
+                .add("datasetsPerSecond", Math.round(getRate() * 100) / 100.0)
+                .add("etaSeconds", getEtaSeconds());
+    }
+}
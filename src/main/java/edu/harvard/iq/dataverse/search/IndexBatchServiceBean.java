@@ -5,13 +5,23 @@ import edu.harvard.iq.dataverse.DatasetServiceBean;
 import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DataverseServiceBean;
 import edu.harvard.iq.dataverse.DvObjectServiceBean;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.util.SystemConfig;
+import edu.harvard.iq.dataverse.util.WorkerPools;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.ejb.AsyncResult;
@@ -48,7 +58,60 @@ public class IndexBatchServiceBean {
     DvObjectServiceBean dvObjectService;
     @EJB
     SystemConfig systemConfig;
-    
+    @EJB
+    SolrIndexWriteBuffer solrIndexWriteBuffer;
+
+    @EJB
+    WorkerPools workerPools;
+
+    // Progress of the most recent "index all" on this node; there can be only 
+    // one running at a time (per node), see claimReindex().
+    private static final AtomicReference<IndexBatchProgress> reindexProgress = new AtomicReference<>();
+
+    /**
+     * @return the progress of the full reindex running on this node, or of 
+     * the last one that has finished; null if none has been started since 
+     * the application was deployed.
+     */
+    public IndexBatchProgress getReindexProgress() {
+        return reindexProgress.get();
+    }
+
+    public boolean isReindexRunning() {
+        IndexBatchProgress progress = reindexProgress.get();
+        return progress != null && !progress.isFinished();
+    }
+
+    /**
+     * Claims the right to run a full reindex on this node: atomically, so
+     * that of two requests made at the same time only one gets to start it.
+     *
+     * @return the progress of the reindex to run, to be passed to
+     * {@link #indexAllOrSubset(IndexBatchProgress)}; or null if a reindex
+     * is already running
+     */
+    public IndexBatchProgress claimReindex(long numPartitions, long partitionId, boolean skipIndexed) {
+        int numWorkers = Math.max(1, JvmSettings.SOLR_REINDEX_WORKERS.lookupOptional(Integer.class).orElse(4));
+        IndexBatchProgress progress = new IndexBatchProgress(numPartitions, partitionId, skipIndexed, numWorkers);
+        while (true) {
+            IndexBatchProgress current = reindexProgress.get();
+            if (current != null && !current.isFinished()) {
+                return null;
+            }
+            if (reindexProgress.compareAndSet(current, progress)) {
+                return progress;
+            }
+        }
+    }
+
+    /**
+     * Gives up a reindex claimed with {@link #claimReindex(long, long, boolean)}
+     * that could not be started, so that the next request gets to try again.
+     */
+    public void releaseReindex(IndexBatchProgress progress) {
+        progress.finish();
+    }
+
     @Asynchronous
     public Future<JsonObjectBuilder> indexStatus() {
         JsonObjectBuilder response = Json.createObjectBuilder();
@@ -74,6 +137,10 @@ public class IndexBatchServiceBean {
                 .add("contentInIndexButNotDatabase", contentInSolrButNotDatabase)
                 .add("permissionsInDatabaseButStaleInOrMissingFromIndex", permissionsInDatabaseButStaleInOrMissingFromSolr)
                 .add("permissionsInIndexButNotDatabase", permissionsInSolrButNotDatabase);
+        IndexBatchProgress progress = reindexProgress.get();
+        if (progress != null) {
+            data.add("reindexProgress", progress.toJson());
+        }
 
         logger.log(Level.INFO, "contentInDatabaseButStaleInOrMissingFromIndex: {0}", contentInDatabaseButStaleInOrMissingFromSolr);
         logger.log(Level.INFO, "contentInIndexButNotDatabase: {0}", contentInSolrButNotDatabase);
@@ -118,12 +185,24 @@ public class IndexBatchServiceBean {
         return new AsyncResult<>(response);
     }
 
+    /**
+     * Runs the reindex claimed with {@link #claimReindex(long, long, boolean)}.
+     */
+    @Asynchronous
+    public Future<JsonObjectBuilder> indexAllOrSubset(IndexBatchProgress progress) {
+        JsonObjectBuilder response = Json.createObjectBuilder();
+        runReindex(progress);
+        String status = "indexAllOrSubset has begun";
+        response.add("responseFromIndexAllOrSubset", status);
+        return new AsyncResult<>(response);
+    }
+
     public JsonObjectBuilder indexAllOrSubsetPreview(long numPartitions, long partitionId, boolean skipIndexed) {
         JsonObjectBuilder response = Json.createObjectBuilder();
         JsonObjectBuilder previewOfWorkload = Json.createObjectBuilder();
         JsonObjectBuilder dvContainerIds = Json.createObjectBuilder();
         
-        List<Long> dataverseIds = dataverseService.findDataverseIdsForIndexing(skipIndexed);
+        List<Long> dataverseIds = dataverseService.findDataverseIdsForIndexing(numPartitions, partitionId, skipIndexed);
         
         JsonArrayBuilder dataverseIdsJson = Json.createArrayBuilder();
         //List<Dataverse> dataverses = dataverseService.findAllOrSubset(numPartitions, partitionId, skipIndexed);
@@ -148,6 +227,28 @@ public class IndexBatchServiceBean {
     }
 
     public Future<String> indexAllOrSubset(long numPartitions, long partitionId, boolean skipIndexed) {
+        IndexBatchProgress progress = claimReindex(numPartitions, partitionId, skipIndexed);
+        if (progress == null) {
+            String status = "A reindex is already running on this server.";
+            logger.info(status);
+            return new AsyncResult<>(status);
+        }
+        return runReindex(progress);
+    }
+
+    private Future<String> runReindex(IndexBatchProgress progress) {
+        try {
+            return indexAll(progress);
+        } finally {
+            // (so that a reindex that has failed does not block the next ones)
+            progress.finish();
+        }
+    }
+
+    private Future<String> indexAll(IndexBatchProgress progress) {
+        long numPartitions = progress.getNumPartitions();
+        long partitionId = progress.getPartitionId();
+        boolean skipIndexed = progress.isSkipIndexed();
         long indexAllTimeBegin = System.currentTimeMillis();
         String status;
 
@@ -179,38 +280,66 @@ public class IndexBatchServiceBean {
             resultOfClearingIndexTimes = "Solr index was not cleared before indexing.";
         }
 
-        // List<Dataverse> dataverses = dataverseService.findAllOrSubset(numPartitions, partitionId, skipIndexed);
-        // Note: no support for "partitions" in this experimental branch. 
-        // The method below returns the ids of all the unindexed dataverses.
-        List<Long> dataverseIds = dataverseIds = dataverseService.findDataverseIdsForIndexing(skipIndexed);
-        
+        int numWorkers = progress.getNumWorkers();
+
+        List<Long> dataverseIds = dataverseService.findDataverseIdsForIndexing(numPartitions, partitionId, skipIndexed);
+        List<Long> datasetIds = datasetService.findAllOrSubsetOrderByFilesOwned(numPartitions, partitionId, skipIndexed);
+        progress.setDataverseCount(dataverseIds.size());
+        progress.setDatasetCount(datasetIds.size());
+
+        // The dataverses are indexed first (and one by one), as there are 
+        // relatively few of them: 
         int dataverseIndexCount = 0;
-        int dataverseFailureCount = 0;
         //for (Dataverse dataverse : dataverses) {
         for (Long id : dataverseIds) {
+            boolean success = false;
             try {
                 dataverseIndexCount++;
                 Dataverse dataverse = dataverseService.find(id);
                 logger.info("indexing dataverse " + dataverseIndexCount + " of " + dataverseIds.size() + " (id=" + id + ", persistentId=" + dataverse.getAlias() + ")");
                 Future<String> result = indexService.indexDataverseInNewTransaction(dataverse);
                 dataverse = null;
+                success = true;
             } catch (Exception e) {
                 //We want to keep running even after an exception so throw some more info into the log
-                dataverseFailureCount++;
                 logger.info("FAILURE indexing dataverse " + dataverseIndexCount + " of " + dataverseIds.size() + " (id=" + id + ") Exception info: " + e.getMessage());
             }
+            progress.dataverseIndexed(success);
         }
 
-        int datasetIndexCount = 0;
-        int datasetFailureCount = 0;
-        List<Long> datasetIds = datasetService.findAllOrSubsetOrderByFilesOwned(skipIndexed);
-        for (Long id : datasetIds) {
-            datasetIndexCount++;
-            logger.info("indexing dataset " + datasetIndexCount + " of " + datasetIds.size() + " (id=" + id + ")");
-            indexService.indexDatasetInNewTransaction(id);
+        // The datasets are indexed concurrently, by a fixed number of workers 
+        // taking the ids off a shared queue. (Their Solr documents are sent 
+        // in batches by the SolrIndexWriteBuffer.)
+        Queue<Long> datasetQueue = new ConcurrentLinkedQueue<>(datasetIds);
+        Map<Long, Consumer<Boolean>> unsettled = new ConcurrentHashMap<>();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(numWorkers, datasetIds.size()); i++) {
+            workers.add(workerPools.get(WorkerPools.Pool.REINDEX).submit(() -> indexDatasets(datasetQueue, unsettled, progress)));
+        }
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException | ExecutionException e) {
+                logger.warning("reindex worker exited abnormally: " + e.getMessage());
+            }
         }
+        commitToSolr();
+        // The datasets whose documents Solr still does not have (they could 
+        // not be sent, and are left in the buffer, to be retried) are counted 
+        // as failed, rather than left outstanding:
+        if (!unsettled.isEmpty()) {
+            logger.warning(unsettled.size() + " dataset(s) could not be sent to Solr by the end of the reindex");
+            for (Consumer<Boolean> onIndexed : new ArrayList<>(unsettled.values())) {
+                onIndexed.accept(false);
+            }
+        }
+        progress.finish();
         logger.info("done iterating through all datasets");
 
+        int dataverseFailureCount = (int) progress.getDataversesFailed();
+        int datasetFailureCount = (int) progress.getDatasetsFailed();
+        long datasetIndexCount = progress.getDatasetsDone();
+
         long indexAllTimeEnd = System.currentTimeMillis();
         String timeElapsed = "index all took " + (indexAllTimeEnd - indexAllTimeBegin) + " milliseconds";
         logger.info(timeElapsed);
@@ -223,6 +352,42 @@ public class IndexBatchServiceBean {
         return new AsyncResult<>(status);
     }
         
+    private void indexDatasets(Queue<Long> datasetQueue, Map<Long, Consumer<Boolean>> unsettled, IndexBatchProgress progress) {
+        Long id;
+        while ((id = datasetQueue.poll()) != null) {
+            // A dataset is counted once Solr has its documents (or has failed
+            // to get them), not when they are handed to the write buffer:
+            Long datasetId = id;
+            AtomicBoolean counted = new AtomicBoolean(false);
+            Consumer<Boolean> onIndexed = success -> {
+                if (counted.compareAndSet(false, true)) {
+                    unsettled.remove(datasetId);
+                    long done = progress.datasetIndexed(success);
+                    logger.info("indexed dataset " + done + " of " + progress.getDatasetCount() + " (id=" + datasetId + ")"
+                            + (success ? "" : ": FAILED"));
+                }
+            };
+            unsettled.put(id, onIndexed);
+            try {
+                if (!indexService.indexDatasetInNewTransaction(id, onIndexed)) {
+                    onIndexed.accept(false);
+                }
+            } catch (Exception e) {
+                logger.info("FAILURE indexing dataset (id=" + id + ") Exception info: " + e.getMessage());
+                onIndexed.accept(false);
+            }
+        }
+    }
+
+    // Also waits for the datasets sent to Solr to have been counted
+    private void commitToSolr() {
+        try {
+            solrIndexWriteBuffer.flushAndCommitAwaitingCallbacks();
+        } catch (SolrServerException | IOException e) {
+            logger.warning("Solr commit failed at the end of reindex: " + e.getMessage());
+        }
+    }
+
     @Asynchronous
     public void indexDataverseRecursively(Dataverse dataverse) {
         long start = System.currentTimeMillis();
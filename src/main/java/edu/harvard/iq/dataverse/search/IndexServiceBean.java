@@ -47,6 +47,7 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -58,6 +59,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -83,7 +85,6 @@ import org.apache.solr.client.solrj.SolrQuery.SortClause;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
 import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
@@ -133,6 +134,8 @@ public class IndexServiceBean {
     @EJB
     SolrClientService solrClientService;
     @EJB
+    SolrIndexWriteBuffer solrIndexWriteBuffer;
+    @EJB
     DataFileServiceBean dataFileService;
 
     @EJB
@@ -181,6 +184,12 @@ public class IndexServiceBean {
 
     @PreDestroy
     public void close() {
+        // Don't leave any updates behind in the write buffer: 
+        try {
+            solrIndexWriteBuffer.flush();
+        } catch (Exception e) {
+            logger.warning("Failed to flush the Solr write buffer: " + e);
+        }
         if (solrServer != null) {
             try {
                 solrServer.close();
@@ -309,6 +318,9 @@ public class IndexServiceBean {
             if (hasAnyLinkingDataverses(dataverse)) {
                 dataverseChildrenIds = dataverseService.findAllDataverseDataverseChildren(dataverse.getId());
                 datasetChildrenIds = dataverseService.findAllDataverseDatasetChildren(dataverse.getId());
+                // The documents of the children are read back from Solr, so
+                // the updates still in the write buffer have to get there first:
+                solrIndexWriteBuffer.flushAndCommit();
                 for (Long id : datasetChildrenIds) {
                     updatePathForExistingSolrDocs(datasetService.find(id));
                 }
@@ -325,7 +337,15 @@ public class IndexServiceBean {
         String status;
         try {
             if (dataverse.getId() != null) {
-                solrClientService.getSolrClient().add(docs);
+                // (through the write buffer, so that it cannot be reordered
+                // with the updates pending there; the index time is updated
+                // once Solr has the document)
+                Long dataverseId = dataverse.getId();
+                solrIndexWriteBuffer.trackWrites(() -> solrIndexWriteBuffer.add(docs), sent -> {
+                    if (sent) {
+                        dvObjectService.updateContentIndexTimeInNewTransaction(Collections.singletonList(dataverseId));
+                    }
+                });
             } else {
                 logger.info("WARNING: indexing of a dataverse with no id attempted");
             }
@@ -334,27 +354,37 @@ public class IndexServiceBean {
             logger.info(status);
             return new AsyncResult<>(status);
         }
-        try {
-            solrClientService.getSolrClient().commit();
-        } catch (SolrServerException | IOException ex) {
-            status = ex.toString();
-            logger.info(status);
-            return new AsyncResult<>(status);
-        }
 
-        dvObjectService.updateContentIndexTime(dataverse);
         IndexResponse indexResponse = solrIndexService.indexPermissionsForOneDvObject(dataverse);
         String msg = "indexed dataverse " + dataverse.getId() + ":" + dataverse.getAlias() + ". Response from permission indexing: " + indexResponse.getMessage();
         return new AsyncResult<>(msg);
 
     }
     
+    /**
+     * @return false if the dataset could not be found, or if indexing it failed
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public boolean indexDatasetInNewTransaction(Long datasetId) { //Dataset dataset) {
+        return indexDatasetInNewTransaction(datasetId, null);
+    }
+
+    /**
+     * @param onIndexed if not null, called once Solr has the documents of the
+     * dataset (see {@link SolrIndexWriteBuffer#trackWrites}): with true; or
+     * with false, if they have been given up on. May not be called at all if
+     * this returns false.
+     * @return false if the dataset could not be found, or if indexing it failed
+     */
     @TransactionAttribute(REQUIRES_NEW)
-    public void indexDatasetInNewTransaction(Long datasetId) { //Dataset dataset) {
+    public boolean indexDatasetInNewTransaction(Long datasetId, Consumer<Boolean> onIndexed) {
         boolean doNormalSolrDocCleanUp = false;
-        Dataset dataset = datasetService.findDeep(datasetId);
-        asyncIndexDataset(dataset, doNormalSolrDocCleanUp);
-        dataset = null;
+        Dataset dataset = datasetService.findForIndexing(datasetId);
+        if (dataset == null) {
+            logger.info("unable to index dataset " + datasetId + ": not found");
+            return false;
+        }
+        return indexDatasetSkippingOngoing(dataset, doNormalSolrDocCleanUp, onIndexed);
     }
     
     // The following two variables are only used in the synchronized getNextToIndex method and do not need to be synchronized themselves
@@ -408,18 +438,33 @@ public class IndexServiceBean {
      */
     @Asynchronous
     public void asyncIndexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp) {
+        indexDatasetSkippingOngoing(dataset, doNormalSolrDocCleanUp, null);
+    }
+
+    // Returns false if any of the indexing attempts made by this call failed;
+    // otherwise, onIndexed (if any) gets the outcome of the first one once
+    // Solr has the documents - or true right away, if the indexing has been
+    // left to the job already running for the dataset.
+    private boolean indexDatasetSkippingOngoing(Dataset dataset, boolean doNormalSolrDocCleanUp, Consumer<Boolean> onIndexed) {
+        boolean success = true;
         Long id = dataset.getId();
         Dataset next = getNextToIndex(id, dataset); // if there is an ongoing index job for this dataset, next is null (ongoing index job will reindex the newest version after current indexing finishes)
+        if (next == null && onIndexed != null) {
+            onIndexed.accept(true);
+        }
         while (next != null) {
             try {
-                indexDataset(next, doNormalSolrDocCleanUp);
+                indexDataset(next, doNormalSolrDocCleanUp, success ? onIndexed : null);
+                onIndexed = null;
             } catch (Exception e) { // catch all possible exceptions; otherwise when something unexpected happes the dataset wold remain locked and impossible to reindex
+                success = false;
                 String failureLogText = "Indexing failed. You can kickoff a re-index of this dataset with: \r\n curl http://localhost:8080/api/admin/index/datasets/" + dataset.getId().toString();
                 failureLogText += "\r\n" + e.getLocalizedMessage();
                 LoggingUtil.writeOnSuccessFailureLog(null, failureLogText, dataset);
             }
             next = getNextToIndex(id, null); // if dataset was not changed during the indexing (and no new job was requested), next is null and loop can be stopped
         }
+        return success;
     }
 
     public void asyncIndexDatasetList(List<Dataset> datasets, boolean doNormalSolrDocCleanUp) {
@@ -436,9 +481,21 @@ public class IndexServiceBean {
         }
     }
 
-    private void indexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp) throws  SolrServerException, IOException {
-        doIndexDataset(dataset, doNormalSolrDocCleanUp);
-        updateLastIndexedTime(dataset.getId());
+    private void indexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp, Consumer<Boolean> onIndexed) throws  SolrServerException, IOException {
+        // The index time is only updated once Solr has all the documents of
+        // the dataset, as the write buffer may fail to get them there. (In a
+        // new transaction, and not in the caller's, as indexing is often in a
+        // transaction with update statements - see
+        // DvObjectServiceBean.updateContentIndexTimeInNewTransaction.)
+        Long id = dataset.getId();
+        solrIndexWriteBuffer.trackWrites(() -> doIndexDataset(dataset, doNormalSolrDocCleanUp), sent -> {
+            if (sent) {
+                dvObjectService.updateContentIndexTimeInNewTransaction(Collections.singletonList(id));
+            }
+            if (onIndexed != null) {
+                onIndexed.accept(sent);
+            }
+        });
     }
     
     private void doIndexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp) throws  SolrServerException, IOException {
@@ -488,6 +545,14 @@ public class IndexServiceBean {
                 solrIdsOfFilesToDelete.add(solrIdOfPublishedFile);
                 fileInfo.add(fileMetadata.getDataFile().getId() + ":" + fileMetadata.getLabel());
             }
+            int numFiles = 0;
+            if (fileMetadatas != null) {
+                numFiles = fileMetadatas.size();
+            }
+            debug.append("- files: " + numFiles + " " + fileInfo.toString() + "\n");
+        }
+        debug.append("numPublishedVersions: " + numPublishedVersions + "\n");
+        if (doNormalSolrDocCleanUp) {
             try {
                 /**
                  * Preemptively delete *all* Solr documents for files associated
@@ -508,20 +573,16 @@ public class IndexServiceBean {
                  *
                  * @todo We should also delete the corresponding Solr
                  * "permission" documents for the files.
+                 *
+                 * (The write buffer is not flushed for this: Solr answers from
+                 * what it has committed, and a document sent less than
+                 * commitWithin ago is left for the next cleanup.)
                  */
                 List<String> allFilesForDataset = findFilesOfParentDataset(dataset.getId());
                 solrIdsOfFilesToDelete.addAll(allFilesForDataset);
             } catch (SearchException | NullPointerException ex) {
                 logger.fine("could not run search of files to delete: " + ex);
             }
-            int numFiles = 0;
-            if (fileMetadatas != null) {
-                numFiles = fileMetadatas.size();
-            }
-            debug.append("- files: " + numFiles + " " + fileInfo.toString() + "\n");
-        }
-        debug.append("numPublishedVersions: " + numPublishedVersions + "\n");
-        if (doNormalSolrDocCleanUp) {
             IndexResponse resultOfAttemptToPremptivelyDeletePublishedFiles = solrIndexService.deleteMultipleSolrIds(solrIdsOfFilesToDelete);
             debug.append("result of attempt to premptively deleted published files before reindexing: " + resultOfAttemptToPremptivelyDeletePublishedFiles + "\n");
         }
@@ -1464,8 +1525,7 @@ public class IndexServiceBean {
         final SolrInputDocuments docs = toSolrDocs(indexableDataset, datafilesInDraftVersion);
 
         try {
-            solrClientService.getSolrClient().add(docs.getDocuments());
-            solrClientService.getSolrClient().commit();
+            solrIndexWriteBuffer.add(docs.getDocuments());
         } catch (SolrServerException | IOException ex) {
             if (ex.getCause() instanceof SolrServerException) {
                 throw new SolrServerException(ex);
@@ -1476,26 +1536,6 @@ public class IndexServiceBean {
         return docs.getMessage();
     }
 
-    @Asynchronous
-    private void updateLastIndexedTime(Long id) {
-        // indexing is often in a transaction with update statements
-        // if we flush on query (flush-mode auto), we want to prevent locking
-        // -> update the dataset asynchronously in a new transaction
-        updateLastIndexedTimeInNewTransaction(id);
-    }
-
-    @TransactionAttribute(REQUIRES_NEW)
-    private void updateLastIndexedTimeInNewTransaction(Long id) {
-        /// Dataset updatedDataset =
-        /// (Dataset)dvObjectService.updateContentIndexTime(dataset);
-        /// updatedDataset = null;
-        // instead of making a call to dvObjectService, let's try and
-        // modify the index time stamp using the local EntityManager:
-        DvObject dvObjectToModify = em.find(DvObject.class, id);
-        dvObjectToModify.setIndexTime(new Timestamp(new Date().getTime()));
-        dvObjectToModify = em.merge(dvObjectToModify);
-    }
-
     /**
      * If the "Topic Classification" has a "Vocabulary", return both the "Term"
      * and the "Vocabulary" with the latter in parentheses. For example, the
@@ -1683,6 +1723,7 @@ public class IndexServiceBean {
     
     
     
+    // (reads the documents back from Solr: the caller flushes the write buffer first)
     private void updatePathForExistingSolrDocs(DvObject object) throws SolrServerException, IOException {
         SolrQuery solrQuery = new SolrQuery();
         solrQuery.setQuery(SearchUtil.constructQuery(SearchFields.ENTITY_ID, object.getId().toString()));
@@ -1699,15 +1740,14 @@ public class IndexServiceBean {
 
             Dataset dataset = null;
             if (object.isInstanceofDataset()) {
-                dataset = datasetService.findDeep(object.getId());
+                dataset = datasetService.find(object.getId());
             }
             List<String> paths = object.isInstanceofDataset() ? retrieveDVOPaths(dataset)
                     : retrieveDVOPaths(dataverseService.find(object.getId()));
 
             sid.removeField(SearchFields.SUBTREE);
             sid.addField(SearchFields.SUBTREE, paths);
-            UpdateResponse addResponse = solrClientService.getSolrClient().add(sid);
-            UpdateResponse commitResponse = solrClientService.getSolrClient().commit();
+            solrIndexWriteBuffer.add(Collections.singletonList(sid));
             if (object.isInstanceofDataset()) {
                 for (DataFile df : dataset.getFiles()) {
                     solrQuery.setQuery(SearchUtil.constructQuery(SearchFields.ENTITY_ID, df.getId().toString()));
@@ -1720,8 +1760,7 @@ public class IndexServiceBean {
                         }
                         sid.removeField(SearchFields.SUBTREE);
                         sid.addField(SearchFields.SUBTREE, paths);
-                        addResponse = solrClientService.getSolrClient().add(sid);
-                        commitResponse = solrClientService.getSolrClient().commit();
+                        solrIndexWriteBuffer.add(Collections.singletonList(sid));
                     }
                 }
             }
@@ -1761,18 +1800,14 @@ public class IndexServiceBean {
 
     public String delete(Dataverse doomed) {
         logger.fine("deleting Solr document for dataverse " + doomed.getId());
-        UpdateResponse updateResponse;
-        try {
-            updateResponse = solrClientService.getSolrClient().deleteById(solrDocIdentifierDataverse + doomed.getId());
-        } catch (SolrServerException | IOException ex) {
-            return ex.toString();
-        }
+        // (through the write buffer, so that it cannot overtake an update of
+        // the same document that is still pending there)
         try {
-            solrClientService.getSolrClient().commit();
+            solrIndexWriteBuffer.deleteById(Collections.singletonList(solrDocIdentifierDataverse + doomed.getId()));
         } catch (SolrServerException | IOException ex) {
             return ex.toString();
         }
-        String response = "Successfully deleted dataverse " + doomed.getId() + " from Solr index. updateReponse was: " + updateResponse.toString();
+        String response = "Successfully deleted dataverse " + doomed.getId() + " from Solr index.";
         logger.fine(response);
         return response;
     }
@@ -1786,18 +1821,14 @@ public class IndexServiceBean {
     public String removeSolrDocFromIndex(String doomed) {
 
         logger.fine("deleting Solr document: " + doomed);
-        UpdateResponse updateResponse;
-        try {
-            updateResponse = solrClientService.getSolrClient().deleteById(doomed);
-        } catch (SolrServerException | IOException ex) {
-            return ex.toString();
-        }
+        // (goes through the write buffer, so that it cannot overtake an 
+        // update of the same document that is still pending there)
         try {
-            solrClientService.getSolrClient().commit();
+            solrIndexWriteBuffer.deleteById(Collections.singletonList(doomed));
         } catch (SolrServerException | IOException ex) {
             return ex.toString();
         }
-        String response = "Attempted to delete " + doomed + " from Solr index. updateReponse was: " + updateResponse.toString();
+        String response = "Attempted to delete " + doomed + " from Solr index.";
         logger.fine(response);
         return response;
     }
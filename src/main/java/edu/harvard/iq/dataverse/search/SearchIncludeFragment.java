@@ -14,6 +14,7 @@ import edu.harvard.iq.dataverse.DatasetVersionServiceBean;
 import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DataverseFacet;
 import edu.harvard.iq.dataverse.DataversePage;
+import edu.harvard.iq.dataverse.DataverseRequestServiceBean;
 import edu.harvard.iq.dataverse.DataverseServiceBean;
 import edu.harvard.iq.dataverse.DataverseSession;
 import edu.harvard.iq.dataverse.DvObject;
@@ -74,6 +75,8 @@ public class SearchIncludeFragment implements java.io.Serializable {
     @Inject
     PermissionsWrapper permissionsWrapper;
     @Inject
+    DataverseRequestServiceBean dvRequestService;
+    @Inject
     ThumbnailServiceWrapper thumbnailServiceWrapper;
     @Inject
     WidgetWrapper widgetWrapper;  
@@ -1324,6 +1327,19 @@ public class SearchIncludeFragment implements java.io.Serializable {
         
         thumbnailServiceWrapper.resetObjectMaps();
         
+        // The cards of the restricted files show whether the user can
+        // download them; look up the permissions on all of them at once
+        // (they are cached for the rest of the request):
+        List<DvObject> restrictedFiles = new ArrayList<>();
+        for (SolrSearchResult result : searchResultsList) {
+            if (result.getEntity() instanceof DataFile && ((DataFile) result.getEntity()).isRestricted()) {
+                restrictedFiles.add(result.getEntity());
+            }
+        }
+        if (!restrictedFiles.isEmpty()) {
+            permissionService.permissionsFor(dvRequestService.getDataverseRequest(), restrictedFiles);
+        }
+        
         // Now, make another pass, and add the remote archive descriptions to the 
         // harvested dataset and datafile cards (at the expense of one extra 
         // SQL query:
@@ -13,6 +13,7 @@ import edu.harvard.iq.dataverse.FileMetadata;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -26,7 +27,6 @@ import javax.inject.Named;
 import javax.json.Json;
 import javax.json.JsonObjectBuilder;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.common.SolrInputDocument;
 
 @Named
@@ -49,6 +49,8 @@ public class SolrIndexServiceBean {
     IndexServiceBean indexService;
     @EJB
     SolrClientService solrClientService;
+    @EJB
+    SolrIndexWriteBuffer solrIndexWriteBuffer;
 
     public static String numRowsClearedByClearAllIndexTimes = "numRowsClearedByClearAllIndexTimes";
     public static String messageString = "message";
@@ -302,14 +304,15 @@ public class SolrIndexServiceBean {
             docs.add(solrInputDocument);
         }
         try {
-            persistToSolr(docs);
             /**
              * @todo Do we need a separate permissionIndexTime timestamp?
              * Probably. Update it here.
              */
+            List<Long> ids = new ArrayList<>();
             for (DvObject dvObject : all) {
-                dvObjectService.updatePermissionIndexTime(dvObject);
+                ids.add(dvObject.getId());
             }
+            persistToSolr(docs, ids);
             return new IndexResponse("indexed all permissions");
         } catch (SolrServerException | IOException ex) {
             return new IndexResponse("problem indexing");
@@ -331,33 +334,30 @@ public class SolrIndexServiceBean {
             docs.add(solrInputDocument);
         }
         try {
-            persistToSolr(docs);
-            boolean updatePermissionTimeSuccessful = false;
-            if (dvObject != null) {
-                DvObject savedDvObject = dvObjectService.updatePermissionIndexTime(dvObject);
-                if (savedDvObject != null) {
-                    updatePermissionTimeSuccessful = true;
-                }
-            }
-            return new IndexResponse("attempted to index permissions for DvObject " + dvObjectId + " and updatePermissionTimeSuccessful was " + updatePermissionTimeSuccessful);
+            // (the permission index time is updated once Solr has the documents)
+            persistToSolr(docs, Collections.singletonList(dvObjectId));
+            return new IndexResponse("attempted to index permissions for DvObject " + dvObjectId);
         } catch (SolrServerException | IOException ex) {
             return new IndexResponse("problem indexing");
         }
 
     }
 
-    private void persistToSolr(Collection<SolrInputDocument> docs) throws SolrServerException, IOException {
+    // Updates the permission index time of the objects once Solr has the
+    // documents - not before, as they may fail to get there.
+    private void persistToSolr(Collection<SolrInputDocument> docs, List<Long> dvObjectIds) throws SolrServerException, IOException {
         if (docs.isEmpty()) {
             // This method is routinely called with an empty list of docs.
             logger.fine("nothing to persist");
+            dvObjectService.updatePermissionIndexTimeInNewTransaction(dvObjectIds);
             return;
         }
         logger.fine("persisting to Solr...");
-        /**
-         * @todo Do something with these responses from Solr.
-         */
-        UpdateResponse addResponse = solrClientService.getSolrClient().add(docs);
-        UpdateResponse commitResponse = solrClientService.getSolrClient().commit();
+        solrIndexWriteBuffer.trackWrites(() -> solrIndexWriteBuffer.add(docs), sent -> {
+            if (sent) {
+                dvObjectService.updatePermissionIndexTimeInNewTransaction(dvObjectIds);
+            }
+        });
     }
 
     public IndexResponse indexPermissionsOnSelfAndChildren(long definitionPointId) {
@@ -471,7 +471,11 @@ public class SolrIndexServiceBean {
             }
         }
         try {
-            persistToSolr(docs);
+            List<Long> fileIds = new ArrayList<>();
+            for (DataFile file : filesToReindexPermissionsFor) {
+                fileIds.add(file.getId());
+            }
+            persistToSolr(docs, fileIds);
             return " " + filesToReindexPermissionsFor.size() + " files indexed across " + docs.size() + " Solr documents ";
         } catch (SolrServerException | IOException ex) {
             return " tried to reindex " + filesToReindexPermissionsFor.size() + " files indexed across " + docs.size() + " Solr documents but caught exception: " + ex;
@@ -497,26 +501,22 @@ public class SolrIndexServiceBean {
             return new IndexResponse("nothing to delete");
         }
         try {
-            solrClientService.getSolrClient().deleteById(solrIdsToDelete);
+            solrIndexWriteBuffer.deleteById(solrIdsToDelete);
         } catch (SolrServerException | IOException ex) {
             /**
              * @todo mark these for re-deletion
              */
             return new IndexResponse("problem deleting the following documents from Solr: " + solrIdsToDelete);
         }
-        try {
-            solrClientService.getSolrClient().commit();
-        } catch (SolrServerException | IOException ex) {
-            return new IndexResponse("problem committing deletion of the following documents from Solr: " + solrIdsToDelete);
-        }
         return new IndexResponse("no known problem deleting the following documents from Solr:" + solrIdsToDelete);
     }
 
     public JsonObjectBuilder deleteAllFromSolrAndResetIndexTimes() throws SolrServerException, IOException {
         JsonObjectBuilder response = Json.createObjectBuilder();
         logger.info("attempting to delete all Solr documents before a complete re-index");
-        solrClientService.getSolrClient().deleteByQuery("*:*");
-        solrClientService.getSolrClient().commit();
+        // (through the write buffer, so that no update still pending there can
+        // land after the wipe)
+        solrIndexWriteBuffer.deleteAll();
         int numRowsAffected = dvObjectService.clearAllIndexTimes();
         response.add(numRowsClearedByClearAllIndexTimes, numRowsAffected);
         response.add(messageString, "Solr index and database index timestamps cleared.");
@@ -0,0 +1,520 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.WorkerPools;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.inject.Named;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+
+import static javax.ejb.LockType.READ;
+
+/**
+ * Coalesces the Solr document updates and deletes made by the indexing code
+ * into batches, instead of sending (and committing) each dataset, or each
+ * set of permission documents, in a request of its own.
+ *
+ * The pending updates are sent once there are {@code batch-size} of them, or
+ * {@code max-delay} milliseconds after the first one was buffered, whichever
+ * comes first; they are sent with {@code commitWithin}, so Solr makes them
+ * visible on its own shortly after, without an explicit commit. Only the
+ * latest update of a given document id is kept, so a delete followed by an
+ * add of the same document (or the other way around) never gets reordered.
+ *
+ * The batches are sent one at a time, in the order they were taken off the
+ * buffer. A thread that finds the buffer full sends the batch itself, and
+ * thus waits for any batch already being sent - this is the back-pressure
+ * that keeps a bulk indexing job from running ahead of Solr.
+ *
+ * As an update is only buffered by {@link #add(Collection)} or
+ * {@link #deleteById(Collection)}, the code that needs to know when Solr has
+ * it (e.g. to record the index time of a dataset) wraps its writes in
+ * {@link #trackWrites(SolrWrites, Consumer)}.
+ *
+ * Setting {@code dataverse.solr.index-buffer.batch-size} to 1 turns the
+ * buffering off: every update is then sent and committed right away.
+ */
+@Named
+@Singleton
+@Lock(READ)
+public class SolrIndexWriteBuffer {
+
+    private static final Logger logger = Logger.getLogger(SolrIndexWriteBuffer.class.getCanonicalName());
+
+    // Documents that failed to be sent this many times are given up on:
+    private static final int MAX_ATTEMPTS = 3;
+
+    @EJB
+    SolrClientService solrClientService;
+
+    @Resource
+    ManagedScheduledExecutorService scheduler;
+
+    @EJB
+    WorkerPools workerPools;
+
+    // Runs the callbacks of trackWrites(), one at a time:
+    private ExecutorService callbackExecutor;
+
+    private int batchSize;
+    private long maxDelay;
+    private int commitWithin;
+
+    private final Object bufferLock = new Object();
+    private final ReentrantLock sendLock = new ReentrantLock(true);
+
+    // Guarded by bufferLock:
+    private Map<String, SolrInputDocument> pendingAdds = new LinkedHashMap<>();
+    private Set<String> pendingDeletes = new LinkedHashSet<>();
+    private final Map<String, Integer> failedAttempts = new HashMap<>();
+    private boolean flushScheduled = false;
+    private final Map<String, List<Tracker>> trackersWaitingOn = new HashMap<>();
+
+    // The trackWrites() calls under way on the current thread, innermost first:
+    private final ThreadLocal<Deque<Tracker>> activeTrackers = new ThreadLocal<>();
+
+    /**
+     * Writes to the index, made through this buffer.
+     */
+    @FunctionalInterface
+    public interface SolrWrites {
+        void run() throws SolrServerException, IOException;
+    }
+
+    // The documents written by a trackWrites() call that Solr does not have
+    // yet. Guarded by bufferLock.
+    private static class Tracker {
+        final Set<String> outstanding = new HashSet<>();
+        boolean failed = false;
+        // Set once the writes have been made:
+        Consumer<Boolean> onSent;
+    }
+
+    @PostConstruct
+    public void init() {
+        batchSize = Math.max(1, JvmSettings.SOLR_INDEX_BUFFER_BATCH_SIZE.lookupOptional(Integer.class).orElse(500));
+        maxDelay = Math.max(0, JvmSettings.SOLR_INDEX_BUFFER_MAX_DELAY.lookupOptional(Long.class).orElse(1000L));
+        commitWithin = Math.max(0, JvmSettings.SOLR_INDEX_BUFFER_COMMIT_WITHIN.lookupOptional(Integer.class).orElse(1000));
+        callbackExecutor = workerPools.get(WorkerPools.Pool.SOLR_INDEX_BUFFER);
+    }
+
+    @PreDestroy
+    public void close() {
+        flushQuietly();
+    }
+
+    public boolean isBuffering() {
+        return batchSize > 1;
+    }
+
+    /**
+     * Adds (or replaces) the documents in the index.
+     */
+    public void add(Collection<SolrInputDocument> docs) throws SolrServerException, IOException {
+        if (docs == null || docs.isEmpty()) {
+            return;
+        }
+        if (!isBuffering()) {
+            solrClientService.getSolrClient().add(docs);
+            solrClientService.getSolrClient().commit();
+            return;
+        }
+        boolean full;
+        synchronized (bufferLock) {
+            for (SolrInputDocument doc : docs) {
+                String id = (String) doc.getFieldValue(SearchFields.ID);
+                pendingDeletes.remove(id);
+                pendingAdds.put(id, doc);
+                track(id);
+            }
+            full = bufferedOperations() >= batchSize;
+            scheduleFlush();
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Deletes the documents with the given ids from the index.
+     */
+    public void deleteById(Collection<String> ids) throws SolrServerException, IOException {
+        if (ids == null || ids.isEmpty()) {
+            return;
+        }
+        if (!isBuffering()) {
+            solrClientService.getSolrClient().deleteById(new ArrayList<>(ids));
+            solrClientService.getSolrClient().commit();
+            return;
+        }
+        boolean full;
+        synchronized (bufferLock) {
+            for (String id : ids) {
+                pendingAdds.remove(id);
+                pendingDeletes.add(id);
+                track(id);
+            }
+            full = bufferedOperations() >= batchSize;
+            scheduleFlush();
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends all the pending updates to Solr (with commitWithin). The updates
+     * that could not be sent are put back in the buffer, to be retried with
+     * the next batch.
+     */
+    public void flush() throws SolrServerException, IOException {
+        List<Tracker> ready = new ArrayList<>();
+        sendLock.lock();
+        try {
+            send(ready);
+        } finally {
+            // (the callbacks are handed over before the next batch can be
+            // sent, so that they are queued in the order the batches were)
+            notifySent(ready);
+            sendLock.unlock();
+        }
+    }
+
+    private void send(List<Tracker> ready) throws SolrServerException, IOException {
+        sendLock.lock();
+        try {
+            Map<String, SolrInputDocument> adds;
+            Set<String> deletes;
+            synchronized (bufferLock) {
+                if (pendingAdds.isEmpty() && pendingDeletes.isEmpty()) {
+                    return;
+                }
+                adds = pendingAdds;
+                deletes = pendingDeletes;
+                pendingAdds = new LinkedHashMap<>();
+                pendingDeletes = new LinkedHashSet<>();
+            }
+            try {
+                UpdateRequest request = new UpdateRequest();
+                if (!adds.isEmpty()) {
+                    request.add(adds.values());
+                }
+                if (!deletes.isEmpty()) {
+                    request.deleteById(new ArrayList<>(deletes));
+                }
+                request.setCommitWithin(commitWithin);
+                request.process(solrClientService.getSolrClient());
+                logger.fine("sent " + adds.size() + " updates and " + deletes.size() + " deletes to Solr");
+                synchronized (bufferLock) {
+                    if (!failedAttempts.isEmpty()) {
+                        failedAttempts.keySet().removeAll(adds.keySet());
+                        failedAttempts.keySet().removeAll(deletes);
+                    }
+                    resolve(adds.keySet(), true, ready);
+                    resolve(deletes, true, ready);
+                }
+            } catch (SolrServerException | IOException | RuntimeException ex) {
+                requeue(adds, deletes, ready);
+                throw ex;
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Sends all the pending updates, and commits them, so that they are
+     * visible to the queries that follow.
+     */
+    public void flushAndCommit() throws SolrServerException, IOException {
+        flush();
+        solrClientService.getSolrClient().commit();
+    }
+
+    /**
+     * Like {@link #flushAndCommit()}, and then waits for the callbacks of
+     * {@link #trackWrites(SolrWrites, Consumer)} for the documents sent so far
+     * to have been run. The callbacks of the documents that are still in the
+     * buffer (because they could not be sent, and are to be retried) are not
+     * waited for.
+     */
+    public void flushAndCommitAwaitingCallbacks() throws SolrServerException, IOException {
+        try {
+            flushAndCommit();
+        } finally {
+            awaitCallbacks();
+        }
+    }
+
+    // As the callbacks are run one at a time, in order, they have all been
+    // run once a task queued after them has:
+    private void awaitCallbacks() {
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            callbackExecutor.execute(done::countDown);
+            done.await();
+        } catch (RejectedExecutionException ex) {
+            logger.warning("Could not wait for the outcome of sending documents to Solr: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Deletes all the documents from the index, and commits. The updates
+     * still in the buffer are dropped; the batch being sent, if any, is
+     * waited for, so that nothing buffered before the wipe can land after it.
+     */
+    public void deleteAll() throws SolrServerException, IOException {
+        List<Tracker> ready = new ArrayList<>();
+        sendLock.lock();
+        try {
+            synchronized (bufferLock) {
+                Set<String> adds = pendingAdds.keySet();
+                Set<String> deletes = pendingDeletes;
+                pendingAdds = new LinkedHashMap<>();
+                pendingDeletes = new LinkedHashSet<>();
+                failedAttempts.clear();
+                // the documents to add are lost; the ones to delete are gone anyway:
+                resolve(adds, false, ready);
+                resolve(deletes, true, ready);
+            }
+            solrClientService.getSolrClient().deleteByQuery("*:*");
+            solrClientService.getSolrClient().commit();
+        } finally {
+            notifySent(ready);
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Makes the writes, and calls {@code onSent} once Solr has all the
+     * documents they added or deleted (through this buffer, on this thread,
+     * including further down the call stack): with true; or with false, if
+     * any of them has been given up on (see {@link #MAX_ATTEMPTS}), or wiped
+     * by {@link #deleteAll()}.
+     *
+     * {@code onSent} is called on a thread of the buffer's own, one callback
+     * at a time - never on the thread that happens to send the documents,
+     * which may be holding locks the callback needs (e.g. on the rows of the
+     * objects indexed). It is not called at all if the writes throw.
+     */
+    public void trackWrites(SolrWrites writes, Consumer<Boolean> onSent) throws SolrServerException, IOException {
+        Tracker tracker = new Tracker();
+        Deque<Tracker> trackers = activeTrackers.get();
+        if (trackers == null) {
+            trackers = new ArrayDeque<>();
+            activeTrackers.set(trackers);
+        }
+        trackers.push(tracker);
+        boolean written = false;
+        try {
+            writes.run();
+            written = true;
+        } finally {
+            trackers.pop();
+            if (trackers.isEmpty()) {
+                activeTrackers.remove();
+            }
+            if (!written) {
+                synchronized (bufferLock) {
+                    for (String id : tracker.outstanding) {
+                        List<Tracker> waiting = trackersWaitingOn.get(id);
+                        if (waiting != null && waiting.remove(tracker) && waiting.isEmpty()) {
+                            trackersWaitingOn.remove(id);
+                        }
+                    }
+                }
+            }
+        }
+        boolean sent;
+        synchronized (bufferLock) {
+            tracker.onSent = onSent;
+            sent = tracker.outstanding.isEmpty();
+        }
+        if (sent) {
+            notifySent(Collections.singletonList(tracker));
+        }
+    }
+
+    public int getPendingCount() {
+        synchronized (bufferLock) {
+            return bufferedOperations();
+        }
+    }
+
+    private int bufferedOperations() {
+        return pendingAdds.size() + pendingDeletes.size();
+    }
+
+    // Must be called holding bufferLock
+    private void scheduleFlush() {
+        if (flushScheduled || bufferedOperations() == 0) {
+            return;
+        }
+        flushScheduled = true;
+        scheduler.schedule(() -> {
+            synchronized (bufferLock) {
+                flushScheduled = false;
+            }
+            flushQuietly();
+        }, maxDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            logger.log(Level.WARNING, "Failed to send the buffered updates to Solr: {0}", ex.getMessage());
+        }
+        synchronized (bufferLock) {
+            // anything put back after a failure (or added in the meantime)
+            // gets another try later:
+            scheduleFlush();
+        }
+    }
+
+    // Must be called holding bufferLock
+    private void track(String id) {
+        Deque<Tracker> trackers = activeTrackers.get();
+        if (trackers == null) {
+            return;
+        }
+        for (Tracker tracker : trackers) {
+            if (tracker.outstanding.add(id)) {
+                trackersWaitingOn.computeIfAbsent(id, k -> new ArrayList<>()).add(tracker);
+            }
+        }
+    }
+
+    // Must be called holding bufferLock. Settles the documents for the
+    // trackers waiting on them, and adds the trackers that have nothing left
+    // to wait for to ready.
+    private void resolve(Collection<String> ids, boolean sent, List<Tracker> ready) {
+        if (trackersWaitingOn.isEmpty()) {
+            return;
+        }
+        for (String id : ids) {
+            if (sent && isSuperseded(id)) {
+                // a newer update of the document is to be waited for
+                continue;
+            }
+            List<Tracker> waiting = trackersWaitingOn.remove(id);
+            if (waiting == null) {
+                continue;
+            }
+            for (Tracker tracker : waiting) {
+                tracker.outstanding.remove(id);
+                if (!sent) {
+                    tracker.failed = true;
+                }
+                if (tracker.onSent != null && tracker.outstanding.isEmpty()) {
+                    ready.add(tracker);
+                }
+            }
+        }
+    }
+
+    // Hands the callbacks of the trackers over to the callback thread:
+    private void notifySent(List<Tracker> ready) {
+        for (Tracker tracker : ready) {
+            boolean sent = !tracker.failed;
+            try {
+                callbackExecutor.execute(() -> {
+                    try {
+                        tracker.onSent.accept(sent);
+                    } catch (RuntimeException ex) {
+                        logger.log(Level.WARNING, "Failed to process the outcome of sending documents to Solr", ex);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                // (the application is being shut down)
+                logger.warning("Dropped the outcome of sending documents to Solr: " + ex.getMessage());
+            }
+        }
+    }
+
+    // Puts the updates of a failed batch back in the buffer, unless they have
+    // been superseded by newer ones in the meantime, or have failed too many
+    // times already.
+    private void requeue(Map<String, SolrInputDocument> adds, Set<String> deletes, List<Tracker> ready) {
+        List<String> dropped = new ArrayList<>();
+        synchronized (bufferLock) {
+            Map<String, SolrInputDocument> requeuedAdds = new LinkedHashMap<>();
+            Set<String> requeuedDeletes = new LinkedHashSet<>();
+            for (Map.Entry<String, SolrInputDocument> entry : adds.entrySet()) {
+                String id = entry.getKey();
+                if (isSuperseded(id)) {
+                    continue;
+                }
+                if (recordFailure(id)) {
+                    requeuedAdds.put(id, entry.getValue());
+                } else {
+                    dropped.add(id);
+                }
+            }
+            for (String id : deletes) {
+                if (isSuperseded(id)) {
+                    continue;
+                }
+                if (recordFailure(id)) {
+                    requeuedDeletes.add(id);
+                } else {
+                    dropped.add(id);
+                }
+            }
+            // the failed updates go ahead of the ones added since:
+            requeuedAdds.putAll(pendingAdds);
+            requeuedDeletes.addAll(pendingDeletes);
+            pendingAdds = requeuedAdds;
+            pendingDeletes = requeuedDeletes;
+            resolve(dropped, false, ready);
+        }
+        if (!dropped.isEmpty()) {
+            logger.severe("Giving up on sending the following documents to Solr after " + MAX_ATTEMPTS + " attempts: " + dropped
+                    + ". They will need to be reindexed.");
+        }
+    }
+
+    private boolean isSuperseded(String id) {
+        return pendingAdds.containsKey(id) || pendingDeletes.contains(id);
+    }
+
+    // Returns false once the update of this document has failed MAX_ATTEMPTS times
+    private boolean recordFailure(String id) {
+        int attempts = failedAttempts.merge(id, 1, Integer::sum);
+        if (attempts >= MAX_ATTEMPTS) {
+            failedAttempts.remove(id);
+            return false;
+        }
+        return true;
+    }
+}
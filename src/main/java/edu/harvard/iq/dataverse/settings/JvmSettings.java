@@ -46,9 +46,23 @@ public enum JvmSettings {
     FQDN(PREFIX, "fqdn"),
     SITE_URL(PREFIX, "siteUrl"),
     
+    // DATABASE SETTINGS CACHE
+    SCOPE_SETTINGS(PREFIX, "settings"),
+    SCOPE_SETTINGS_CACHE(SCOPE_SETTINGS, "cache"),
+    SETTINGS_CACHE_CHECK_INTERVAL(SCOPE_SETTINGS_CACHE, "check-interval"),
+    
     // FILES SETTINGS
     SCOPE_FILES(PREFIX, "files"),
     FILES_DIRECTORY(SCOPE_FILES, "directory"),
+    SCOPE_FILES_ZIP_DOWNLOAD(SCOPE_FILES, "zip-download"),
+    FILES_ZIP_DOWNLOAD_PREFETCH(SCOPE_FILES_ZIP_DOWNLOAD, "prefetch"),
+    FILES_ZIP_DOWNLOAD_POOL_SIZE(SCOPE_FILES_ZIP_DOWNLOAD, "pool-size"),
+    FILES_ZIP_DOWNLOAD_READ_AHEAD_MEMORY(SCOPE_FILES_ZIP_DOWNLOAD, "read-ahead-memory"),
+    SCOPE_FILES_VALIDATION(SCOPE_FILES, "validation"),
+    FILES_VALIDATION_MAX_AGE(SCOPE_FILES_VALIDATION, "max-age"),
+    FILES_VALIDATION_POOL_SIZE(SCOPE_FILES_VALIDATION, "pool-size"),
+    SCOPE_FILES_STORE(SCOPE_FILES),
+    FILES_STORE_VALIDATION_THREADS(SCOPE_FILES_STORE, "validation-threads"),
     
     // SOLR INDEX SETTINGS
     SCOPE_SOLR(PREFIX, "solr"),
@@ -57,6 +71,12 @@ public enum JvmSettings {
     SOLR_PROT(SCOPE_SOLR, "protocol"),
     SOLR_CORE(SCOPE_SOLR, "core"),
     SOLR_PATH(SCOPE_SOLR, "path"),
+    SCOPE_SOLR_REINDEX(SCOPE_SOLR, "reindex"),
+    SOLR_REINDEX_WORKERS(SCOPE_SOLR_REINDEX, "workers"),
+    SCOPE_SOLR_INDEX_BUFFER(SCOPE_SOLR, "index-buffer"),
+    SOLR_INDEX_BUFFER_BATCH_SIZE(SCOPE_SOLR_INDEX_BUFFER, "batch-size"),
+    SOLR_INDEX_BUFFER_MAX_DELAY(SCOPE_SOLR_INDEX_BUFFER, "max-delay"),
+    SOLR_INDEX_BUFFER_COMMIT_WITHIN(SCOPE_SOLR_INDEX_BUFFER, "commit-within"),
 
     // RSERVE CONNECTION
     SCOPE_RSERVE(PREFIX, "rserve"),
@@ -70,6 +90,8 @@ public enum JvmSettings {
     SCOPE_API(PREFIX, "api"),
     API_SIGNING_SECRET(SCOPE_API, "signing-secret"),
     API_ALLOW_INCOMPLETE_METADATA(SCOPE_API, "allow-incomplete-metadata"),
+    SCOPE_API_TOKEN_CACHE(SCOPE_API, "token-cache"),
+    API_TOKEN_CACHE_TTL(SCOPE_API_TOKEN_CACHE, "ttl"),
 
     // SIGNPOSTING SETTINGS
     SCOPE_SIGNPOSTING(PREFIX, "signposting"),
@@ -114,6 +136,14 @@ public enum JvmSettings {
     HANDLENET_KEY_PATH(SCOPE_PID_HANDLENET_KEY, "path", "dataverse.handlenet.admcredfile"),
     HANDLENET_KEY_PASSPHRASE(SCOPE_PID_HANDLENET_KEY, "passphrase", "dataverse.handlenet.admprivphrase"),
 
+    // FILE PID REGISTRATION (on publication)
+    SCOPE_PID_FILE_REGISTRATION(SCOPE_PID, "file-registration"),
+    PID_FILE_REGISTRATION_THREADS(SCOPE_PID_FILE_REGISTRATION, "threads"),
+    PID_FILE_REGISTRATION_RETRIES(SCOPE_PID_FILE_REGISTRATION, "retries"),
+    PID_FILE_REGISTRATION_POOL_SIZE(SCOPE_PID_FILE_REGISTRATION, "pool-size"),
+    SCOPE_PID_FILE_REGISTRATION_RATE(SCOPE_PID_FILE_REGISTRATION, "rate"),
+    PID_FILE_REGISTRATION_RATE_FOR(SCOPE_PID_FILE_REGISTRATION_RATE),
+
     // SPI SETTINGS
     SCOPE_SPI(PREFIX, "spi"),
     SCOPE_EXPORTERS(SCOPE_SPI, "exporters"),
@@ -132,6 +162,36 @@ public enum JvmSettings {
     // NetCDF SETTINGS
     SCOPE_NETCDF(PREFIX, "netcdf"),
     GEO_EXTRACT_S3_DIRECT_UPLOAD(SCOPE_NETCDF, "geo-extract-s3-direct-upload"),
+
+    // METRICS SETTINGS
+    SCOPE_METRICS(PREFIX, "metrics"),
+    SCOPE_METRICS_CACHE(SCOPE_METRICS, "cache"),
+    METRICS_CACHE_MAX_STALENESS(SCOPE_METRICS_CACHE, "max-staleness"),
+    METRICS_CACHE_WAIT_TIMEOUT(SCOPE_METRICS_CACHE, "wait-timeout"),
+
+    // PERMISSIONS SETTINGS
+    SCOPE_PERMISSIONS(PREFIX, "permissions"),
+    SCOPE_PERMISSIONS_CACHE(SCOPE_PERMISSIONS, "cache"),
+    PERMISSIONS_CACHE_TTL(SCOPE_PERMISSIONS_CACHE, "ttl"),
+
+    // IP GROUPS SETTINGS
+    SCOPE_IP_GROUPS(PREFIX, "ip-groups"),
+    IP_GROUPS_REFRESH_INTERVAL(SCOPE_IP_GROUPS, "refresh-interval"),
+
+    // OAI SERVER SETTINGS
+    SCOPE_OAI(PREFIX, "oai"),
+    SCOPE_OAI_SERVER(SCOPE_OAI, "server"),
+    OAI_SERVER_METADATA_CACHE_SIZE(SCOPE_OAI_SERVER, "metadata-cache-size"),
+
+    // INGEST SETTINGS
+    SCOPE_INGEST(PREFIX, "ingest"),
+    INGEST_COLUMN_STORE(SCOPE_INGEST, "column-store"),
+
+    // MAKE DATA COUNT SETTINGS
+    SCOPE_MDC(PREFIX, "mdc"),
+    SCOPE_MDC_LOG_BUFFER(SCOPE_MDC, "log-buffer"),
+    MDC_LOG_BUFFER_SIZE(SCOPE_MDC_LOG_BUFFER, "size"),
+    MDC_LOG_BUFFER_FLUSH_INTERVAL(SCOPE_MDC_LOG_BUFFER, "flush-interval"),
     ;
 
     private static final String SCOPE_SEPARATOR = ".";
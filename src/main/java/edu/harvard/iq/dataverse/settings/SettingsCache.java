@@ -0,0 +1,173 @@
+package edu.harvard.iq.dataverse.settings;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.DependsOn;
+import javax.ejb.Lock;
+import javax.ejb.Singleton;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import static javax.ejb.LockType.READ;
+
+/**
+ * In-memory copy of the settings table, used by {@link SettingsServiceBean}
+ * to look up the settings without querying the database every time.
+ *
+ * The whole table (it is small) is loaded on the first lookup, and reloaded
+ * after any of the settings is changed. To notice the changes made on other
+ * nodes of a cluster (or directly in the database), every change of the
+ * settings table increments the counter in the single-row
+ * {@code settingsversion} table - by a trigger on the table; the cached copy
+ * is checked against that counter at most once every
+ * {@code dataverse.settings.cache.check-interval} milliseconds.
+ *
+ * @see SettingsServiceBean
+ */
+@Singleton
+@DependsOn("StartupFlywayMigrator")
+@Lock(READ)
+public class SettingsCache {
+
+    private static final Logger logger = Logger.getLogger(SettingsCache.class.getCanonicalName());
+
+    @PersistenceContext
+    EntityManager em;
+
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    private long checkInterval;
+    private volatile Snapshot snapshot;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong versionChecks = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private static class Snapshot {
+        final long version;
+        final Map<String, String> values;
+        volatile long checkedAt;
+
+        Snapshot(long version, Map<String, String> values) {
+            this.version = version;
+            this.values = values;
+            this.checkedAt = System.currentTimeMillis();
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        checkInterval = Math.max(0, JvmSettings.SETTINGS_CACHE_CHECK_INTERVAL.lookupOptional(Long.class).orElse(1000L));
+    }
+
+    /**
+     * @param name name of the setting
+     * @param lang language of the setting, or {@code null} for the setting
+     * that is not language-specific
+     * @return the content of the setting, or {@code null} if it is not set.
+     */
+    public String get(String name, String lang) {
+        Snapshot current = snapshot;
+        if (current != null) {
+            long now = System.currentTimeMillis();
+            if (now - current.checkedAt >= checkInterval) {
+                versionChecks.incrementAndGet();
+                if (readVersion() != current.version) {
+                    logger.fine("settings were changed on another node; reloading");
+                    current = null;
+                } else {
+                    current.checkedAt = now;
+                }
+            }
+        }
+        if (current == null) {
+            misses.incrementAndGet();
+            current = load();
+            snapshot = current;
+        } else {
+            hits.incrementAndGet();
+        }
+        return current.values.get(cacheKey(name, lang));
+    }
+
+    /**
+     * Drops the cached settings on this node, without waiting for the next
+     * check of the version counter (which the change increments, for the
+     * other nodes). To be called whenever a setting is changed, in the same
+     * transaction as the change. The local copy is dropped again once the
+     * transaction is over, in case it got reloaded (with the values from
+     * before the change was committed) in the meantime.
+     */
+    public void settingChanged() {
+        invalidate();
+        if (transactionRegistry != null && transactionRegistry.getTransactionKey() != null) {
+            transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    invalidate();
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops the cached settings on this node only.
+     */
+    public void invalidate() {
+        invalidations.incrementAndGet();
+        snapshot = null;
+    }
+
+    public JsonObjectBuilder getStatistics() {
+        Snapshot current = snapshot;
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long lookups = hitCount + missCount;
+        return Json.createObjectBuilder()
+                .add("loaded", current != null)
+                .add("size", current != null ? current.values.size() : 0)
+                .add("version", current != null ? current.version : -1)
+                .add("hits", hitCount)
+                .add("misses", missCount)
+                .add("hitRatio", lookups > 0 ? Math.round(hitCount * 10000.0 / lookups) / 10000.0 : 0.0)
+                .add("versionChecks", versionChecks.get())
+                .add("invalidations", invalidations.get())
+                .add("checkIntervalMillis", checkInterval);
+    }
+
+    private Snapshot load() {
+        long version = readVersion();
+        Map<String, String> values = new HashMap<>();
+        for (Setting setting : em.createNamedQuery("Setting.findAll", Setting.class).getResultList()) {
+            if (setting.getContent() != null) {
+                values.put(cacheKey(setting.getName(), setting.getLang()), setting.getContent());
+            }
+        }
+        logger.fine("loaded " + values.size() + " settings (version " + version + ")");
+        return new Snapshot(version, values);
+    }
+
+    private long readVersion() {
+        List<?> result = em.createNativeQuery("SELECT version FROM settingsversion WHERE id = 1").getResultList();
+        return result.isEmpty() ? -1 : ((Number) result.get(0)).longValue();
+    }
+
+    static String cacheKey(String name, String lang) {
+        return lang == null ? name : name + '\u0000' + lang;
+    }
+}
@@ -11,6 +11,7 @@ import javax.inject.Named;
 import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
 import javax.json.JsonReader;
 import javax.json.JsonValue;
 import javax.persistence.EntityManager;
@@ -610,12 +611,19 @@ public class SettingsServiceBean {
     @EJB
     ActionLogServiceBean actionLogSvc;
     
+    @EJB
+    SettingsCache settingsCache;
+    
     /**
      * Basic functionality - get the name, return the setting, or {@code null}.
+     * The settings are served from {@link SettingsCache}.
      * @param name of the setting
      * @return the actual setting, or {@code null}.
      */
     public String get( String name ) {
+        if (settingsCache != null) {
+            return settingsCache.get(name, null);
+        }
         List<Setting> tokens = em.createNamedQuery("Setting.findByName", Setting.class)
                 .setParameter("name", name )
                 .getResultList();
@@ -748,6 +756,10 @@ public class SettingsServiceBean {
     }
 
     public String get(String name, String lang, String defaultValue ) {
+        if (settingsCache != null) {
+            String val = settingsCache.get(name, lang);
+            return (val!=null) ? val : defaultValue;
+        }
         List<Setting> tokens = em.createNamedQuery("Setting.findByNameAndLang", Setting.class)
                 .setParameter("name", name )
                 .setParameter("lang", lang )
@@ -785,6 +797,7 @@ public class SettingsServiceBean {
         }
         
         s = em.merge(s);
+        settingChanged();
         actionLogSvc.log( new ActionLogRecord(ActionLogRecord.ActionType.Setting, "set")
                             .setInfo(name + ": " + content));
         return s;
@@ -809,6 +822,7 @@ public class SettingsServiceBean {
         }
         
         em.merge(s);
+        settingChanged();
         actionLogSvc.log( new ActionLogRecord(ActionLogRecord.ActionType.Setting, "set")
                 .setInfo(name + ": " +lang + ": " + content));
         return s;
@@ -857,6 +871,7 @@ public class SettingsServiceBean {
         em.createNamedQuery("Setting.deleteByName")
                 .setParameter("name", name)
                 .executeUpdate();
+        settingChanged();
     }
 
     public void delete( String name, String lang ) {
@@ -866,6 +881,17 @@ public class SettingsServiceBean {
                 .setParameter("name", name)
                 .setParameter("lang", lang)
                 .executeUpdate();
+        settingChanged();
+    }
+    
+    private void settingChanged() {
+        if (settingsCache != null) {
+            settingsCache.settingChanged();
+        }
+    }
+    
+    public JsonObjectBuilder getCacheStatistics() {
+        return settingsCache.getStatistics();
     }
     
     public Set<Setting> listAll() {
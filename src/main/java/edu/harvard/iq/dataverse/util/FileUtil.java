@@ -43,6 +43,7 @@ import edu.harvard.iq.dataverse.license.License;
 import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.util.file.BagItFileHandler;
 import edu.harvard.iq.dataverse.util.file.CreateDataFileResult;
+import edu.harvard.iq.dataverse.util.file.SavedTempFile;
 import edu.harvard.iq.dataverse.util.file.BagItFileHandlerFactory;
 import edu.harvard.iq.dataverse.util.xml.html.HtmlFormatUtil;
 import static edu.harvard.iq.dataverse.util.xml.html.HtmlFormatUtil.formatDoc;
@@ -70,7 +71,6 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Timestamp;
@@ -820,6 +820,8 @@ public class FileUtil implements java.io.Serializable  {
 
         // save the file, in the temporary location for now: 
         Path tempFile = null;
+        // (and its checksum, calculated while saving it)
+        String tempFileChecksum = null;
 
         Long fileSizeLimit = systemConfig.getMaxFileUploadSizeForStore(version.getDataset().getEffectiveStorageDriverId());
         String finalType = null;
@@ -831,19 +833,16 @@ public class FileUtil implements java.io.Serializable  {
                 // temp files will always be stored on the local filesystem.
                 // -- L.A. Jul. 2014
                 logger.fine("Will attempt to save the file as: " + tempFile.toString());
-                Files.copy(inputStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
 
-                // A file size check, before we do anything else:
+                // The size check, and the checksum, are done while the file
+                // is being saved - rather than by reading it again afterwards:
                 // (note that "no size limit set" = "unlimited")
                 // (also note, that if this is a zip file, we'll be checking
                 // the size limit for each of the individual unpacked files)
-                Long fileSize = tempFile.toFile().length();
-                if (fileSizeLimit != null && fileSize > fileSizeLimit) {
-                    try {
-                        tempFile.toFile().delete();
-                    } catch (Exception ex) {
-                    }
-                    throw new IOException(MessageFormat.format(BundleUtil.getStringFromBundle("file.addreplace.error.file_exceeds_limit"), bytesToHumanReadable(fileSize), bytesToHumanReadable(fileSizeLimit)));
+                try {
+                    tempFileChecksum = SavedTempFile.save(inputStream, tempFile, fileSizeLimit, newCheckSumType).getChecksum();
+                } catch (FileExceedsMaxSizeException femsx) {
+                    throw new IOException(femsx.getMessage());
                 }
 
             } else {
@@ -892,8 +891,8 @@ public class FileUtil implements java.io.Serializable  {
 
                 DataFile datafile = null;
                 try (InputStream uncompressedIn = new GZIPInputStream(new FileInputStream(tempFile.toFile()))){
-                    File unZippedTempFile = saveInputStreamInTempFile(uncompressedIn, fileSizeLimit);
-                    datafile = createSingleDataFile(version, unZippedTempFile, finalFileName, MIME_TYPE_UNDETERMINED_DEFAULT, systemConfig.getFileFixityChecksumAlgorithm());
+                    SavedTempFile unZippedTempFile = saveInputStreamInTempFile(uncompressedIn, fileSizeLimit, systemConfig.getFileFixityChecksumAlgorithm());
+                    datafile = createSingleDataFile(version, unZippedTempFile.getFile(), null, finalFileName, MIME_TYPE_UNDETERMINED_DEFAULT, unZippedTempFile.getChecksumType(), unZippedTempFile.getChecksum());
                 } catch (IOException | FileExceedsMaxSizeException ioex) {
                     datafile = null;
                 } 
@@ -1066,13 +1065,13 @@ public class FileUtil implements java.io.Serializable  {
 
                                     String storageIdentifier = generateStorageIdentifier();
                                     File unzippedFile = new File(getFilesTempDirectory() + "/" + storageIdentifier);
-                                    Files.copy(unZippedIn, unzippedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
                                     // No need to check the size of this unpacked file against the size limit, 
                                     // since we've already checked for that in the first pass.
+                                    SavedTempFile savedUnzippedFile = SavedTempFile.save(unZippedIn, unzippedFile.toPath(), null, systemConfig.getFileFixityChecksumAlgorithm());
                                     
                                     DataFile datafile = createSingleDataFile(version, null, storageIdentifier, shortName,
                                             MIME_TYPE_UNDETERMINED_DEFAULT,
-                                            systemConfig.getFileFixityChecksumAlgorithm(), null, false);
+                                            savedUnzippedFile.getChecksumType(), savedUnzippedFile.getChecksum(), false);
 
                                     if (!fileEntryName.equals(shortName)) {
                                         // If the filename looks like a hierarchical folder name (i.e., contains slashes and backslashes),
@@ -1177,8 +1176,8 @@ public class FileUtil implements java.io.Serializable  {
                             continue;
                         }
 
-                        File unZippedShapeTempFile = saveInputStreamInTempFile(finalFileInputStream, fileSizeLimit);
-                        DataFile new_datafile = createSingleDataFile(version, unZippedShapeTempFile, finalFile.getName(), finalType, systemConfig.getFileFixityChecksumAlgorithm());
+                        SavedTempFile unZippedShapeTempFile = saveInputStreamInTempFile(finalFileInputStream, fileSizeLimit, systemConfig.getFileFixityChecksumAlgorithm());
+                        DataFile new_datafile = createSingleDataFile(version, unZippedShapeTempFile.getFile(), null, finalFile.getName(), finalType, unZippedShapeTempFile.getChecksumType(), unZippedShapeTempFile.getChecksum());
                         String directoryName = null;
                         String absolutePathName = finalFile.getParent();
                         if (absolutePathName != null) {
@@ -1260,6 +1259,9 @@ public class FileUtil implements java.io.Serializable  {
         }
         
 
+        if (newCheckSum == null) {
+            newCheckSum = tempFileChecksum;
+        }
         DataFile datafile = createSingleDataFile(version, newFile, newStorageIdentifier, fileName, finalType, newCheckSumType, newCheckSum);
         File f = null;
         if (tempFile != null) {
@@ -1318,20 +1320,21 @@ public class FileUtil implements java.io.Serializable  {
 
 	public static File saveInputStreamInTempFile(InputStream inputStream, Long fileSizeLimit)
             throws IOException, FileExceedsMaxSizeException {
+        return saveInputStreamInTempFile(inputStream, fileSizeLimit, null).getFile();
+    }
+
+    /**
+     * Same as {@link #saveInputStreamInTempFile(InputStream, Long)}; also 
+     * calculates the checksum of the file while saving it - so that 
+     * {@link #createSingleDataFile} does not have to read it again for that.
+     */
+    public static SavedTempFile saveInputStreamInTempFile(InputStream inputStream, Long fileSizeLimit, ChecksumType checksumType)
+            throws IOException, FileExceedsMaxSizeException {
         Path tempFile = Files.createTempFile(Paths.get(getFilesTempDirectory()), "tmp", "upload");
         
         if (inputStream != null && tempFile != null) {
-            Files.copy(inputStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
-            
-            // size check: 
-            // (note that "no size limit set" = "unlimited")
-            Long fileSize = tempFile.toFile().length();
-            if (fileSizeLimit != null && fileSize > fileSizeLimit) {
-                try {tempFile.toFile().delete();} catch (Exception ex) {}
-                throw new FileExceedsMaxSizeException (MessageFormat.format(BundleUtil.getStringFromBundle("file.addreplace.error.file_exceeds_limit"), bytesToHumanReadable(fileSize), bytesToHumanReadable(fileSizeLimit)));  
-            }
-            
-            return tempFile.toFile();
+            // (the size check is done while saving the file)
+            return SavedTempFile.save(inputStream, tempFile, fileSizeLimit, checksumType);
         }
         throw new IOException("Failed to save uploaded file.");
     }
@@ -21,6 +21,7 @@
 package edu.harvard.iq.dataverse.util;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -76,6 +77,84 @@ public class SumStatCalculator {
         return nx;
     }  
 
+    /**
+     * Same as above, but for a vector of primitive doubles, with the 
+     * missing values marked in a separate bitmap (the values themselves in 
+     * the missing positions are ignored). 
+     */
+    public static double[] calculateSummaryStatistics(double[] x, BitSet missingValues) {
+        return calculateSummaryStatistics(x, x.length, missingValues);
+    }
+    
+    /**
+     * Same as above, for the first {@code length} entries of the vector 
+     * only; so that (possibly oversized) buffers can be reused between 
+     * vectors. 
+     */
+    public static double[] calculateSummaryStatistics(double[] x, int length, BitSet missingValues) {
+        logger.fine("entering calculate summary statistics ("+length+" double values);");
+        
+        int invalid = 0;
+        for (int i = 0; i < length; i++) {
+            if (missingValues.get(i) || Double.isNaN(x[i])) {
+                invalid++;
+            }
+        }
+        
+        double[] newx = new double[length - invalid];
+        int c = 0;
+        for (int i = 0; i < length; i++) {
+            if (!missingValues.get(i) && !Double.isNaN(x[i])) {
+                newx[c++] = x[i];
+            }
+        }
+        
+        return calculateSummaryStatistics(newx, invalid);
+    }
+    
+    /**
+     * Same as above, for a vector of primitive longs. 
+     */
+    public static double[] calculateSummaryStatistics(long[] x, BitSet missingValues) {
+        return calculateSummaryStatistics(x, x.length, missingValues);
+    }
+    
+    public static double[] calculateSummaryStatistics(long[] x, int length, BitSet missingValues) {
+        logger.fine("entering calculate summary statistics ("+length+" long values);");
+        
+        int invalid = 0;
+        for (int i = 0; i < length; i++) {
+            if (missingValues.get(i)) {
+                invalid++;
+            }
+        }
+        
+        double[] newx = new double[length - invalid];
+        int c = 0;
+        for (int i = 0; i < length; i++) {
+            if (!missingValues.get(i)) {
+                newx[c++] = x[i];
+            }
+        }
+        
+        return calculateSummaryStatistics(newx, invalid);
+    }
+    
+    private static double[] calculateSummaryStatistics(double[] validValues, int invalid) {
+        double[] nx = new double[8];
+        //("mean", "medn", "mode", "vald", "invd", "min", "max", "stdev");
+        
+        nx[4] = invalid;
+        nx[3] = validValues.length;
+        nx[0] = calculateMean(validValues);
+        nx[1] = calculateMedian(validValues);
+        nx[2] = 0.0;
+        nx[5] = StatUtils.min(validValues);
+        nx[6] = StatUtils.max(validValues);
+        nx[7] = Math.sqrt(StatUtils.variance(validValues));
+        return nx;
+    }
+
     private static double[] prepareForSummaryStats(Number[] x) {
         Double[] z = numberToDouble(x);
         return removeInvalidValues(z);
@@ -0,0 +1,114 @@
+package edu.harvard.iq.dataverse.util;
+
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.Lock;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+
+import static javax.ejb.LockType.READ;
+
+/**
+ * Thread pools of their own for the features that run work in the
+ * background, so that, e.g., a full reindex cannot take up the threads of the
+ * container's default {@code ManagedExecutorService} - and hold up whatever
+ * else is submitted to it - for hours.
+ *
+ * Every pool has a fixed number of threads, given by a setting of the
+ * feature, if it has one (read when the pool is first used); the tasks
+ * submitted while they are all busy wait in the queue of the pool. The
+ * threads are made by the container's {@code ManagedThreadFactory}, so the
+ * tasks can call EJBs, look up resources, etc. Idle threads are let go after
+ * a minute.
+ */
+@Singleton
+@Lock(READ)
+public class WorkerPools {
+
+    private static final Logger logger = Logger.getLogger(WorkerPools.class.getCanonicalName());
+
+    public enum Pool {
+        /** The workers of a full reindex (one reindex runs at a time). */
+        REINDEX(JvmSettings.SOLR_REINDEX_WORKERS, 4),
+        /** Processes the outcome of the writes sent by the SolrIndexWriteBuffer, in order. */
+        SOLR_INDEX_BUFFER(null, 1),
+        /** Opens, and reads ahead, the next files of the zip bundles being downloaded. */
+        ZIP_DOWNLOAD(JvmSettings.FILES_ZIP_DOWNLOAD_POOL_SIZE, 16),
+        /** Reads the files whose checksums are validated on publication. */
+        FILE_VALIDATION(JvmSettings.FILES_VALIDATION_POOL_SIZE, 16),
+        /** Registers the PIDs of the files of the datasets being published. */
+        PID_REGISTRATION(JvmSettings.PID_FILE_REGISTRATION_POOL_SIZE, 8),
+        /** Refreshes the cached metrics served stale in the meantime. */
+        METRICS_REFRESH(null, 2);
+
+        private final JvmSettings threadsSetting;
+        private final int defaultThreads;
+
+        Pool(JvmSettings threadsSetting, int defaultThreads) {
+            this.threadsSetting = threadsSetting;
+            this.defaultThreads = defaultThreads;
+        }
+
+        int getThreads() {
+            if (threadsSetting == null) {
+                return defaultThreads;
+            }
+            return Math.max(1, threadsSetting.lookupOptional(Integer.class).orElse(defaultThreads));
+        }
+    }
+
+    @Resource
+    ManagedThreadFactory threadFactory;
+
+    private final Map<Pool, ExecutorService> pools = new ConcurrentHashMap<>();
+
+    public ExecutorService get(Pool pool) {
+        return pools.computeIfAbsent(pool, this::createPool);
+    }
+
+    /**
+     * @return the number of threads of the pool - the most of its tasks that
+     * run at once, however many a feature submits
+     */
+    public int getThreads(Pool pool) {
+        return ((ThreadPoolExecutor) get(pool)).getMaximumPoolSize();
+    }
+
+    /**
+     * @return {@code threads}, or the number of threads of the pool, if it
+     * has fewer (with a warning, naming {@code setting}, as the threads
+     * beyond those of the pool would never run)
+     */
+    public int capToPool(Pool pool, int threads, String setting) {
+        int poolThreads = getThreads(pool);
+        if (threads > poolThreads) {
+            logger.warning(setting + " (" + threads + ") is larger than the " + pool + " worker pool (" + poolThreads
+                    + " threads); only " + poolThreads + " will run at once");
+            return poolThreads;
+        }
+        return threads;
+    }
+
+    private ExecutorService createPool(Pool pool) {
+        int threads = pool.getThreads();
+        logger.fine("Starting the " + pool + " worker pool, with " + threads + " threads");
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @PreDestroy
+    public void close() {
+        for (ExecutorService pool : pools.values()) {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package edu.harvard.iq.dataverse.util.file;
+
+import edu.harvard.iq.dataverse.DataFile.ChecksumType;
+import edu.harvard.iq.dataverse.datasetutility.FileExceedsMaxSizeException;
+import edu.harvard.iq.dataverse.util.BundleUtil;
+import edu.harvard.iq.dataverse.util.FileUtil;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.logging.Logger;
+
+import static edu.harvard.iq.dataverse.datasetutility.FileSizeChecker.bytesToHumanReadable;
+
+/**
+ * A file saved in the temp directory, along with its size and checksum -
+ * both worked out while the bytes were being written, so that the file does
+ * not have to be read again for them.
+ */
+public class SavedTempFile {
+
+    private static final Logger logger = Logger.getLogger(SavedTempFile.class.getCanonicalName());
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final long size;
+    private final ChecksumType checksumType;
+    private final String checksum;
+
+    private SavedTempFile(File file, long size, ChecksumType checksumType, String checksum) {
+        this.file = file;
+        this.size = size;
+        this.checksumType = checksumType;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Saves the stream in a file, in a single pass over the bytes: they are
+     * counted, and run through the checksum digest, as they are written. The
+     * stream is not closed (so that it can be, e.g., the current entry of a
+     * {@link java.util.zip.ZipInputStream}).
+     *
+     * @param inputStream the bytes to save
+     * @param target the file to save them in; replaced, if it exists
+     * @param fileSizeLimit the most bytes the file may have; or null, for no
+     * limit. Once over the limit, the bytes are no longer written, only
+     * counted (for the error message), and the file is deleted.
+     * @param checksumType the checksum to calculate; or null, for none
+     * @throws FileExceedsMaxSizeException if there are more bytes than
+     * {@code fileSizeLimit}
+     */
+    public static SavedTempFile save(InputStream inputStream, Path target, Long fileSizeLimit, ChecksumType checksumType)
+            throws IOException, FileExceedsMaxSizeException {
+        MessageDigest md = null;
+        if (checksumType != null) {
+            try {
+                // Use "SHA-1" (toString) rather than "SHA1", for example.
+                md = MessageDigest.getInstance(checksumType.toString());
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        boolean exceedsLimit = false;
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int nread;
+            while ((nread = inputStream.read(buffer)) != -1) {
+                size += nread;
+                if (fileSizeLimit != null && size > fileSizeLimit) {
+                    exceedsLimit = true;
+                } else {
+                    out.write(buffer, 0, nread);
+                    if (md != null) {
+                        md.update(buffer, 0, nread);
+                    }
+                }
+            }
+        } catch (IOException ioex) {
+            deleteQuietly(target);
+            throw ioex;
+        }
+
+        // size check:
+        // (note that "no size limit set" = "unlimited")
+        if (exceedsLimit) {
+            deleteQuietly(target);
+            throw new FileExceedsMaxSizeException(MessageFormat.format(BundleUtil.getStringFromBundle("file.addreplace.error.file_exceeds_limit"), bytesToHumanReadable(size), bytesToHumanReadable(fileSizeLimit)));
+        }
+
+        String checksum = md != null ? FileUtil.checksumDigestToString(md.digest()) : null;
+        return new SavedTempFile(target.toFile(), size, checksumType, checksum);
+    }
+
+    private static void deleteQuietly(Path target) {
+        try {
+            Files.deleteIfExists(target);
+        } catch (IOException | SecurityException ex) {
+            logger.warning("Failed to delete temporary file " + target);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public ChecksumType getChecksumType() {
+        return checksumType;
+    }
+
+    /**
+     * @return the checksum of the bytes saved; or null, if no checksum type
+     * was given
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+}
@@ -0,0 +1,106 @@
+package edu.harvard.iq.dataverse.util.json;
+
+import edu.harvard.iq.dataverse.api.ApiConstants;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonGenerator;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Writes a list of objects as an API response - the same
+ * {@code {"status":"OK","data":[...]}} as {@code AbstractApiBean.ok()} - but
+ * reading the objects one page at a time, and writing each page out before
+ * the next is read; so the whole list is never held in memory, neither as
+ * objects nor as JSON.
+ *
+ * Note that the pages are read once the resource method has returned, as the
+ * response is being written; each by a call of its own to the
+ * {@link PageReader} - typically a service bean method, thus in a
+ * transaction of its own. So the objects listed are not a consistent
+ * snapshot: were they added, removed or reordered while being listed
+ * (files being added to a draft, for instance), some could be listed twice,
+ * or not at all, and the total in {@code fields} could be off.
+ *
+ * @param <T> the type of the objects listed
+ */
+public class JsonArrayStreamingOutput<T> implements StreamingOutput {
+
+    /**
+     * Reads a page of the objects to list.
+     */
+    @FunctionalInterface
+    public interface PageReader<T> {
+        /**
+         * @return the objects from {@code offset} on, {@code limit} at most;
+         * fewer (or none) at the end of the list
+         */
+        List<T> read(int offset, int limit);
+    }
+
+    private final PageReader<T> pageReader;
+    private final Function<T, JsonObjectBuilder> printer;
+    private final int pageSize;
+    private final int offset;
+    private final Integer limit;
+    private final Map<String, Object> fields;
+
+    /**
+     * @param pageReader reads the objects
+     * @param printer turns an object into JSON
+     * @param pageSize the most objects to read at once
+     * @param offset the first object to list
+     * @param limit the most objects to list; or null, for all of them
+     * @param fields extra (number or string) fields, written before the
+     * list; e.g. the total number of objects. May be null.
+     */
+    public JsonArrayStreamingOutput(PageReader<T> pageReader, Function<T, JsonObjectBuilder> printer,
+            int pageSize, int offset, Integer limit, Map<String, Object> fields) {
+        this.pageReader = pageReader;
+        this.printer = printer;
+        this.pageSize = pageSize;
+        this.offset = offset;
+        this.limit = limit;
+        this.fields = fields;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        try (JsonGenerator generator = Json.createGenerator(output)) {
+            generator.writeStartObject();
+            generator.write("status", ApiConstants.STATUS_OK);
+            if (fields != null) {
+                for (Map.Entry<String, Object> field : fields.entrySet()) {
+                    if (field.getValue() instanceof Number) {
+                        generator.write(field.getKey(), ((Number) field.getValue()).longValue());
+                    } else if (field.getValue() != null) {
+                        generator.write(field.getKey(), field.getValue().toString());
+                    }
+                }
+            }
+            generator.writeStartArray("data");
+            int position = offset;
+            int remaining = limit == null ? Integer.MAX_VALUE : limit;
+            while (remaining > 0) {
+                int size = Math.min(pageSize, remaining);
+                List<T> page = pageReader.read(position, size);
+                for (T item : page) {
+                    generator.write(printer.apply(item).build());
+                }
+                generator.flush();
+                if (page.size() < size) {
+                    break;
+                }
+                position += size;
+                remaining -= size;
+            }
+            generator.writeEnd();
+            generator.writeEnd();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+-- Incremented on every change to the setting table - including the ones
+-- made directly in SQL, rather than through the application - so that the
+-- app nodes know when their cached copies of the settings are stale.
+CREATE TABLE IF NOT EXISTS settingsversion (
+    id INTEGER PRIMARY KEY,
+    version BIGINT NOT NULL
+);
+INSERT INTO settingsversion (id, version) VALUES (1, 0) ON CONFLICT DO NOTHING;
+
+CREATE OR REPLACE FUNCTION settingsversion_increment() RETURNS trigger AS $$
+BEGIN
+    UPDATE settingsversion SET version = version + 1 WHERE id = 1;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS settingsversion_increment ON setting;
+CREATE TRIGGER settingsversion_increment AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON setting
+    FOR EACH STATEMENT EXECUTE PROCEDURE settingsversion_increment();
@@ -0,0 +1,3 @@
+-- Supports the paged (keyset) lookups of the records in an OAI set, ordered
+-- by global id, used by ListRecords and ListIdentifiers:
+CREATE INDEX IF NOT EXISTS index_oairecord_setname_globalid ON oairecord (setname, globalid);
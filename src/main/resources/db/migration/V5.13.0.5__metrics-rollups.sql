@@ -0,0 +1,173 @@
+-- Pre-aggregated counts behind the downloads and files-by-type metrics,
+-- maintained incrementally by MetricsRollupServiceBean.
+
+-- Guestbook responses (downloads) per dataset and month; the month is an
+-- empty string for the historic responses recorded without a date:
+CREATE TABLE IF NOT EXISTS metricsdownloadsrollup (
+    month VARCHAR(7) NOT NULL,
+    dataset_id BIGINT NOT NULL,
+    count BIGINT NOT NULL,
+    PRIMARY KEY (month, dataset_id)
+);
+CREATE INDEX IF NOT EXISTS index_metricsdownloadsrollup_dataset_id ON metricsdownloadsrollup (dataset_id);
+
+-- The guestbook responses added to metricsdownloadsrollup recently (above
+-- the downloads watermark), so that the ones committed late - with a lower
+-- id than some already counted - are counted too, and none twice.
+CREATE TABLE IF NOT EXISTS metricsdownloadscounted (
+    guestbookresponse_id BIGINT PRIMARY KEY,
+    countedtime TIMESTAMP NOT NULL
+);
+
+-- The guestbook responses deleted (e.g. along with a destroyed file or
+-- dataset) since metricsdownloadsrollup was last brought up to date, to be
+-- taken off the counts they were added to:
+CREATE TABLE IF NOT EXISTS metricsdownloadsdeleted (
+    guestbookresponse_id BIGINT PRIMARY KEY,
+    month VARCHAR(7) NOT NULL,
+    dataset_id BIGINT
+);
+
+CREATE OR REPLACE FUNCTION metricsdownloadsdeleted() RETURNS trigger AS $$
+BEGIN
+    INSERT INTO metricsdownloadsdeleted (guestbookresponse_id, month, dataset_id)
+    VALUES (OLD.id, COALESCE(to_char(OLD.responsetime, 'YYYY-MM'), ''), OLD.dataset_id)
+    ON CONFLICT DO NOTHING;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS metricsdownloadsdeleted ON guestbookresponse;
+CREATE TRIGGER metricsdownloadsdeleted AFTER DELETE ON guestbookresponse
+    FOR EACH ROW EXECUTE PROCEDURE metricsdownloadsdeleted();
+
+-- Number and total size of the files of each content type, per dataset:
+CREATE TABLE IF NOT EXISTS metricsfiletypesrollup (
+    dataset_id BIGINT NOT NULL,
+    contenttype VARCHAR(255) NOT NULL,
+    count BIGINT NOT NULL,
+    size NUMERIC NOT NULL,
+    PRIMARY KEY (dataset_id, contenttype)
+);
+
+-- How far each rollup has been brought up to date:
+CREATE TABLE IF NOT EXISTS metricsrollupwatermark (
+    name VARCHAR(64) PRIMARY KEY,
+    lastid BIGINT,
+    lasttime TIMESTAMP,
+    updatetime TIMESTAMP NOT NULL
+);
+
+-- The datasets whose files have been added, removed, or have changed type
+-- or size, since metricsfiletypesrollup was last brought up to date - by
+-- whatever means (ingest, file type redetection, direct SQL...), and
+-- whether or not the modification time of the dataset was updated.
+CREATE TABLE IF NOT EXISTS metricsfiletypeschanged (
+    dataset_id BIGINT PRIMARY KEY
+);
+
+CREATE OR REPLACE FUNCTION metricsfiletypeschanged() RETURNS trigger AS $$
+BEGIN
+    INSERT INTO metricsfiletypeschanged (dataset_id)
+    SELECT owner_id FROM dvobject
+    WHERE id = CASE WHEN TG_OP = 'DELETE' THEN OLD.id ELSE NEW.id END AND owner_id IS NOT NULL
+    ON CONFLICT DO NOTHING;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS metricsfiletypeschanged_insert_delete ON datafile;
+CREATE TRIGGER metricsfiletypeschanged_insert_delete AFTER INSERT OR DELETE ON datafile
+    FOR EACH ROW EXECUTE PROCEDURE metricsfiletypeschanged();
+
+DROP TRIGGER IF EXISTS metricsfiletypeschanged_update ON datafile;
+CREATE TRIGGER metricsfiletypeschanged_update AFTER UPDATE OF contenttype, filesize ON datafile
+    FOR EACH ROW WHEN (OLD.contenttype IS DISTINCT FROM NEW.contenttype OR OLD.filesize IS DISTINCT FROM NEW.filesize)
+    EXECUTE PROCEDURE metricsfiletypeschanged();
+
+-- The datasets published, and their files, per dataset and month; and the
+-- dataverses published, per month (one row each). For a dataset, the month
+-- is that of the release of its versions (the creation, for the harvested
+-- ones); datasetversion_id and files are those of the latest version
+-- released that month, and versionfiles the files of all the versions
+-- released that month.
+CREATE TABLE IF NOT EXISTS metricspublicationsrollup (
+    dvobject_id BIGINT NOT NULL,
+    month VARCHAR(7) NOT NULL,
+    dtype VARCHAR(31) NOT NULL,
+    harvested BOOLEAN NOT NULL,
+    datasetversion_id BIGINT,
+    files BIGINT NOT NULL,
+    versionfiles BIGINT NOT NULL,
+    PRIMARY KEY (dvobject_id, month)
+);
+CREATE INDEX IF NOT EXISTS index_metricspublicationsrollup_dtype_month ON metricspublicationsrollup (dtype, month);
+
+-- The datasets whose released versions (or their files) have changed, and
+-- the dataverses whose publication date has, since metricspublicationsrollup
+-- was last brought up to date. (The ones deleted are taken off the rollup
+-- by every update.)
+CREATE TABLE IF NOT EXISTS metricspublicationschanged (
+    dvobject_id BIGINT PRIMARY KEY
+);
+
+CREATE OR REPLACE FUNCTION metricspublicationschanged_version() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP <> 'INSERT' AND OLD.versionstate = 'RELEASED' THEN
+        INSERT INTO metricspublicationschanged (dvobject_id) VALUES (OLD.dataset_id) ON CONFLICT DO NOTHING;
+    END IF;
+    IF TG_OP <> 'DELETE' AND NEW.versionstate = 'RELEASED' THEN
+        INSERT INTO metricspublicationschanged (dvobject_id) VALUES (NEW.dataset_id) ON CONFLICT DO NOTHING;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS metricspublicationschanged_insert_delete ON datasetversion;
+CREATE TRIGGER metricspublicationschanged_insert_delete AFTER INSERT OR DELETE ON datasetversion
+    FOR EACH ROW EXECUTE PROCEDURE metricspublicationschanged_version();
+
+DROP TRIGGER IF EXISTS metricspublicationschanged_update ON datasetversion;
+CREATE TRIGGER metricspublicationschanged_update AFTER UPDATE OF versionstate, releasetime, createtime ON datasetversion
+    FOR EACH ROW WHEN (OLD.versionstate IS DISTINCT FROM NEW.versionstate
+        OR OLD.releasetime IS DISTINCT FROM NEW.releasetime OR OLD.createtime IS DISTINCT FROM NEW.createtime)
+    EXECUTE PROCEDURE metricspublicationschanged_version();
+
+-- (only the files of the released versions count: these change when a
+-- published version is updated in place, for instance)
+CREATE OR REPLACE FUNCTION metricspublicationschanged_filemetadata() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP <> 'INSERT' THEN
+        INSERT INTO metricspublicationschanged (dvobject_id)
+        SELECT dataset_id FROM datasetversion WHERE id = OLD.datasetversion_id AND versionstate = 'RELEASED'
+        ON CONFLICT DO NOTHING;
+    END IF;
+    IF TG_OP <> 'DELETE' THEN
+        INSERT INTO metricspublicationschanged (dvobject_id)
+        SELECT dataset_id FROM datasetversion WHERE id = NEW.datasetversion_id AND versionstate = 'RELEASED'
+        ON CONFLICT DO NOTHING;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS metricspublicationschanged_insert_delete ON filemetadata;
+CREATE TRIGGER metricspublicationschanged_insert_delete AFTER INSERT OR DELETE ON filemetadata
+    FOR EACH ROW EXECUTE PROCEDURE metricspublicationschanged_filemetadata();
+
+DROP TRIGGER IF EXISTS metricspublicationschanged_update ON filemetadata;
+CREATE TRIGGER metricspublicationschanged_update AFTER UPDATE OF datasetversion_id ON filemetadata
+    FOR EACH ROW WHEN (OLD.datasetversion_id IS DISTINCT FROM NEW.datasetversion_id)
+    EXECUTE PROCEDURE metricspublicationschanged_filemetadata();
+
+CREATE OR REPLACE FUNCTION metricspublicationschanged_dataverse() RETURNS trigger AS $$
+BEGIN
+    INSERT INTO metricspublicationschanged (dvobject_id) VALUES (NEW.id) ON CONFLICT DO NOTHING;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS metricspublicationschanged_update ON dvobject;
+CREATE TRIGGER metricspublicationschanged_update AFTER UPDATE OF publicationdate ON dvobject
+    FOR EACH ROW WHEN (NEW.dtype = 'Dataverse' AND OLD.publicationdate IS DISTINCT FROM NEW.publicationdate)
+    EXECUTE PROCEDURE metricspublicationschanged_dataverse();
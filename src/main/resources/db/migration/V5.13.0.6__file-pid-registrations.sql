@@ -0,0 +1,14 @@
+-- The files whose PIDs have been made public while publishing a dataset,
+-- recorded as they get registered (and kept should the publication fail),
+-- so that publishing the dataset again does not register them again. The
+-- rows of a dataset are removed once its publication has been completed,
+-- or along with the dataset or the file, should either be deleted first.
+CREATE TABLE IF NOT EXISTS filepidregistration (
+    datafile_id BIGINT PRIMARY KEY REFERENCES dvobject (id) ON DELETE CASCADE,
+    dataset_id BIGINT NOT NULL REFERENCES dvobject (id) ON DELETE CASCADE,
+    protocol VARCHAR(255),
+    authority VARCHAR(255),
+    identifier VARCHAR(255) NOT NULL,
+    registrationtime TIMESTAMP NOT NULL
+);
+CREATE INDEX IF NOT EXISTS index_filepidregistration_dataset_id ON filepidregistration (dataset_id);
@@ -0,0 +1,10 @@
+-- The outcome of the last checksum validation of each file (on publication,
+-- or through the admin API), so that files validated recently, whose
+-- checksum has not changed since, need not be read again.
+CREATE TABLE IF NOT EXISTS datafilefixity (
+    datafile_id BIGINT PRIMARY KEY REFERENCES dvobject (id) ON DELETE CASCADE,
+    checksumtype VARCHAR(255),
+    checksumvalue VARCHAR(255),
+    valid BOOLEAN NOT NULL,
+    validationtime TIMESTAMP NOT NULL
+);
@@ -0,0 +1,87 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.DatasetVersion.VersionState;
+import java.util.Arrays;
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class DatasetVersionDifferenceTest {
+
+    private static DataFile dataFile(Long id, Long previousDataFileId) {
+        DataFile dataFile = new DataFile();
+        dataFile.setId(id);
+        dataFile.setPreviousDataFileId(previousDataFileId);
+        dataFile.setContentType("text/plain");
+        dataFile.setChecksumType(DataFile.ChecksumType.MD5);
+        dataFile.setChecksumValue("checksum" + id);
+        return dataFile;
+    }
+
+    private static FileMetadata fileMetadata(DatasetVersion version, DataFile dataFile, String label) {
+        FileMetadata fmd = new FileMetadata();
+        fmd.setDataFile(dataFile);
+        fmd.setLabel(label);
+        fmd.setDatasetVersion(version);
+        version.getFileMetadatas().add(fmd);
+        return fmd;
+    }
+
+    private static DatasetVersion version(Long id, VersionState state) {
+        DatasetVersion version = new DatasetVersion();
+        version.setId(id);
+        version.setVersionState(state);
+        version.setLastUpdateTime(new Date(1000L));
+        return version;
+    }
+
+    @Test
+    public void testFileDifferences() {
+        DatasetVersion original = version(1L, VersionState.RELEASED);
+        DatasetVersion draft = version(2L, VersionState.DRAFT);
+        DataFile unchanged = dataFile(10L, null);
+        DataFile renamed = dataFile(11L, null);
+        DataFile removed = dataFile(12L, null);
+        DataFile replaced = dataFile(13L, null);
+        fileMetadata(original, unchanged, "unchanged.txt");
+        fileMetadata(original, renamed, "old-name.txt");
+        FileMetadata removedFmd = fileMetadata(original, removed, "removed.txt");
+        fileMetadata(original, replaced, "replaced.txt");
+
+        fileMetadata(draft, unchanged, "unchanged.txt");
+        fileMetadata(draft, renamed, "new-name.txt");
+        fileMetadata(draft, dataFile(14L, 13L), "replaced.txt");
+        // not saved yet:
+        FileMetadata addedFmd = fileMetadata(draft, dataFile(null, null), "added.txt");
+
+        DatasetVersionDifference dvd = new DatasetVersionDifference(draft, original);
+
+        assertEquals(Arrays.asList(addedFmd), dvd.getAddedFiles());
+        assertEquals(Arrays.asList(removedFmd), dvd.getRemovedFiles());
+        assertEquals(2, dvd.getChangedFileMetadata().size());
+        assertEquals("new-name.txt", dvd.getChangedFileMetadata().get(1).getLabel());
+        assertEquals(1, dvd.getDatasetFilesReplacementList().size());
+        assertEquals("13", dvd.getDatasetFilesReplacementList().get(0).getFile1Id());
+        assertEquals("14", dvd.getDatasetFilesReplacementList().get(0).getFile2Id());
+        // the renamed, removed and added files (the replaced one is listed apart):
+        assertEquals(3, dvd.getDatasetFilesDiffList().size());
+    }
+
+    @Test
+    public void testOnlyDifferencesBetweenPublishedVersionsAreCached() {
+        DatasetVersion v1 = version(21L, VersionState.RELEASED);
+        DatasetVersion v2 = version(22L, VersionState.RELEASED);
+        DatasetVersion draft = version(23L, VersionState.DRAFT);
+
+        assertEquals(DatasetVersionDifference.getCacheKey(v2, v1), DatasetVersionDifference.getCacheKey(v2, v1));
+        assertNull(DatasetVersionDifference.getCacheKey(draft, v2));
+
+        // a version updated in place is compared again:
+        String before = DatasetVersionDifference.getCacheKey(v2, v1);
+        v2.setLastUpdateTime(new Date(2000L));
+        assertNotEquals(before, DatasetVersionDifference.getCacheKey(v2, v1));
+    }
+}
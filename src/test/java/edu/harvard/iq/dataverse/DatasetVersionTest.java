@@ -9,6 +9,7 @@ import java.net.URI;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -199,4 +200,28 @@ public class DatasetVersionTest {
         assertEquals("LibraScholar", obj.getJsonObject("includedInDataCatalog").getString("name"));
     }
 
+    @Test
+    public void testContainsDataFile() {
+        DatasetVersion version = new DatasetVersion();
+        DataFile inVersion = new DataFile();
+        inVersion.setId(1L);
+        DataFile notInVersion = new DataFile();
+        notInVersion.setId(2L);
+        FileMetadata fmd = new FileMetadata();
+        fmd.setDataFile(inVersion);
+        version.getFileMetadatas().add(fmd);
+
+        assertTrue(version.containsDataFile(inVersion));
+        assertFalse(version.containsDataFile(notInVersion));
+
+        // the ids are collected again once the file metadatas change:
+        FileMetadata added = new FileMetadata();
+        added.setDataFile(notInVersion);
+        version.getFileMetadatas().add(added);
+        assertTrue(version.containsDataFile(notInVersion));
+
+        version.setFileMetadatas(new ArrayList<>(Arrays.asList(added)));
+        assertFalse(version.containsDataFile(inVersion));
+    }
+
 }
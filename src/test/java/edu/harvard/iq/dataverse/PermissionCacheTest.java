@@ -0,0 +1,118 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import edu.harvard.iq.dataverse.authorization.users.GuestUser;
+import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.testing.JvmSetting;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PermissionCacheTest {
+
+    private PermissionCache cache;
+    private Dataset dataset;
+    private AtomicInteger lookups;
+    private Supplier<Set<Permission>> lookup;
+
+    @BeforeEach
+    public void setUp() {
+        cache = new PermissionCache();
+        cache.init();
+        dataset = new Dataset();
+        dataset.setId(42L);
+        lookups = new AtomicInteger();
+        lookup = () -> {
+            lookups.incrementAndGet();
+            return EnumSet.of(Permission.ViewUnpublishedDataset);
+        };
+    }
+
+    private DataverseRequest newRequest(String ip) {
+        return new DataverseRequest(GuestUser.get(), IpAddress.valueOf(ip));
+    }
+
+    @Test
+    public void testLookupIsSharedByRequests() {
+        DataverseRequest request = newRequest("1.2.3.4");
+        assertEquals(EnumSet.of(Permission.ViewUnpublishedDataset), cache.get(request, dataset, lookup));
+        cache.get(request, dataset, lookup);
+        cache.get(newRequest("1.2.3.4"), dataset, lookup);
+        assertEquals(1, lookups.get());
+
+        // may be in other IP groups:
+        cache.get(newRequest("5.6.7.8"), dataset, lookup);
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void testCachedPermissionsCannotBeModified() {
+        DataverseRequest request = newRequest("1.2.3.4");
+        cache.get(request, dataset, lookup).add(Permission.EditDataset);
+        assertEquals(EnumSet.of(Permission.ViewUnpublishedDataset), cache.get(request, dataset, lookup));
+    }
+
+    @Test
+    public void testLookupAgainAfterChange() {
+        DataverseRequest request = newRequest("1.2.3.4");
+        cache.get(request, dataset, lookup);
+        cache.get(GuestUser.get(), dataset, lookup);
+        cache.permissionsChanged();
+        cache.get(request, dataset, lookup);
+        cache.get(GuestUser.get(), dataset, lookup);
+        assertEquals(4, lookups.get());
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.PERMISSIONS_CACHE_TTL, value = "0")
+    public void testRequestScopeOnly() {
+        cache.init();
+        DataverseRequest request = newRequest("1.2.3.4");
+        cache.get(request, dataset, lookup);
+        cache.get(request, dataset, lookup);
+        assertEquals(1, lookups.get());
+        cache.get(newRequest("1.2.3.4"), dataset, lookup);
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void testUnsavedObjectsAreNotCached() {
+        Dataset unsaved = new Dataset();
+        DataverseRequest request = newRequest("1.2.3.4");
+        cache.get(request, unsaved, lookup);
+        cache.get(request, unsaved, lookup);
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void testGetAllLooksUpOnlyTheMissingObjects() {
+        DataverseRequest request = newRequest("1.2.3.4");
+        cache.get(request, dataset, lookup);
+        Dataset other = new Dataset();
+        other.setId(43L);
+        List<DvObject> looked = new ArrayList<>();
+        Map<DvObject, Set<Permission>> permissions = cache.getAll(request, Arrays.asList(dataset, other), missing -> {
+            looked.addAll(missing);
+            return Collections.singletonMap(other, EnumSet.of(Permission.EditDataset));
+        });
+        assertEquals(Collections.singletonList(other), looked);
+        assertEquals(EnumSet.of(Permission.ViewUnpublishedDataset), permissions.get(dataset));
+        assertEquals(EnumSet.of(Permission.EditDataset), permissions.get(other));
+
+        // now cached for the single lookups too:
+        assertEquals(EnumSet.of(Permission.EditDataset), cache.get(request, other, lookup));
+        assertEquals(1, lookups.get());
+    }
+}
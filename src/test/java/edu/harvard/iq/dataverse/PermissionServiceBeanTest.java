@@ -0,0 +1,167 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.DataverseRole;
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.authorization.RoleAssignee;
+import edu.harvard.iq.dataverse.authorization.groups.Group;
+import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anySet;
+
+/**
+ * Checks that the permissions looked up for many objects at once are the ones
+ * looked up for each of them on its own.
+ */
+public class PermissionServiceBeanTest {
+
+    private AuthenticatedUser user;
+    private Group group;
+    private Dataverse parent;
+    private Dataset directDataset;
+    private Dataset inheritingDataset;
+    private Dataset releasedDataset;
+    private Dataset groupDataset;
+    private Dataverse rootChild;
+    private List<DvObject> children;
+    private final List<RoleAssignment> assignments = new ArrayList<>();
+
+    // Both use the same assignments, but have caches of their own:
+    private PermissionServiceBean bulkService;
+    private PermissionServiceBean singleService;
+
+    @BeforeEach
+    public void setUp() {
+        user = MocksFactory.makeAuthenticatedUser("Jane", "Doe");
+        group = Mockito.mock(Group.class);
+        Mockito.when(group.getIdentifier()).thenReturn("&explicit/editors");
+
+        Dataverse root = MocksFactory.makeDataverse();
+        parent = MocksFactory.makeDataverse();
+        parent.setOwner(root);
+        directDataset = makeDataset();
+        inheritingDataset = makeDataset();
+        releasedDataset = makeDataset();
+        releasedDataset.setPublicationDate(new Timestamp(System.currentTimeMillis()));
+        groupDataset = makeDataset();
+        // does not inherit the roles assigned on its parent:
+        rootChild = MocksFactory.makeDataverse();
+        rootChild.setOwner(parent);
+        rootChild.setPermissionRoot(true);
+        children = Arrays.asList(directDataset, inheritingDataset, releasedDataset, groupDataset, rootChild);
+
+        DataverseRole viewer = makeRole(Permission.ViewUnpublishedDataset, Permission.ViewUnpublishedDataverse);
+        DataverseRole editor = makeRole(Permission.EditDataset);
+        assignments.add(new RoleAssignment(viewer, user, parent, null));
+        assignments.add(new RoleAssignment(editor, user, directDataset, null));
+        assignments.add(new RoleAssignment(editor, group, groupDataset, null));
+
+        bulkService = makeService();
+        singleService = makeService();
+    }
+
+    private Dataset makeDataset() {
+        Dataset dataset = new Dataset();
+        dataset.setId(MocksFactory.nextId());
+        dataset.setOwner(parent);
+        return dataset;
+    }
+
+    private static DataverseRole makeRole(Permission... permissions) {
+        DataverseRole role = new DataverseRole();
+        role.setId(MocksFactory.nextId());
+        role.addPermissions(Arrays.asList(permissions));
+        return role;
+    }
+
+    private PermissionServiceBean makeService() {
+        PermissionServiceBean service = new PermissionServiceBean();
+        service.permissionCache = new PermissionCache();
+        service.permissionCache.init();
+
+        service.dvObjectServiceBean = Mockito.mock(DvObjectServiceBean.class);
+        Mockito.when(service.dvObjectServiceBean.findByOwnerId(parent.getId())).thenReturn(children);
+
+        service.groupService = Mockito.mock(GroupServiceBean.class);
+        Mockito.when(service.groupService.groupsFor(any(DataverseRequest.class), any(DvObject.class)))
+                .thenReturn(Collections.singleton(group));
+
+        service.roleService = Mockito.mock(DataverseRoleServiceBean.class);
+        Mockito.when(service.roleService.directRoleAssignments(anySet(), anyCollection())).thenAnswer(invocation -> {
+            Set<? extends RoleAssignee> ras = invocation.getArgument(0);
+            Collection<DvObject> dvos = invocation.getArgument(1);
+            Set<String> assignees = ras.stream().map(RoleAssignee::getIdentifier).collect(Collectors.toSet());
+            Set<Long> definitionPoints = dvos.stream().map(DvObject::getId).collect(Collectors.toSet());
+            return assignments.stream()
+                    .filter(a -> assignees.contains(a.getAssigneeIdentifier()) && definitionPoints.contains(a.getDefinitionPoint().getId()))
+                    .collect(Collectors.toList());
+        });
+        return service;
+    }
+
+    private DataverseRequest newRequest() {
+        return new DataverseRequest(user, IpAddress.valueOf("1.2.3.4"));
+    }
+
+    @Test
+    public void testBulkPermissionsMatchSingleObjectPermissions() {
+        Map<DvObject, Set<Permission>> bulk = bulkService.permissionsFor(newRequest(), children);
+
+        assertEquals(children.size(), bulk.size());
+        for (DvObject child : children) {
+            assertEquals(singleService.permissionsFor(newRequest(), child), bulk.get(child), "permissions on " + child.getId());
+        }
+        assertEquals(EnumSet.of(Permission.ViewUnpublishedDataset, Permission.ViewUnpublishedDataverse, Permission.EditDataset),
+                bulk.get(directDataset));
+        assertEquals(EnumSet.of(Permission.ViewUnpublishedDataset, Permission.ViewUnpublishedDataverse),
+                bulk.get(inheritingDataset));
+        assertEquals(EnumSet.of(Permission.ViewUnpublishedDataset, Permission.ViewUnpublishedDataverse, Permission.EditDataset),
+                bulk.get(groupDataset));
+        assertEquals(EnumSet.noneOf(Permission.class), bulk.get(rootChild));
+    }
+
+    @Test
+    public void testWhichChildrenHasPermissionsFor() {
+        Set<Permission> view = EnumSet.of(Permission.ViewUnpublishedDataset, Permission.ViewUnpublishedDataverse);
+        Set<Permission> edit = EnumSet.of(Permission.EditDataset);
+
+        for (Set<Permission> required : Arrays.asList(view, edit)) {
+            for (boolean includeReleased : new boolean[]{false, true}) {
+                List<DvObject> expected = children.stream()
+                        .filter(child -> (includeReleased && child.isReleased())
+                                || singleService.hasPermissionsFor(newRequest(), child,
+                                        required.stream().filter(p -> p.appliesTo(child.getClass())).collect(Collectors.toSet())))
+                        .collect(Collectors.toList());
+                assertEquals(expected, bulkService.whichChildrenHasPermissionsFor(newRequest(), parent, required, includeReleased),
+                        required + (includeReleased ? ", including the released ones" : ""));
+            }
+        }
+
+        assertEquals(Arrays.asList(directDataset, inheritingDataset, releasedDataset, groupDataset),
+                bulkService.whichChildrenHasPermissionsFor(newRequest(), parent, view));
+        // (none of the permissions required applies to the dataverse)
+        assertEquals(Arrays.asList(directDataset, groupDataset, rootChild),
+                bulkService.whichChildrenHasPermissionsFor(newRequest(), parent, edit));
+        assertEquals(Arrays.asList(directDataset, releasedDataset, groupDataset, rootChild),
+                bulkService.whichChildrenHasPermissionsForOrReleased(newRequest(), parent, edit));
+    }
+}
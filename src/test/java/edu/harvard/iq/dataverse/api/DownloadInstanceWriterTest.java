@@ -76,29 +76,68 @@ public class DownloadInstanceWriterTest {
         assertNotNull(expectedException);
     }
 
-    // Attempt to get invalid range (multiple ranges).
+    // Get multiple ranges.
     @Test
-    public void testGetRangeInvalidMultipleRanges() {
+    public void testGetRangeMultipleRanges() {
+        List<Range> ranges = diw.getRanges("bytes=0-9, 90-99", 100);
+        assertEquals(2, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(9, ranges.get(0).getEnd());
+        assertEquals(90, ranges.get(1).getStart());
+        assertEquals(99, ranges.get(1).getEnd());
+    }
+
+    // Multiple ranges, one beyond the file size: we give you the ones we can.
+    @Test
+    public void testGetRangeMultipleRangesBeyondFileSize() {
+        List<Range> ranges = diw.getRanges("bytes=0-9,90-99", 40);
+        assertEquals(1, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(9, ranges.get(0).getEnd());
+    }
+
+    // Attempt to get invalid range (all the ranges beyond file size).
+    @Test
+    public void testGetRangeInvalidAllRangesBeyondFileSize() {
         Exception expectedException = null;
         try {
-            List<Range> ranges = diw.getRanges("bytes=0-9,90-99", 100);
+            List<Range> ranges = diw.getRanges("bytes=50-59,90-", 40);
         } catch (Exception ex) {
-            // "Only one range is allowed."
+            // "Start is larger than end or size of file."
             System.out.println("exception: " + ex);
             expectedException = ex;
         }
         assertNotNull(expectedException);
     }
 
-    // Attempt to get invalid range (multiple ranges, beyond file size).
+    // Overlapping and adjacent ranges are merged, and the ranges sorted.
+    @Test
+    public void testGetRangesCoalesced() {
+        List<Range> ranges = diw.getRanges("bytes=50-59,0-9,5-19,20-29", 100);
+        assertEquals(2, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(29, ranges.get(0).getEnd());
+        assertEquals(50, ranges.get(1).getStart());
+        assertEquals(59, ranges.get(1).getEnd());
+    }
+
+    // Ask for the last 200 bytes of a 100 byte file: get the whole file.
     @Test
-    public void testGetRangeInvalidMultipleRangesBeyondFileSize() {
+    public void testGetRangeSuffixLargerThanFile() {
+        List<Range> ranges = diw.getRanges("bytes=-200", 100);
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(99, ranges.get(0).getEnd());
+        assertEquals(100, ranges.get(0).getLength());
+    }
+
+    // Attempt to get invalid range (neither start nor end).
+    @Test
+    public void testGetRangeInvalidNoStartNorEnd() {
         Exception expectedException = null;
         try {
-            List<Range> ranges = diw.getRanges("bytes=0-9,90-99", 40);
+            List<Range> ranges = diw.getRanges("bytes=-", 100);
         } catch (Exception ex) {
-            // "Only one range is allowed."
-            // We report the multiple ranges error before reporting the "beyond filesize" error.
+            // "Either the start or the end of a range must be specified."
             System.out.println("exception: " + ex);
             expectedException = ex;
         }
@@ -119,30 +158,18 @@ public class DownloadInstanceWriterTest {
         assertNotNull(expectedException);
     }
 
-    // Get first 10 bytes and last 10 bytes. Not currently supported.
+    // Get first 10 bytes and last 10 bytes.
     @Test
     public void testGetRanges0to0and90toNull() {
-        Exception expectedException = null;
-        try {
-            List<Range> ranges = diw.getRanges("bytes=0-9,-10", 100);
-            // These asserts on start, end, etc. don't actually
-            // run because we throw an expection that multiple
-            // ranges are not supported.
-            //
-            // first range
-            assertEquals(0, ranges.get(0).getStart());
-            assertEquals(9, ranges.get(0).getEnd());
-            assertEquals(10, ranges.get(0).getLength());
-            // second range
-            assertEquals(90, ranges.get(1).getStart());
-            assertEquals(99, ranges.get(1).getEnd());
-            assertEquals(10, ranges.get(1).getLength());
-        } catch (Exception ex) {
-            // Only one range is allowed.
-            System.out.println("exception: " + ex);
-            expectedException = ex;
-        }
-        assertNotNull(expectedException);
+        List<Range> ranges = diw.getRanges("bytes=0-9,-10", 100);
+        // first range
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(9, ranges.get(0).getEnd());
+        assertEquals(10, ranges.get(0).getLength());
+        // second range
+        assertEquals(90, ranges.get(1).getStart());
+        assertEquals(99, ranges.get(1).getEnd());
+        assertEquals(10, ranges.get(1).getLength());
     }
 
 }
@@ -0,0 +1,58 @@
+package edu.harvard.iq.dataverse.authorization;
+
+import edu.harvard.iq.dataverse.authorization.users.ApiToken;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.testing.JvmSetting;
+import java.sql.Timestamp;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ApiTokenCacheTest {
+
+    private ApiTokenCache cache;
+    private AuthenticatedUser user;
+
+    @BeforeEach
+    public void setUp() {
+        cache = new ApiTokenCache();
+        cache.init();
+        user = new AuthenticatedUser();
+        user.setId(7L);
+    }
+
+    private ApiToken newToken(String tokenString, long expiresInMillis) {
+        ApiToken token = new ApiToken();
+        token.setTokenString(tokenString);
+        token.setAuthenticatedUser(user);
+        token.setExpireTime(new Timestamp(System.currentTimeMillis() + expiresInMillis));
+        return token;
+    }
+
+    @Test
+    public void testCachedUntilInvalidated() {
+        cache.put(newToken("abc", 3600 * 1000));
+        assertEquals(7L, cache.get("abc").getUserId());
+        assertNull(cache.get("def"));
+
+        cache.invalidate("abc");
+        assertNull(cache.get("abc"));
+    }
+
+    @Test
+    public void testNotCachedBeyondTokenExpiration() {
+        cache.put(newToken("abc", -1000));
+        assertNull(cache.get("abc"));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.API_TOKEN_CACHE_TTL, value = "0")
+    public void testDisabled() {
+        cache.init();
+        cache.put(newToken("abc", 3600 * 1000));
+        assertNull(cache.get("abc"));
+    }
+}
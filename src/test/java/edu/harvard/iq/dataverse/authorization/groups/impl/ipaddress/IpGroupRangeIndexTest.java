@@ -0,0 +1,54 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
+
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddressRange;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class IpGroupRangeIndexTest {
+
+    private static IpGroup group(String alias, String... bottomsAndTops) {
+        IpGroup group = new IpGroup();
+        group.setId(MocksFactory.nextId());
+        group.setPersistedGroupAlias(alias);
+        group.setIpv4Ranges(new HashSet<>());
+        group.setIpv6Ranges(new HashSet<>());
+        for (int i = 0; i < bottomsAndTops.length; i += 2) {
+            group.add(IpAddressRange.make(IpAddress.valueOf(bottomsAndTops[i]), IpAddress.valueOf(bottomsAndTops[i + 1])));
+        }
+        return group;
+    }
+
+    @Test
+    public void testFindGroupsContaining() {
+        IpGroup wide = group("wide", "10.0.0.0", "10.255.255.255");
+        IpGroup narrow = group("narrow", "10.1.0.0", "10.1.0.255", "192.168.0.1", "192.168.0.1");
+        IpGroup later = group("later", "10.2.0.0", "10.3.0.0");
+        IpGroup ipv6 = group("ipv6", "2001:db8:0:0:0:0:0:0", "2001:db8:0:0:ffff:ffff:ffff:ffff");
+        IpGroupRangeIndex index = new IpGroupRangeIndex(Arrays.asList(wide, narrow, later, ipv6));
+
+        assertEquals(new HashSet<>(Arrays.asList(wide, narrow)), index.findGroupsContaining(IpAddress.valueOf("10.1.0.7")));
+        // the wide range starts before the later one, and still contains the address:
+        assertEquals(new HashSet<>(Arrays.asList(wide, later)), index.findGroupsContaining(IpAddress.valueOf("10.2.5.5")));
+        assertEquals(Collections.singleton(wide), index.findGroupsContaining(IpAddress.valueOf("10.200.0.0")));
+        assertEquals(Collections.singleton(narrow), index.findGroupsContaining(IpAddress.valueOf("192.168.0.1")));
+        assertEquals(Collections.emptySet(), index.findGroupsContaining(IpAddress.valueOf("192.168.0.2")));
+        assertEquals(Collections.emptySet(), index.findGroupsContaining(IpAddress.valueOf("9.255.255.255")));
+
+        assertEquals(Collections.singleton(ipv6), index.findGroupsContaining(IpAddress.valueOf("2001:db8::ffff:1")));
+        assertEquals(Collections.emptySet(), index.findGroupsContaining(IpAddress.valueOf("2001:db8:0:1::")));
+        assertEquals(Collections.emptySet(), index.findGroupsContaining(IpAddress.valueOf("ffff::1")));
+    }
+
+    @Test
+    public void testNoGroups() {
+        IpGroupRangeIndex index = new IpGroupRangeIndex(Collections.emptyList());
+        assertEquals(Collections.emptySet(), index.findGroupsContaining(IpAddress.valueOf("1.2.3.4")));
+        assertEquals(Collections.emptySet(), index.findGroupsContaining(IpAddress.valueOf("::1")));
+    }
+}
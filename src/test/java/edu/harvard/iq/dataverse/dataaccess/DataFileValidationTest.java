@@ -0,0 +1,87 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DataFileValidationTest {
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static List<DataFile> dataFiles(String driverId, long firstId, int count) {
+        List<DataFile> dataFiles = new ArrayList<>();
+        for (long id = firstId; id < firstId + count; id++) {
+            DataFile dataFile = new DataFile();
+            dataFile.setId(id);
+            dataFile.setStorageIdentifier(driverId + DataAccess.SEPARATOR + "bucket:" + id);
+            dataFiles.add(dataFile);
+        }
+        return dataFiles;
+    }
+
+    @Test
+    public void testReadsAtMostThreadsFilesAtOnceFromEachDriver() throws InterruptedException {
+        List<DataFile> dataFiles = new ArrayList<>(dataFiles("s3", 1, 20));
+        dataFiles.addAll(dataFiles("file", 101, 20));
+        Map<String, Integer> limits = Map.of("s3", 3, "file", 1);
+        Map<String, AtomicInteger> reading = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> mostReading = new ConcurrentHashMap<>();
+
+        DataFileValidation validation = new DataFileValidation(executor, limits::get, dataFile -> {
+            String driverId = DataAccess.getStorageDriverFromIdentifier(dataFile.getStorageIdentifier());
+            int now = reading.computeIfAbsent(driverId, id -> new AtomicInteger()).incrementAndGet();
+            mostReading.computeIfAbsent(driverId, id -> new AtomicInteger()).accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            reading.get(driverId).decrementAndGet();
+        });
+        List<Integer> progress = new ArrayList<>();
+        assertTrue(validation.validate(dataFiles, (results, validated, total) -> progress.add(validated)));
+
+        assertEquals(List.of(40), progress);
+        assertTrue(mostReading.get("s3").get() <= 3);
+        assertEquals(1, mostReading.get("file").get());
+    }
+
+    @Test
+    public void testStopsReadingAfterAFileFails() throws InterruptedException {
+        List<DataFileValidation.Result> results = new ArrayList<>();
+
+        DataFileValidation validation = new DataFileValidation(executor, driverId -> 1, dataFile -> {
+            if (dataFile.getId() == 2L) {
+                throw new IOException("wrong checksum");
+            }
+        });
+        assertFalse(validation.validate(dataFiles("s3", 1, 10), (batch, validated, total) -> results.addAll(batch)));
+
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isValid());
+        assertEquals("wrong checksum", results.get(1).getError());
+    }
+}
@@ -0,0 +1,68 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DataFileZipperTest {
+
+    @Test
+    public void testIsCompressedType() {
+        assertTrue(DataFileZipper.isCompressedType("application/zip"));
+        assertTrue(DataFileZipper.isCompressedType("application/x-gzip"));
+        assertTrue(DataFileZipper.isCompressedType("image/JPEG"));
+        assertTrue(DataFileZipper.isCompressedType("video/mp4"));
+        assertTrue(DataFileZipper.isCompressedType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"));
+
+        assertFalse(DataFileZipper.isCompressedType("text/tab-separated-values"));
+        assertFalse(DataFileZipper.isCompressedType("text/plain; charset=US-ASCII"));
+        assertFalse(DataFileZipper.isCompressedType("application/octet-stream"));
+        assertFalse(DataFileZipper.isCompressedType(null));
+    }
+
+    @Test
+    public void testReadAheadSizedToKnownSize() throws IOException {
+        Semaphore memory = new Semaphore(1024);
+        var opened = DataFileZipper.readAhead(null, new ByteArrayInputStream(new byte[100]), 100, 4 * 1024 * 1024, memory);
+
+        assertEquals(101, opened.buffer.length);
+        assertEquals(100, opened.buffered);
+        assertNull(opened.remainder);
+        assertEquals(1023, memory.availablePermits());
+
+        opened.close(null);
+        assertEquals(1024, memory.availablePermits());
+    }
+
+    @Test
+    public void testReadAheadGrowsForUnknownSize() throws IOException {
+        Semaphore memory = new Semaphore(1024);
+        var opened = DataFileZipper.readAhead(null, new ByteArrayInputStream(new byte[200 * 1024]), 0, 4 * 1024 * 1024, memory);
+
+        assertEquals(200 * 1024, opened.buffered);
+        assertNull(opened.remainder);
+        assertEquals(1024 - opened.buffer.length / 1024, memory.availablePermits());
+    }
+
+    @Test
+    public void testReadAheadStopsWhenMemoryRunsOut() throws IOException {
+        Semaphore memory = new Semaphore(128);
+        var opened = DataFileZipper.readAhead(null, new ByteArrayInputStream(new byte[1024 * 1024]), 0, 4 * 1024 * 1024, memory);
+
+        assertEquals(128 * 1024, opened.buffered);
+        assertNotNull(opened.remainder);
+        assertEquals(0, memory.availablePermits());
+
+        Semaphore none = new Semaphore(0);
+        opened = DataFileZipper.readAhead(null, new ByteArrayInputStream(new byte[100]), 100, 4 * 1024 * 1024, none);
+        assertEquals(0, opened.buffered);
+        assertNotNull(opened.remainder);
+    }
+}
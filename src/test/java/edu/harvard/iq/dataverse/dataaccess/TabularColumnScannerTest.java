@@ -0,0 +1,110 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TabularColumnScannerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private File writeTabFile(String content) throws IOException {
+        Path tabFile = tempDir.resolve("test.tab");
+        Files.writeString(tabFile, content);
+        return tabFile.toFile();
+    }
+
+    private static final String TAB_FILE_CONTENT
+            = "1\t1.5\t\"foo\"\t2.25\n"
+            + "\tinf\t\t-inf\n"
+            + "3\tNaN\t\"a\\tb\"\tx\n";
+
+    private Map<Integer, TabularColumnScanner.ColumnVector> scanAll(TabularColumnScanner scanner) throws IOException {
+        Map<Integer, TabularColumnScanner.ColumnVector> vectors = new HashMap<>();
+        scanner.addColumn(0, TabularColumnScanner.COLUMN_TYPE_LONG);
+        scanner.addColumn(1, TabularColumnScanner.COLUMN_TYPE_DOUBLE);
+        scanner.addColumn(2, TabularColumnScanner.COLUMN_TYPE_STRING);
+        scanner.addColumn(3, TabularColumnScanner.COLUMN_TYPE_FLOAT);
+        scanner.scan((column, vector) -> vectors.put(column, vector));
+        return vectors;
+    }
+
+    @Test
+    public void testSinglePass() throws IOException {
+        TabularColumnScanner scanner = new TabularColumnScanner(writeTabFile(TAB_FILE_CONTENT), 4, 3);
+        Map<Integer, TabularColumnScanner.ColumnVector> vectors = scanAll(scanner);
+
+        assertEquals(1, scanner.getPassCount());
+
+        TabularColumnScanner.ColumnVector longs = vectors.get(0);
+        assertArrayEquals(new Long[]{1L, null, 3L}, longs.toLongArray());
+        assertTrue(longs.isMissing(1));
+
+        TabularColumnScanner.ColumnVector doubles = vectors.get(1);
+        assertEquals(1.5, doubles.getDoubleValues()[0]);
+        assertEquals(Double.POSITIVE_INFINITY, doubles.getDoubleValues()[1]);
+        assertTrue(Double.isNaN(doubles.getDoubleValues()[2]));
+        assertFalse(doubles.isMissing(2));
+
+        TabularColumnScanner.ColumnVector strings = vectors.get(2);
+        assertArrayEquals(new String[]{"foo", null, "a\tb"}, strings.getStringValues());
+
+        TabularColumnScanner.ColumnVector floats = vectors.get(3);
+        assertArrayEquals(new Float[]{2.25f, Float.NEGATIVE_INFINITY, null}, floats.toFloatArray());
+    }
+
+    @Test
+    public void testMultiplePassesWithinMemoryBudget() throws IOException {
+        TabularColumnScanner scanner = new TabularColumnScanner(writeTabFile(TAB_FILE_CONTENT), 4, 3);
+        // small enough to only fit one column at a time:
+        scanner.setMemoryBudget(1);
+        Map<Integer, TabularColumnScanner.ColumnVector> vectors = scanAll(scanner);
+
+        assertEquals(4, scanner.getPassCount());
+        assertArrayEquals(new Long[]{1L, null, 3L}, vectors.get(0).toLongArray());
+        assertArrayEquals(new String[]{"foo", null, "a\tb"}, vectors.get(2).getStringValues());
+    }
+
+    @Test
+    public void testSameResultsAsSubsetGenerator() throws IOException {
+        File tabFile = writeTabFile(TAB_FILE_CONTENT);
+        Map<Integer, TabularColumnScanner.ColumnVector> vectors = scanAll(new TabularColumnScanner(tabFile, 4, 3));
+
+        assertArrayEquals(TabularSubsetGenerator.subsetLongVector(Files.newInputStream(tabFile.toPath()), 0, 3), vectors.get(0).toLongArray());
+        assertArrayEquals(TabularSubsetGenerator.subsetDoubleVector(Files.newInputStream(tabFile.toPath()), 1, 3), vectors.get(1).toDoubleArray());
+        assertArrayEquals(TabularSubsetGenerator.subsetStringVector(Files.newInputStream(tabFile.toPath()), 2, 3), vectors.get(2).getStringValues());
+        assertArrayEquals(TabularSubsetGenerator.subsetFloatVector(Files.newInputStream(tabFile.toPath()), 3, 3), vectors.get(3).toFloatArray());
+    }
+
+    @Test
+    public void testWrongNumberOfRows() throws IOException {
+        File tabFile = writeTabFile(TAB_FILE_CONTENT);
+
+        TabularColumnScanner tooMany = new TabularColumnScanner(tabFile, 4, 4);
+        tooMany.addColumn(0, TabularColumnScanner.COLUMN_TYPE_LONG);
+        assertThrows(IOException.class, () -> tooMany.scan((column, vector) -> { }));
+
+        TabularColumnScanner tooFew = new TabularColumnScanner(tabFile, 4, 2);
+        tooFew.addColumn(0, TabularColumnScanner.COLUMN_TYPE_LONG);
+        assertThrows(IOException.class, () -> tooFew.scan((column, vector) -> { }));
+    }
+
+    @Test
+    public void testInvalidColumn() {
+        TabularColumnScanner scanner = new TabularColumnScanner(new File("/dev/null"), 4, 3);
+        assertThrows(IllegalArgumentException.class, () -> scanner.addColumn(4, TabularColumnScanner.COLUMN_TYPE_LONG));
+        assertTrue(scanner.planColumnGroups().isEmpty());
+    }
+}
@@ -0,0 +1,162 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TabularColumnStoreTest {
+
+    private static final String DRIVER_ID = "columnstoretest";
+
+    // integer, decimal, character, mixed and "lossy" (not fixed-width safe) columns:
+    private static final String TAB_FILE_CONTENT
+            = "1\t1.5\t\"foo\"\t2.25\t007\n"
+            + "\tinf\t\t-inf\t1e3\n"
+            + "-3\tNaN\t\"a\\tb\"\tx\t2\n"
+            + "12345678901\t0.1\t\"\"\t\t\n";
+
+    @TempDir
+    Path tempDir;
+
+    private StorageIO<DataFile> storageIO;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        System.setProperty("dataverse.files." + DRIVER_ID + ".directory", tempDir.toString());
+
+        Dataset dataset = MocksFactory.makeDataset();
+        dataset.setAuthority("tmp");
+        dataset.setIdentifier("dataset");
+        DataFile dataFile = MocksFactory.makeDataFile();
+        dataFile.setOwner(dataset);
+        dataFile.setStorageIdentifier("DataFile");
+
+        Files.createDirectories(tempDir.resolve("tmp").resolve("dataset"));
+        storageIO = new FileAccessIO<>(dataFile, null, DRIVER_ID);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        System.clearProperty("dataverse.files." + DRIVER_ID + ".directory");
+    }
+
+    private File writeTabFile(String content) throws IOException {
+        Path tabFile = tempDir.resolve("test.tab");
+        Files.writeString(tabFile, content);
+        return tabFile.toFile();
+    }
+
+    private void saveColumnStore(File tabFile, int varCount, long caseCount) throws IOException {
+        saveColumnStore(tabFile, varCount, caseCount, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    private void saveColumnStore(File tabFile, int varCount, long caseCount, long memoryBudget) throws IOException {
+        File columnStore = TabularColumnStore.generate(tabFile, varCount, caseCount, memoryBudget);
+        try (InputStream in = new FileInputStream(columnStore)) {
+            storageIO.saveInputStreamAsAux(in, TabularColumnStore.AUX_TAG, columnStore.length());
+        } finally {
+            columnStore.delete();
+        }
+    }
+
+    private String subsetWithGenerator(File tabFile, List<Integer> columns, long caseCount) throws IOException {
+        File outfile = tempDir.resolve("generator.out").toFile();
+        new TabularSubsetGenerator().subsetFile(tabFile.getAbsolutePath(), outfile.getAbsolutePath(), columns, caseCount);
+        return Files.readString(outfile.toPath());
+    }
+
+    private String subsetWithColumnStore(List<Integer> columns, int varCount, long caseCount) throws IOException {
+        File outfile = tempDir.resolve("columnstore.out").toFile();
+        assertTrue(TabularColumnStore.subsetFile(storageIO, columns, varCount, caseCount, outfile));
+        return Files.readString(outfile.toPath());
+    }
+
+    @Test
+    public void testSameSubsetsAsGenerator() throws IOException {
+        File tabFile = writeTabFile(TAB_FILE_CONTENT);
+        saveColumnStore(tabFile, 5, 4);
+
+        for (List<Integer> columns : Arrays.asList(
+                Arrays.asList(0),
+                Arrays.asList(4, 0),
+                Arrays.asList(1, 3),
+                Arrays.asList(2, 2, 0),
+                Arrays.asList(0, 1, 2, 3, 4))) {
+            assertEquals(subsetWithGenerator(tabFile, columns, 4), subsetWithColumnStore(columns, 5, 4), "columns " + columns);
+        }
+    }
+
+    @Test
+    public void testSameSubsetsWhenSpilled() throws IOException {
+        File tabFile = writeTabFile(TAB_FILE_CONTENT);
+        // a budget this small spills the buffered values after every row:
+        saveColumnStore(tabFile, 5, 4, 1);
+
+        for (List<Integer> columns : Arrays.asList(
+                Arrays.asList(4, 0),
+                Arrays.asList(2, 2, 1),
+                Arrays.asList(0, 1, 2, 3, 4))) {
+            assertEquals(subsetWithGenerator(tabFile, columns, 4), subsetWithColumnStore(columns, 5, 4), "columns " + columns);
+        }
+    }
+
+    @Test
+    public void testUnterminatedLastLine() throws IOException {
+        File tabFile = writeTabFile("1\ta\n2\tb");
+        saveColumnStore(tabFile, 2, 2);
+
+        assertEquals("a\t1\nb\t2\n", subsetWithColumnStore(Arrays.asList(1, 0), 2, 2));
+    }
+
+    @Test
+    public void testNoColumnStore() throws IOException {
+        File outfile = tempDir.resolve("columnstore.out").toFile();
+        assertFalse(TabularColumnStore.subsetFile(storageIO, Arrays.asList(0), 5, 4, outfile));
+    }
+
+    @Test
+    public void testMismatchedHeader() throws IOException {
+        saveColumnStore(writeTabFile(TAB_FILE_CONTENT), 5, 4);
+
+        File outfile = tempDir.resolve("columnstore.out").toFile();
+        assertFalse(TabularColumnStore.subsetFile(storageIO, Arrays.asList(0), 5, 3, outfile));
+        assertFalse(TabularColumnStore.subsetFile(storageIO, Arrays.asList(0), 6, 4, outfile));
+    }
+
+    @Test
+    public void testWrongNumberOfRows() throws IOException {
+        File tabFile = writeTabFile(TAB_FILE_CONTENT);
+        assertThrows(IOException.class, () -> TabularColumnStore.generate(tabFile, 5, 5));
+        assertThrows(IOException.class, () -> TabularColumnStore.generate(tabFile, 5, 3));
+    }
+
+    @Test
+    public void testRangedAuxRead() throws IOException {
+        storageIO.saveInputStreamAsAux(new ByteArrayInputStream("0123456789".getBytes()), "ranged");
+
+        try (InputStream in = storageIO.getAuxFileAsInputStream("ranged", 3, 4)) {
+            assertEquals("3456", new String(in.readAllBytes()));
+        }
+        try (InputStream in = storageIO.getAuxFileAsInputStream("ranged", 8, 10)) {
+            assertEquals("89", new String(in.readAllBytes()));
+        }
+    }
+}
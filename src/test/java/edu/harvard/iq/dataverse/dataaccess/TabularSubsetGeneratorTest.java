@@ -0,0 +1,68 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TabularSubsetGeneratorTest {
+
+    private static final String TAB_FILE_CONTENT
+            = "1\t1.5\t0.1\n"
+            + "\tinf\t\n"
+            + "3\tfoo\t-inf\n";
+
+    private static InputStream tabFileStream() {
+        return new ByteArrayInputStream(TAB_FILE_CONTENT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testPrimitiveDoubleVector() throws IOException {
+        BitSet missing = new BitSet();
+        double[] values = TabularSubsetGenerator.subsetDoubleVector(tabFileStream(), 1, 3, null, missing);
+
+        assertEquals(3, values.length);
+        assertEquals(1.5, values[0]);
+        assertEquals(Double.POSITIVE_INFINITY, values[1]);
+        assertTrue(missing.get(2));
+        assertEquals(1, missing.cardinality());
+    }
+
+    @Test
+    public void testPrimitiveFloatVector() throws IOException {
+        BitSet missing = new BitSet();
+        double[] values = TabularSubsetGenerator.subsetFloatVector(tabFileStream(), 2, 3, null, missing);
+
+        assertEquals(0.1f, (float) values[0]);
+        assertEquals((double) 0.1f, values[0]);
+        assertTrue(missing.get(1));
+        assertEquals(Double.NEGATIVE_INFINITY, values[2]);
+    }
+
+    @Test
+    public void testPrimitiveLongVectorReusesBuffer() throws IOException {
+        long[] buffer = new long[10];
+        BitSet missing = new BitSet();
+        // left over from a previous vector; must be cleared:
+        missing.set(0);
+
+        long[] values = TabularSubsetGenerator.subsetLongVector(tabFileStream(), 0, 3, buffer, missing);
+
+        assertSame(buffer, values);
+        assertEquals(1L, values[0]);
+        assertFalse(missing.get(0));
+        assertTrue(missing.get(1));
+        assertEquals(3L, values[2]);
+
+        long[] tooSmall = new long[2];
+        assertNotSame(tooSmall, TabularSubsetGenerator.subsetLongVector(tabFileStream(), 0, 3, tooSmall, missing));
+    }
+}
@@ -8,10 +8,12 @@ import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
 import edu.harvard.iq.dataverse.authorization.groups.impl.explicit.ExplicitGroupServiceBean;
 import edu.harvard.iq.dataverse.confirmemail.ConfirmEmailServiceBean;
 import edu.harvard.iq.dataverse.datacapturemodule.DataCaptureModuleServiceBean;
+import edu.harvard.iq.dataverse.dataaccess.DataFileFixityServiceBean;
 import edu.harvard.iq.dataverse.engine.command.Command;
 import edu.harvard.iq.dataverse.engine.command.CommandContext;
 import edu.harvard.iq.dataverse.ingest.IngestServiceBean;
 import edu.harvard.iq.dataverse.pidproviders.FakePidProviderServiceBean;
+import edu.harvard.iq.dataverse.pidproviders.FilePidRegistrationServiceBean;
 import edu.harvard.iq.dataverse.pidproviders.PermaLinkPidProviderServiceBean;
 import edu.harvard.iq.dataverse.privateurl.PrivateUrlServiceBean;
 import edu.harvard.iq.dataverse.search.IndexBatchServiceBean;
@@ -244,6 +246,16 @@ public class TestCommandContext implements CommandContext {
     public ActionLogServiceBean actionLog() {
         return null;
     }
+    
+    @Override
+    public FilePidRegistrationServiceBean filePidRegistration() {
+        return null;
+    }
+
+    @Override
+    public DataFileFixityServiceBean dataFileFixity() {
+        return null;
+    }
 
     @Override
     public void beginCommandSequence() {
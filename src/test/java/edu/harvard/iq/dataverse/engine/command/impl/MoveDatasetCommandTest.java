@@ -215,6 +215,10 @@ public class MoveDatasetCommandTest {
                             return false;
                         }
                     }
+
+                    @Override
+                    public void permissionsChanged() {
+                    }
                 };
             }
             
@@ -0,0 +1,72 @@
+package edu.harvard.iq.dataverse.harvest.server.xoai;
+
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class DataverseXoaiMetadataCacheTest {
+
+    @Test
+    public void testKeyChangesWithExportTime() {
+        assertNotEquals(DataverseXoaiMetadataCache.key(1L, "oai_dc", new Date(1000)),
+                DataverseXoaiMetadataCache.key(1L, "oai_dc", new Date(2000)));
+        assertNotEquals(DataverseXoaiMetadataCache.key(1L, "oai_dc", new Date(1000)),
+                DataverseXoaiMetadataCache.key(1L, "oai_ddi", new Date(1000)));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        DataverseXoaiMetadataCache cache = new DataverseXoaiMetadataCache(300);
+
+        cache.put("a", new byte[20]);
+        cache.put("b", new byte[30]);
+        cache.put("c", new byte[30]);
+        assertEquals(80, cache.getSize());
+
+        // "a" is now more recently used than "b":
+        assertArrayEquals(new byte[20], cache.get("a"));
+
+        for (int i = 0; i < 9; i++) {
+            cache.put("filler" + i, new byte[30]);
+        }
+        assertNull(cache.get("b"));
+        assertNull(cache.get("c"));
+        assertEquals(20, cache.get("a").length);
+        assertEquals(290, cache.getSize());
+        assertEquals(10, cache.getCount());
+    }
+
+    @Test
+    public void testSkipsOversizedRecords() {
+        DataverseXoaiMetadataCache cache = new DataverseXoaiMetadataCache(300);
+
+        cache.put("a", new byte[31]);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+
+        DataverseXoaiMetadataCache disabled = new DataverseXoaiMetadataCache(0);
+        disabled.put("a", new byte[1]);
+        assertNull(disabled.get("a"));
+    }
+
+    @Test
+    public void testExpiresOnTheNextDay() {
+        AtomicReference<LocalDate> today = new AtomicReference<>(LocalDate.of(2023, 6, 1));
+        DataverseXoaiMetadataCache cache = new DataverseXoaiMetadataCache(300, today::get);
+
+        cache.put("a", new byte[10]);
+        assertEquals(10, cache.get("a").length);
+
+        today.set(LocalDate.of(2023, 6, 2));
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+}
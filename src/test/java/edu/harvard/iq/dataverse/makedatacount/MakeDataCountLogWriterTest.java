@@ -0,0 +1,86 @@
+package edu.harvard.iq.dataverse.makedatacount;
+
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.testing.JvmSetting;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static edu.harvard.iq.dataverse.makedatacount.MakeDataCountUtil.LOG_HEADER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class MakeDataCountLogWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path logFile() {
+        return tempDir.resolve("mdc").resolve(MakeDataCountLogWriter.getLogFileName(new Date()));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.MDC_LOG_BUFFER_SIZE, value = "2")
+    void testEntriesAreWrittenOnFlush() throws Exception {
+        MakeDataCountLogWriter writer = new MakeDataCountLogWriter();
+        writer.init();
+        String logDir = tempDir.resolve("mdc").toString();
+
+        writer.log(logDir, "one\n");
+        writer.log(logDir, "two\n");
+        writer.log(logDir, "three\n");
+        assertFalse(Files.exists(logFile()));
+        assertEquals(2, writer.getPendingCount());
+        assertEquals(1, writer.getDroppedCount());
+
+        writer.flush();
+        writer.log(logDir, "four\n");
+        writer.close();
+
+        assertEquals(LOG_HEADER + "one\ntwo\nfour\n", Files.readString(logFile(), StandardCharsets.UTF_8));
+        assertEquals(3, writer.getWrittenCount());
+        assertEquals(0, writer.getPendingCount());
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.MDC_LOG_BUFFER_SIZE, value = "10")
+    void testEntriesThatFailToBeWrittenAreCountedAsDropped() throws Exception {
+        MakeDataCountLogWriter writer = new MakeDataCountLogWriter();
+        writer.init();
+        // (a file where the log directory should be)
+        Path notADirectory = Files.createFile(tempDir.resolve("mdc"));
+
+        writer.log(notADirectory.toString(), "one\n");
+        writer.log(notADirectory.toString(), "two\n");
+        writer.flush();
+
+        assertEquals(0, writer.getWrittenCount());
+        assertEquals(2, writer.getDroppedCount());
+        assertEquals(0, writer.getPendingCount());
+        assertEquals(2, writer.getHighWaterMark());
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.MDC_LOG_BUFFER_SIZE, value = "0")
+    void testUnbufferedEntriesAreWrittenRightAway() throws Exception {
+        MakeDataCountLogWriter writer = new MakeDataCountLogWriter();
+        writer.init();
+        String logDir = tempDir.resolve("mdc").toString();
+
+        writer.log(logDir, "one\n");
+        assertEquals(LOG_HEADER + "one\n", Files.readString(logFile(), StandardCharsets.UTF_8));
+
+        // the file is kept open as long as the entries go to it, and a new
+        // one gets its own header
+        String otherLogDir = tempDir.resolve("other").toString();
+        writer.log(otherLogDir, "two\n");
+        writer.log(logDir, "three\n");
+        writer.close();
+        assertEquals(LOG_HEADER + "one\nthree\n", Files.readString(logFile(), StandardCharsets.UTF_8));
+        Path otherLogFile = tempDir.resolve("other").resolve(MakeDataCountLogWriter.getLogFileName(new Date()));
+        assertEquals(LOG_HEADER + "two\n", Files.readString(otherLogFile, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,91 @@
+package edu.harvard.iq.dataverse.pidproviders;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.GlobalIdServiceBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FilePidRegistrationTest {
+
+    private ExecutorService executor;
+    private GlobalIdServiceBean idServiceBean;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        idServiceBean = mock(GlobalIdServiceBean.class);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static List<DataFile> dataFiles(int count) {
+        List<DataFile> dataFiles = new ArrayList<>();
+        for (long id = 1; id <= count; id++) {
+            DataFile dataFile = new DataFile();
+            dataFile.setId(id);
+            dataFiles.add(dataFile);
+        }
+        return dataFiles;
+    }
+
+    @Test
+    public void testRegistersAllFiles() throws InterruptedException {
+        when(idServiceBean.publicizeIdentifier(any(DataFile.class))).thenReturn(true);
+        List<DataFile> dataFiles = dataFiles(250);
+        List<DataFile> registered = new ArrayList<>();
+        List<Integer> progress = new ArrayList<>();
+
+        FilePidRegistration registration = new FilePidRegistration(idServiceBean, executor, 4, 0, 0, 0);
+        assertTrue(registration.register(dataFiles, (files, n, total) -> {
+            registered.addAll(files);
+            progress.add(n);
+        }));
+
+        assertEquals(250, registered.size());
+        assertTrue(registered.containsAll(dataFiles));
+        assertEquals(List.of(100, 200, 250), progress);
+    }
+
+    @Test
+    public void testRetriesAFailedRegistration() throws InterruptedException {
+        DataFile flaky = dataFiles(1).get(0);
+        when(idServiceBean.publicizeIdentifier(flaky))
+                .thenReturn(false)
+                .thenThrow(new RuntimeException("Service unavailable"))
+                .thenReturn(true);
+
+        FilePidRegistration registration = new FilePidRegistration(idServiceBean, executor, 2, 0, 2, 0);
+        assertTrue(registration.register(List.of(flaky), (files, n, total) -> { }));
+        verify(idServiceBean, times(3)).publicizeIdentifier(flaky);
+    }
+
+    @Test
+    public void testStopsAfterAFileFailsForGood() throws InterruptedException {
+        when(idServiceBean.publicizeIdentifier(any(DataFile.class))).thenReturn(true);
+        when(idServiceBean.publicizeIdentifier(argThat((DataFile df) -> df != null && df.getId() == 1L))).thenReturn(false);
+        List<DataFile> registered = new ArrayList<>();
+
+        // one at a time, so that the failure of the first file stops the rest:
+        FilePidRegistration registration = new FilePidRegistration(idServiceBean, executor, 1, 0, 1, 0);
+        assertFalse(registration.register(dataFiles(10), (files, n, total) -> registered.addAll(files)));
+        assertTrue(registered.isEmpty());
+    }
+}
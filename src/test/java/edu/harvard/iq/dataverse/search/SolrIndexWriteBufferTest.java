@@ -0,0 +1,195 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.WorkerPools;
+import edu.harvard.iq.dataverse.util.testing.JvmSetting;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.isNull;
+
+public class SolrIndexWriteBufferTest {
+
+    private SolrIndexWriteBuffer buffer;
+    private SolrClient solrClient;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        solrClient = Mockito.mock(SolrClient.class);
+        Mockito.when(solrClient.request(any(SolrRequest.class), isNull())).thenReturn(new NamedList<>());
+
+        buffer = new SolrIndexWriteBuffer();
+        buffer.solrClientService = Mockito.mock(SolrClientService.class);
+        Mockito.when(buffer.solrClientService.getSolrClient()).thenReturn(solrClient);
+        buffer.scheduler = Mockito.mock(ManagedScheduledExecutorService.class);
+        // the callbacks are run right away, on the thread that sends:
+        ExecutorService callbackExecutor = Mockito.mock(ExecutorService.class);
+        Mockito.doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        }).when(callbackExecutor).execute(any(Runnable.class));
+        buffer.workerPools = Mockito.mock(WorkerPools.class);
+        Mockito.when(buffer.workerPools.get(WorkerPools.Pool.SOLR_INDEX_BUFFER)).thenReturn(callbackExecutor);
+    }
+
+    private static SolrInputDocument doc(String id) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SearchFields.ID, id);
+        return doc;
+    }
+
+    private List<UpdateRequest> sentRequests() throws Exception {
+        ArgumentCaptor<SolrRequest> captor = ArgumentCaptor.forClass(SolrRequest.class);
+        Mockito.verify(solrClient, Mockito.atLeast(0)).request(captor.capture(), isNull());
+        return captor.getAllValues().stream().map(r -> (UpdateRequest) r).collect(Collectors.toList());
+    }
+
+    private static List<String> addedIds(UpdateRequest request) {
+        return request.getDocuments().stream().map(d -> (String) d.getFieldValue(SearchFields.ID)).collect(Collectors.toList());
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.SOLR_INDEX_BUFFER_BATCH_SIZE, value = "3")
+    public void testSendsFullBatches() throws Exception {
+        buffer.init();
+
+        buffer.add(Arrays.asList(doc("dataset_1"), doc("datafile_2")));
+        assertEquals(0, sentRequests().size());
+        assertEquals(2, buffer.getPendingCount());
+        Mockito.verify(buffer.scheduler).schedule(any(Runnable.class), anyLong(), any());
+
+        buffer.deleteById(Collections.singletonList("datafile_3"));
+        List<UpdateRequest> requests = sentRequests();
+        assertEquals(1, requests.size());
+        assertEquals(Arrays.asList("dataset_1", "datafile_2"), addedIds(requests.get(0)));
+        assertEquals(Collections.singletonList("datafile_3"), requests.get(0).getDeleteById());
+        assertEquals(1000, requests.get(0).getCommitWithin());
+        assertEquals(0, buffer.getPendingCount());
+        Mockito.verify(solrClient, Mockito.never()).commit();
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.SOLR_INDEX_BUFFER_BATCH_SIZE, value = "10")
+    public void testLatestUpdateWins() throws Exception {
+        buffer.init();
+
+        buffer.add(Arrays.asList(doc("dataset_1"), doc("datafile_2")));
+        buffer.deleteById(Collections.singletonList("dataset_1"));
+        buffer.add(Collections.singletonList(doc("datafile_2")));
+        buffer.flush();
+
+        List<UpdateRequest> requests = sentRequests();
+        assertEquals(1, requests.size());
+        assertEquals(Collections.singletonList("datafile_2"), addedIds(requests.get(0)));
+        assertEquals(Collections.singletonList("dataset_1"), requests.get(0).getDeleteById());
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.SOLR_INDEX_BUFFER_BATCH_SIZE, value = "10")
+    public void testFailedBatchIsRetried() throws Exception {
+        buffer.init();
+        Mockito.when(solrClient.request(any(SolrRequest.class), isNull()))
+                .thenThrow(new IOException("Solr is down"))
+                .thenReturn(new NamedList<>());
+
+        buffer.add(Arrays.asList(doc("dataset_1"), doc("datafile_2")));
+        assertThrows(IOException.class, () -> buffer.flush());
+        assertEquals(2, buffer.getPendingCount());
+
+        buffer.flush();
+        assertEquals(0, buffer.getPendingCount());
+        assertEquals(Arrays.asList("dataset_1", "datafile_2"), addedIds(sentRequests().get(1)));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.SOLR_INDEX_BUFFER_BATCH_SIZE, value = "10")
+    public void testTrackedWritesAreReportedOnceSent() throws Exception {
+        buffer.init();
+        List<Boolean> outcomes = new ArrayList<>();
+
+        buffer.trackWrites(() -> {
+            buffer.add(Collections.singletonList(doc("dataset_1")));
+            buffer.deleteById(Collections.singletonList("datafile_2"));
+        }, outcomes::add);
+        assertEquals(Collections.emptyList(), outcomes);
+
+        buffer.flush();
+        assertEquals(Collections.singletonList(true), outcomes);
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.SOLR_INDEX_BUFFER_BATCH_SIZE, value = "10")
+    public void testTrackedWritesGivenUpOnAreReportedAsFailed() throws Exception {
+        buffer.init();
+        Mockito.when(solrClient.request(any(SolrRequest.class), isNull())).thenThrow(new IOException("Solr is down"));
+        List<Boolean> outcomes = new ArrayList<>();
+
+        buffer.trackWrites(() -> buffer.add(Collections.singletonList(doc("dataset_1"))), outcomes::add);
+        assertThrows(IOException.class, () -> buffer.flush());
+        assertThrows(IOException.class, () -> buffer.flush());
+        assertEquals(Collections.emptyList(), outcomes);
+
+        assertThrows(IOException.class, () -> buffer.flush());
+        assertEquals(Collections.singletonList(false), outcomes);
+        assertEquals(0, buffer.getPendingCount());
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.SOLR_INDEX_BUFFER_BATCH_SIZE, value = "10")
+    public void testFlushAndCommitAwaitsCallbacks() throws Exception {
+        ExecutorService callbackExecutor = Executors.newSingleThreadExecutor();
+        Mockito.when(buffer.workerPools.get(WorkerPools.Pool.SOLR_INDEX_BUFFER)).thenReturn(callbackExecutor);
+        buffer.init();
+        List<Boolean> outcomes = Collections.synchronizedList(new ArrayList<>());
+        try {
+            for (int i = 0; i < 5; i++) {
+                String id = "dataset_" + i;
+                buffer.trackWrites(() -> buffer.add(Collections.singletonList(doc(id))), sent -> {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    outcomes.add(sent);
+                });
+            }
+            buffer.flushAndCommitAwaitingCallbacks();
+            assertEquals(Collections.nCopies(5, true), outcomes);
+            Mockito.verify(solrClient).commit();
+        } finally {
+            callbackExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.SOLR_INDEX_BUFFER_BATCH_SIZE, value = "1")
+    public void testBufferingDisabled() throws SolrServerException, IOException {
+        buffer.init();
+
+        buffer.add(Collections.singletonList(doc("dataset_1")));
+        Mockito.verify(solrClient).add(Mockito.<SolrInputDocument>anyCollection());
+        Mockito.verify(solrClient).commit();
+        assertEquals(0, buffer.getPendingCount());
+    }
+}
@@ -0,0 +1,88 @@
+package edu.harvard.iq.dataverse.settings;
+
+import edu.harvard.iq.dataverse.util.testing.JvmSetting;
+import java.util.Arrays;
+import java.util.Collections;
+import javax.json.JsonObject;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+
+public class SettingsCacheTest {
+
+    private SettingsCache cache;
+    private TypedQuery<Setting> findAll;
+    private Query versionQuery;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        cache = new SettingsCache();
+        cache.em = Mockito.mock(EntityManager.class);
+
+        findAll = Mockito.mock(TypedQuery.class);
+        Mockito.when(cache.em.createNamedQuery("Setting.findAll", Setting.class)).thenReturn(findAll);
+        Mockito.when(findAll.getResultList()).thenReturn(Arrays.asList(
+                new Setting(":SystemEmail", "support@example.edu"),
+                new Setting(":ApplicationTermsOfUse", "en", "Terms"),
+                new Setting(":ApplicationTermsOfUse", "fr", "Conditions")));
+
+        versionQuery = Mockito.mock(Query.class);
+        Mockito.when(cache.em.createNativeQuery(anyString())).thenReturn(versionQuery);
+        Mockito.when(versionQuery.getResultList()).thenReturn(Collections.singletonList(1L));
+    }
+
+    @Test
+    public void testLoadsOnceAndServesLanguageVariants() {
+        cache.init();
+
+        assertEquals("support@example.edu", cache.get(":SystemEmail", null));
+        assertNull(cache.get(":SystemEmail", "en"));
+        assertEquals("Terms", cache.get(":ApplicationTermsOfUse", "en"));
+        assertEquals("Conditions", cache.get(":ApplicationTermsOfUse", "fr"));
+        assertNull(cache.get(":ApplicationTermsOfUse", null));
+        assertNull(cache.get(":NotSet", null));
+
+        Mockito.verify(findAll, Mockito.times(1)).getResultList();
+        JsonObject statistics = cache.getStatistics().build();
+        assertEquals(5, statistics.getInt("hits"));
+        assertEquals(1, statistics.getInt("misses"));
+        assertEquals(3, statistics.getInt("size"));
+    }
+
+    @Test
+    public void testReloadsAfterChange() {
+        cache.init();
+        cache.get(":SystemEmail", null);
+
+        // no transaction here, so only the immediate invalidation (the
+        // version counter is incremented by a trigger on the setting table)
+        cache.settingChanged();
+        Mockito.verify(versionQuery, Mockito.never()).executeUpdate();
+
+        Mockito.when(findAll.getResultList()).thenReturn(Collections.singletonList(new Setting(":SystemEmail", "admin@example.edu")));
+        assertEquals("admin@example.edu", cache.get(":SystemEmail", null));
+        assertEquals(2, cache.getStatistics().build().getInt("misses"));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.SETTINGS_CACHE_CHECK_INTERVAL, value = "0")
+    public void testReloadsAfterChangeOnAnotherNode() {
+        cache.init();
+        assertEquals("support@example.edu", cache.get(":SystemEmail", null));
+        assertEquals("support@example.edu", cache.get(":SystemEmail", null));
+        Mockito.verify(findAll, Mockito.times(1)).getResultList();
+
+        Mockito.when(versionQuery.getResultList()).thenReturn(Collections.singletonList(2L));
+        Mockito.when(findAll.getResultList()).thenReturn(Collections.emptyList());
+        assertNull(cache.get(":SystemEmail", null));
+        Mockito.verify(findAll, Mockito.times(2)).getResultList();
+    }
+}
@@ -0,0 +1,50 @@
+package edu.harvard.iq.dataverse.util;
+
+import java.util.BitSet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SumStatCalculatorTest {
+
+    // ("mean", "medn", "mode", "vald", "invd", "min", "max", "stdev")
+
+    @Test
+    public void testPrimitiveDoublesSameAsBoxed() {
+        Double[] boxed = {1.0, null, 4.0, Double.NaN, 2.5, -3.0};
+
+        double[] values = {1.0, 0.0, 4.0, Double.NaN, 2.5, -3.0};
+        BitSet missing = new BitSet();
+        missing.set(1);
+
+        assertArrayEquals(SumStatCalculator.calculateSummaryStatistics(boxed),
+                SumStatCalculator.calculateSummaryStatistics(values, missing));
+    }
+
+    @Test
+    public void testPrimitiveLongsSameAsBoxed() {
+        Long[] boxed = {7L, null, 3L, 10L};
+
+        long[] values = {7L, 0L, 3L, 10L};
+        BitSet missing = new BitSet();
+        missing.set(1);
+
+        double[] sumStats = SumStatCalculator.calculateSummaryStatistics(values, missing);
+        assertArrayEquals(SumStatCalculator.calculateSummaryStatistics(boxed), sumStats);
+        assertEquals(3.0, sumStats[3]);
+        assertEquals(1.0, sumStats[4]);
+        assertEquals(7.0, sumStats[1]);
+    }
+
+    @Test
+    public void testOversizedBuffer() {
+        // only the first 3 entries are part of the vector:
+        double[] buffer = {1.0, 2.0, 6.0, 1000.0, 1000.0};
+        double[] sumStats = SumStatCalculator.calculateSummaryStatistics(buffer, 3, new BitSet());
+
+        assertEquals(3.0, sumStats[0]);
+        assertEquals(3.0, sumStats[3]);
+        assertEquals(6.0, sumStats[6]);
+    }
+}
@@ -0,0 +1,52 @@
+package edu.harvard.iq.dataverse.util.file;
+
+import edu.harvard.iq.dataverse.DataFile.ChecksumType;
+import edu.harvard.iq.dataverse.datasetutility.FileExceedsMaxSizeException;
+import edu.harvard.iq.dataverse.util.FileUtil;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SavedTempFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final byte[] content = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testSaveCalculatesTheChecksum() throws Exception {
+        Path target = tempDir.resolve("upload");
+        SavedTempFile saved = SavedTempFile.save(new ByteArrayInputStream(content), target, 1000L, ChecksumType.MD5);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(content.length, saved.getSize());
+        assertEquals(ChecksumType.MD5, saved.getChecksumType());
+        assertEquals(FileUtil.calculateChecksum(content, ChecksumType.MD5), saved.getChecksum());
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6", saved.getChecksum());
+    }
+
+    @Test
+    public void testSaveWithoutChecksum() throws Exception {
+        SavedTempFile saved = SavedTempFile.save(new ByteArrayInputStream(content), tempDir.resolve("upload"), null, null);
+        assertEquals(content.length, saved.getSize());
+        assertNull(saved.getChecksum());
+    }
+
+    @Test
+    public void testSaveOverTheSizeLimit() {
+        Path target = tempDir.resolve("upload");
+        assertThrows(FileExceedsMaxSizeException.class,
+                () -> SavedTempFile.save(new ByteArrayInputStream(content), target, 10L, ChecksumType.SHA1));
+        assertFalse(Files.exists(target));
+    }
+}
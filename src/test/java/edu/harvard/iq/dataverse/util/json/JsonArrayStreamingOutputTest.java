@@ -0,0 +1,105 @@
+package edu.harvard.iq.dataverse.util.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class JsonArrayStreamingOutputTest {
+
+    private final List<Integer> items = IntStream.range(0, 25).boxed().collect(Collectors.toList());
+    // The pages read, as {offset, limit}:
+    private final List<List<Integer>> pagesRead = new ArrayList<>();
+
+    private JsonObject write(int pageSize, int offset, Integer limit) throws IOException {
+        JsonArrayStreamingOutput<Integer> output = new JsonArrayStreamingOutput<>((first, max) -> {
+            pagesRead.add(List.of(first, max));
+            return items.subList(Math.min(first, items.size()), Math.min(first + max, items.size()));
+        }, item -> Json.createObjectBuilder().add("id", item), pageSize, offset, limit,
+                Collections.singletonMap("totalCount", items.size()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        output.write(out);
+        return Json.createReader(new StringReader(out.toString(StandardCharsets.UTF_8))).readObject();
+    }
+
+    private static List<Integer> ids(JsonObject response) {
+        return response.getJsonArray("data").stream()
+                .map(JsonValue::asJsonObject)
+                .map(item -> item.getInt("id"))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testListsAllTheItemsAPageAtATime() throws IOException {
+        JsonObject response = write(10, 0, null);
+
+        assertEquals("OK", response.getString("status"));
+        assertEquals(25, response.getInt("totalCount"));
+        assertEquals(items, ids(response));
+        // the last page is partial, so no more pages are read after it:
+        assertEquals(List.of(List.of(0, 10), List.of(10, 10), List.of(20, 10)), pagesRead);
+    }
+
+    @Test
+    public void testStopsAtAPageBoundary() throws IOException {
+        JsonObject response = write(5, 0, null);
+
+        assertEquals(items, ids(response));
+        // (the list ends exactly at a page boundary: one more, empty, page is read)
+        assertEquals(6, pagesRead.size());
+        assertEquals(List.of(25, 5), pagesRead.get(5));
+    }
+
+    @Test
+    public void testOffsetAndLimit() throws IOException {
+        JsonObject response = write(10, 5, 12);
+
+        assertEquals(items.subList(5, 17), ids(response));
+        // no more than the limit is read:
+        assertEquals(List.of(List.of(5, 10), List.of(15, 2)), pagesRead);
+    }
+
+    @Test
+    public void testLimitOnAPageBoundary() throws IOException {
+        JsonObject response = write(10, 0, 20);
+
+        assertEquals(items.subList(0, 20), ids(response));
+        assertEquals(List.of(List.of(0, 10), List.of(10, 10)), pagesRead);
+    }
+
+    @Test
+    public void testLimitPastTheEnd() throws IOException {
+        JsonObject response = write(10, 20, 100);
+
+        assertEquals(items.subList(20, 25), ids(response));
+        assertEquals(List.of(List.of(20, 10)), pagesRead);
+    }
+
+    @Test
+    public void testOffsetPastTheEnd() throws IOException {
+        JsonObject response = write(10, 30, null);
+
+        assertEquals(Collections.emptyList(), ids(response));
+        assertEquals(25, response.getInt("totalCount"));
+    }
+
+    @Test
+    public void testZeroLimit() throws IOException {
+        JsonObject response = write(10, 0, 0);
+
+        assertEquals(Collections.emptyList(), ids(response));
+        assertEquals(25, response.getInt("totalCount"));
+        assertEquals(Collections.emptyList(), pagesRead);
+    }
+}